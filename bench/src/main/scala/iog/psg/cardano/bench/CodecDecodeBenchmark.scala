@@ -0,0 +1,56 @@
+package iog.psg.cardano.bench
+
+import io.circe.{Decoder, jawn}
+import iog.psg.cardano.CardanoApiCodec._
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Decoding arrays of the api models from bytes, each one built from its fixture at several sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+class CodecDecodeBenchmark {
+
+  @Param(Array("10", "1000", "10000"))
+  var size: Int = _
+
+  private var wallets: Array[Byte] = _
+  private var transactions: Array[Byte] = _
+  private var migrations: Array[Byte] = _
+  private var stakePools: Array[Byte] = _
+  private var networkInfos: Array[Byte] = _
+
+  @Setup
+  def setup(): Unit = {
+    def bytes(file: String) = Fixtures.scaledArrayBytes(file, size).toArray
+    wallets = bytes("wallets.json")
+    transactions = bytes("transactions.json")
+    migrations = bytes("migrations.json")
+    stakePools = bytes("stake_pools.json")
+    networkInfos = bytes("netinfo.json")
+  }
+
+  private def decode[T: Decoder](bytes: Array[Byte]): Seq[T] =
+    jawn.decodeByteArray[Seq[T]](bytes).fold(throw _, identity)
+
+  @Benchmark
+  def decodeWallets(): Seq[Wallet] = decode[Wallet](wallets)
+
+  @Benchmark
+  def decodeTransactions(): Seq[CreateTransactionResponse] = decode[CreateTransactionResponse](transactions)
+
+  @Benchmark
+  def decodeMigrations(): Seq[MigrationResponse] = decode[MigrationResponse](migrations)
+
+  @Benchmark
+  def decodeStakePools(): Seq[StakePool] = decode[StakePool](stakePools)
+
+  @Benchmark
+  def decodeNetworkInfos(): Seq[NetworkInfo] = decode[NetworkInfo](networkInfos)
+}
@@ -0,0 +1,47 @@
+package iog.psg.cardano.bench
+
+import io.circe.generic.auto._
+import io.circe.syntax._
+import iog.psg.cardano.CardanoApiCodec.ImplicitCodecs._
+import iog.psg.cardano.CardanoApiCodec._
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Encoding the request bodies of `createTransaction` and `estimateFee` carrying large metadata.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+class CodecEncodeBenchmark {
+
+  @Param(Array("10", "1000", "10000"))
+  var entries: Int = _
+
+  @Param(Array("keys", "map"))
+  var layout: String = _
+
+  private var createTransaction: CreateTransaction = _
+  private var estimateFee: EstimateFee = _
+
+  @Setup
+  def setup(): Unit = {
+    val metadata = Some(TxMetadataMapIn(Fixtures.metadata(entries, layout)))
+    val payments = (0 until 4).map(i =>
+      Payment(s"addr1qx2fxv2umyhttkxyxp8x0dlpdt3k6cwng5pxj3jhsydzer3n0d3vllmyqwsx5wktcd8cc3sq835lu7drv2xwl2wywfgse35a3x$i",
+        QuantityUnit(1000000L * (i + 1), Units.lovelace))
+    )
+    createTransaction = CreateTransaction("Secure Passphrase", payments, metadata, Some("self"))
+    estimateFee = EstimateFee(payments, Some("self"), metadata)
+  }
+
+  @Benchmark
+  def encodeCreateTransaction(): String = createTransaction.asJson.noSpaces
+
+  @Benchmark
+  def encodeEstimateFee(): String = estimateFee.asJson.noSpaces
+}
@@ -0,0 +1,64 @@
+package iog.psg.cardano.bench
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpResponse}
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
+import de.heikoseeberger.akkahttpcirce.FailFastCirceSupport._
+import iog.psg.cardano.CardanoApi.CardanoApiResponse
+import iog.psg.cardano.CardanoApiCodec._
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+/**
+ * Decoding a list of transactions as received from `listTransactions`, chunked the way a
+ * streamed entity arrives, through the current and the legacy `decodeInStream`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+class DecodeInStreamBenchmark {
+
+  @Param(Array("1000", "100000"))
+  var size: Int = _
+
+  private implicit var as: ActorSystem = _
+  private implicit var ec: ExecutionContext = _
+  private implicit val timeout: FiniteDuration = 1.minute
+
+  private var chunks: List[ByteString] = _
+
+  @Setup
+  def setup(): Unit = {
+    as = ActorSystem("DecodeInStreamBenchmark")
+    ec = as.dispatcher
+    chunks = Fixtures.scaledArrayBytes("transactions.json", size).grouped(64 * 1024).toList
+  }
+
+  @TearDown
+  def tearDown(): Unit = Await.result(as.terminate(), 1.minute)
+
+  private def response: HttpResponse =
+    HttpResponse(entity = HttpEntity.Chunked.fromData(ContentTypes.`application/json`, Source(chunks)))
+
+  private def await[T](f: Future[CardanoApiResponse[T]]): T =
+    Await.result(f, timeout).fold(e => throw new IllegalStateException(e.message), identity)
+
+  @Benchmark
+  def decodeFromBytes(): Seq[CreateTransactionResponse] =
+    await(response.toCreateTransactionsResponse)
+
+  @Benchmark
+  def decodeSummaries(): Seq[TransactionSummary] =
+    await(response.toTransactionSummariesResponse)
+
+  @Benchmark
+  def legacyUnmarshalPerElement(): Seq[CreateTransactionResponse] =
+    await(LegacyDecoding.decodeInStream[CreateTransactionResponse](response, "$[*]"))
+}
@@ -0,0 +1,66 @@
+package iog.psg.cardano.bench
+
+import akka.util.ByteString
+import io.circe.{Json, parser}
+import iog.psg.cardano.CardanoApiCodec._
+
+import scala.io.Source
+
+/**
+ * Synthetic inputs built from the test fixtures, which are on the bench classpath.
+ */
+object Fixtures {
+
+  def jsonFile(file: String): Json = {
+    val source = Source.fromURL(getClass.getResource(s"/jsons/$file"))
+    try parser.parse(source.mkString).fold(throw _, identity)
+    finally source.close()
+  }
+
+  /**
+   * An array of `size` elements, cycling through the elements (or the single object) of the fixture
+   * with a unique `id` written into each so no two elements are equal.
+   */
+  def scaledArray(file: String, size: Int): Json = {
+    val json = jsonFile(file)
+    val templates = json.asArray.getOrElse(Vector(json))
+    Json.fromValues(
+      (0 until size).iterator.map { i =>
+        templates(i % templates.size).mapObject { obj =>
+          if (obj.contains("id")) obj.add("id", Json.fromString(f"$i%064x")) else obj
+        }
+      }.toVector
+    )
+  }
+
+  def scaledArrayBytes(file: String, size: Int): ByteString =
+    ByteString(scaledArray(file, size).noSpaces)
+
+  /**
+   * Metadata in one of two shapes seen on chain,
+   * keys - `entries` top level keys cycling through every value type, lists and maps of 8 entries each
+   * map - a single top level key holding a map of `entries` entries, e.g. an NFT collection under 721
+   */
+  def metadata(entries: Int, layout: String): Map[Long, MetadataValue] = layout match {
+    case "keys" =>
+      (0 until entries).iterator.map(i => i.toLong -> metadataValue(i)).toMap
+    case "map" =>
+      Map(721L -> MetadataValueMap(
+        (0 until entries).iterator.map(i => (MetadataValueStr(f"asset$i%08d"): MetadataKey) -> scalarValue(i)).toMap
+      ))
+  }
+
+  private def scalarValue(i: Int): MetadataValue = i % 3 match {
+    case 0 => MetadataValueStr(s"ipfs://QmPS4PBvpGc2z6Dd6JdYqfHrKnURjtRGPTJWdhnAXNA8bQ/$i")
+    case 1 => MetadataValueLong(i.toLong * 1000003)
+    case 2 => MetadataValueByteString(ByteString(f"$i%056x"))
+  }
+
+  private def metadataValue(i: Int): MetadataValue = i % 5 match {
+    case 3 => MetadataValueArray((0 until 8).map(j => scalarValue(i + j)))
+    case 4 => MetadataValueMap(
+      (0 until 8).iterator.map(j => (MetadataValueLong(j.toLong): MetadataKey) -> scalarValue(i + j)).toMap
+    )
+    case _ => scalarValue(i)
+  }
+}
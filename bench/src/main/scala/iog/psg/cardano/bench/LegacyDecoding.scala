@@ -0,0 +1,153 @@
+package iog.psg.cardano.bench
+
+import akka.http.scaladsl.model.HttpResponse
+import akka.util.ByteString
+import io.circe.CursorOp.DownField
+import io.circe._
+import akka.http.scaladsl.unmarshalling.{Unmarshal, Unmarshaller}
+import akka.stream.Materializer
+import akka.stream.alpakka.json.scaladsl.JsonReader
+import akka.stream.scaladsl.Sink
+import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage}
+import iog.psg.cardano.CardanoApiCodec._
+
+import scala.concurrent.{ExecutionContext, Future}
+
+/**
+ * The decoders as they were before being optimised, kept as the baseline for the benchmarks.
+ */
+object LegacyDecoding {
+
+  /**
+   * `ResponseOps.decodeInStream` before decoding straight from bytes, every element goes through
+   * a `String` and an `Unmarshal` future.
+   */
+  def decodeInStream[T](response: HttpResponse, jsonPath: String)(implicit
+    um: Unmarshaller[String, T],
+    mat: Materializer,
+    ec: ExecutionContext
+  ): Future[CardanoApiResponse[Seq[T]]] =
+    response.entity.dataBytes
+      .via(JsonReader.select(jsonPath))
+      .mapAsync(parallelism = 4)(bs => unmarshalOrRecoverToUnparseable[T](bs.utf8String))
+      .runWith(Sink.seq)
+      .map(sequenceCardanoApiResponses)
+
+  private def unmarshalOrRecoverToUnparseable[T](utf8String: String)(implicit
+    um: Unmarshaller[String, T],
+    mat: Materializer,
+    ec: ExecutionContext
+  ): Future[CardanoApiResponse[T]] =
+    Unmarshal(utf8String).to[T].map(Right(_)).recover {
+      case e: Exception => Left(ErrorMessage(e.getMessage, "UNPARSEABLE RESULT"))
+    }
+
+  private def sequenceCardanoApiResponses[T](responses: Seq[CardanoApiResponse[T]]): CardanoApiResponse[Seq[T]] = {
+    val builder = Seq.newBuilder[T]
+    builder.sizeHint(responses)
+    responses.reverseIterator.collectFirst { case Left(error) => error } match {
+      case Some(error) => Left(error)
+      case None =>
+        responses.foreach(_.foreach(builder += _))
+        Right(builder.result())
+    }
+  }
+
+  private val ValueTypeString = "string"
+  private val ValueTypeLong = "int"
+  private val ValueTypeBytes = "bytes"
+  private val ValueTypeList = "list"
+  private val ValueTypeMap = "map"
+
+  private type DecodingEither[T] = Either[DecodingFailure, T]
+  private type KeyVal = Map[Long, MetadataValue]
+
+  /**
+   * `TxMetadataOut.toMetadataMap` before the single pass rewrite.
+   */
+  def toMetadataMap(json: Json): Decoder.Result[Map[Long, MetadataValue]] = {
+    implicit val decodeMap: Decoder[Map[Long, MetadataValue]] = (c: HCursor) => {
+
+      def extractStringField(cursor: ACursor): DecodingEither[MetadataValueStr] =
+        cursor.downField(ValueTypeString).as[String].fold(
+          err => Left(err.copy(message = s"Not a String type")),
+          (value: String) => Right(MetadataValueStr(value))
+        )
+
+      def extractLongField(cursor: ACursor): DecodingEither[MetadataValueLong] =
+        cursor.downField(ValueTypeLong).as[Long].fold(
+          err => Left(err.copy(message = s"Not a Long type")),
+          (value: Long) => Right(MetadataValueLong(value))
+        )
+
+      def extractBytesField(cursor: ACursor): DecodingEither[MetadataValueByteString] =
+        cursor.downField(ValueTypeBytes).as[String].fold(
+          err => Left(err.copy(message = s"Not a Bytes type")),
+          (value: String) => Right(MetadataValueByteString(ByteString(value)))
+        )
+
+      def extractTypedFieldValue(json: Json, key: String): DecodingEither[MetadataValue] = {
+        val cursor = json.hcursor
+        cursor.keys.flatMap(_.headOption) match {
+          case Some(ValueTypeString) => extractStringField(cursor)
+          case Some(ValueTypeLong) => extractLongField(cursor)
+          case Some(ValueTypeBytes) => extractBytesField(cursor)
+          case Some(valueType) => Left(DecodingFailure(s"Invalid type '$valueType'", List(DownField(key))))
+          case None => Left(DecodingFailure("Missing value under key", List(DownField(key))))
+        }
+      }
+
+      def extractListField(cursor: ACursor, key: String): DecodingEither[MetadataValueArray] = {
+        val keyValuesObjects: List[Json] = cursor.downField(ValueTypeList).values.map(_.toList).getOrElse(Nil)
+        val listResults: Seq[DecodingEither[MetadataValue]] = keyValuesObjects.map(objJson => extractTypedFieldValue(objJson, key))
+
+        listMapErrorOrResult(listResults, () => MetadataValueArray(listResults.flatMap(_.toOption)))
+      }
+
+      def extractMapField(cursor: ACursor, key: String): DecodingEither[MetadataValueMap] = {
+        val keyValuesObjects: List[Json] = cursor.downField(ValueTypeMap).values.map(_.toList).getOrElse(Nil)
+
+        def getMapField(keyName: String, json: Json): DecodingEither[MetadataValue] = for {
+          keyJson <- json.\\(keyName).headOption.toRight(DecodingFailure(s"Missing '$keyName' value", List(DownField(key))))
+          value <- extractTypedFieldValue(keyJson, key)
+        } yield value
+
+        val listResults: Seq[DecodingEither[(MetadataKey, MetadataValue)]] = keyValuesObjects.map { json =>
+          (getMapField("k", json), getMapField("v", json)) match {
+            case (Right(keyField), Right(valueField)) => Right(keyField.asInstanceOf[MetadataKey] -> valueField)
+            case (Left(error), _) => Left(error)
+            case (_, Left(error)) => Left(error)
+          }
+        }
+
+        listMapErrorOrResult(listResults, () => MetadataValueMap(listResults.flatMap(_.toOption).toMap))
+      }
+
+      def listMapErrorOrResult[A, B](results: Seq[DecodingEither[A]], onRight: () => B): DecodingEither[B] =
+        results.find(_.isLeft) match {
+          case Some(Left(error)) => Left(error)
+          case _ => Right(onRight())
+        }
+
+      def extractValueForKeyInto(res: Decoder.Result[KeyVal], key: String): Decoder.Result[KeyVal] =
+        res.flatMap((map: KeyVal) => {
+          val keyDownField: ACursor = c.downField(key)
+          keyDownField.keys.flatMap(_.headOption) match {
+            case Some(ValueTypeString) => extractStringField(keyDownField).map(v => map.+(key.toLong -> v))
+            case Some(ValueTypeLong) => extractLongField(keyDownField).map(v => map.+(key.toLong -> v))
+            case Some(ValueTypeBytes) => extractBytesField(keyDownField).map(v => map.+(key.toLong -> v))
+            case Some(ValueTypeList) => extractListField(keyDownField, key).map(v => map.+(key.toLong -> v))
+            case Some(ValueTypeMap) => extractMapField(keyDownField, key).map(v => map.+(key.toLong -> v))
+            case Some(valueType) => Left(DecodingFailure(s"Invalid type '$valueType'", List(DownField(key))))
+            case None => Left(DecodingFailure("Missing value under key", List(DownField(key))))
+          }
+        })
+
+      def emptyMapResult: Decoder.Result[KeyVal] = Right(Map[Long, MetadataValue]().empty)
+
+      c.keys.fold[Decoder.Result[KeyVal]](ifEmpty = emptyMapResult)(_.foldLeft(emptyMapResult)(extractValueForKeyInto))
+    }
+
+    json.as[Map[Long, MetadataValue]](decodeMap)
+  }
+}
@@ -0,0 +1,46 @@
+package iog.psg.cardano.bench
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.Http
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity}
+import akka.http.scaladsl.server.Directives._
+
+import scala.io.Source
+
+/**
+ * Answers `network/information` and `wallets` with the test fixtures, the wallet the startup benchmark
+ * (`bench/startup.sh`) and the AppCDS training run (`sbt appCds`) send their requests to.
+ *
+ * Usage: StubWalletServer [port], the default port is 18090. It runs until it is killed.
+ */
+object StubWalletServer {
+
+  val defaultPort = 18090
+
+  private def fixture(file: String): HttpEntity.Strict = {
+    val source = Source.fromURL(getClass.getResource(s"/jsons/$file"))
+    try HttpEntity(ContentTypes.`application/json`, source.mkString)
+    finally source.close()
+  }
+
+  def main(args: Array[String]): Unit = {
+    val port = args.headOption.map(_.toInt).getOrElse(defaultPort)
+    implicit val system: ActorSystem = ActorSystem("StubWalletServer")
+    import system.dispatcher
+
+    val networkInformation = fixture("netinfo.json")
+    val wallets = fixture("wallets.json")
+
+    val route =
+      pathPrefix("v2") {
+        get {
+          path("network" / "information")(complete(networkInformation)) ~
+            path("wallets")(complete(wallets))
+        }
+      }
+
+    Http().newServerAt("127.0.0.1", port).bind(route).foreach { binding =>
+      println(s"Stub wallet listening on http://127.0.0.1:${binding.localAddress.getPort}/v2/")
+    }
+  }
+}
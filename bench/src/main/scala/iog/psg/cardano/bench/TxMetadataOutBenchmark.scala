@@ -0,0 +1,43 @@
+package iog.psg.cardano.bench
+
+import io.circe.{Decoder, Json}
+import io.circe.syntax._
+import iog.psg.cardano.CardanoApiCodec.ImplicitCodecs._
+import iog.psg.cardano.CardanoApiCodec._
+import iog.psg.cardano.TxMetadataOut
+import org.openjdk.jmh.annotations._
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * Walking the metadata of a transaction into a `Map` with `TxMetadataOut.toMetadataMap`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+class TxMetadataOutBenchmark {
+
+  @Param(Array("10", "1000", "10000"))
+  var entries: Int = _
+
+  @Param(Array("keys", "map"))
+  var layout: String = _
+
+  private var metadataJson: Json = _
+
+  @Setup
+  def setup(): Unit = {
+    val metadataIn: TxMetadataIn = TxMetadataMapIn(Fixtures.metadata(entries, layout))
+    metadataJson = metadataIn.asJson
+  }
+
+  // a new instance every time, the decoded map is cached by the instance
+  @Benchmark
+  def toMetadataMap(): Decoder.Result[Map[Long, MetadataValue]] = TxMetadataOut(metadataJson).toMetadataMap
+
+  @Benchmark
+  def legacyToMetadataMap(): Decoder.Result[Map[Long, MetadataValue]] = LegacyDecoding.toMetadataMap(metadataJson)
+}
@@ -0,0 +1,57 @@
+#!/bin/bash
+#
+# Startup benchmark of the command line tool: runs -netInfo and -wallets against a local stub wallet, with and
+# without the AppCDS archive built by `sbt appCds`, and reports the wall time of each run (JVM start, first
+# request and shutdown).
+#
+# Usage: bench/startup.sh [runs], needs sbt and a JDK 13 or later on the path.
+
+set -euo pipefail
+cd "$(dirname "$0")/.."
+
+RUNS=${1:-10}
+PORT=18090
+BASE_URL="http://127.0.0.1:${PORT}/v2/"
+
+CLASSPATH=$(sbt -batch --error "export bench/Runtime/fullClasspath" | tail -n 1)
+java -cp "${CLASSPATH}" iog.psg.cardano.bench.StubWalletServer ${PORT} > /dev/null &
+STUB_PID=$!
+trap 'kill ${STUB_PID}' EXIT
+
+STUB_UP=false
+for _ in $(seq 1 100); do
+  if (exec 3<>/dev/tcp/127.0.0.1/${PORT}) 2>/dev/null; then STUB_UP=true; break; fi
+  sleep 0.1
+done
+if [ "${STUB_UP}" != true ]; then
+  echo "The stub wallet isn't listening on port ${PORT}" >&2
+  exit 1
+fi
+
+# the training run of the archive talks to the stub, so the response decoders are archived too, it fails if any
+# of its own batch's commands fails, as does every measured run below
+sbt -batch "set appCdsTrainingUrl := \"${BASE_URL}\"" appCds
+JAR=$(ls -t target/scala-2.13/psg-cardano-wallet-api-assembly-*.jar | head -n 1)
+ARCHIVE="${JAR}.jsa"
+
+measure() {
+  local label=$1 command=$2
+  shift 2
+  local total=0 min=0
+  for _ in $(seq 1 "${RUNS}"); do
+    local start end elapsed
+    start=$(date +%s%N)
+    java "$@" -jar "${JAR}" -noConsole -baseUrl "${BASE_URL}" "${command}"
+    end=$(date +%s%N)
+    elapsed=$(( (end - start) / 1000000 ))
+    total=$(( total + elapsed ))
+    if [ ${min} -eq 0 ] || [ ${elapsed} -lt ${min} ]; then min=${elapsed}; fi
+  done
+  printf "%-10s %-12s mean %6d ms   min %6d ms\n" "${command}" "${label}" $(( total / RUNS )) ${min}
+}
+
+echo "${RUNS} runs each of ${JAR}"
+for command in -netInfo -wallets; do
+  measure "default" ${command} -Xshare:auto
+  measure "appcds" ${command} -XX:SharedArchiveFile="${ARCHIVE}"
+done
@@ -6,5 +6,9 @@ VER=0.1.3-SNAPSHOT
 
 #run sbt assembly to create this jar
 NEWEST_JAR_NAME=`ls target/scala-2.13/ -Frt | egrep 'psg-cardano-wallet-api-assembly.+(jar)$' | tail -n 1`
+JAR=target/scala-2.13/${NEWEST_JAR_NAME}
+#run sbt appCds to create the class data archive, it cuts the startup time
+CDS_OPTS=""
+if [ -f "${JAR}.jsa" ]; then CDS_OPTS="-XX:SharedArchiveFile=${JAR}.jsa"; fi
 #-baseUrl ${BASE_URL}
-exec java -jar target/scala-2.13/${NEWEST_JAR_NAME} "$@" -baseUrl ${BASE_URL}
+exec java ${CDS_OPTS} -jar ${JAR} "$@" -baseUrl ${BASE_URL}
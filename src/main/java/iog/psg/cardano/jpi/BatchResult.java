@@ -0,0 +1,59 @@
+package iog.psg.cardano.jpi;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The outcome of one request of a batch, either a value or the api error of that request.
+ *
+ * @param <T> type of the value
+ */
+public final class BatchResult<T> {
+
+    private final String walletId;
+    private final T value;
+    private final CardanoApiException error;
+
+    private BatchResult(String walletId, T value, CardanoApiException error) {
+        this.walletId = walletId;
+        this.value = value;
+        this.error = error;
+        Objects.requireNonNull(walletId, "WalletId cannot be null");
+    }
+
+    public static <T> BatchResult<T> success(String walletId, T value) {
+        return new BatchResult<>(walletId, value, null);
+    }
+
+    public static <T> BatchResult<T> failure(String walletId, CardanoApiException error) {
+        Objects.requireNonNull(error, "Error cannot be null");
+        return new BatchResult<>(walletId, null, error);
+    }
+
+    public String getWalletId() {
+        return walletId;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return the value, empty if the request failed
+     */
+    public Optional<T> getValue() {
+        return Optional.ofNullable(value);
+    }
+
+    /**
+     * @return the api error, empty if the request succeeded
+     */
+    public Optional<CardanoApiException> getError() {
+        return Optional.ofNullable(error);
+    }
+
+    @Override
+    public String toString() {
+        return "BatchResult{walletId=" + walletId + (isSuccess() ? ", value=" + value : ", error=" + error.getMessage()) + "}";
+    }
+}
@@ -1,7 +1,12 @@
 package iog.psg.cardano.jpi;
 
 import iog.psg.cardano.CardanoApiCodec;
+import iog.psg.cardano.SubscriptionSettings;
+import org.reactivestreams.Publisher;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletionStage;
 
@@ -9,7 +14,7 @@ import java.util.concurrent.CompletionStage;
  * Defines the API which wraps the Cardano API, depends on CardanoApiCodec for it's implementation,
  * so clients will import the Codec also.
  */
-public interface CardanoApi {
+public interface CardanoApi extends AutoCloseable {
 
     /**
      * Create and restore a wallet from a mnemonic sentence or account public key.
@@ -113,6 +118,46 @@ public interface CardanoApi {
     CompletionStage<CardanoApiCodec.Wallet> getWallet(
             String fromWalletId) throws CardanoApiException;
 
+    /**
+     * Get the details of many wallets, with at most the default parallelism of requests in flight.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getWallet">#getWallet</a>
+     *
+     * @param walletIds wallets' ids
+     * @return publisher of results in completion order, an api error only fails its own result
+     */
+    Publisher<BatchResult<CardanoApiCodec.Wallet>> getWallets(List<String> walletIds);
+
+    /**
+     * Get the details of many wallets, with at most parallelism requests in flight.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getWallet">#getWallet</a>
+     *
+     * @param walletIds wallets' ids
+     * @param parallelism max number of requests in flight
+     * @return publisher of results in completion order, an api error only fails its own result
+     */
+    Publisher<BatchResult<CardanoApiCodec.Wallet>> getWallets(List<String> walletIds, int parallelism);
+
+    /**
+     * Follows a wallet, publishing it when its tip, balance, state or delegation changes, starting with its
+     * current value. Subscribers share one poll per wallet which backs off while nothing changes.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getWallet">#getWallet</a>
+     *
+     * @param walletId wallet's id
+     * @return publisher of the wallet's changes, fails with CardanoApiException on API error response
+     */
+    Publisher<CardanoApiCodec.Wallet> subscribeWallet(String walletId);
+
+    /**
+     * Follows a wallet, publishing it when its tip, balance, state or delegation changes, starting with its
+     * current value. Subscribers with the same settings share one poll per wallet.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getWallet">#getWallet</a>
+     *
+     * @param walletId wallet's id
+     * @param settings poll intervals and buffer, see {@link SubscriptionSettings#defaults()}
+     * @return publisher of the wallet's changes, fails with CardanoApiException on API error response
+     */
+    Publisher<CardanoApiCodec.Wallet> subscribeWallet(String walletId, SubscriptionSettings settings);
+
     /**
      * Delete wallet by id
      * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/deleteWallet">#deleteWallet</a>
@@ -218,6 +263,18 @@ public interface CardanoApi {
     CompletionStage<List<CardanoApiCodec.WalletAddressId>> listAddresses(
             String walletId) throws CardanoApiException;
 
+    /**
+     * List the known addresses of many wallets, with at most parallelism requests in flight.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#tag/Addresses">#Addresses</a>
+     *
+     * @param walletIds wallets' ids
+     * @param addressFilter addresses state: used, unused, null for both
+     * @param parallelism max number of requests in flight
+     * @return publisher of results in completion order, an api error only fails its own result
+     */
+    Publisher<BatchResult<List<CardanoApiCodec.WalletAddressId>>> listAddressesBatch(
+            List<String> walletIds, AddressFilter addressFilter, int parallelism);
+
     /**
      * Give useful information about the structure of a given address.
      * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#tag/inspectAddress">#inspectAddress</a>
@@ -240,6 +297,54 @@ public interface CardanoApi {
     CompletionStage<List<CardanoApiCodec.CreateTransactionResponse>> listTransactions(
             ListTransactionsParamBuilder builder) throws CardanoApiException;
 
+    /**
+     * Lists the id, amount, depth, direction and status of all incoming and outgoing wallet's transactions,
+     * the rest of each transaction is skipped rather than decoded.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listTransactions">#listTransactions</a>
+     *
+     * @param builder ListTransactionsParamBuilder
+     * @return list of wallet's transaction summaries
+     * @throws CardanoApiException thrown on API error response, contains error message and code from API
+     */
+    CompletionStage<List<CardanoApiCodec.TransactionSummary>> listTransactionSummaries(
+            ListTransactionsParamBuilder builder) throws CardanoApiException;
+
+    /**
+     * Completes once the transaction is in ledger at the given depth, or has expired. Every transaction
+     * awaited is refreshed with one listing per wallet on each new node tip, rather than polled on its own.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listTransactions">#listTransactions</a>
+     *
+     * @param walletId wallet's id
+     * @param transactionId transaction's id
+     * @param depth blocks on top of the transaction's block needed to confirm it
+     * @return the transaction's summary, its status is in_ledger or expired, fails once the api is closed
+     */
+    CompletionStage<CardanoApiCodec.TransactionSummary> awaitConfirmation(
+            String walletId, String transactionId, long depth);
+
+    /**
+     * Streams all incoming and outgoing wallet's transactions, walking the period from the start time
+     * to the end time (or now) in windows of one day, one request per window.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listTransactions">#listTransactions</a>
+     *
+     * @param builder ListTransactionsParamBuilder
+     * @return publisher of wallet's transactions, fails with CardanoApiException on API error response
+     */
+    Publisher<CardanoApiCodec.CreateTransactionResponse> streamTransactions(
+            ListTransactionsParamBuilder builder);
+
+    /**
+     * Streams all incoming and outgoing wallet's transactions, walking the period from the start time
+     * to the end time (or now) in windows of the given length, one request per window.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listTransactions">#listTransactions</a>
+     *
+     * @param builder ListTransactionsParamBuilder
+     * @param window length of the period covered by a single request, whole seconds
+     * @return publisher of wallet's transactions, fails with CardanoApiException on API error response
+     */
+    Publisher<CardanoApiCodec.CreateTransactionResponse> streamTransactions(
+            ListTransactionsParamBuilder builder, Duration window);
+
     /**
      * list of known wallets, ordered from oldest to newest.
      * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listWallets">#listWallets</a>
@@ -285,6 +390,25 @@ public interface CardanoApi {
      */
     CompletionStage<CardanoApiCodec.NetworkInfo> networkInfo() throws CardanoApiException;
 
+    /**
+     * Follows the network, publishing its information when the node tip, network tip or sync progress changes,
+     * starting with the current information.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getNetworkInformation">#getNetworkInformation</a>
+     *
+     * @return publisher of the network information's changes
+     */
+    Publisher<CardanoApiCodec.NetworkInfo> subscribeNetworkTip();
+
+    /**
+     * Follows the network, publishing its information when the node tip, network tip or sync progress changes,
+     * starting with the current information.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getNetworkInformation">#getNetworkInformation</a>
+     *
+     * @param settings poll intervals and buffer, see {@link SubscriptionSettings#defaults()}
+     * @return publisher of the network information's changes
+     */
+    Publisher<CardanoApiCodec.NetworkInfo> subscribeNetworkTip(SubscriptionSettings settings);
+
     /**
      * Gives network clock information
      * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getNetworkClock">#getNetworkClock</a>
@@ -323,6 +447,16 @@ public interface CardanoApi {
      */
     CompletionStage<CardanoApiCodec.UTxOStatistics> getUTxOsStatistics(String walletId) throws CardanoApiException;
 
+    /**
+     * Return the UTxOs distribution of many wallets, with at most parallelism requests in flight.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getUTxOsStatistics">#getUTxOsStatistics</a>
+     *
+     * @param walletIds wallets' ids
+     * @param parallelism max number of requests in flight
+     * @return publisher of results in completion order, an api error only fails its own result
+     */
+    Publisher<BatchResult<CardanoApiCodec.UTxOStatistics>> getUTxOsStatisticsBatch(List<String> walletIds, int parallelism);
+
     /**
      * Submits a transaction that was created and signed outside of cardano-wallet.
      * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction">#postExternalTransaction</a>
@@ -333,6 +467,37 @@ public interface CardanoApi {
      */
     CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(String binary) throws CardanoApiException;
 
+    /**
+     * Submits a signed transaction given as its binary, the array isn't copied and shouldn't be modified until the
+     * request completes.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction">#postExternalTransaction</a>
+     *
+     * @param binary signed transaction
+     * @return post external transaction request
+     * @throws CardanoApiException thrown on API error response, contains error message and code from API
+     */
+    CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(byte[] binary) throws CardanoApiException;
+
+    /**
+     * Submits the remaining bytes of a buffer as a signed transaction, a heap buffer isn't copied.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction">#postExternalTransaction</a>
+     *
+     * @param binary signed transaction, from its position to its limit
+     * @return post external transaction request
+     * @throws CardanoApiException thrown on API error response, contains error message and code from API
+     */
+    CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(ByteBuffer binary) throws CardanoApiException;
+
+    /**
+     * Submits a signed transaction read from a file, the file is streamed into the request.
+     * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction">#postExternalTransaction</a>
+     *
+     * @param signedTransaction file holding the transaction's binary
+     * @return post external transaction request
+     * @throws CardanoApiException thrown on API error response, contains error message and code from API
+     */
+    CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(Path signedTransaction) throws CardanoApiException;
+
     /**
      * Submit one or more transactions which transfers all funds from a Shelley wallet to a set of addresses.
      * Api Url: <a href="https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/migrateShelleyWallet">#migrateShelleyWallet</a>
@@ -413,4 +578,12 @@ public interface CardanoApi {
      * @throws CardanoApiException thrown on API error response, contains error message and code from API
      */
     CompletionStage<Void> postMaintenanceAction() throws CardanoApiException;
+
+    /**
+     * Stops following the node tip for {@link #awaitConfirmation}, transactions still awaited are left incomplete,
+     * and stops the health checks of an api balanced across several instances.
+     * The actor system and executor the api was built with are left to their owner.
+     */
+    @Override
+    void close();
 }
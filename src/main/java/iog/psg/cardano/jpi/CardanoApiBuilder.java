@@ -1,34 +1,77 @@
 package iog.psg.cardano.jpi;
 
 import akka.actor.ActorSystem;
+import iog.psg.cardano.ApiConnectionPoolSettings;
+import iog.psg.cardano.CachingApiRequestExecutor;
+import iog.psg.cardano.CoalescingApiRequestExecutor;
+import iog.psg.cardano.InstrumentedApiRequestExecutor;
+import iog.psg.cardano.LoadBalancerSettings;
+import iog.psg.cardano.LoadBalancingApiRequestExecutor;
+import iog.psg.cardano.MetricsRegistry;
+import iog.psg.cardano.PooledApiRequestExecutor;
+import iog.psg.cardano.ResilienceSettings;
+import iog.psg.cardano.ResilientApiRequestExecutor;
+import iog.psg.cardano.ResponseCacheSettings;
+import iog.psg.cardano.ThrottleSettings;
+import iog.psg.cardano.ThrottlingApiRequestExecutor;
 import scala.concurrent.ExecutionContext;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class CardanoApiBuilder {
 
     private final String url;
+    private final List<String> urls;
     private ExecutorService executorService;
     private ActorSystem actorSystem;
     private ApiRequestExecutor apiRequestExecutor;
+    private ApiConnectionPoolSettings connectionPoolSettings;
+    private ResponseCacheSettings responseCacheSettings;
+    private boolean coalesceRequests;
+    private ThrottleSettings throttleSettings;
+    private ResilienceSettings resilienceSettings;
+    private LoadBalancerSettings loadBalancerSettings;
+    private MetricsRegistry metricsRegistry;
 
     private CardanoApiBuilder() {
         url = null;
+        urls = null;
     }
 
     private CardanoApiBuilder(String url) {
         this.url = url;
+        this.urls = null;
         Objects.requireNonNull(url,
                 "Provide the url to a cardano wallet instance e.g. http://127.0.0.1:8090/v2/");
     }
 
+    private CardanoApiBuilder(List<String> urls) {
+        Objects.requireNonNull(urls,
+                "Provide the urls of cardano wallet instances e.g. http://127.0.0.1:8090/v2/");
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("Provide at least one cardano wallet url");
+        }
+        this.urls = new ArrayList<>(urls);
+        this.url = this.urls.get(0);
+    }
+
     public static CardanoApiBuilder create(String url) {
         return new CardanoApiBuilder(url);
     }
 
+    /**
+     * Balance requests across several cardano wallet instances, see {@link #withLoadBalancing(LoadBalancerSettings)}.
+     *
+     * @param urls the wallet urls e.g. http://127.0.0.1:8090/v2/
+     */
+    public static CardanoApiBuilder create(List<String> urls) {
+        return new CardanoApiBuilder(urls);
+    }
+
     public CardanoApiBuilder withExecutorService(ExecutorService executorService) {
         this.executorService = executorService;
         Objects.requireNonNull(executorService, "ExecutorService is 'null'");
@@ -48,6 +91,86 @@ public class CardanoApiBuilder {
         return this;
     }
 
+    /**
+     * Send requests through a single shared connection pool instead of one request per connection.
+     *
+     * @param settings pool sizing, see {@link ApiConnectionPoolSettings#defaults()}
+     */
+    public CardanoApiBuilder withConnectionPool(ApiConnectionPoolSettings settings) {
+        this.connectionPoolSettings = settings;
+        Objects.requireNonNull(settings, "ApiConnectionPoolSettings is 'null'");
+        return this;
+    }
+
+    /**
+     * Answer repeated reads of network info, network parameters, stake pools, wallets and
+     * transactions in ledger from memory until they expire or the tip moves.
+     *
+     * @param settings limits and ttls, see {@link ResponseCacheSettings#defaults()}
+     */
+    public CardanoApiBuilder withResponseCache(ResponseCacheSettings settings) {
+        this.responseCacheSettings = settings;
+        Objects.requireNonNull(settings, "ResponseCacheSettings is 'null'");
+        return this;
+    }
+
+    /**
+     * Rate limit requests per class of endpoint and adapt the number of requests in flight
+     * to the latency and errors of the wallet backend.
+     *
+     * @param settings rates and concurrency bounds, see {@link ThrottleSettings#defaults()}
+     */
+    public CardanoApiBuilder withThrottling(ThrottleSettings settings) {
+        this.throttleSettings = settings;
+        Objects.requireNonNull(settings, "ThrottleSettings is 'null'");
+        return this;
+    }
+
+    /**
+     * Time out, retry and optionally hedge idempotent requests, and fail fast through a circuit
+     * breaker while the wallet backend is down. Non idempotent requests are never retried.
+     *
+     * @param settings timeouts, retries, hedging and circuit breaker, see {@link ResilienceSettings#defaults()}
+     */
+    public CardanoApiBuilder withResilience(ResilienceSettings settings) {
+        this.resilienceSettings = settings;
+        Objects.requireNonNull(settings, "ResilienceSettings is 'null'");
+        return this;
+    }
+
+    /**
+     * Choose the strategy, ejection and health checks used to balance requests across the
+     * wallet instances given to {@link #create(List)}, {@link LoadBalancerSettings#defaults()} otherwise.
+     *
+     * @param settings see {@link LoadBalancerSettings#defaults()}
+     */
+    public CardanoApiBuilder withLoadBalancing(LoadBalancerSettings settings) {
+        this.loadBalancerSettings = settings;
+        Objects.requireNonNull(settings, "LoadBalancerSettings is 'null'");
+        return this;
+    }
+
+    /**
+     * Measure the latency by phase, bytes, errors and requests in flight of every endpoint.
+     *
+     * @param registry receives the measurements, e.g. an {@link iog.psg.cardano.InMemoryMetricsRegistry}
+     *                 or a bridge to another metrics library
+     */
+    public CardanoApiBuilder withMetrics(MetricsRegistry registry) {
+        this.metricsRegistry = registry;
+        Objects.requireNonNull(registry, "MetricsRegistry is 'null'");
+        return this;
+    }
+
+    /**
+     * Send identical GETs (and fee estimations) made while one is already in flight only once,
+     * every caller gets its own copy of the response.
+     */
+    public CardanoApiBuilder withRequestCoalescing() {
+        this.coalesceRequests = true;
+        return this;
+    }
+
     public CardanoApi build() {
 
         if (actorSystem == null) {
@@ -60,22 +183,55 @@ public class CardanoApiBuilder {
 
         ExecutionContext ec = ExecutionContext.fromExecutorService(executorService);
 
-        HelpExecute helpExecute;
+        iog.psg.cardano.ApiRequestExecutor requestExecutor;
 
-        if (apiRequestExecutor == null) {
-            helpExecute = new HelpExecute(ec, actorSystem);
+        if (apiRequestExecutor != null) {
+            requestExecutor = HelpExecute.toScalaExecutor(apiRequestExecutor);
+        } else if (connectionPoolSettings == null) {
+            requestExecutor = iog.psg.cardano.ApiRequestExecutor$.MODULE$;
         } else {
-            helpExecute = new HelpExecute(ec, actorSystem) {
-                @Override
-                public <T> CompletionStage<T> execute(iog.psg.cardano.CardanoApi.CardanoApiRequest<T> request) throws CardanoApiException {
-                    return apiRequestExecutor.execute(request);
-                }
-            };
+            requestExecutor = PooledApiRequestExecutor.create(connectionPoolSettings, actorSystem);
+        }
+
+        String baseUrl = url;
+        Runnable onClose = () -> { };
+
+        if (urls != null) {
+            LoadBalancingApiRequestExecutor balancer = LoadBalancingApiRequestExecutor.create(
+                    urls,
+                    requestExecutor,
+                    loadBalancerSettings == null ? LoadBalancerSettings.defaults() : loadBalancerSettings,
+                    actorSystem);
+            baseUrl = balancer.baseUri();
+            requestExecutor = balancer;
+            onClose = balancer::shutdown;
+        }
+
+        if (throttleSettings != null) {
+            requestExecutor = ThrottlingApiRequestExecutor.create(requestExecutor, throttleSettings);
         }
 
-        iog.psg.cardano.CardanoApi api = iog.psg.cardano.CardanoApi.apply(url, ec, actorSystem);
+        if (resilienceSettings != null) {
+            requestExecutor = ResilientApiRequestExecutor.create(requestExecutor, resilienceSettings, actorSystem);
+        }
+
+        if (coalesceRequests) {
+            requestExecutor = CoalescingApiRequestExecutor.create(requestExecutor);
+        }
+
+        if (responseCacheSettings != null) {
+            requestExecutor = CachingApiRequestExecutor.create(requestExecutor, responseCacheSettings);
+        }
+
+        if (metricsRegistry != null) {
+            requestExecutor = InstrumentedApiRequestExecutor.create(requestExecutor, metricsRegistry);
+        }
+
+        HelpExecute helpExecute = new HelpExecute(requestExecutor, ec, actorSystem);
+
+        iog.psg.cardano.CardanoApi api = iog.psg.cardano.CardanoApi.apply(baseUrl, requestExecutor, ec, actorSystem);
 
-        return new CardanoApiImpl(api, helpExecute);
+        return new CardanoApiImpl(api, helpExecute, onClose);
     }
 
 }
@@ -1,15 +1,24 @@
 package iog.psg.cardano.jpi;
 
 import iog.psg.cardano.CardanoApiCodec;
+import iog.psg.cardano.SubscriptionSettings;
+import iog.psg.cardano.TxConfirmationSettings;
+import iog.psg.cardano.TxConfirmationTracker;
+import org.reactivestreams.Publisher;
 import scala.Enumeration;
 import scala.Some;
 import scala.collection.immutable.IndexedSeq;
 import scala.collection.immutable.Seq;
 import scala.jdk.javaapi.CollectionConverters;
+import scala.jdk.javaapi.DurationConverters;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 
 
@@ -17,10 +26,14 @@ public class CardanoApiImpl implements CardanoApi {
 
     private final iog.psg.cardano.CardanoApi api;
     private final HelpExecute helpExecute;
+    private final Runnable onClose;
+    private TxConfirmationTracker confirmationTracker;
+    private boolean closed;
 
     private CardanoApiImpl() {
         helpExecute = null;
         api = null;
+        onClose = null;
     }
 
     /**
@@ -30,10 +43,23 @@ public class CardanoApiImpl implements CardanoApi {
      * @param helpExecute og.psg.cardano.jpi.HelpExecute instance
      */
     public CardanoApiImpl(iog.psg.cardano.CardanoApi api, HelpExecute helpExecute) {
+        this(api, helpExecute, () -> { });
+    }
+
+    /**
+     * CardanoApi constructor
+     *
+     * @param api iog.psg.cardano.CardanoApi instance
+     * @param helpExecute og.psg.cardano.jpi.HelpExecute instance
+     * @param onClose stops what was started for the api, e.g. the health checks of a load balancer, run on close
+     */
+    public CardanoApiImpl(iog.psg.cardano.CardanoApi api, HelpExecute helpExecute, Runnable onClose) {
         this.helpExecute = helpExecute;
         this.api = api;
+        this.onClose = onClose;
         Objects.requireNonNull(api, "Api cannot be null");
         Objects.requireNonNull(helpExecute, "HelpExecute cannot be null");
+        Objects.requireNonNull(onClose, "onClose cannot be null");
     }
 
     /**
@@ -127,6 +153,39 @@ public class CardanoApiImpl implements CardanoApi {
                 api.getWallet(fromWalletId));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<BatchResult<CardanoApiCodec.Wallet>> getWallets(List<String> walletIds) {
+        return getWallets(walletIds, iog.psg.cardano.CardanoApi.defaultBatchParallelism());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<BatchResult<CardanoApiCodec.Wallet>> getWallets(List<String> walletIds, int parallelism) {
+        return helpExecute.toBatchPublisher(
+                api.getWallets(CollectionConverters.asScala(walletIds).toSeq(), parallelism), wallet -> wallet);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<CardanoApiCodec.Wallet> subscribeWallet(String walletId) {
+        return subscribeWallet(walletId, SubscriptionSettings.defaults());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<CardanoApiCodec.Wallet> subscribeWallet(String walletId, SubscriptionSettings settings) {
+        return helpExecute.toPublisher(api.subscribeWallet(walletId, settings));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -200,14 +259,8 @@ public class CardanoApiImpl implements CardanoApi {
     public CompletionStage<List<CardanoApiCodec.WalletAddressId>> listAddresses(
             String walletId, AddressFilter addressFilter) throws CardanoApiException {
 
-        Optional<Enumeration.Value> addressFilterOpt = Optional.empty();
-        if (addressFilter != null) {
-            Enumeration.Value v = CardanoApiCodec.AddressFilter$.MODULE$.Value(addressFilter.name().toLowerCase());
-            addressFilterOpt = Optional.of(v);
-        }
-
         return helpExecute.execute(
-                api.listAddresses(walletId, option(addressFilterOpt))).thenApply(CollectionConverters::asJava);
+                api.listAddresses(walletId, option(toAddressFilter(addressFilter)))).thenApply(CollectionConverters::asJava);
     }
 
     /**
@@ -219,6 +272,18 @@ public class CardanoApiImpl implements CardanoApi {
         return listAddresses(walletId, null);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<BatchResult<List<CardanoApiCodec.WalletAddressId>>> listAddressesBatch(
+            List<String> walletIds, AddressFilter addressFilter, int parallelism) {
+        return helpExecute.toBatchPublisher(
+                api.listAddressesBatch(
+                        CollectionConverters.asScala(walletIds).toSeq(), option(toAddressFilter(addressFilter)), parallelism),
+                CollectionConverters::asJava);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -244,6 +309,89 @@ public class CardanoApiImpl implements CardanoApi {
                 .thenApply(CollectionConverters::asJava);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<CardanoApiCodec.TransactionSummary> awaitConfirmation(
+            String walletId, String transactionId, long depth) {
+        TxConfirmationTracker tracker = confirmationTracker();
+        if (tracker == null) {
+            CompletableFuture<CardanoApiCodec.TransactionSummary> closedApi = new CompletableFuture<>();
+            closedApi.completeExceptionally(new IllegalStateException("The api has been closed"));
+            return closedApi;
+        }
+        return tracker.trackTransaction(walletId, transactionId, depth);
+    }
+
+    /**
+     * @return the tracker shared by every awaited transaction, created on first use, null once closed
+     */
+    private synchronized TxConfirmationTracker confirmationTracker() {
+        if (confirmationTracker == null && !closed) {
+            confirmationTracker = helpExecute.toConfirmationTracker(api, TxConfirmationSettings.defaults());
+        }
+        return confirmationTracker;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (confirmationTracker != null) {
+            confirmationTracker.shutdown();
+            confirmationTracker = null;
+        }
+        api.shutdown();
+        onClose.run();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<List<CardanoApiCodec.TransactionSummary>> listTransactionSummaries(
+            ListTransactionsParamBuilder builder) throws CardanoApiException {
+        return helpExecute.execute(
+                api.listTransactionSummaries(
+                        builder.getWalletId(),
+                        option(builder.getStartTime()),
+                        option(builder.getEndTime()),
+                        builder.getOrder(),
+                        option(builder.getMinwithdrawal())))
+                .thenApply(CollectionConverters::asJava);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<CardanoApiCodec.CreateTransactionResponse> streamTransactions(
+            ListTransactionsParamBuilder builder) {
+        return streamTransactions(builder, DurationConverters.toJava(iog.psg.cardano.CardanoApi.defaultTransactionsWindow()));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<CardanoApiCodec.CreateTransactionResponse> streamTransactions(
+            ListTransactionsParamBuilder builder, Duration window) {
+        return helpExecute.toPublisher(
+                api.streamTransactions(
+                        builder.getWalletId(),
+                        option(builder.getStartTime()),
+                        option(builder.getEndTime()),
+                        builder.getOrder(),
+                        option(builder.getMinwithdrawal()),
+                        DurationConverters.toScala(window)));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -284,6 +432,22 @@ public class CardanoApiImpl implements CardanoApi {
         return helpExecute.execute(api.networkInfo());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<CardanoApiCodec.NetworkInfo> subscribeNetworkTip() {
+        return subscribeNetworkTip(SubscriptionSettings.defaults());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<CardanoApiCodec.NetworkInfo> subscribeNetworkTip(SubscriptionSettings settings) {
+        return helpExecute.toPublisher(api.subscribeNetworkTip(settings));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -316,6 +480,15 @@ public class CardanoApiImpl implements CardanoApi {
         return helpExecute.execute(api.getUTxOsStatistics(walletId));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Publisher<BatchResult<CardanoApiCodec.UTxOStatistics>> getUTxOsStatisticsBatch(List<String> walletIds, int parallelism) {
+        return helpExecute.toBatchPublisher(
+                api.getUTxOsStatisticsBatch(CollectionConverters.asScala(walletIds).toSeq(), parallelism), stats -> stats);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -324,6 +497,30 @@ public class CardanoApiImpl implements CardanoApi {
         return helpExecute.execute(api.postExternalTransaction(binary));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(byte[] binary) throws CardanoApiException {
+        return helpExecute.execute(api.postExternalTransaction(binary));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(ByteBuffer binary) throws CardanoApiException {
+        return helpExecute.execute(api.postExternalTransaction(binary));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletionStage<CardanoApiCodec.PostExternalTransactionResponse> postExternalTransaction(Path signedTransaction) throws CardanoApiException {
+        return helpExecute.execute(api.postExternalTransaction(signedTransaction));
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -388,6 +585,13 @@ public class CardanoApiImpl implements CardanoApi {
         return helpExecute.execute(api.postMaintenanceAction()).thenApply(x -> null);
     }
 
+    private static Optional<Enumeration.Value> toAddressFilter(AddressFilter addressFilter) {
+        if (addressFilter == null) {
+            return Optional.empty();
+        }
+        return Optional.of(CardanoApiCodec.AddressFilter$.MODULE$.Value(addressFilter.name().toLowerCase()));
+    }
+
     private static <T> scala.Option<T> option(final T value) {
         return (value != null) ? new Some<T>(value) : scala.Option.apply((T) null);
     }
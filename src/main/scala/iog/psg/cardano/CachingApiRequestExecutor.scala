@@ -0,0 +1,297 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpEntity, HttpHeader, HttpMethods, HttpRequest, HttpResponse, StatusCode}
+import io.circe.{ACursor, Json, jawn}
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.util.concurrent.atomic.AtomicLong
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future}
+
+/**
+ * Limits and time to live of the entries of a [[CachingApiRequestExecutor]], a ttl of zero
+ * turns caching off for that endpoint.
+ *
+ * @param maxEntries max number of responses kept
+ * @param maxBytes max total size of the responses kept
+ * @param networkInfoTtl ttl of `networkInfo`
+ * @param networkParametersTtl ttl of `networkParameters`
+ * @param stakePoolsTtl ttl of `listStakePools`, also dropped when the tip moves
+ * @param walletTtl ttl of `getWallet`, also dropped when the tip moves
+ * @param transactionTtl ttl of `getTransaction` for transactions in ledger, also dropped when the tip moves
+ * @param entityTimeout max time to read a response entity into memory
+ */
+final case class ResponseCacheSettings(
+                                        maxEntries: Int = 10000,
+                                        maxBytes: Long = 64L * 1024 * 1024,
+                                        networkInfoTtl: FiniteDuration = 1.second,
+                                        networkParametersTtl: FiniteDuration = 5.minutes,
+                                        stakePoolsTtl: FiniteDuration = 1.minute,
+                                        walletTtl: FiniteDuration = 10.seconds,
+                                        transactionTtl: FiniteDuration = 10.minutes,
+                                        entityTimeout: FiniteDuration = CardanoApi.defaultMaxWaitTime
+                                      ) {
+  require(maxEntries > 0, s"maxEntries must be > 0 (not $maxEntries)")
+  require(maxBytes > 0, s"maxBytes must be > 0 (not $maxBytes)")
+
+  def withMaxEntries(maxEntries: Int): ResponseCacheSettings = copy(maxEntries = maxEntries)
+
+  def withMaxBytes(maxBytes: Long): ResponseCacheSettings = copy(maxBytes = maxBytes)
+
+  def withNetworkInfoTtl(ttl: FiniteDuration): ResponseCacheSettings = copy(networkInfoTtl = ttl)
+
+  def withNetworkParametersTtl(ttl: FiniteDuration): ResponseCacheSettings = copy(networkParametersTtl = ttl)
+
+  def withStakePoolsTtl(ttl: FiniteDuration): ResponseCacheSettings = copy(stakePoolsTtl = ttl)
+
+  def withWalletTtl(ttl: FiniteDuration): ResponseCacheSettings = copy(walletTtl = ttl)
+
+  def withTransactionTtl(ttl: FiniteDuration): ResponseCacheSettings = copy(transactionTtl = ttl)
+
+  def withEntityTimeout(timeout: FiniteDuration): ResponseCacheSettings = copy(entityTimeout = timeout)
+}
+
+object ResponseCacheSettings {
+
+  val default: ResponseCacheSettings = ResponseCacheSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): ResponseCacheSettings = default
+}
+
+/**
+ * @param hits requests answered from the cache
+ * @param misses cacheable requests sent on to the wallet, including those which joined an identical request in flight
+ * @param coalesced misses which shared an identical request already in flight
+ * @param evictions entries dropped to stay within the size limits
+ * @param invalidations number of times the tip moved and the tip bound entries were dropped
+ * @param entries entries currently held
+ * @param bytes size of the entries currently held
+ */
+final case class ResponseCacheStats(
+                                     hits: Long,
+                                     misses: Long,
+                                     coalesced: Long,
+                                     evictions: Long,
+                                     invalidations: Long,
+                                     entries: Int,
+                                     bytes: Long
+                                   )
+
+/**
+ * A fully read response which can be handed to any number of mappers.
+ */
+private[cardano] final case class StrictResponse(status: StatusCode, headers: Seq[HttpHeader], entity: HttpEntity.Strict) {
+  def toHttpResponse: HttpResponse = HttpResponse(status, headers, entity)
+}
+
+private[cardano] object StrictResponse {
+
+  def fetch(underlying: ApiRequestExecutor, request: HttpRequest, timeout: FiniteDuration)
+           (implicit ec: ExecutionContext, as: ActorSystem): Future[StrictResponse] =
+    underlying.execute(CardanoApiRequest[StrictResponse](
+      request,
+      response => response.entity.toStrict(timeout).map(entity => Right(StrictResponse(response.status, response.headers, entity)))
+    )).flatMap {
+      case Right(strict) => Future.successful(strict)
+      case Left(error) => Future.failed(new IllegalStateException(s"${error.message} (${error.code})"))
+    }
+}
+
+object CachingApiRequestExecutor {
+
+  def apply(underlying: ApiRequestExecutor = ApiRequestExecutor,
+            settings: ResponseCacheSettings = ResponseCacheSettings.default): CachingApiRequestExecutor =
+    new CachingApiRequestExecutor(underlying, settings)
+
+  def create(underlying: ApiRequestExecutor, settings: ResponseCacheSettings): CachingApiRequestExecutor =
+    new CachingApiRequestExecutor(underlying, settings)
+
+  private final case class Policy(ttl: FiniteDuration, tipBound: Boolean, tipField: Option[String], onlyInLedger: Boolean)
+
+  private final case class Entry(response: StrictResponse, expiresAt: Long, generation: Long, size: Long)
+
+  private val NotTipBound = -1L
+}
+
+/**
+ * Answers the read only endpoints which only change when the chain moves from memory:
+ * `networkInfo`, `networkParameters`, `listStakePools`, `getWallet` and `getTransaction` once the
+ * transaction is in ledger. Every other request goes straight to the underlying executor.
+ *
+ * Entries expire after their endpoint's ttl. Stake pools, wallets and transactions are also
+ * dropped whenever a newer tip is seen in a `networkInfo` (node tip) or `getWallet` response.
+ * A request which changes a wallet (e.g. `updateName` or `deleteWallet`) drops that wallet's entries
+ * before it is sent and again once it completes.
+ * Identical requests made while one is in flight share its response. Entries are evicted least
+ * recently used first to stay within the entry and byte limits.
+ *
+ * @param underlying executes the requests which can't be answered from the cache
+ * @param settings limits and ttls
+ */
+class CachingApiRequestExecutor(val underlying: ApiRequestExecutor, val settings: ResponseCacheSettings)
+  extends ApiRequestExecutor {
+
+  import CachingApiRequestExecutor._
+
+  private val entries = new java.util.LinkedHashMap[String, Entry](16, 0.75f, true)
+  private var totalBytes = 0L
+  private var tip: (Long, Long) = (Long.MinValue, Long.MinValue)
+  private var generation = 0L
+
+  private val hits = new AtomicLong(0)
+  private val misses = new AtomicLong(0)
+  private val evictions = new AtomicLong(0)
+  private val invalidations = new AtomicLong(0)
+
+  private val singleFlight = new SingleFlight[String, StrictResponse]
+
+  def stats: ResponseCacheStats = entries.synchronized {
+    ResponseCacheStats(
+      hits.get(), misses.get(), singleFlight.joined, evictions.get(), invalidations.get(), entries.size(), totalBytes
+    )
+  }
+
+  /**
+   * Drops every entry, the counters are kept.
+   */
+  def clear(): Unit = entries.synchronized {
+    entries.clear()
+    totalBytes = 0
+  }
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+    policyFor(request.request) match {
+      case None if request.request.method != HttpMethods.GET =>
+        walletPathOf(request.request).fold(underlying.execute(request)) { walletPath =>
+          evictWallet(walletPath)
+          underlying.execute(request).andThen { case _ => evictWallet(walletPath) }
+        }
+      case None => underlying.execute(request)
+      case Some(policy) =>
+        val key = request.request.uri.toString()
+        lookup(key) match {
+          case Some(response) =>
+            hits.incrementAndGet()
+            request.mapper(response.toHttpResponse)
+          case None =>
+            misses.incrementAndGet()
+            singleFlight(key)(fetch(key, request.request, policy)).flatMap(response => request.mapper(response.toHttpResponse))
+        }
+    }
+
+  private def policyFor(request: HttpRequest): Option[Policy] =
+    if (request.method != HttpMethods.GET) None
+    else {
+      val segments = request.uri.path.toString.split('/').filter(_.nonEmpty).toList.reverse
+      val policy = segments match {
+        case "parameters" :: "network" :: _ => Some(Policy(settings.networkParametersTtl, tipBound = false, None, onlyInLedger = false))
+        case "information" :: "network" :: _ => Some(Policy(settings.networkInfoTtl, tipBound = false, Some("node_tip"), onlyInLedger = false))
+        case "stake-pools" :: _ => Some(Policy(settings.stakePoolsTtl, tipBound = true, None, onlyInLedger = false))
+        case _ :: "wallets" :: _ => Some(Policy(settings.walletTtl, tipBound = true, Some("tip"), onlyInLedger = false))
+        case _ :: "transactions" :: _ :: "wallets" :: _ => Some(Policy(settings.transactionTtl, tipBound = true, None, onlyInLedger = true))
+        case _ => None
+      }
+      policy.filter(_.ttl.length > 0)
+    }
+
+  /**
+   * @return the uri of the wallet the request is for, up to and including its id
+   */
+  private def walletPathOf(request: HttpRequest): Option[String] = {
+    val segments = request.uri.toString().takeWhile(_ != '?').split('/')
+    val walletsAt = segments.indexWhere(segment => segment == "wallets" || segment == "byron-wallets")
+    if (walletsAt < 0 || walletsAt + 1 >= segments.length || segments(walletsAt + 1).isEmpty) None
+    else Some(segments.take(walletsAt + 2).mkString("/"))
+  }
+
+  /**
+   * Drops the entries of the wallet and of anything under it, e.g. its transactions.
+   */
+  private def evictWallet(walletPath: String): Unit = entries.synchronized {
+    val all = entries.entrySet().iterator()
+    while (all.hasNext) {
+      val entry = all.next()
+      val key = entry.getKey
+      if (key.startsWith(walletPath) && (key.length == walletPath.length || "/?".indexOf(key.charAt(walletPath.length)) >= 0)) {
+        totalBytes -= entry.getValue.size
+        all.remove()
+      }
+    }
+  }
+
+  private def lookup(key: String): Option[StrictResponse] = entries.synchronized {
+    Option(entries.get(key)).flatMap { entry =>
+      val stale = entry.expiresAt - System.nanoTime() <= 0 ||
+        (entry.generation != NotTipBound && entry.generation != generation)
+      if (stale) {
+        remove(key)
+        None
+      } else Some(entry.response)
+    }
+  }
+
+  private def fetch(key: String, request: HttpRequest, policy: Policy)
+                   (implicit ec: ExecutionContext, as: ActorSystem): Future[StrictResponse] = {
+    val generationAtStart = entries.synchronized(generation)
+    StrictResponse.fetch(underlying, request, settings.entityTimeout).map { response =>
+      if (response.status.isSuccess()) {
+        lazy val json = jawn.parseByteBuffer(response.entity.data.asByteBuffer).toOption
+        val advancedTo = policy.tipField.flatMap(field => json.flatMap(tipOf(_, field))).flatMap(observeTip)
+        val cacheable = !policy.onlyInLedger || json.flatMap(_.hcursor.get[String]("status").toOption).contains("in_ledger")
+        if (cacheable) {
+          val entryGeneration = if (policy.tipBound) advancedTo.getOrElse(generationAtStart) else NotTipBound
+          store(key, response, policy.ttl, entryGeneration)
+        }
+      }
+      response
+    }
+  }
+
+  private def tipOf(json: Json, field: String): Option[(Long, Long)] = {
+    val cursor: ACursor = json.hcursor.downField(field)
+    for {
+      epoch <- cursor.get[Long]("epoch_number").toOption
+      slot <- cursor.get[Long]("slot_number").toOption
+    } yield epoch -> slot
+  }
+
+  /**
+   * @return the new generation if the tip is newer than any seen so far
+   */
+  private def observeTip(observed: (Long, Long)): Option[Long] = entries.synchronized {
+    if (Ordering[(Long, Long)].gt(observed, tip)) {
+      val first = tip._1 == Long.MinValue
+      tip = observed
+      if (!first) {
+        generation += 1
+        invalidations.incrementAndGet()
+      }
+      Some(generation)
+    } else None
+  }
+
+  private def store(key: String, response: StrictResponse, ttl: FiniteDuration, entryGeneration: Long): Unit = entries.synchronized {
+    val size = response.entity.data.length.toLong + key.length
+    if (size <= settings.maxBytes) {
+      remove(key)
+      entries.put(key, Entry(response, System.nanoTime() + ttl.toNanos, entryGeneration, size))
+      totalBytes += size
+      val eldest = entries.entrySet().iterator()
+      while (entries.size() > settings.maxEntries || totalBytes > settings.maxBytes) {
+        val evicted = eldest.next().getValue
+        eldest.remove()
+        totalBytes -= evicted.size
+        evictions.incrementAndGet()
+      }
+    }
+  }
+
+  private def remove(key: String): Unit = {
+    val removed = entries.remove(key)
+    if (removed != null) totalBytes -= removed.size
+  }
+}
@@ -1,10 +1,16 @@
 package iog.psg.cardano
 
+import akka.NotUsed
 import akka.actor.ActorSystem
 import akka.http.scaladsl.model._
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
 import iog.psg.cardano.CardanoApi.Order.Order
 
+import java.nio.ByteBuffer
+import java.nio.file.Path
 import java.time.ZonedDateTime
+import java.time.temporal.ChronoUnit
 import scala.concurrent.duration.{Duration, DurationInt, FiniteDuration}
 import scala.concurrent.{Await, ExecutionContext, Future}
 
@@ -15,13 +21,43 @@ import scala.concurrent.{Await, ExecutionContext, Future}
 object CardanoApi {
 
   def apply(baseUriWithPort: String)(implicit ec: ExecutionContext, as: ActorSystem): CardanoApi =
-    new CardanoApiImpl(baseUriWithPort)
+    new CardanoApiImpl(baseUriWithPort, ApiRequestExecutor)
+
+  /**
+   * @param baseUriWithPort the cardano wallet url e.g. http://127.0.0.1:8090/v2/
+   * @param executor the executor the api is bound to, e.g. a [[PooledApiRequestExecutor]]
+   */
+  def apply(baseUriWithPort: String, executor: ApiRequestExecutor)(implicit ec: ExecutionContext, as: ActorSystem): CardanoApi =
+    new CardanoApiImpl(baseUriWithPort, executor)
+
+  /**
+   * @param baseUrisWithPort the urls of several cardano wallet instances, requests are balanced across them
+   * @param settings see [[LoadBalancerSettings]]
+   * @param executor sends the requests once their instance is chosen
+   */
+  def apply(baseUrisWithPort: Seq[String],
+            settings: LoadBalancerSettings,
+            executor: ApiRequestExecutor = ApiRequestExecutor)(implicit ec: ExecutionContext, as: ActorSystem): CardanoApi = {
+    val balancer = LoadBalancingApiRequestExecutor(baseUrisWithPort, executor, settings)
+    new CardanoApiImpl(balancer.baseUri, balancer, () => balancer.shutdown())
+  }
 
   implicit val defaultMaxWaitTime: FiniteDuration = 15.seconds
 
+  val defaultTransactionsWindow: FiniteDuration = 1.day
+
+  val defaultBatchParallelism: Int = 8
+
   type CardanoApiResponse[T] = Either[ErrorMessage, T]
 
   final case class ErrorMessage(message: String, code: String)
+
+  /**
+   * Fails the streams (and futures) which can't return the `ErrorMessage` as a `Left`, the JPI turns it
+   * into a [[iog.psg.cardano.jpi.CardanoApiException]].
+   */
+  final case class ErrorMessageException(error: ErrorMessage)
+    extends RuntimeException(s"Message: ${error.message}, Code: ${error.code}")
   final case class CardanoApiRequest[T](request: HttpRequest,
                                         mapper: HttpResponse => Future[CardanoApiResponse[T]]
   )
@@ -32,6 +68,45 @@ object CardanoApi {
     val descendingOrder = Value("descending")
   }
 
+  /**
+   * Splits the period between start and end into consecutive, non overlapping windows of whole seconds,
+   * bounds are inclusive as they are for the `start` and `end` query parameters.
+   * Transactions are timestamped to the second so the start is rounded up and the end rounded down.
+   *
+   * @return the (start, end) of every window, walked from the start in ascending order or from the end otherwise
+   */
+  private[cardano] def transactionsWindows(start: ZonedDateTime,
+                                           end: ZonedDateTime,
+                                           window: FiniteDuration,
+                                           order: Order
+  ): LazyList[(ZonedDateTime, ZonedDateTime)] = {
+    require(window >= 1.second && window.toNanos % 1.second.toNanos == 0,
+      s"window must be a positive number of whole seconds (not $window)")
+
+    val windowSeconds = window.toSeconds
+    val truncatedStart = start.truncatedTo(ChronoUnit.SECONDS)
+    val from = if (truncatedStart == start) start else truncatedStart.plusSeconds(1)
+    val to = end.truncatedTo(ChronoUnit.SECONDS)
+
+    if (order == Order.ascendingOrder) {
+      LazyList
+        .iterate(from)(_.plusSeconds(windowSeconds))
+        .takeWhile(!_.isAfter(to))
+        .map { windowStart =>
+          val windowEnd = windowStart.plusSeconds(windowSeconds - 1)
+          windowStart -> (if (windowEnd.isAfter(to)) to else windowEnd)
+        }
+    } else {
+      LazyList
+        .iterate(to)(_.minusSeconds(windowSeconds))
+        .takeWhile(!_.isBefore(from))
+        .map { windowEnd =>
+          val windowStart = windowEnd.minusSeconds(windowSeconds - 1)
+          (if (windowStart.isBefore(from)) from else windowStart) -> windowEnd
+        }
+    }
+  }
+
   object CardanoApiOps {
 
     implicit class FlattenOp[T](val knot: Future[CardanoApiResponse[Future[CardanoApiResponse[T]]]])
@@ -84,6 +159,18 @@ trait CardanoApi {
   import AddressFilter.AddressFilter
   import iog.psg.cardano.CardanoApi._
 
+  /**
+   * The executor this api was created with, import it to execute requests through it
+   * e.g. `import api.requestExecutor`
+   */
+  implicit def requestExecutor: ApiRequestExecutor
+
+  /**
+   * Stops the work this api runs in the background, e.g. the health checks of an api balanced across
+   * several instances. The actor system and executor are left to their owner.
+   */
+  def shutdown(): Unit
+
   /**
    * List of known wallets, ordered from oldest to newest.
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listWallets #listWallets]]
@@ -101,6 +188,20 @@ trait CardanoApi {
    */
   def getWallet(walletId: String): CardanoApiRequest[Wallet]
 
+  /**
+   * Get the details of many wallets, with at most `parallelism` requests in flight.
+   * Results are emitted as they complete, each paired with its wallet's id, a failed request only
+   * fails its own result.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getWallet #getWallet]]
+   *
+   * @param walletIds wallets' ids
+   * @param parallelism max number of requests in flight
+   * @return source of wallet id and get wallet response pairs
+   */
+  def getWallets(walletIds: Seq[String],
+                 parallelism: Int = defaultBatchParallelism
+  ): Source[(String, CardanoApiResponse[Wallet]), NotUsed]
+
   /**
    * Update wallet's name
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/putWallet #putWallet]]
@@ -111,6 +212,19 @@ trait CardanoApi {
    */
   def updateName(walletId: String, name: String): Future[CardanoApiRequest[Wallet]]
 
+  /**
+   * Follows a wallet, emitting it when its tip, balance, state or delegation changes, starting with its current value.
+   * Every subscriber with the same settings shares one poll of the wallet, which backs off to the max interval
+   * while the wallet is synced and nothing changes. Failed polls are retried, api errors (e.g. the wallet was
+   * deleted) fail the stream with an [[ErrorMessageException]].
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getWallet #getWallet]]
+   *
+   * @param walletId wallet's id
+   * @param settings poll intervals and buffer
+   * @return source of the wallet's changes, polling stops when the last subscriber cancels
+   */
+  def subscribeWallet(walletId: String, settings: SubscriptionSettings = SubscriptionSettings.default): Source[Wallet, NotUsed]
+
   /**
    * Gives network information
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getNetworkInformation #getNetworkInformation]]
@@ -119,6 +233,16 @@ trait CardanoApi {
    */
   def networkInfo: CardanoApiRequest[NetworkInfo]
 
+  /**
+   * Follows the network, emitting its information when the node tip, network tip or sync progress changes,
+   * starting with the current information. Polls are shared and back off as for [[subscribeWallet]].
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getNetworkInformation #getNetworkInformation]]
+   *
+   * @param settings poll intervals and buffer
+   * @return source of the network information's changes, polling stops when the last subscriber cancels
+   */
+  def subscribeNetworkTip(settings: SubscriptionSettings = SubscriptionSettings.default): Source[NetworkInfo, NotUsed]
+
   /**
    * Gives network clock information
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getNetworkClock #getNetworkClock]]
@@ -178,6 +302,22 @@ trait CardanoApi {
    */
   def listAddresses(walletId: String, state: Option[AddressFilter]): CardanoApiRequest[Seq[WalletAddressId]]
 
+  /**
+   * List the known addresses of many wallets, with at most `parallelism` requests in flight.
+   * Results are emitted as they complete, each paired with its wallet's id, a failed request only
+   * fails its own result.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#tag/Addresses #Addresses]]
+   *
+   * @param walletIds wallets' ids
+   * @param state addresses state: used, unused
+   * @param parallelism max number of requests in flight
+   * @return source of wallet id and list wallet addresses response pairs
+   */
+  def listAddressesBatch(walletIds: Seq[String],
+                         state: Option[AddressFilter],
+                         parallelism: Int = defaultBatchParallelism
+  ): Source[(String, CardanoApiResponse[Seq[WalletAddressId]]), NotUsed]
+
   /**
    * Give useful information about the structure of a given address.
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/inspectAddress #inspectAddress]]
@@ -210,6 +350,49 @@ trait CardanoApi {
                        minWithdrawal: Option[Int] = None
   ): CardanoApiRequest[Seq[CreateTransactionResponse]]
 
+  /**
+   * Lists the id, amount, depth, direction and status of all incoming and outgoing wallet's transactions.
+   * Takes the same parameters as [[listTransactions]], the rest of each transaction is skipped rather than decoded.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listTransactions #listTransactions]]
+   *
+   * @param walletId wallet's id
+   * @param start    An optional start time in ISO 8601 date-and-time format.
+   * @param end      An optional end time in ISO 8601 date-and-time format.
+   * @param order    Default: "descending" ( "ascending", "descending" )
+   * @param minWithdrawal Returns only transactions that have at least one withdrawal above the given amount.
+   * @return list wallet's transaction summaries request
+   */
+  def listTransactionSummaries(walletId: String,
+                               start: Option[ZonedDateTime] = None,
+                               end: Option[ZonedDateTime] = None,
+                               order: Order = Order.descendingOrder,
+                               minWithdrawal: Option[Int] = None
+  ): CardanoApiRequest[Seq[TransactionSummary]]
+
+  /**
+   * Streams all incoming and outgoing wallet's transactions, elements are emitted as they are read from the response
+   * so the full history is never held in memory.
+   * When a start time is given the period up to the end time (or now) is walked in consecutive windows,
+   * one request per window, in the given order. Without a start time a single request is made.
+   * Api errors fail the stream with an [[ErrorMessageException]]. Nothing is requested before the stream is run.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/listTransactions #listTransactions]]
+   *
+   * @param walletId wallet's id
+   * @param start    An optional start time, the first window begins at this time
+   * @param end      An optional end time, defaults to now when a start time is given
+   * @param order    Default: "descending" ( "ascending", "descending" ), also the order the windows are walked in
+   * @param minWithdrawal Returns only transactions that have at least one withdrawal above the given amount.
+   * @param window   length of the time window covered by a single request, whole seconds
+   * @return source of wallet's transactions
+   */
+  def streamTransactions(walletId: String,
+                         start: Option[ZonedDateTime] = None,
+                         end: Option[ZonedDateTime] = None,
+                         order: Order = Order.descendingOrder,
+                         minWithdrawal: Option[Int] = None,
+                         window: FiniteDuration = defaultTransactionsWindow
+  ): Source[CreateTransactionResponse, NotUsed]
+
   /**
    * Create and send transaction from the wallet.
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postTransaction #postTransaction]]
@@ -312,6 +495,20 @@ trait CardanoApi {
    */
   def getUTxOsStatistics(walletId: String): CardanoApiRequest[UTxOStatistics]
 
+  /**
+   * Return the UTxOs distribution of many wallets, with at most `parallelism` requests in flight.
+   * Results are emitted as they complete, each paired with its wallet's id, a failed request only
+   * fails its own result.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/getUTxOsStatistics #getUTxOsStatistics]]
+   *
+   * @param walletIds wallets' ids
+   * @param parallelism max number of requests in flight
+   * @return source of wallet id and get UTxOs statistics response pairs
+   */
+  def getUTxOsStatisticsBatch(walletIds: Seq[String],
+                              parallelism: Int = defaultBatchParallelism
+  ): Source[(String, CardanoApiResponse[UTxOStatistics]), NotUsed]
+
   /**
    * Submits a transaction that was created and signed outside of cardano-wallet.
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction #postExternalTransaction]]
@@ -321,6 +518,56 @@ trait CardanoApi {
    */
   def postExternalTransaction(binary: String): CardanoApiRequest[PostExternalTransactionResponse]
 
+  /**
+   * Submits a signed transaction given as its binary, the bytes are sent as they are without going through a `String`.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction #postExternalTransaction]]
+   *
+   * @param binary signed transaction
+   * @return post external transaction request
+   */
+  def postExternalTransaction(binary: ByteString): CardanoApiRequest[PostExternalTransactionResponse]
+
+  /**
+   * Submits the remaining bytes of a buffer as a signed transaction. The bytes of a heap buffer aren't copied,
+   * neither the buffer nor its array should be modified until the request has been executed.
+   *
+   * @param binary signed transaction, from its position to its limit
+   * @return post external transaction request
+   */
+  def postExternalTransaction(binary: ByteBuffer): CardanoApiRequest[PostExternalTransactionResponse]
+
+  /**
+   * Submits a signed transaction, the array isn't copied and shouldn't be modified until the request has been executed.
+   *
+   * @param binary signed transaction
+   * @return post external transaction request
+   */
+  def postExternalTransaction(binary: Array[Byte]): CardanoApiRequest[PostExternalTransactionResponse]
+
+  /**
+   * Submits a signed transaction read from a file, the file is streamed into the request when it is executed.
+   * A file which can't be read fails the execution rather than the creation of the request.
+   *
+   * @param signedTransaction file holding the transaction's binary
+   * @return post external transaction request
+   */
+  def postExternalTransaction(signedTransaction: Path): CardanoApiRequest[PostExternalTransactionResponse]
+
+  /**
+   * Submits signed transactions as they arrive, with at most `parallelism` submissions in flight. Requests are
+   * pipelined over the executor's connections (see [[PooledApiRequestExecutor]]) and results are emitted in the order
+   * the transactions were submitted. A request which fails rather than returning an api error becomes a
+   * `REQUEST FAILED` error.
+   * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/postExternalTransaction #postExternalTransaction]]
+   *
+   * @param transactions signed transactions' binaries
+   * @param parallelism max number of submissions in flight
+   * @return source of post external transaction responses
+   */
+  def submitExternalTransactions(transactions: Source[ByteString, _],
+                                 parallelism: Int = defaultBatchParallelism
+  ): Source[CardanoApiResponse[PostExternalTransactionResponse], NotUsed]
+
   /**
    * Submit one or more transactions which transfers all funds from a Shelley wallet to a set of addresses
    * Api Url: [[https://input-output-hk.github.io/cardano-wallet/api/edge/#operation/migrateShelleyWallet #migrateShelleyWallet]]
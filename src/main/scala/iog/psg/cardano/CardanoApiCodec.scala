@@ -9,7 +9,8 @@ import akka.http.scaladsl.unmarshalling.Unmarshaller.eitherUnmarshaller
 import akka.http.scaladsl.unmarshalling.{Unmarshal, Unmarshaller}
 import akka.stream.Materializer
 import akka.stream.alpakka.json.scaladsl.JsonReader
-import akka.stream.scaladsl.Sink
+import akka.NotUsed
+import akka.stream.scaladsl.{Sink, Source}
 import akka.util.ByteString
 import de.heikoseeberger.akkahttpcirce.FailFastCirceSupport._
 import io.circe._
@@ -17,7 +18,7 @@ import io.circe.generic.auto._
 import io.circe.generic.extras.{ConfiguredJsonCodec, _}
 import io.circe.generic.extras.semiauto.deriveConfiguredEncoder
 import io.circe.syntax.EncoderOps
-import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage}
+import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage, ErrorMessageException}
 import iog.psg.cardano.CardanoApiCodec.AddressFilter.AddressFilter
 import iog.psg.cardano.CardanoApiCodec.DelegationStatus.DelegationStatus
 import iog.psg.cardano.CardanoApiCodec.SyncState.SyncState
@@ -27,6 +28,7 @@ import iog.psg.cardano.CardanoApiCodec.Units.Units
 import org.apache.commons.codec.binary.Hex
 
 import scala.annotation.tailrec
+import scala.collection.mutable
 import scala.concurrent.duration.FiniteDuration
 import scala.concurrent.{ExecutionContext, Future}
 import scala.util.{Failure, Success, Try}
@@ -424,6 +426,18 @@ object CardanoApiCodec {
                                         metadata: Option[TxMetadataOut]
                                       )
 
+  /**
+   * The fields of a [[CreateTransactionResponse]] needed to reconcile a transaction,
+   * decoded without the inputs, outputs, withdrawals, blocks and metadata.
+   */
+  final case class TransactionSummary(
+                                       id: String,
+                                       amount: QuantityUnit[Long],
+                                       depth: Option[QuantityUnit[Long]],
+                                       direction: TxDirection,
+                                       status: TxState
+                                     )
+
   @ConfiguredJsonCodec(decodeOnly = true)
   final case class MigrationResponse(
                                         id: String,
@@ -550,10 +564,10 @@ object CardanoApiCodec {
     = to[Wallet](Unmarshal(_).to[CardanoApiResponse[Wallet]])
 
     def toWallets: Future[CardanoApiResponse[Seq[Wallet]]]
-    = to[Seq[Wallet]](Unmarshal(_).to[CardanoApiResponse[Seq[Wallet]]])
+    = decodeInStream[Wallet](response, "$[*]")
 
     def toWalletAddressIds: Future[CardanoApiResponse[Seq[WalletAddressId]]]
-    = to[Seq[WalletAddressId]](Unmarshal(_).to[CardanoApiResponse[Seq[WalletAddressId]]])
+    = decodeInStream[WalletAddressId](response, "$[*]")
 
     def toWalletAddress: Future[CardanoApiResponse[WalletAddress]]
     = to[WalletAddress](Unmarshal(_).to[CardanoApiResponse[WalletAddress]])
@@ -564,6 +578,12 @@ object CardanoApiCodec {
     def toCreateTransactionsResponse: Future[CardanoApiResponse[Seq[CreateTransactionResponse]]]
     = decodeInStream[CreateTransactionResponse](response, "$[*]")
 
+    def toTransactionSummariesResponse: Future[CardanoApiResponse[Seq[TransactionSummary]]]
+    = decodeInStreamWith[TransactionSummary](response, "$[*]")(TransactionSummaryDecoder.decode)
+
+    def toCreateTransactionsStream: Future[CardanoApiResponse[Source[CreateTransactionResponse, NotUsed]]]
+    = decodeAsStream[CreateTransactionResponse](response, "$[*]")
+
     private def decodeResponseEntityOrHandleError[T](response: HttpResponse, decodeF: () => Future[CardanoApiResponse[T]]) = {
       response.entity.contentType match {
         case WithFixedCharset(MediaTypes.`application/json`) =>
@@ -580,23 +600,62 @@ object CardanoApiCodec {
       }
     }
 
-    final def decodeInStream[T](response: HttpResponse, jsonPath: String)(implicit um: Unmarshaller[String, T]): Future[CardanoApiResponse[Seq[T]]] =
+    /**
+     * Elements are decoded straight from the selected bytes as they are read, the first element which
+     * can't be decoded ends the stream with an `UNPARSEABLE RESULT` error.
+     */
+    final def decodeInStream[T](response: HttpResponse, jsonPath: String)(implicit dec: Decoder[T]): Future[CardanoApiResponse[Seq[T]]] =
+      decodeInStreamWith(response, jsonPath)(bs => jawn.decodeByteBuffer[T](bs.asByteBuffer))
+
+    private def decodeInStreamWith[T](response: HttpResponse, jsonPath: String)(decode: ByteString => Either[io.circe.Error, T]): Future[CardanoApiResponse[Seq[T]]] =
       decodeResponseEntityOrHandleError(response, () =>
-        response.entity.dataBytes
-          .via(JsonReader.select(jsonPath))
-          .mapAsync(parallelism = 4)(bs => unmarshalOrRecoverToUnparseable[T](bs.utf8String))
-          .runWith(Sink.seq).map(sequenceCardanoApiResponses)
+        if (!response.status.isSuccess()) extractErrorResponse[Seq[T]](strictEntityF)
+        else
+          response.entity.dataBytes
+            .via(JsonReader.select(jsonPath))
+            .map(bs => decode(bs).fold(errorUnparseableResult[T], Right(_)))
+            .takeWhile(_.isRight, inclusive = true)
+            .runWith(Sink.fold[CardanoApiResponse[mutable.Builder[T, Seq[T]]], CardanoApiResponse[T]](Right(Seq.newBuilder[T])) {
+              (acc, elem) => for { builder <- acc; value <- elem } yield builder += value
+            })
+            .map(_.map(_.result()))
       )
 
-    private def unmarshalOrRecoverToUnparseable[T](utf8String: String)(implicit um: Unmarshaller[String, T]): Future[CardanoApiResponse[T]] =
-      Unmarshal(utf8String).to[T].map(Right(_)).recover {
-        case e: Exception => errorUnparseableResult(e)
-      }
+    /**
+     * Unlike [[decodeInStream]] nothing is accumulated, elements are decoded as they are selected from the entity.
+     * An element which can't be decoded fails the stream with an [[iog.psg.cardano.CardanoApi.ErrorMessageException]].
+     */
+    final def decodeAsStream[T](response: HttpResponse, jsonPath: String)(implicit dec: Decoder[T]): Future[CardanoApiResponse[Source[T, NotUsed]]] =
+      decodeResponseEntityOrHandleError(response, () =>
+        if (!response.status.isSuccess()) extractErrorResponse[Source[T, NotUsed]](strictEntityF)
+        else Future.successful(Right(
+          response.entity.dataBytes
+            .via(JsonReader.select(jsonPath))
+            .map(bs => decodeOrRecoverToUnparseable[T](bs) match {
+              case Left(error) => throw ErrorMessageException(error)
+              case Right(value) => value
+            })
+            .mapMaterializedValue(_ => NotUsed)
+        ))
+      )
 
-    private def sequenceCardanoApiResponses[T](responses: Seq[CardanoApiResponse[T]]): CardanoApiResponse[Seq[T]] =
-      responses.foldLeft[CardanoApiResponse[Seq[T]]](Right(Seq.empty)) {
-        case (_, Left(error)) => Left(error)
-        case (acc, Right(elem)) => acc.map(_ :+ elem)
+    /**
+     * Every element selected from the entity as its raw json, left to the caller to decode or keep as it is.
+     */
+    final def toJsonElementsStream(jsonPath: String): Future[CardanoApiResponse[Source[ByteString, NotUsed]]] =
+      decodeResponseEntityOrHandleError(response, () =>
+        if (!response.status.isSuccess()) extractErrorResponse[Source[ByteString, NotUsed]](strictEntityF)
+        else Future.successful(Right(
+          response.entity.dataBytes
+            .via(JsonReader.select(jsonPath))
+            .mapMaterializedValue(_ => NotUsed)
+        ))
+      )
+
+    private def decodeOrRecoverToUnparseable[T](bytes: ByteString)(implicit dec: Decoder[T]): CardanoApiResponse[T] =
+      jawn.decodeByteBuffer[T](bytes.asByteBuffer) match {
+        case Left(err) => errorUnparseableResult(err)
+        case Right(value) => Right(value)
       }
 
     def toCreateTransactionResponse: Future[CardanoApiResponse[CreateTransactionResponse]]
@@ -615,13 +674,13 @@ object CardanoApiCodec {
       to[MigrationResponse](Unmarshal(_).to[CardanoApiResponse[MigrationResponse]])
 
     def toSubmitMigrationsResponse: Future[CardanoApiResponse[Seq[MigrationResponse]]] =
-      to[Seq[MigrationResponse]](Unmarshal(_).to[CardanoApiResponse[Seq[MigrationResponse]]])
+      decodeInStream[MigrationResponse](response, "$[*]")
 
     def toMigrationCostResponse: Future[CardanoApiResponse[MigrationCostResponse]] =
       to[MigrationCostResponse](Unmarshal(_).to[CardanoApiResponse[MigrationCostResponse]])
 
     def toStakePoolsResponse: Future[CardanoApiResponse[Seq[StakePool]]] =
-      to[Seq[StakePool]](Unmarshal(_).to[CardanoApiResponse[Seq[StakePool]]])
+      decodeInStream[StakePool](response, "$[*]")
 
     def toStakePoolMaintenanceActionsStatusResponse: Future[CardanoApiResponse[StakePoolMaintenanceActionsStatus]] =
       to[StakePoolMaintenanceActionsStatus](Unmarshal(_).to[CardanoApiResponse[StakePoolMaintenanceActionsStatus]])
@@ -1,5 +1,6 @@
 package iog.psg.cardano
 
+import akka.NotUsed
 import akka.actor.ActorSystem
 import akka.http.scaladsl.marshalling.{Marshal, Marshaller}
 import akka.http.scaladsl.model.HttpMethods._
@@ -7,14 +8,25 @@ import akka.http.scaladsl.model.Uri.Query
 import akka.http.scaladsl.model._
 import de.heikoseeberger.akkahttpcirce.FailFastCirceSupport._
 import io.circe.generic.auto._
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
 import io.circe.generic.extras.Configuration
 import iog.psg.cardano.CardanoApi.Order.Order
 
+import java.nio.ByteBuffer
+import java.nio.file.Path
 import java.time.ZonedDateTime
+import scala.concurrent.duration.FiniteDuration
 import scala.concurrent.{ExecutionContext, Future}
+import scala.util.Try
+import scala.util.control.NonFatal
 
-private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionContext, as: ActorSystem)
-    extends CardanoApi {
+private class CardanoApiImpl(baseUriWithPort: String,
+                             override val requestExecutor: ApiRequestExecutor,
+                             onShutdown: () => Unit = () => ())(implicit
+  ec: ExecutionContext,
+  as: ActorSystem
+) extends CardanoApi {
 
   import CardanoApiCodec.ImplicitCodecs._
   import CardanoApiCodec._
@@ -30,6 +42,13 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
 
   implicit val config: Configuration = Configuration.default.withSnakeCaseMemberNames
 
+  private val subscriptions = new Subscriptions
+
+  /**
+   * @inheritdoc
+   */
+  override def shutdown(): Unit = onShutdown()
+
   /**
    * @inheritdoc
    */
@@ -52,6 +71,14 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
     _.toWallet
   )
 
+  /**
+   * @inheritdoc
+   */
+  override def getWallets(walletIds: Seq[String],
+                          parallelism: Int = defaultBatchParallelism
+  ): Source[(String, CardanoApiResponse[Wallet]), NotUsed] =
+    batch(walletIds, parallelism)(getWallet)
+
   /**
    * @inheritdoc
    */
@@ -69,6 +96,18 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
     }
   }
 
+  /**
+   * @inheritdoc
+   */
+  override def subscribeWallet(walletId: String,
+                               settings: SubscriptionSettings = SubscriptionSettings.default
+  ): Source[Wallet, NotUsed] =
+    subscriptions.subscribe[Wallet](s"wallet $walletId", settings)(
+      () => requestExecutor.execute(getWallet(walletId)),
+      wallet => (wallet.tip, wallet.balance, wallet.state, wallet.delegation),
+      _.state.status == SyncState.ready
+    )
+
   /**
    * @inheritdoc
    */
@@ -80,6 +119,16 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
     _.toNetworkInfoResponse
   )
 
+  /**
+   * @inheritdoc
+   */
+  override def subscribeNetworkTip(settings: SubscriptionSettings = SubscriptionSettings.default): Source[NetworkInfo, NotUsed] =
+    subscriptions.subscribe[NetworkInfo]("network", settings)(
+      () => requestExecutor.execute(networkInfo),
+      info => (info.nodeTip, info.networkTip, info.syncProgress),
+      _.syncProgress.status == SyncState.ready
+    )
+
   /**
    * @inheritdoc
    */
@@ -177,6 +226,29 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
 
   }
 
+  /**
+   * @inheritdoc
+   */
+  override def listAddressesBatch(walletIds: Seq[String],
+                                  state: Option[AddressFilter],
+                                  parallelism: Int = defaultBatchParallelism
+  ): Source[(String, CardanoApiResponse[Seq[WalletAddressId]]), NotUsed] =
+    batch(walletIds, parallelism)(listAddresses(_, state))
+
+  /**
+   * Executes one request per wallet id, the results are emitted in completion order.
+   * A request which fails rather than returning an api error becomes a `REQUEST FAILED` error.
+   */
+  private def batch[T](walletIds: Seq[String], parallelism: Int)
+                      (request: String => CardanoApiRequest[T]): Source[(String, CardanoApiResponse[T]), NotUsed] =
+    Source(walletIds.toList)
+      .mapAsyncUnordered(parallelism) { walletId =>
+        Future
+          .delegate(requestExecutor.execute(request(walletId)))
+          .recover { case NonFatal(e) => Left(ErrorMessage(String.valueOf(e.getMessage), "REQUEST FAILED")) }
+          .map(walletId -> _)
+      }
+
   /**
    * @inheritdoc
    */
@@ -201,6 +273,38 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
                                 order: Order = Order.descendingOrder,
                                 minWithdrawal: Option[Int] = None
   ): CardanoApiRequest[Seq[CreateTransactionResponse]] = {
+    CardanoApiRequest(
+      HttpRequest(
+        uri = listTransactionsUri(walletId, start, end, order, minWithdrawal),
+        method = GET
+      ),
+      _.toCreateTransactionsResponse
+    )
+  }
+
+  /**
+   * @inheritdoc
+   */
+  override def listTransactionSummaries(walletId: String,
+                                        start: Option[ZonedDateTime] = None,
+                                        end: Option[ZonedDateTime] = None,
+                                        order: Order = Order.descendingOrder,
+                                        minWithdrawal: Option[Int] = None
+  ): CardanoApiRequest[Seq[TransactionSummary]] =
+    CardanoApiRequest(
+      HttpRequest(
+        uri = listTransactionsUri(walletId, start, end, order, minWithdrawal),
+        method = GET
+      ),
+      _.toTransactionSummariesResponse
+    )
+
+  private def listTransactionsUri(walletId: String,
+                                  start: Option[ZonedDateTime],
+                                  end: Option[ZonedDateTime],
+                                  order: Order,
+                                  minWithdrawal: Option[Int]
+  ): Uri = {
     val baseUri = Uri(s"$wallets/${walletId}/transactions")
 
     val queries =
@@ -210,15 +314,45 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
         case (queryParamName, Some(minWith: Int))      => queryParamName -> minWith.toString
       }
 
-    val uriWithQueries = baseUri.withQuery(Query(queries: _*))
+    baseUri.withQuery(Query(queries: _*))
+  }
 
-    CardanoApiRequest(
-      HttpRequest(
-        uri = uriWithQueries,
-        method = GET
-      ),
-      _.toCreateTransactionsResponse
-    )
+  /**
+   * @inheritdoc
+   */
+  override def streamTransactions(walletId: String,
+                                  start: Option[ZonedDateTime] = None,
+                                  end: Option[ZonedDateTime] = None,
+                                  order: Order = Order.descendingOrder,
+                                  minWithdrawal: Option[Int] = None,
+                                  window: FiniteDuration = defaultTransactionsWindow
+  ): Source[CreateTransactionResponse, NotUsed] = {
+
+    def streamWindow(windowStart: Option[ZonedDateTime], windowEnd: Option[ZonedDateTime]) = {
+      val request = CardanoApiRequest(
+        HttpRequest(
+          uri = listTransactionsUri(walletId, windowStart, windowEnd, order, minWithdrawal),
+          method = GET
+        ),
+        _.toCreateTransactionsStream
+      )
+
+      Source
+        .lazyFutureSource(() => requestExecutor.execute(request).map {
+          case Left(error)         => Source.failed(ErrorMessageException(error))
+          case Right(transactions) => transactions
+        })
+        .mapMaterializedValue(_ => NotUsed)
+    }
+
+    start match {
+      case None => streamWindow(None, end)
+      case Some(from) =>
+        Source
+          .lazySource(() => Source(transactionsWindows(from, end.getOrElse(ZonedDateTime.now()), window, order)))
+          .mapMaterializedValue(_ => NotUsed)
+          .flatMapConcat { case (windowStart, windowEnd) => streamWindow(Some(windowStart), Some(windowEnd)) }
+    }
   }
 
   /**
@@ -376,17 +510,73 @@ private class CardanoApiImpl(baseUriWithPort: String)(implicit ec: ExecutionCont
   /**
    * @inheritdoc
    */
-  override def postExternalTransaction(binary: String): CardanoApiRequest[PostExternalTransactionResponse] = {
-    val uri = Uri(s"$proxy/transactions")
+  override def getUTxOsStatisticsBatch(walletIds: Seq[String],
+                                       parallelism: Int = defaultBatchParallelism
+  ): Source[(String, CardanoApiResponse[UTxOStatistics]), NotUsed] =
+    batch(walletIds, parallelism)(getUTxOsStatistics)
+
+  /**
+   * @inheritdoc
+   */
+  override def postExternalTransaction(binary: String): CardanoApiRequest[PostExternalTransactionResponse] =
+    postExternalTransactionEntity(HttpEntity(binary).withContentType(ContentTypes.`application/octet-stream`))
+
+  /**
+   * @inheritdoc
+   */
+  override def postExternalTransaction(binary: ByteString): CardanoApiRequest[PostExternalTransactionResponse] =
+    postExternalTransactionEntity(HttpEntity(ContentTypes.`application/octet-stream`, binary))
+
+  /**
+   * @inheritdoc
+   */
+  override def postExternalTransaction(binary: ByteBuffer): CardanoApiRequest[PostExternalTransactionResponse] = {
+    val bytes =
+      if (binary.hasArray) ByteString.fromArrayUnsafe(binary.array(), binary.arrayOffset() + binary.position(), binary.remaining())
+      else ByteString(binary.duplicate())
+    postExternalTransaction(bytes)
+  }
+
+  /**
+   * @inheritdoc
+   */
+  override def postExternalTransaction(binary: Array[Byte]): CardanoApiRequest[PostExternalTransactionResponse] =
+    postExternalTransaction(ByteString.fromArrayUnsafe(binary))
+
+  /**
+   * @inheritdoc
+   */
+  override def postExternalTransaction(signedTransaction: Path): CardanoApiRequest[PostExternalTransactionResponse] = {
+    // fromPath reads the file's size, a missing file fails the request's entity when it is sent instead
+    val entity = Try(HttpEntity.fromPath(ContentTypes.`application/octet-stream`, signedTransaction)).recover {
+      case e => HttpEntity(ContentTypes.`application/octet-stream`, Source.failed[ByteString](e))
+    }.get
+    postExternalTransactionEntity(entity)
+  }
+
+  private def postExternalTransactionEntity(entity: RequestEntity): CardanoApiRequest[PostExternalTransactionResponse] =
     CardanoApiRequest(
       HttpRequest(
-        uri = uri,
+        uri = Uri(s"$proxy/transactions"),
         method = POST,
-        entity = HttpEntity(binary).withContentType(ContentTypes.`application/octet-stream`)
+        entity = entity
       ),
       _.toPostExternalTransactionResponse
     )
-  }
+
+  /**
+   * @inheritdoc
+   */
+  override def submitExternalTransactions(transactions: Source[ByteString, _],
+                                          parallelism: Int = defaultBatchParallelism
+  ): Source[CardanoApiResponse[PostExternalTransactionResponse], NotUsed] =
+    transactions
+      .mapAsync(parallelism) { binary =>
+        Future
+          .delegate(requestExecutor.execute(postExternalTransaction(binary)))
+          .recover { case NonFatal(e) => Left(ErrorMessage(String.valueOf(e.getMessage), "REQUEST FAILED")) }
+      }
+      .mapMaterializedValue(_ => NotUsed)
 
   /**
    * @inheritdoc
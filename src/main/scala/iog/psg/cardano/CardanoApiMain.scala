@@ -1,6 +1,8 @@
 package iog.psg.cardano
 
 import akka.actor.ActorSystem
+import akka.stream.ActorAttributes
+import akka.stream.scaladsl.Source
 import iog.psg.cardano.CardanoApi.CardanoApiOps.{CardanoApiRequestFOps, CardanoApiRequestOps}
 import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage, Order, defaultMaxWaitTime}
 import iog.psg.cardano.CardanoApiCodec.ImplicitCodecs._
@@ -10,6 +12,11 @@ import iog.psg.cardano.util._
 
 import java.io.File
 import java.time.ZonedDateTime
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import scala.collection.mutable.ArrayBuffer
+import scala.concurrent.duration.Duration
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.reflect.ClassTag
 import scala.util.{Failure, Success, Try}
 
@@ -77,10 +84,15 @@ object CardanoApiMain {
     val addresses = "-addresses"
     val stake = "-stake"
     val stakePoolId = "-stakePoolId"
+
+    //Batch mode
+    val batch = "-batch"
+    val concurrency = "-concurrency"
   }
 
   val defaultBaseUrl = "http://127.0.0.1:8090/v2/"
   val defaultTraceFile = "cardano-api.log"
+  val defaultConcurrency = 4
 
   def main(args: Array[String]): Unit = {
 
@@ -101,22 +113,33 @@ object CardanoApiMain {
 
     implicit val apiRequestExecutor: ApiRequestExecutor = ApiRequestExecutor
 
-    run(arguments)
+    if (!run(arguments)) sys.exit(1)
+  }
+
+  /**
+   * Whether a command of a run failed with an api error or an exception, or wasn't recognised.
+   * Every run has its own, shared by the commands of a batch.
+   */
+  final class CommandFailures {
+    private val failed = new AtomicBoolean()
+
+    def commandFailed(): Unit = failed.set(true)
+
+    def any: Boolean = failed.get()
   }
 
-  private[cardano] def run(arguments: ArgumentParser)(implicit trace: Trace, apiRequestExecutor: ApiRequestExecutor): Unit = {
+  /**
+   * @return false if a command failed, the process then exits with status 1 so scripts running the cli can tell
+   */
+  private[cardano] def run(arguments: ArgumentParser)(implicit trace: Trace, apiRequestExecutor: ApiRequestExecutor): Boolean = {
+    implicit val failures: CommandFailures = new CommandFailures
 
     if (arguments.noArgs || arguments.contains(CmdLine.help)) {
       showHelp(arguments.params.filterNot(_ == CmdLine.help))
     } else {
 
-      def hasArgument(arg: String): Boolean = {
-        val result = arguments.contains(arg)
-        if (result) trace(arg)
-        result
-      }
-
-      implicit val system: ActorSystem = ActorSystem("SingleRequest")
+      val batchMode = arguments.contains(CmdLine.batch)
+      implicit val system: ActorSystem = ActorSystem(if (batchMode) "BatchRequests" else "SingleRequest")
       import system.dispatcher
 
       Try {
@@ -127,166 +150,275 @@ object CardanoApiMain {
 
         val api = CardanoApi(url)
 
-        if (hasArgument(CmdLine.netInfo)) {
-          unwrap[CardanoApiCodec.NetworkInfo](api.networkInfo.executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.netClockInfo)) {
-          val forceNtpCheck = arguments(CmdLine.forceNtpCheck).map(_.toBoolean)
-          unwrap[CardanoApiCodec.NetworkClock](api.networkClock(forceNtpCheck).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.netParams)) {
-          unwrap[CardanoApiCodec.NetworkParameters](api.networkParameters().executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.listWallets)) {
-          unwrap[Seq[CardanoApiCodec.Wallet]](api.listWallets.executeBlocking, r => r.foreach(trace(_)))
-        } else if (hasArgument(CmdLine.estimateFee)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val amount = arguments.get(CmdLine.amount).toLong
-          val addr = arguments.get(CmdLine.address)
-          val singlePayment = Payment(addr, QuantityUnit(amount, Units.lovelace))
-          val payments = Payments(Seq(singlePayment))
-          unwrap[CardanoApiCodec.EstimateFeeResponse](api.estimateFee(walletId, payments, None).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.estimateFeeStakePool)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          unwrap[CardanoApiCodec.EstimateFeeResponse](api.estimateFeeStakePool(walletId).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.getWallet)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          unwrap[CardanoApiCodec.Wallet](api.getWallet(walletId).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.updatePassphrase)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val oldPassphrase = arguments.get(CmdLine.oldPassphrase)
-          val newPassphrase = arguments.get(CmdLine.passphrase)
-          unwrap[Unit](api.updatePassphrase(walletId, oldPassphrase, newPassphrase).executeBlocking, _ => trace("Unit result from update passphrase"))
-        } else if (hasArgument(CmdLine.updateName)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val name = arguments.get(CmdLine.name)
-          unwrap[CardanoApiCodec.Wallet](api.updateName(walletId, name).executeBlocking,trace(_))
-        } else if (hasArgument(CmdLine.deleteWallet)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          unwrap[Unit](api.deleteWallet(walletId).executeBlocking, _ => trace("Unit result from delete wallet"))
-        } else if (hasArgument(CmdLine.listWalletAddresses)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val addressesState = Some(AddressFilter.withName(arguments.get(CmdLine.state)))
-          unwrap[Seq[CardanoApiCodec.WalletAddressId]](api.listAddresses(walletId, addressesState).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.inspectWalletAddress)) {
-          val address = arguments.get(CmdLine.address)
-          unwrap[WalletAddress](api.inspectAddress(address).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.getTx)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val txId = arguments.get(CmdLine.txId)
-          unwrap[CardanoApiCodec.CreateTransactionResponse](api.getTransaction(walletId, txId).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.deleteTx)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val txId = arguments.get(CmdLine.txId)
-          unwrap[Unit](api.deleteTransaction(walletId, txId).executeBlocking, _ => trace("Unit result from delete transaction"))
-        } else if (hasArgument(CmdLine.createTx)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val amount = arguments.get(CmdLine.amount).toLong
-          val addr = arguments.get(CmdLine.address)
-          val pass = arguments.get(CmdLine.passphrase)
-          val metadata = toMetaMap(arguments(CmdLine.metadata))
-          val singlePayment = Payment(addr, QuantityUnit(amount, Units.lovelace))
-          val payments = Payments(Seq(singlePayment))
-
-          unwrap[CardanoApiCodec.CreateTransactionResponse](api.createTransaction(
-            walletId,
-            pass,
-            payments,
-            metadata,
-            None
-          ).executeBlocking, trace(_))
-
-        } else if (hasArgument(CmdLine.fundTx)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val amount = arguments.get(CmdLine.amount).toLong
-          val addr = arguments.get(CmdLine.address)
-          val singlePayment = Payment(addr, QuantityUnit(amount, Units.lovelace))
-          val payments = Payments(Seq(singlePayment))
-
-          unwrap[CardanoApiCodec.FundPaymentsResponse](api.fundPayments(
-            walletId,
-            payments
-          ).executeBlocking, r => trace(r.toString))
-
-        } else if (hasArgument(CmdLine.listWalletTransactions)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val startDate = arguments(CmdLine.start).map(strToZonedDateTime)
-          val endDate = arguments(CmdLine.end).map(strToZonedDateTime)
-          val orderOf = arguments(CmdLine.order).flatMap(s => Try(Order.withName(s)).toOption).getOrElse(Order.descendingOrder)
-          val minWithdrawalTx = arguments(CmdLine.minWithdrawal).map(_.toInt)
-
-          unwrap[Seq[CardanoApiCodec.CreateTransactionResponse]](api.listTransactions(
-            walletId,
-            startDate,
-            endDate,
-            orderOf,
-            minWithdrawal = minWithdrawalTx
-          ).executeBlocking, r => if (r.isEmpty) trace("No txs returned") else r.foreach(trace(_)))
-
-        } else if (hasArgument(CmdLine.createWallet) || hasArgument(CmdLine.restoreWallet)) {
-          val name = arguments.get(CmdLine.name)
-          val passphrase = arguments.get(CmdLine.passphrase)
-          val mnemonic = arguments.get(CmdLine.mnemonic)
-          val mnemonicSecondaryOpt = arguments(CmdLine.mnemonicSecondary)
-          val addressPoolGap = arguments(CmdLine.addressPoolGap).map(_.toInt)
-
-          unwrap[CardanoApiCodec.Wallet](api.createRestoreWallet(
-            name,
-            passphrase,
-            GenericMnemonicSentence(mnemonic),
-            mnemonicSecondaryOpt.map(m => GenericMnemonicSecondaryFactor(m)),
-            addressPoolGap
-          ).executeBlocking, trace(_))
-
-        } else if (hasArgument(CmdLine.createWalletWithKey) || hasArgument(CmdLine.restoreWalletWithKey)) {
-          val name = arguments.get(CmdLine.name)
-          val accountPublicKey = arguments.get(CmdLine.accountPublicKey)
-          val addressPoolGap = arguments(CmdLine.addressPoolGap).map(_.toInt)
-
-          unwrap[CardanoApiCodec.Wallet](api.createRestoreWalletWithKey(
-            name,
-            accountPublicKey,
-            addressPoolGap
-          ).executeBlocking, trace(_))
-
-        } else if (hasArgument(CmdLine.getUTxOsStatistics)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          unwrap[UTxOStatistics](api.getUTxOsStatistics(walletId).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.postExternalTransaction)) {
-          val binary = arguments.get(CmdLine.binary)
-          unwrap[PostExternalTransactionResponse](api.postExternalTransaction(binary).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.migrateShelleyWallet)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val passphrase = arguments.get(CmdLine.passphrase)
-          val addresses = arguments.get(CmdLine.addresses).split(",").toSeq
-          unwrap[Seq[MigrationResponse]](api.migrateShelleyWallet(walletId, passphrase, addresses).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.getShelleyWalletMigrationInfo)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          unwrap[MigrationCostResponse](api.getShelleyWalletMigrationInfo(walletId).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.listStakePools)) {
-          val stake = arguments.get(CmdLine.stake).toInt
-          unwrap[Seq[StakePool]](api.listStakePools(stake).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.joinStakePool)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val stakePoolId = arguments.get(CmdLine.stakePoolId)
-          val passphrase = arguments.get(CmdLine.passphrase)
-          unwrap[MigrationResponse](api.joinStakePool(walletId, stakePoolId, passphrase).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.quitStakePool)) {
-          val walletId = arguments.get(CmdLine.walletId)
-          val passphrase = arguments.get(CmdLine.passphrase)
-          unwrap[MigrationResponse](api.quitStakePool(walletId, passphrase).executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.stakePoolGetMaintenanceActions)) {
-          unwrap[StakePoolMaintenanceActionsStatus](api.getMaintenanceActions().executeBlocking, trace(_))
-        } else if (hasArgument(CmdLine.stakePoolPostMaintenanceActions)) {
-          unwrap[Unit](api.postMaintenanceAction().executeBlocking, trace(_))
-        } else {
-          trace("No command recognised")
-        }
+        if (batchMode) runBatch(arguments, api)
+        else runCommand(arguments, api)
 
       }.recover {
-        case e => trace(e.toString)
+        case e =>
+          failures.commandFailed()
+          trace(e.toString)
       }
       trace.close()
       system.terminate()
 
     }
+    !failures.any
+  }
+
+  /**
+   * Runs the commands read from a file, or from stdin until it is closed, one command per line, through a single
+   * api and actor system. Up to `-concurrency` commands run at once, the output of each is printed in one piece,
+   * after its line number and the command, as soon as it completes.
+   */
+  private def runBatch(arguments: ArgumentParser, api: CardanoApi)
+                      (implicit trace: Trace, apiRequestExecutor: ApiRequestExecutor, system: ActorSystem, failures: CommandFailures): Unit = {
+    val concurrency = arguments(CmdLine.concurrency).map(_.toInt).getOrElse(defaultConcurrency)
+    require(concurrency > 0, s"concurrency must be > 0 (not $concurrency)")
+
+    val input = arguments(CmdLine.batch) match {
+      case Some(fileName) => scala.io.Source.fromFile(fileName)
+      case None => scala.io.Source.stdin
+    }
+    // commands block while their request runs, they get their own threads rather than the actor system's
+    val commandThreads = Executors.newFixedThreadPool(concurrency)
+    val commandContext = ExecutionContext.fromExecutor(commandThreads)
+
+    try {
+      val done = Source
+        .fromIterator(() => input.getLines().zipWithIndex)
+        .addAttributes(ActorAttributes.dispatcher(ActorAttributes.IODispatcher.dispatcher))
+        .map { case (line, index) => (index + 1, line.trim) }
+        .filterNot { case (_, line) => line.isEmpty || line.startsWith("#") }
+        .mapAsyncUnordered(concurrency) { case (lineNumber, line) =>
+          Future {
+            val output = new BufferedTrace
+            runCommand(new ArgumentParser(splitCommandLine(line).toArray), api)(output, apiRequestExecutor, system, failures)
+            (lineNumber, line, output.lines)
+          }(commandContext)
+        }
+        .runForeach { case (lineNumber, line, output) =>
+          trace(s"[$lineNumber] $line")
+          output.foreach(trace(_))
+        }
+      Await.result(done, Duration.Inf)
+    } finally {
+      commandThreads.shutdown()
+      input.close()
+    }
+  }
+
+  /**
+   * Collects a command's output so that it isn't interleaved with the output of commands running at the same time.
+   */
+  private final class BufferedTrace extends Trace {
+    private val buffer = ArrayBuffer.empty[String]
+
+    override def apply(s: String): Unit = synchronized(buffer += s)
+    override def close(): Unit = ()
+
+    def lines: Seq[String] = synchronized(buffer.toList)
+  }
+
+  /**
+   * Splits a batch line into arguments on whitespace, single or double quotes keep the whitespace they enclose.
+   */
+  private[cardano] def splitCommandLine(line: String): Seq[String] = {
+    val arguments = ArrayBuffer.empty[String]
+    val current = new StringBuilder
+    var quote: Option[Char] = None
+    var inArgument = false
+    line.foreach { c =>
+      quote match {
+        case Some(q) if c == q => quote = None
+        case Some(_) => current += c
+        case None if c == '"' || c == '\'' =>
+          quote = Some(c)
+          inArgument = true
+        case None if c.isWhitespace =>
+          if (inArgument) arguments += current.result()
+          current.clear()
+          inArgument = false
+        case None =>
+          current += c
+          inArgument = true
+      }
+    }
+    require(quote.isEmpty, s"Unbalanced quote in: $line")
+    if (inArgument) arguments += current.result()
+    arguments.toList
+  }
+
+  private def runCommand(arguments: ArgumentParser, api: CardanoApi)
+                        (implicit trace: Trace, apiRequestExecutor: ApiRequestExecutor, system: ActorSystem, failures: CommandFailures): Unit = {
+    import system.dispatcher
+
+    def hasArgument(arg: String): Boolean = {
+      val result = arguments.contains(arg)
+      if (result) trace(arg)
+      result
+    }
+
+    Try {
+
+      if (hasArgument(CmdLine.netInfo)) {
+        unwrap[CardanoApiCodec.NetworkInfo](api.networkInfo.executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.netClockInfo)) {
+        val forceNtpCheck = arguments(CmdLine.forceNtpCheck).map(_.toBoolean)
+        unwrap[CardanoApiCodec.NetworkClock](api.networkClock(forceNtpCheck).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.netParams)) {
+        unwrap[CardanoApiCodec.NetworkParameters](api.networkParameters().executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.listWallets)) {
+        unwrap[Seq[CardanoApiCodec.Wallet]](api.listWallets.executeBlocking, r => r.foreach(trace(_)))
+      } else if (hasArgument(CmdLine.estimateFee)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val amount = arguments.get(CmdLine.amount).toLong
+        val addr = arguments.get(CmdLine.address)
+        val singlePayment = Payment(addr, QuantityUnit(amount, Units.lovelace))
+        val payments = Payments(Seq(singlePayment))
+        unwrap[CardanoApiCodec.EstimateFeeResponse](api.estimateFee(walletId, payments, None).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.estimateFeeStakePool)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        unwrap[CardanoApiCodec.EstimateFeeResponse](api.estimateFeeStakePool(walletId).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.getWallet)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        unwrap[CardanoApiCodec.Wallet](api.getWallet(walletId).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.updatePassphrase)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val oldPassphrase = arguments.get(CmdLine.oldPassphrase)
+        val newPassphrase = arguments.get(CmdLine.passphrase)
+        unwrap[Unit](api.updatePassphrase(walletId, oldPassphrase, newPassphrase).executeBlocking, _ => trace("Unit result from update passphrase"))
+      } else if (hasArgument(CmdLine.updateName)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val name = arguments.get(CmdLine.name)
+        unwrap[CardanoApiCodec.Wallet](api.updateName(walletId, name).executeBlocking,trace(_))
+      } else if (hasArgument(CmdLine.deleteWallet)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        unwrap[Unit](api.deleteWallet(walletId).executeBlocking, _ => trace("Unit result from delete wallet"))
+      } else if (hasArgument(CmdLine.listWalletAddresses)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val addressesState = Some(AddressFilter.withName(arguments.get(CmdLine.state)))
+        unwrap[Seq[CardanoApiCodec.WalletAddressId]](api.listAddresses(walletId, addressesState).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.inspectWalletAddress)) {
+        val address = arguments.get(CmdLine.address)
+        unwrap[WalletAddress](api.inspectAddress(address).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.getTx)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val txId = arguments.get(CmdLine.txId)
+        unwrap[CardanoApiCodec.CreateTransactionResponse](api.getTransaction(walletId, txId).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.deleteTx)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val txId = arguments.get(CmdLine.txId)
+        unwrap[Unit](api.deleteTransaction(walletId, txId).executeBlocking, _ => trace("Unit result from delete transaction"))
+      } else if (hasArgument(CmdLine.createTx)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val amount = arguments.get(CmdLine.amount).toLong
+        val addr = arguments.get(CmdLine.address)
+        val pass = arguments.get(CmdLine.passphrase)
+        val metadata = toMetaMap(arguments(CmdLine.metadata))
+        val singlePayment = Payment(addr, QuantityUnit(amount, Units.lovelace))
+        val payments = Payments(Seq(singlePayment))
+
+        unwrap[CardanoApiCodec.CreateTransactionResponse](api.createTransaction(
+          walletId,
+          pass,
+          payments,
+          metadata,
+          None
+        ).executeBlocking, trace(_))
+
+      } else if (hasArgument(CmdLine.fundTx)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val amount = arguments.get(CmdLine.amount).toLong
+        val addr = arguments.get(CmdLine.address)
+        val singlePayment = Payment(addr, QuantityUnit(amount, Units.lovelace))
+        val payments = Payments(Seq(singlePayment))
+
+        unwrap[CardanoApiCodec.FundPaymentsResponse](api.fundPayments(
+          walletId,
+          payments
+        ).executeBlocking, r => trace(r.toString))
+
+      } else if (hasArgument(CmdLine.listWalletTransactions)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val startDate = arguments(CmdLine.start).map(strToZonedDateTime)
+        val endDate = arguments(CmdLine.end).map(strToZonedDateTime)
+        val orderOf = arguments(CmdLine.order).flatMap(s => Try(Order.withName(s)).toOption).getOrElse(Order.descendingOrder)
+        val minWithdrawalTx = arguments(CmdLine.minWithdrawal).map(_.toInt)
+
+        unwrap[Seq[CardanoApiCodec.CreateTransactionResponse]](api.listTransactions(
+          walletId,
+          startDate,
+          endDate,
+          orderOf,
+          minWithdrawal = minWithdrawalTx
+        ).executeBlocking, r => if (r.isEmpty) trace("No txs returned") else r.foreach(trace(_)))
+
+      } else if (hasArgument(CmdLine.createWallet) || hasArgument(CmdLine.restoreWallet)) {
+        val name = arguments.get(CmdLine.name)
+        val passphrase = arguments.get(CmdLine.passphrase)
+        val mnemonic = arguments.get(CmdLine.mnemonic)
+        val mnemonicSecondaryOpt = arguments(CmdLine.mnemonicSecondary)
+        val addressPoolGap = arguments(CmdLine.addressPoolGap).map(_.toInt)
+
+        unwrap[CardanoApiCodec.Wallet](api.createRestoreWallet(
+          name,
+          passphrase,
+          GenericMnemonicSentence(mnemonic),
+          mnemonicSecondaryOpt.map(m => GenericMnemonicSecondaryFactor(m)),
+          addressPoolGap
+        ).executeBlocking, trace(_))
+
+      } else if (hasArgument(CmdLine.createWalletWithKey) || hasArgument(CmdLine.restoreWalletWithKey)) {
+        val name = arguments.get(CmdLine.name)
+        val accountPublicKey = arguments.get(CmdLine.accountPublicKey)
+        val addressPoolGap = arguments(CmdLine.addressPoolGap).map(_.toInt)
+
+        unwrap[CardanoApiCodec.Wallet](api.createRestoreWalletWithKey(
+          name,
+          accountPublicKey,
+          addressPoolGap
+        ).executeBlocking, trace(_))
+
+      } else if (hasArgument(CmdLine.getUTxOsStatistics)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        unwrap[UTxOStatistics](api.getUTxOsStatistics(walletId).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.postExternalTransaction)) {
+        val binary = arguments.get(CmdLine.binary)
+        unwrap[PostExternalTransactionResponse](api.postExternalTransaction(binary).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.migrateShelleyWallet)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val passphrase = arguments.get(CmdLine.passphrase)
+        val addresses = arguments.get(CmdLine.addresses).split(",").toSeq
+        unwrap[Seq[MigrationResponse]](api.migrateShelleyWallet(walletId, passphrase, addresses).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.getShelleyWalletMigrationInfo)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        unwrap[MigrationCostResponse](api.getShelleyWalletMigrationInfo(walletId).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.listStakePools)) {
+        val stake = arguments.get(CmdLine.stake).toInt
+        unwrap[Seq[StakePool]](api.listStakePools(stake).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.joinStakePool)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val stakePoolId = arguments.get(CmdLine.stakePoolId)
+        val passphrase = arguments.get(CmdLine.passphrase)
+        unwrap[MigrationResponse](api.joinStakePool(walletId, stakePoolId, passphrase).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.quitStakePool)) {
+        val walletId = arguments.get(CmdLine.walletId)
+        val passphrase = arguments.get(CmdLine.passphrase)
+        unwrap[MigrationResponse](api.quitStakePool(walletId, passphrase).executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.stakePoolGetMaintenanceActions)) {
+        unwrap[StakePoolMaintenanceActionsStatus](api.getMaintenanceActions().executeBlocking, trace(_))
+      } else if (hasArgument(CmdLine.stakePoolPostMaintenanceActions)) {
+        unwrap[Unit](api.postMaintenanceAction().executeBlocking, trace(_))
+      } else {
+        failures.commandFailed()
+        trace("No command recognised")
+      }
+
+    }.recover {
+      case e =>
+        failures.commandFailed()
+        trace(e.toString)
+    }
   }
 
 
@@ -344,6 +476,7 @@ object CardanoApiMain {
     val cmdLineBaseUrl = s"${CmdLine.baseUrl} <url> <command>"
     val cmdLineTraceToFile = s"${CmdLine.traceToFile} <filename> <command>"
     val cmdLineNoConsole = s"${CmdLine.noConsole} <command>"
+    val cmdLineBatch = s"${CmdLine.batch} [<filename>] [${CmdLine.concurrency} <concurrency>]"
 
     if (extraParams.isEmpty) {
       trace("This super simple tool allows developers to access a cardano wallet backend from the command line\n")
@@ -355,6 +488,7 @@ object CardanoApiMain {
       trace(" "+cmdLineBaseUrl)
       trace(" "+cmdLineTraceToFile)
       trace(" "+cmdLineNoConsole)
+      trace(" "+cmdLineBatch)
 
       trace("\nCommands:\n")
       trace(" "+cmdLineNetInfo)
@@ -413,6 +547,16 @@ object CardanoApiMain {
               s"${CmdLine.noConsole} ${CmdLine.deleteWallet} ${CmdLine.walletId} $exampleWalletId"
             )
           )
+        case CmdLine.batch =>
+          beautifyTrace(
+            arguments = s"[<filename>] [${CmdLine.concurrency} <concurrency>]",
+            description = "run the commands of a file, or of stdin when no file is given, one command per line " +
+              s"( lines starting with # are skipped, default concurrency: ${CardanoApiMain.defaultConcurrency} )",
+            examples = List(
+              s"${CmdLine.batch} commands.txt ${CmdLine.concurrency} 8",
+              s"${CmdLine.baseUrl} http://cardano-wallet-testnet.mydomain:8090/v2/ ${CmdLine.batch} < commands.txt"
+            )
+          )
         case CmdLine.netInfo =>
           beautifyTrace(
             arguments = "",
@@ -702,15 +846,20 @@ object CardanoApiMain {
     }
   }
 
-  def unwrap[T: ClassTag](apiResult: CardanoApiResponse[T], onSuccess: T => Unit)(implicit t: Trace): Unit =
+  def unwrap[T: ClassTag](apiResult: CardanoApiResponse[T], onSuccess: T => Unit)(implicit t: Trace, failures: CommandFailures): Unit =
     unwrapOpt(Try(apiResult)).foreach(onSuccess)
 
-  def unwrapOpt[T: ClassTag](apiResult: Try[CardanoApiResponse[T]])(implicit trace: Trace): Option[T] = apiResult match {
+  /**
+   * @return the result, or None once the api error or exception is traced and recorded in `failures`
+   */
+  def unwrapOpt[T: ClassTag](apiResult: Try[CardanoApiResponse[T]])(implicit trace: Trace, failures: CommandFailures): Option[T] = apiResult match {
     case Success(Left(ErrorMessage(message, code))) =>
+      failures.commandFailed()
       trace(s"API Error message $message, code $code")
       None
     case Success(Right(t: T)) => Some(t)
     case Failure(exception) =>
+      failures.commandFailed()
       println(exception)
       None
   }
@@ -0,0 +1,105 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpEntity, HttpMethods, HttpRequest}
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.security.MessageDigest
+import scala.concurrent.duration.FiniteDuration
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.matching.Regex
+import scala.jdk.CollectionConverters.SetHasAsScala
+
+object CoalescingApiRequestExecutor {
+
+  /**
+   * Small, idempotent GETs which are safe to share, as patterns matched on the end of the request path.
+   */
+  val defaultCoalescedGets: Set[String] = Set(
+    "network/information",
+    "network/parameters",
+    "network/clock",
+    "(byron-)?wallets/[^/]+",
+    "(byron-)?wallets/[^/]+/addresses",
+    "addresses/[^/]+"
+  )
+
+  /**
+   * POSTs without side effects which are safe to share, as patterns matched on the end of the request path.
+   */
+  val defaultCoalescedPosts: Set[String] = Set("(byron-)?wallets/[^/]+/payment-fees")
+
+  def apply(underlying: ApiRequestExecutor = ApiRequestExecutor,
+            coalescedGets: Set[String] = defaultCoalescedGets,
+            coalescedPosts: Set[String] = defaultCoalescedPosts,
+            entityTimeout: FiniteDuration = CardanoApi.defaultMaxWaitTime): CoalescingApiRequestExecutor =
+    new CoalescingApiRequestExecutor(underlying, coalescedGets, coalescedPosts, entityTimeout)
+
+  def create(underlying: ApiRequestExecutor): CoalescingApiRequestExecutor =
+    apply(underlying)
+
+  def create(underlying: ApiRequestExecutor,
+             coalescedGets: java.util.Set[String],
+             coalescedPosts: java.util.Set[String]): CoalescingApiRequestExecutor =
+    apply(underlying, coalescedGets.asScala.toSet, coalescedPosts.asScala.toSet)
+
+  private def pathMatcher(patterns: Set[String]): Option[Regex] =
+    if (patterns.isEmpty) None
+    else Some(patterns.map(p => s"(?:$p)").mkString("(?:^|.*/)(?:", "|", ")/?").r)
+
+  private def sha256Hex(bytes: Array[Byte]): String =
+    MessageDigest.getInstance("SHA-256").digest(bytes).map(b => f"${b & 0xff}%02x").mkString
+}
+
+/**
+ * Sends identical requests made while one is already in flight only once.
+ *
+ * Only the resources listed are shared, as the whole response is held in memory: the GETs in
+ * `coalescedGets` are keyed on their uri, the POSTs in `coalescedPosts` on their uri and a hash
+ * of their body. Every caller's mapper runs against its own copy of the shared response. Any
+ * other request, such as a transaction list or a stream, goes straight to the underlying executor.
+ *
+ * @param underlying executes the requests
+ * @param coalescedGets patterns for the endings of the paths of the GETs which may be shared, e.g. `wallets/[^/]+`
+ * @param coalescedPosts patterns for the endings of the paths of the POSTs which may be shared
+ * @param entityTimeout max time to read a shared response entity into memory
+ */
+class CoalescingApiRequestExecutor(val underlying: ApiRequestExecutor,
+                                   val coalescedGets: Set[String],
+                                   val coalescedPosts: Set[String],
+                                   val entityTimeout: FiniteDuration) extends ApiRequestExecutor {
+
+  import CoalescingApiRequestExecutor._
+
+  private val singleFlight = new SingleFlight[String, StrictResponse]
+  private val coalescedGet = pathMatcher(coalescedGets)
+  private val coalescedPost = pathMatcher(coalescedPosts)
+
+  /**
+   * @return number of requests which shared a response already in flight
+   */
+  def coalesced: Long = singleFlight.joined
+
+  def inFlightRequests: Int = singleFlight.inFlightCount
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+    keyOf(request.request) match {
+      case Some(key) =>
+        singleFlight(key)(StrictResponse.fetch(underlying, request.request, entityTimeout))
+          .flatMap(response => request.mapper(response.toHttpResponse))
+      case None => underlying.execute(request)
+    }
+
+  private def keyOf(request: HttpRequest): Option[String] = request.method match {
+    case HttpMethods.GET if matches(coalescedGet, request) => Some(s"GET ${request.uri}")
+    case HttpMethods.POST if matches(coalescedPost, request) =>
+      request.entity match {
+        case strict: HttpEntity.Strict => Some(s"POST ${request.uri} ${sha256Hex(strict.data.toArrayUnsafe())}")
+        case _ => None
+      }
+    case _ => None
+  }
+
+  private def matches(matcher: Option[Regex], request: HttpRequest): Boolean =
+    matcher.exists(_.matches(request.uri.path.toString))
+}
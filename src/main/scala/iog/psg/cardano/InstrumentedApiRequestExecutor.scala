@@ -0,0 +1,101 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpEntity, HttpRequest, HttpResponse}
+import akka.stream.scaladsl.Flow
+import akka.util.ByteString
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.util.concurrent.atomic.{AtomicLong, LongAdder}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success, Try}
+
+object InstrumentedApiRequestExecutor {
+
+  def apply(underlying: ApiRequestExecutor = ApiRequestExecutor,
+            registry: MetricsRegistry = new InMemoryMetricsRegistry): InstrumentedApiRequestExecutor =
+    new InstrumentedApiRequestExecutor(underlying, registry)
+
+  def create(underlying: ApiRequestExecutor, registry: MetricsRegistry): InstrumentedApiRequestExecutor =
+    new InstrumentedApiRequestExecutor(underlying, registry)
+
+  private val IdLength = 20
+
+  private def isId(segment: String): Boolean =
+    segment.length >= IdLength && segment.forall(c => c.isLetterOrDigit || c == '_')
+
+  /**
+   * The method and path of the request with ids replaced by `{id}`, so every wallet's requests share an endpoint.
+   */
+  private[cardano] def endpointOf(request: HttpRequest): String = {
+    val path = request.uri.path.toString.split('/').map(s => if (isId(s)) "{id}" else s).mkString("/")
+    s"${request.method.value} $path"
+  }
+}
+
+/**
+ * Measures every request sent through it and hands the measurements to a [[MetricsRegistry]]: the
+ * latency of each [[RequestPhase]], the bytes sent and received, the requests in flight and the errors
+ * by `ErrorMessage.code`.
+ *
+ * Response entities are counted as they stream through, they aren't buffered by the measuring.
+ * Placed outermost it sees the latency callers see, queueing in the executors below included.
+ *
+ * @param underlying executes the requests
+ * @param registry receives the measurements, an [[InMemoryMetricsRegistry]] keeps them for snapshots
+ */
+class InstrumentedApiRequestExecutor(val underlying: ApiRequestExecutor, val registry: MetricsRegistry)
+  extends ApiRequestExecutor {
+
+  import InstrumentedApiRequestExecutor._
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    val endpoint = endpointOf(request.request)
+    val start = System.nanoTime()
+    registry.requestStarted(endpoint)
+    request.request.entity.contentLengthOption.filter(_ > 0).foreach(registry.recordRequestBytes(endpoint, _))
+
+    // when the last byte of the response entity was read, 0 until then
+    val entityRead = new AtomicLong()
+    val instrumented = request.copy(mapper = (response: HttpResponse) => {
+      val headersAt = System.nanoTime()
+      registry.recordLatency(endpoint, RequestPhase.headers, headersAt - start)
+
+      def entityDone(bytes: Long): Unit = {
+        val now = System.nanoTime()
+        entityRead.set(now)
+        registry.recordLatency(endpoint, RequestPhase.entity, now - headersAt)
+        registry.recordResponseBytes(endpoint, bytes)
+      }
+
+      response.entity match {
+        case strict: HttpEntity.Strict =>
+          entityDone(strict.data.length)
+          request.mapper(response)
+        case _ =>
+          val bytes = new LongAdder()
+          val counted = Flow[ByteString]
+            .map { chunk => bytes.add(chunk.length); chunk }
+            .watchTermination() { (mat, done) =>
+              done.onComplete(_ => entityDone(bytes.sum()))
+              mat
+            }
+          request.mapper(response.transformEntityDataBytes(counted))
+      }
+    })
+
+    Try(underlying.execute(instrumented)).fold(Future.failed, identity).andThen { case result =>
+      val now = System.nanoTime()
+      val readAt = entityRead.get()
+      // a mapper returning a stream completes before its entity is read, there's nothing left to decode
+      if (readAt != 0) registry.recordLatency(endpoint, RequestPhase.decode, now - readAt)
+      registry.recordLatency(endpoint, RequestPhase.total, now - start)
+      result match {
+        case Success(Left(error)) => registry.recordError(endpoint, error.code)
+        case Failure(e) => registry.recordError(endpoint, e.getClass.getSimpleName)
+        case Success(Right(_)) =>
+      }
+      registry.requestCompleted(endpoint)
+    }
+  }
+}
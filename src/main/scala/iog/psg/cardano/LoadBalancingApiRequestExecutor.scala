@@ -0,0 +1,237 @@
+package iog.psg.cardano
+
+import akka.actor.{ActorSystem, Cancellable}
+import akka.http.scaladsl.model.{HttpMethods, HttpRequest, HttpResponse, Uri}
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+import iog.psg.cardano.CardanoApiCodec.NetworkInfo
+
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.jdk.CollectionConverters.ListHasAsScala
+import scala.util.hashing.MurmurHash3
+import scala.util.{Failure, Success, Try}
+
+/**
+ * How reads are spread across the healthy backends.
+ *
+ * leastOutstanding - the backend with the fewest requests in flight
+ * powerOfTwoChoices - the one with fewer requests in flight of two backends picked at random
+ */
+object BalancingStrategy extends Enumeration {
+  type BalancingStrategy = Value
+  val leastOutstanding = Value("leastOutstanding")
+  val powerOfTwoChoices = Value("powerOfTwoChoices")
+}
+
+/**
+ * @param strategy how reads are spread across the healthy backends
+ * @param maxFailures failed requests in a row (errors or 5xx responses) after which a backend is ejected
+ * @param ejectionTime time an ejected backend is left out of the rotation
+ * @param healthCheckInterval how often every backend's `networkInfo` is checked, zero turns the checks off
+ * @param maxTipLag blocks a backend's node tip may lag behind the highest tip seen before it is left out of the rotation
+ */
+final case class LoadBalancerSettings(
+                                       strategy: BalancingStrategy.BalancingStrategy = BalancingStrategy.powerOfTwoChoices,
+                                       maxFailures: Int = 3,
+                                       ejectionTime: FiniteDuration = 30.seconds,
+                                       healthCheckInterval: FiniteDuration = 5.seconds,
+                                       maxTipLag: Long = 5
+                                     ) {
+  require(maxFailures > 0, s"maxFailures must be > 0 (not $maxFailures)")
+  require(maxTipLag >= 0, s"maxTipLag must be >= 0 (not $maxTipLag)")
+
+  def withStrategy(strategy: BalancingStrategy.BalancingStrategy): LoadBalancerSettings = copy(strategy = strategy)
+
+  def withEjection(maxFailures: Int, ejectionTime: FiniteDuration): LoadBalancerSettings =
+    copy(maxFailures = maxFailures, ejectionTime = ejectionTime)
+
+  def withHealthCheckInterval(interval: FiniteDuration): LoadBalancerSettings = copy(healthCheckInterval = interval)
+
+  def withMaxTipLag(maxTipLag: Long): LoadBalancerSettings = copy(maxTipLag = maxTipLag)
+}
+
+object LoadBalancerSettings {
+
+  val default: LoadBalancerSettings = LoadBalancerSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): LoadBalancerSettings = default
+}
+
+/**
+ * @param baseUri the backend's base uri
+ * @param healthy whether the backend is in the rotation
+ * @param outstanding requests in flight
+ * @param requests requests sent so far
+ * @param tipHeight block height of the node tip at the last health check
+ */
+final case class BackendStats(baseUri: String, healthy: Boolean, outstanding: Int, requests: Long, tipHeight: Option[Long])
+
+object LoadBalancingApiRequestExecutor {
+
+  def apply(baseUris: Seq[String],
+            underlying: ApiRequestExecutor = ApiRequestExecutor,
+            settings: LoadBalancerSettings = LoadBalancerSettings.default)(implicit as: ActorSystem): LoadBalancingApiRequestExecutor =
+    new LoadBalancingApiRequestExecutor(baseUris, underlying, settings)
+
+  def create(baseUris: java.util.List[String],
+             underlying: ApiRequestExecutor,
+             settings: LoadBalancerSettings,
+             as: ActorSystem): LoadBalancingApiRequestExecutor =
+    new LoadBalancingApiRequestExecutor(baseUris.asScala.toSeq, underlying, settings)(as)
+
+  private def normalized(baseUri: String): String = if (baseUri.endsWith("/")) baseUri else s"$baseUri/"
+
+  private final class Backend(val baseUri: String) {
+    val outstanding = new AtomicInteger()
+    val requests = new AtomicLong()
+    @volatile var consecutiveFailures = 0
+    @volatile var ejectedUntil: Long = System.nanoTime()
+    @volatile var tipHeight: Option[Long] = None
+    @volatile var lagging = false
+
+    def healthy(now: Long): Boolean = !lagging && now - ejectedUntil >= 0
+  }
+}
+
+/**
+ * Spreads requests made against the first of several cardano wallet instances over all of them.
+ *
+ * The api is bound to [[baseUri]], the first of the base uris, and every request to it is sent to one of
+ * the healthy backends instead. Reads (GETs) go to the least loaded backend, see [[BalancingStrategy]].
+ * Writes for a wallet always go to the same backend while it stays healthy (rendezvous hashing on the
+ * wallet id), other writes go to the first healthy backend.
+ *
+ * A backend is ejected for `ejectionTime` after `maxFailures` failed requests or 5xx responses in a row,
+ * and left out while its node tip lags behind the others. If no backend is healthy every backend is used.
+ *
+ * @param baseUris the wallet urls e.g. http://127.0.0.1:8090/v2/
+ * @param underlying sends the requests once their backend is chosen
+ * @param settings strategy, ejection and health checks
+ */
+class LoadBalancingApiRequestExecutor(baseUris: Seq[String],
+                                      val underlying: ApiRequestExecutor,
+                                      val settings: LoadBalancerSettings)(implicit as: ActorSystem)
+  extends ApiRequestExecutor {
+
+  import LoadBalancingApiRequestExecutor._
+
+  require(baseUris.nonEmpty, "At least one base uri is needed")
+
+  private val backends: Vector[Backend] = baseUris.map(normalized).distinct.map(new Backend(_)).toVector
+
+  /**
+   * The base uri the api must be bound to, requests to it are balanced.
+   */
+  val baseUri: String = backends.head.baseUri
+
+  private val healthChecks: Option[Cancellable] =
+    if (settings.healthCheckInterval.length <= 0) None
+    else Some(as.scheduler.scheduleWithFixedDelay(0.seconds, settings.healthCheckInterval)(() => checkHealth())(as.dispatcher))
+
+  def stats: Seq[BackendStats] = {
+    val now = System.nanoTime()
+    backends.map(b => BackendStats(b.baseUri, b.healthy(now), b.outstanding.get(), b.requests.get(), b.tipHeight))
+  }
+
+  /**
+   * Stops the health checks.
+   */
+  def shutdown(): Unit = healthChecks.foreach(_.cancel())
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    val uri = request.request.uri.toString()
+    if (!uri.startsWith(baseUri)) underlying.execute(request)
+    else {
+      val backend = choose(request.request)
+      val path = uri.substring(baseUri.length)
+      send(backend, request.copy(request = request.request.withUri(Uri(backend.baseUri + path))))
+    }
+  }
+
+  private def candidates: Vector[Backend] = {
+    val now = System.nanoTime()
+    val healthy = backends.filter(_.healthy(now))
+    if (healthy.isEmpty) backends else healthy
+  }
+
+  private def choose(request: HttpRequest): Backend = {
+    val available = candidates
+    if (available.size == 1) available.head
+    else if (request.method == HttpMethods.GET) settings.strategy match {
+      case BalancingStrategy.leastOutstanding => available.minBy(_.outstanding.get())
+      case BalancingStrategy.powerOfTwoChoices =>
+        val random = ThreadLocalRandom.current()
+        val first = random.nextInt(available.size)
+        val second = (first + 1 + random.nextInt(available.size - 1)) % available.size
+        val (a, b) = (available(first), available(second))
+        if (b.outstanding.get() < a.outstanding.get()) b else a
+    } else walletIdOf(request) match {
+      case Some(walletId) => available.maxBy(backend => MurmurHash3.stringHash(walletId + backend.baseUri))
+      case None => available.head
+    }
+  }
+
+  private def walletIdOf(request: HttpRequest): Option[String] =
+    request.uri.path.toString.split('/')
+      .dropWhile(segment => segment != "wallets" && segment != "byron-wallets")
+      .drop(1).headOption.filter(_.nonEmpty)
+
+  private def send[T](backend: Backend, request: CardanoApiRequest[T])
+                     (implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    backend.outstanding.incrementAndGet()
+    backend.requests.incrementAndGet()
+    @volatile var serverError = false
+    val observed = request.copy(mapper = (response: HttpResponse) => {
+      serverError = response.status.intValue >= 500
+      request.mapper(response)
+    })
+    Try(underlying.execute(observed)).fold(Future.failed, identity).andThen {
+      case result =>
+        backend.outstanding.decrementAndGet()
+        recordOutcome(backend, result.isSuccess && !serverError)
+    }
+  }
+
+  private def recordOutcome(backend: Backend, success: Boolean): Unit = backend.synchronized {
+    if (success) backend.consecutiveFailures = 0
+    else {
+      backend.consecutiveFailures += 1
+      if (backend.consecutiveFailures >= settings.maxFailures) {
+        backend.consecutiveFailures = 0
+        backend.ejectedUntil = System.nanoTime() + settings.ejectionTime.toNanos
+      }
+    }
+  }
+
+  private def checkHealth(): Unit = {
+    implicit val ec: ExecutionContext = as.dispatcher
+    import CardanoApiCodec.ResponseOps
+    implicit val timeout: FiniteDuration = CardanoApi.defaultMaxWaitTime
+    backends.foreach { backend =>
+      val request = CardanoApiRequest[NetworkInfo](
+        HttpRequest(uri = s"${backend.baseUri}network/information"),
+        _.toNetworkInfoResponse
+      )
+      Try(underlying.execute(request)).fold(Future.failed, identity).onComplete {
+        case Success(Right(info)) =>
+          backend.tipHeight = Some(info.nodeTip.height.quantity)
+          recordOutcome(backend, success = true)
+          updateLagging()
+        case Success(Left(_)) | Failure(_) =>
+          recordOutcome(backend, success = false)
+      }
+    }
+  }
+
+  private def updateLagging(): Unit = {
+    val highest = backends.flatMap(_.tipHeight).maxOption
+    highest.foreach { top =>
+      backends.foreach(b => b.lagging = b.tipHeight.exists(top - _ > settings.maxTipLag))
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package iog.psg.cardano
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong, AtomicLongArray, LongAdder}
+import scala.concurrent.duration.{DurationLong, FiniteDuration}
+import scala.jdk.CollectionConverters.ConcurrentMapHasAsScala
+
+/**
+ * The phases of a request timed by the [[InstrumentedApiRequestExecutor]].
+ *
+ * headers - from sending the request to its response headers, including any queueing and connection acquire
+ * entity - from the response headers to the last byte of the response entity
+ * decode - from the last byte of the entity to the decoded result
+ * total - from sending the request to the decoded result
+ */
+object RequestPhase extends Enumeration {
+  type RequestPhase = Value
+  val headers = Value("headers")
+  val entity = Value("entity")
+  val decode = Value("decode")
+  val total = Value("total")
+}
+
+/**
+ * Receives the measurements of every request, implement it to forward them to a metrics library.
+ *
+ * Endpoints are the request method and path with ids replaced, e.g. `GET /v2/wallets/{id}`.
+ * Methods are called concurrently from the threads completing the requests and should not block.
+ */
+trait MetricsRegistry {
+
+  def requestStarted(endpoint: String): Unit
+
+  def requestCompleted(endpoint: String): Unit
+
+  def recordLatency(endpoint: String, phase: RequestPhase.RequestPhase, nanos: Long): Unit
+
+  def recordRequestBytes(endpoint: String, bytes: Long): Unit
+
+  def recordResponseBytes(endpoint: String, bytes: Long): Unit
+
+  /**
+   * @param code the `ErrorMessage.code` of an api error, or the class name of the exception a request failed with
+   */
+  def recordError(endpoint: String, code: String): Unit
+}
+
+/**
+ * @param count values recorded
+ * @param min smallest value
+ * @param mean average value
+ * @param p50 median
+ * @param p90 90th percentile
+ * @param p99 99th percentile
+ * @param p999 99.9th percentile
+ * @param max largest value
+ */
+final case class LatencySummary(count: Long,
+                                min: FiniteDuration,
+                                mean: FiniteDuration,
+                                p50: FiniteDuration,
+                                p90: FiniteDuration,
+                                p99: FiniteDuration,
+                                p999: FiniteDuration,
+                                max: FiniteDuration)
+
+/**
+ * @param requests requests completed
+ * @param inFlight requests started and not yet completed
+ * @param requestBytes bytes of request entities sent
+ * @param responseBytes bytes of response entities read
+ * @param errors errors by code
+ * @param latencies latencies by phase
+ */
+final case class EndpointMetrics(requests: Long,
+                                 inFlight: Int,
+                                 requestBytes: Long,
+                                 responseBytes: Long,
+                                 errors: Map[String, Long],
+                                 latencies: Map[RequestPhase.RequestPhase, LatencySummary])
+
+/**
+ * @param endpoints metrics by endpoint
+ */
+final case class MetricsSnapshot(endpoints: Map[String, EndpointMetrics]) {
+
+  def endpoint(name: String): Option[EndpointMetrics] = endpoints.get(name)
+}
+
+/**
+ * A fixed size log-linear histogram of non negative values, every value is kept to within 1/64 (~1.6%)
+ * of its real value. Recording is lock free.
+ */
+private[cardano] final class LatencyHistogram {
+
+  import LatencyHistogram._
+
+  private val counts = new AtomicLongArray(BucketCount)
+  private val total = new LongAdder()
+  private val sum = new LongAdder()
+  private val minSeen = new AtomicLong(Long.MaxValue)
+  private val maxSeen = new AtomicLong(0)
+
+  def record(value: Long): Unit = {
+    val v = math.max(value, 0L)
+    counts.incrementAndGet(indexOf(v))
+    total.increment()
+    sum.add(v)
+    minSeen.accumulateAndGet(v, (a, b) => math.min(a, b))
+    maxSeen.accumulateAndGet(v, (a, b) => math.max(a, b))
+  }
+
+  def count: Long = total.sum()
+
+  /**
+   * @param q the quantile, between 0 and 1
+   */
+  def valueAt(q: Double): Long = {
+    val snapshot = (0 until BucketCount).map(counts.get)
+    val seen = snapshot.sum
+    if (seen == 0) 0
+    else {
+      val rank = math.max(1L, math.ceil(q * seen).toLong)
+      var cumulative = 0L
+      var i = 0
+      while (cumulative + snapshot(i) < rank) {
+        cumulative += snapshot(i)
+        i += 1
+      }
+      math.min(math.max(valueOf(i), minSeen.get()), maxSeen.get())
+    }
+  }
+
+  def summary: LatencySummary = {
+    val n = count
+    if (n == 0) LatencySummary(0, 0.nanos, 0.nanos, 0.nanos, 0.nanos, 0.nanos, 0.nanos, 0.nanos)
+    else LatencySummary(
+      n,
+      minSeen.get().nanos,
+      (sum.sum() / n).nanos,
+      valueAt(0.5).nanos,
+      valueAt(0.9).nanos,
+      valueAt(0.99).nanos,
+      valueAt(0.999).nanos,
+      maxSeen.get().nanos
+    )
+  }
+}
+
+private[cardano] object LatencyHistogram {
+
+  private val SubBits = 6
+  private val SubCount = 1 << SubBits
+  private val Linear = SubCount * 2
+  // values below 128 get a bucket each, above that every power of 2 is split in 64
+  private val BucketCount = Linear + (62 - SubBits) * SubCount
+
+  private[cardano] def indexOf(value: Long): Int =
+    if (value < Linear) value.toInt
+    else {
+      val exponent = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      val shift = exponent - SubBits
+      Linear + (exponent - SubBits - 1) * SubCount + ((value >>> shift) - SubCount).toInt
+    }
+
+  /**
+   * @return the middle of the values counted in the bucket
+   */
+  private[cardano] def valueOf(index: Int): Long =
+    if (index < Linear) index
+    else {
+      val offset = index - Linear
+      val shift = offset / SubCount + 1
+      val mantissa = offset % SubCount + SubCount
+      (mantissa.toLong << shift) + ((1L << shift) >>> 1)
+    }
+}
+
+/**
+ * Keeps every measurement in memory, [[snapshot]] reads them at any time.
+ */
+class InMemoryMetricsRegistry extends MetricsRegistry {
+
+  private final class Endpoint {
+    val requests = new LongAdder()
+    val inFlight = new AtomicInteger()
+    val requestBytes = new LongAdder()
+    val responseBytes = new LongAdder()
+    val errors = new ConcurrentHashMap[String, LongAdder]()
+    val latencies = new ConcurrentHashMap[RequestPhase.RequestPhase, LatencyHistogram]()
+  }
+
+  private val endpoints = new ConcurrentHashMap[String, Endpoint]()
+
+  private def of(endpoint: String): Endpoint = endpoints.computeIfAbsent(endpoint, _ => new Endpoint)
+
+  override def requestStarted(endpoint: String): Unit = of(endpoint).inFlight.incrementAndGet()
+
+  override def requestCompleted(endpoint: String): Unit = {
+    val e = of(endpoint)
+    e.inFlight.decrementAndGet()
+    e.requests.increment()
+  }
+
+  override def recordLatency(endpoint: String, phase: RequestPhase.RequestPhase, nanos: Long): Unit =
+    of(endpoint).latencies.computeIfAbsent(phase, _ => new LatencyHistogram).record(nanos)
+
+  override def recordRequestBytes(endpoint: String, bytes: Long): Unit = of(endpoint).requestBytes.add(bytes)
+
+  override def recordResponseBytes(endpoint: String, bytes: Long): Unit = of(endpoint).responseBytes.add(bytes)
+
+  override def recordError(endpoint: String, code: String): Unit =
+    of(endpoint).errors.computeIfAbsent(code, _ => new LongAdder()).increment()
+
+  def snapshot: MetricsSnapshot = MetricsSnapshot(
+    endpoints.asScala.map { case (name, e) =>
+      name -> EndpointMetrics(
+        e.requests.sum(),
+        e.inFlight.get(),
+        e.requestBytes.sum(),
+        e.responseBytes.sum(),
+        e.errors.asScala.map { case (code, n) => code -> n.sum() }.toMap,
+        e.latencies.asScala.map { case (phase, h) => phase -> h.summary }.toMap
+      )
+    }.toMap
+  )
+
+  /**
+   * Forget every measurement.
+   */
+  def reset(): Unit = endpoints.clear()
+}
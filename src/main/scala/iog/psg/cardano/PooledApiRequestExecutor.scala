@@ -0,0 +1,173 @@
+package iog.psg.cardano
+
+import akka.Done
+import akka.actor.ActorSystem
+import akka.http.scaladsl.Http
+import akka.http.scaladsl.model.{HttpRequest, HttpResponse}
+import akka.http.scaladsl.settings.ConnectionPoolSettings
+import akka.stream.scaladsl.{Keep, Sink, Source}
+import akka.stream.{BufferOverflowException, OverflowStrategy, QueueOfferResult, StreamDetachedException}
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success, Try}
+
+/**
+ * What to do with a request when the pool's queue is full.
+ *
+ * backpressure - the caller's future only starts once there is room in the queue, callers waiting for room
+ *                are let in one at a time in the order they arrived
+ * dropNew - the request is rejected immediately with a `BufferOverflowException`
+ */
+object PoolOverflowStrategy extends Enumeration {
+  type PoolOverflowStrategy = Value
+  val backpressure = Value("backpressure")
+  val dropNew = Value("dropNew")
+}
+
+/**
+ * Sizing of the connection pool used by the [[PooledApiRequestExecutor]], every host contacted gets
+ * its own pool created with these settings.
+ *
+ * @param maxConnections max number of concurrent connections to a single cardano wallet
+ * @param maxOpenRequests max number of requests accepted by the pool but not yet answered, must be a power of 2
+ * @param pipeliningLimit max number of requests sent on a single connection before a response is received
+ * @param queueSize max number of requests waiting to enter the pool
+ * @param overflowStrategy what happens to a request when the waiting queue is full
+ */
+final case class ApiConnectionPoolSettings(
+                                            maxConnections: Int = 32,
+                                            maxOpenRequests: Int = 256,
+                                            pipeliningLimit: Int = 1,
+                                            queueSize: Int = 1024,
+                                            overflowStrategy: PoolOverflowStrategy.PoolOverflowStrategy = PoolOverflowStrategy.backpressure
+                                          ) {
+  require(maxConnections > 0, s"maxConnections must be > 0 (not $maxConnections)")
+  require(maxOpenRequests > 0 && Integer.bitCount(maxOpenRequests) == 1,
+    s"maxOpenRequests must be a power of 2 (not $maxOpenRequests)")
+  require(pipeliningLimit > 0, s"pipeliningLimit must be > 0 (not $pipeliningLimit)")
+  require(queueSize > 0, s"queueSize must be > 0 (not $queueSize)")
+
+  def withMaxConnections(maxConnections: Int): ApiConnectionPoolSettings = copy(maxConnections = maxConnections)
+
+  def withMaxOpenRequests(maxOpenRequests: Int): ApiConnectionPoolSettings = copy(maxOpenRequests = maxOpenRequests)
+
+  def withPipeliningLimit(pipeliningLimit: Int): ApiConnectionPoolSettings = copy(pipeliningLimit = pipeliningLimit)
+
+  def withQueueSize(queueSize: Int): ApiConnectionPoolSettings = copy(queueSize = queueSize)
+
+  def withOverflowStrategy(overflowStrategy: PoolOverflowStrategy.PoolOverflowStrategy): ApiConnectionPoolSettings =
+    copy(overflowStrategy = overflowStrategy)
+
+  private[cardano] def toConnectionPoolSettings(implicit as: ActorSystem): ConnectionPoolSettings =
+    ConnectionPoolSettings(as)
+      .withMaxConnections(maxConnections)
+      .withMaxOpenRequests(maxOpenRequests)
+      .withPipeliningLimit(pipeliningLimit)
+
+}
+
+object ApiConnectionPoolSettings {
+
+  val default: ApiConnectionPoolSettings = ApiConnectionPoolSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): ApiConnectionPoolSettings = default
+}
+
+object PooledApiRequestExecutor {
+
+  def apply(settings: ApiConnectionPoolSettings = ApiConnectionPoolSettings.default)(implicit as: ActorSystem): PooledApiRequestExecutor =
+    new PooledApiRequestExecutor(settings)
+
+  def create(settings: ApiConnectionPoolSettings, as: ActorSystem): PooledApiRequestExecutor =
+    new PooledApiRequestExecutor(settings)(as)
+}
+
+/**
+ * Executes requests through a single materialized connection pool rather than one `singleRequest` per call.
+ *
+ * Requests are offered to a bounded queue which feeds the akka http super pool, so the number of
+ * connections, the number of in flight requests and the pipelining depth are all under the callers control.
+ *
+ * @param settings the pool sizing
+ */
+class PooledApiRequestExecutor(val settings: ApiConnectionPoolSettings)(implicit as: ActorSystem) extends ApiRequestExecutor {
+
+  private type Queued = (HttpRequest, Promise[HttpResponse])
+
+  private val inFlight = new AtomicInteger(0)
+
+  private val pool = Http().superPool[Promise[HttpResponse]](settings = settings.toConnectionPoolSettings)
+
+  private val answer = Sink.foreach[(Try[HttpResponse], Promise[HttpResponse])] {
+    case (response, promise) => promise.complete(response)
+  }
+
+  /**
+   * Offers a request to the queue, and completes the queue.
+   */
+  private val (offer: (Queued => Future[QueueOfferResult]), complete: (() => Unit), drained: Future[Done]) =
+    settings.overflowStrategy match {
+      case PoolOverflowStrategy.dropNew =>
+        val (queue, drained) = Source.queue[Queued](settings.queueSize).via(pool).toMat(answer)(Keep.both).run()
+        ((queued: Queued) => Future.successful(queue.offer(queued)), () => queue.complete(), drained)
+
+      case PoolOverflowStrategy.backpressure =>
+        // a single offer may wait for room at a time, the others wait for their turn in `lastOffer`
+        val (queue, drained) = Source
+          .queue[Queued](settings.queueSize, OverflowStrategy.backpressure, 1)
+          .via(pool)
+          .toMat(answer)(Keep.both)
+          .run()
+        val lastOffer = new AtomicReference[Future[QueueOfferResult]](Future.successful(QueueOfferResult.Enqueued))
+        val offerInTurn = (queued: Queued) => {
+          val offered = Promise[QueueOfferResult]()
+          lastOffer.getAndSet(offered.future).onComplete { _ =>
+            offered.completeWith(Try(queue.offer(queued)).fold(Future.failed, identity))
+          }(ExecutionContext.parasitic)
+          offered.future
+        }
+        (offerInTurn, () => queue.complete(), drained)
+    }
+
+  /**
+   * @return number of requests queued or sent which have not yet received a response
+   */
+  def inFlightRequests: Int = inFlight.get()
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+    enqueue(request.request).flatMap(request.mapper)
+
+  private def enqueue(request: HttpRequest)(implicit ec: ExecutionContext): Future[HttpResponse] = {
+    val promise = Promise[HttpResponse]()
+    inFlight.incrementAndGet()
+
+    offer(request -> promise).onComplete {
+      case Success(QueueOfferResult.Enqueued) =>
+      case Success(QueueOfferResult.Dropped) =>
+        promise.tryFailure(BufferOverflowException(s"Request queue is full (${settings.queueSize}), request to ${request.uri} dropped"))
+      case Success(QueueOfferResult.QueueClosed) =>
+        promise.tryFailure(new StreamDetachedException("Connection pool has been shut down"))
+      case Success(QueueOfferResult.Failure(e)) =>
+        promise.tryFailure(e)
+      case Failure(e) =>
+        promise.tryFailure(e)
+    }
+    // the count drops before the caller sees the response
+    promise.future.andThen { case _ => inFlight.decrementAndGet() }
+  }
+
+  /**
+   * Stop accepting new requests, requests already queued are still sent.
+   *
+   * @return completes when the requests queued have been answered
+   */
+  def shutdown(): Future[Done] = {
+    complete()
+    drained
+  }
+}
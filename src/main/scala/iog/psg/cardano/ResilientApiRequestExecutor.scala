@@ -0,0 +1,297 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpMethods, HttpRequest, HttpResponse}
+import akka.pattern.{CircuitBreaker, CircuitBreakerOpenException, after}
+import akka.stream.StreamTcpException
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.io.IOException
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicLong}
+import java.util.concurrent.{ThreadLocalRandom, TimeoutException}
+import scala.concurrent.duration.{Duration, DurationInt, DurationLong, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success, Try}
+
+/**
+ * @param requestTimeout max time for a single attempt of an idempotent request
+ * @param endpointTimeouts timeouts of particular endpoints, matched on the end of the request path, e.g. `stake-pools`
+ * @param maxRetries max number of attempts after the first one
+ * @param minBackoff delay before the first retry
+ * @param maxBackoff the delay doubles with every retry up to this
+ * @param randomFactor up to this fraction of the delay is added at random so retries don't synchronize
+ * @param retryStatuses server error statuses which are retried, any other response is final
+ * @param hedge send a second copy of an attempt which is slower than the hedge delay, the first response wins
+ * @param hedgeAfter fixed hedge delay, when empty the observed 95th percentile latency is used
+ * @param minHedgeSamples latencies observed before hedging on the 95th percentile starts
+ * @param idempotentPosts POSTs which are safe to retry, matched on the end of the request path
+ * @param maxFailures failed attempts in a row which open the circuit breaker
+ * @param resetTimeout time the circuit breaker stays open before letting a trial request through
+ */
+final case class ResilienceSettings(
+                                     requestTimeout: FiniteDuration = 10.seconds,
+                                     endpointTimeouts: Map[String, FiniteDuration] = Map.empty,
+                                     maxRetries: Int = 3,
+                                     minBackoff: FiniteDuration = 100.millis,
+                                     maxBackoff: FiniteDuration = 2.seconds,
+                                     randomFactor: Double = 0.2,
+                                     retryStatuses: Set[Int] = Set(502, 503, 504),
+                                     hedge: Boolean = false,
+                                     hedgeAfter: Option[FiniteDuration] = None,
+                                     minHedgeSamples: Int = 20,
+                                     idempotentPosts: Set[String] = Set.empty,
+                                     maxFailures: Int = 5,
+                                     resetTimeout: FiniteDuration = 30.seconds
+                                   ) {
+  require(maxRetries >= 0, s"maxRetries must be >= 0 (not $maxRetries)")
+  require(randomFactor >= 0, s"randomFactor must be >= 0 (not $randomFactor)")
+  require(maxFailures > 0, s"maxFailures must be > 0 (not $maxFailures)")
+  require(minHedgeSamples > 0, s"minHedgeSamples must be > 0 (not $minHedgeSamples)")
+
+  def withRequestTimeout(timeout: FiniteDuration): ResilienceSettings = copy(requestTimeout = timeout)
+
+  def withEndpointTimeout(pathSuffix: String, timeout: FiniteDuration): ResilienceSettings =
+    copy(endpointTimeouts = endpointTimeouts + (pathSuffix -> timeout))
+
+  def withMaxRetries(maxRetries: Int): ResilienceSettings = copy(maxRetries = maxRetries)
+
+  def withBackoff(minBackoff: FiniteDuration, maxBackoff: FiniteDuration, randomFactor: Double): ResilienceSettings =
+    copy(minBackoff = minBackoff, maxBackoff = maxBackoff, randomFactor = randomFactor)
+
+  def withRetryStatuses(retryStatuses: Set[Int]): ResilienceSettings = copy(retryStatuses = retryStatuses)
+
+  /**
+   * Hedge attempts slower than the observed 95th percentile latency.
+   */
+  def withHedging(): ResilienceSettings = copy(hedge = true, hedgeAfter = None)
+
+  def withHedging(after: FiniteDuration): ResilienceSettings = copy(hedge = true, hedgeAfter = Some(after))
+
+  def withIdempotentPost(pathSuffix: String): ResilienceSettings = copy(idempotentPosts = idempotentPosts + pathSuffix)
+
+  def withCircuitBreaker(maxFailures: Int, resetTimeout: FiniteDuration): ResilienceSettings =
+    copy(maxFailures = maxFailures, resetTimeout = resetTimeout)
+
+  private[cardano] def timeoutFor(request: HttpRequest): FiniteDuration = {
+    val path = request.uri.path.toString.stripSuffix("/")
+    endpointTimeouts
+      .filter { case (suffix, _) => path.endsWith(s"/$suffix") }
+      .maxByOption { case (suffix, _) => suffix.length }
+      .map(_._2)
+      .getOrElse(requestTimeout)
+  }
+
+  private[cardano] def backoff(retry: Int): FiniteDuration = {
+    val exponential = minBackoff * math.pow(2, math.min(retry, 20)).toLong
+    val capped = if (exponential > maxBackoff) maxBackoff else exponential
+    (capped.toNanos * (1 + ThreadLocalRandom.current().nextDouble() * randomFactor)).toLong.nanos
+  }
+}
+
+object ResilienceSettings {
+
+  val default: ResilienceSettings = ResilienceSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): ResilienceSettings = default
+}
+
+/**
+ * @param retries attempts made after a failed one
+ * @param hedges second copies sent for slow attempts
+ * @param timeouts attempts which timed out
+ * @param rejected requests failed fast by the open circuit breaker
+ * @param circuitOpen whether the circuit breaker is currently open
+ */
+final case class ResilienceStats(retries: Long, hedges: Long, timeouts: Long, rejected: Long, circuitOpen: Boolean)
+
+object ResilientApiRequestExecutor {
+
+  def apply(underlying: ApiRequestExecutor = ApiRequestExecutor,
+            settings: ResilienceSettings = ResilienceSettings.default)(implicit as: ActorSystem): ResilientApiRequestExecutor =
+    new ResilientApiRequestExecutor(underlying, settings)
+
+  def create(underlying: ApiRequestExecutor, settings: ResilienceSettings, as: ActorSystem): ResilientApiRequestExecutor =
+    new ResilientApiRequestExecutor(underlying, settings)(as)
+
+  /**
+   * A response with a retried status, kept so it can still be mapped once the retries run out.
+   */
+  private final case class RetryableResponse(response: StrictResponse)
+    extends RuntimeException(s"Response status ${response.status}", null, false, false)
+
+  /**
+   * The response of an attempt which had already timed out or lost to its hedge, its entity is discarded.
+   */
+  private final case class AbandonedResponse(status: Int)
+    extends RuntimeException(s"Response status $status arrived after the attempt was settled", null, false, false)
+
+  /**
+   * Transport failures, timeouts and responses with a retried status, the only failures retried
+   * and counted by the circuit breaker.
+   */
+  private def isTransient(e: Throwable): Boolean = e match {
+    case _: RetryableResponse | _: TimeoutException | _: StreamTcpException | _: IOException => true
+    case _ => false
+  }
+
+  private final class LatencyWindow(size: Int) {
+    private val samples = new Array[Long](size)
+    private var count = 0L
+
+    def record(nanos: Long): Unit = synchronized {
+      samples((count % size).toInt) = nanos
+      count += 1
+    }
+
+    def p95(minSamples: Int): Option[FiniteDuration] = synchronized {
+      if (count < minSamples) None
+      else {
+        val sorted = samples.take(math.min(count, size.toLong).toInt).sorted
+        Some(sorted(((sorted.length - 1) * 0.95).toInt).nanos)
+      }
+    }
+  }
+}
+
+/**
+ * Makes idempotent requests (GETs and the POSTs listed as idempotent) survive a slow or failing backend.
+ *
+ * Every attempt is timed out after its endpoint's timeout. Transport failures, timeouts and responses with
+ * a retried status are retried after an exponential, jittered backoff, any other failure is final. When
+ * hedging is on, an attempt slower than the hedge delay gets a second copy and the first response wins.
+ * The entity of a response arriving after its attempt timed out or lost to its hedge is discarded.
+ *
+ * Attempts go through a circuit breaker which opens after `maxFailures` transient failures in a row, while
+ * it is open every request, idempotent or not, fails fast with a `CircuitBreakerOpenException`.
+ * Other requests are otherwise sent once as they are, without a timeout, and don't count towards the breaker.
+ *
+ * @param underlying executes the attempts
+ * @param settings timeouts, retries, hedging and circuit breaker
+ */
+class ResilientApiRequestExecutor(val underlying: ApiRequestExecutor, val settings: ResilienceSettings)(implicit as: ActorSystem)
+  extends ApiRequestExecutor {
+
+  import ResilientApiRequestExecutor._
+
+  private val breaker = new CircuitBreaker(
+    as.scheduler,
+    maxFailures = settings.maxFailures,
+    // attempts time out on their own, this only guards against an attempt and its hedge never completing
+    callTimeout = settings.requestTimeout.max(settings.endpointTimeouts.values.maxOption.getOrElse(settings.requestTimeout)) * 3,
+    resetTimeout = settings.resetTimeout
+  )(as.dispatcher)
+
+  private val latencies = new LatencyWindow(256)
+  private val retries = new AtomicLong(0)
+  private val hedges = new AtomicLong(0)
+  private val timeouts = new AtomicLong(0)
+  private val rejected = new AtomicLong(0)
+
+  def stats: ResilienceStats = ResilienceStats(retries.get(), hedges.get(), timeouts.get(), rejected.get(), breaker.isOpen)
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+    if (isIdempotent(request.request)) attempt(request, 0)
+    else if (breaker.isOpen) {
+      rejected.incrementAndGet()
+      Future.failed(new CircuitBreakerOpenException(Duration.Zero, s"Circuit breaker is open, request to ${request.request.uri} not sent"))
+    } else underlying.execute(request)
+
+  private def isIdempotent(request: HttpRequest): Boolean = request.method match {
+    case HttpMethods.GET | HttpMethods.HEAD => true
+    case HttpMethods.POST =>
+      val path = request.uri.path.toString.stripSuffix("/")
+      settings.idempotentPosts.exists(suffix => path.endsWith(s"/$suffix"))
+    case _ => false
+  }
+
+  private def guarded[T](call: => Future[T]): Future[T] =
+    breaker.withCircuitBreaker(call, (result: Try[T]) => result.failed.toOption.exists(isTransient)).recoverWith {
+      case e: CircuitBreakerOpenException =>
+        rejected.incrementAndGet()
+        Future.failed(e)
+    }(as.dispatcher)
+
+  private def attempt[T](request: CardanoApiRequest[T], retry: Int)
+                        (implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+    guarded(hedged(won => timed(request, won))).recoverWith {
+      case e if isTransient(e) && retry < settings.maxRetries =>
+        retries.incrementAndGet()
+        after(settings.backoff(retry))(attempt(request, retry + 1))
+      case RetryableResponse(response) => request.mapper(response.toHttpResponse)
+    }
+
+  /**
+   * A single send of the request, failed if it takes longer than its timeout or the response has a retried status.
+   *
+   * @param won set by the first copy of a hedged attempt to map its response
+   */
+  private def timed[T](request: CardanoApiRequest[T], won: AtomicBoolean)
+                      (implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    val timeout = settings.timeoutFor(request.request)
+    val start = System.nanoTime()
+    val result = Promise[CardanoApiResponse[T]]()
+    val settled = new AtomicBoolean(false)
+    val checked = request.copy(mapper = (response: HttpResponse) =>
+      if (settled.getAndSet(true)) {
+        response.discardEntityBytes()
+        Future.failed(AbandonedResponse(response.status.intValue))
+      } else if (settings.retryStatuses.contains(response.status.intValue)) {
+        response.entity.toStrict(timeout).flatMap { entity =>
+          Future.failed(RetryableResponse(StrictResponse(response.status, response.headers, entity)))
+        }
+      } else if (won.getAndSet(true)) {
+        response.discardEntityBytes()
+        Future.failed(AbandonedResponse(response.status.intValue))
+      } else {
+        latencies.record(System.nanoTime() - start)
+        request.mapper(response)
+      }
+    )
+    val timer = as.scheduler.scheduleOnce(timeout) {
+      if (!settled.getAndSet(true)) {
+        timeouts.incrementAndGet()
+        result.tryFailure(new TimeoutException(s"Request to ${request.request.uri} timed out after $timeout"))
+      }
+    }
+    Try(underlying.execute(checked)).fold(Future.failed, identity).onComplete { outcome =>
+      timer.cancel()
+      result.tryComplete(outcome)
+    }
+    result.future
+  }
+
+  private def hedgeDelay: Option[FiniteDuration] =
+    if (!settings.hedge) None
+    else settings.hedgeAfter.orElse(latencies.p95(settings.minHedgeSamples))
+
+  /**
+   * Runs the attempt and, if it is still running after the hedge delay, a second copy of it.
+   * Succeeds with the first success, fails once every copy has failed. The copies share the
+   * flag set by the first one to map its response.
+   */
+  private def hedged[T](run: AtomicBoolean => Future[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[T] =
+    hedgeDelay match {
+      case None => run(new AtomicBoolean(false))
+      case Some(delay) =>
+        val result = Promise[T]()
+        val pending = new AtomicInteger(1)
+        val won = new AtomicBoolean(false)
+
+        def launch(): Unit = Try(run(won)).fold(Future.failed, identity).onComplete {
+          case Success(value) => result.trySuccess(value)
+          case Failure(e) => if (pending.decrementAndGet() == 0) result.tryFailure(e)
+        }
+
+        launch()
+        as.scheduler.scheduleOnce(delay) {
+          if (!result.isCompleted && pending.incrementAndGet() > 1) {
+            hedges.incrementAndGet()
+            launch()
+          }
+        }
+        result.future
+    }
+}
@@ -0,0 +1,39 @@
+package iog.psg.cardano
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import scala.concurrent.{ExecutionContext, Future, Promise}
+
+/**
+ * Runs at most one computation per key at a time, callers asking for a key which is already
+ * in flight share its future instead of starting their own.
+ */
+private[cardano] final class SingleFlight[K, V] {
+
+  private val inFlight = new ConcurrentHashMap[K, Future[V]]()
+  private val joinedCount = new AtomicLong(0)
+
+  def apply(key: K)(run: => Future[V])(implicit ec: ExecutionContext): Future[V] = {
+    val promise = Promise[V]()
+    val existing = inFlight.putIfAbsent(key, promise.future)
+    if (existing != null && existing.isCompleted) {
+      // completed but not yet removed by its callback, it is not in flight any more
+      inFlight.remove(key, existing)
+      apply(key)(run)
+    } else if (existing != null) {
+      joinedCount.incrementAndGet()
+      existing
+    } else {
+      promise.completeWith(Future.delegate(run))
+      promise.future.onComplete(_ => inFlight.remove(key, promise.future))
+      promise.future
+    }
+  }
+
+  /**
+   * @return number of calls which shared a computation already in flight
+   */
+  def joined: Long = joinedCount.get()
+
+  def inFlightCount: Int = inFlight.size()
+}
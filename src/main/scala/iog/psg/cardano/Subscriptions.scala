@@ -0,0 +1,177 @@
+package iog.psg.cardano
+
+import akka.NotUsed
+import akka.actor.ActorSystem
+import akka.stream.OverflowStrategy
+import akka.stream.scaladsl.{Source, SourceQueueWithComplete}
+import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessageException}
+
+import java.util.concurrent.ConcurrentHashMap
+import scala.collection.mutable
+import scala.concurrent.duration.{DurationInt, DurationLong, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.{Failure, Success, Try}
+
+/**
+ * @param minInterval delay between polls while the result changes or the wallet (or node) is syncing
+ * @param maxInterval longest delay between polls while nothing changes
+ * @param backoffFactor the delay is multiplied by this after every poll without a change, up to the max
+ * @param bufferSize changes kept for a slow subscriber, the oldest are dropped beyond this
+ */
+final case class SubscriptionSettings(
+                                       minInterval: FiniteDuration = 1.second,
+                                       maxInterval: FiniteDuration = 30.seconds,
+                                       backoffFactor: Double = 2.0,
+                                       bufferSize: Int = 16
+                                     ) {
+  require(minInterval > 0.seconds, s"minInterval must be > 0 (not $minInterval)")
+  require(maxInterval >= minInterval, s"maxInterval must be >= minInterval (not $maxInterval)")
+  require(backoffFactor >= 1, s"backoffFactor must be >= 1 (not $backoffFactor)")
+  require(bufferSize > 0, s"bufferSize must be > 0 (not $bufferSize)")
+
+  def withInterval(minInterval: FiniteDuration, maxInterval: FiniteDuration): SubscriptionSettings =
+    copy(minInterval = minInterval, maxInterval = maxInterval)
+
+  def withBackoffFactor(backoffFactor: Double): SubscriptionSettings = copy(backoffFactor = backoffFactor)
+
+  def withBufferSize(bufferSize: Int): SubscriptionSettings = copy(bufferSize = bufferSize)
+
+  private[cardano] def backoff(interval: FiniteDuration): FiniteDuration = {
+    val next = (interval.toNanos * backoffFactor).toLong.nanos
+    if (next > maxInterval) maxInterval else next
+  }
+}
+
+object SubscriptionSettings {
+
+  val default: SubscriptionSettings = SubscriptionSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): SubscriptionSettings = default
+}
+
+private[cardano] object Subscriptions {
+
+  private case object NoChange
+
+  /**
+   * One poll shared by every subscriber of a key, it starts with the first subscriber and stops once
+   * the last one cancels.
+   */
+  private final class SharedPoll[T](poll: () => Future[CardanoApiResponse[T]],
+                                    changeOf: T => Any,
+                                    stable: T => Boolean,
+                                    settings: SubscriptionSettings,
+                                    onClosed: SharedPoll[T] => Unit)(implicit ec: ExecutionContext, as: ActorSystem) {
+
+    private val subscribers = mutable.Set.empty[SourceQueueWithComplete[T]]
+    private var latest: Option[T] = None
+    private var lastChange: Any = NoChange
+    private var interval = settings.minInterval
+    private var started = false
+    private var closed = false
+
+    /**
+     * @return false if the poll has already stopped, a new one is needed
+     */
+    def add(queue: SourceQueueWithComplete[T]): Boolean = {
+      val start = synchronized {
+        if (closed) None
+        else {
+          subscribers += queue
+          latest.foreach(queue.offer)
+          val first = !started
+          started = true
+          Some(first)
+        }
+      }
+      start.foreach { first =>
+        queue.watchCompletion().onComplete(_ => remove(queue))
+        if (first) pollNow()
+      }
+      start.isDefined
+    }
+
+    private def remove(queue: SourceQueueWithComplete[T]): Unit = {
+      val idle = synchronized {
+        subscribers -= queue
+        val idle = subscribers.isEmpty && !closed
+        if (idle) closed = true
+        idle
+      }
+      if (idle) onClosed(this)
+    }
+
+    private def isClosed: Boolean = synchronized(closed)
+
+    private def pollNow(): Unit = if (!isClosed) {
+      Try(poll()).fold(Future.failed, identity).onComplete { result =>
+        val failed = synchronized {
+          if (closed) None
+          else result match {
+            case Success(Right(value)) =>
+              val change = changeOf(value)
+              if (change != lastChange) {
+                lastChange = change
+                latest = Some(value)
+                subscribers.foreach(_.offer(value))
+                interval = settings.minInterval
+              } else if (stable(value)) interval = settings.backoff(interval)
+              else interval = settings.minInterval
+              None
+            case Success(Left(error)) =>
+              closed = true
+              Some(subscribers.toList -> ErrorMessageException(error))
+            case Failure(_) =>
+              // the backend may be restarting, keep polling
+              interval = settings.backoff(interval)
+              None
+          }
+        }
+        failed match {
+          case Some((queues, error)) =>
+            queues.foreach(_.fail(error))
+            onClosed(this)
+          case None =>
+            if (!isClosed) as.scheduler.scheduleOnce(interval)(pollNow())
+        }
+      }
+    }
+  }
+}
+
+/**
+ * Polls on behalf of any number of subscribers, one poll per key, and emits only the results which changed.
+ */
+private[cardano] final class Subscriptions(implicit ec: ExecutionContext, as: ActorSystem) {
+
+  import Subscriptions._
+
+  private val polls = new ConcurrentHashMap[(String, SubscriptionSettings), SharedPoll[_]]()
+
+  /**
+   * @param key identifies the poll shared with other subscribers
+   * @param poll the request polled
+   * @param changeOf the part of the result which has to change for it to be emitted
+   * @param stable whether the polls can back off while the result doesn't change
+   */
+  def subscribe[T](key: String, settings: SubscriptionSettings)
+                  (poll: () => Future[CardanoApiResponse[T]], changeOf: T => Any, stable: T => Boolean): Source[T, NotUsed] =
+    Source
+      .queue[T](settings.bufferSize, OverflowStrategy.dropHead)
+      .mapMaterializedValue { queue =>
+        attach(key -> settings, queue)(new SharedPoll[T](poll, changeOf, stable, settings, closed => polls.remove(key -> settings, closed)))
+        NotUsed
+      }
+
+  @scala.annotation.tailrec
+  private def attach[T](key: (String, SubscriptionSettings), queue: SourceQueueWithComplete[T])(create: => SharedPoll[T]): Unit = {
+    val shared = polls.computeIfAbsent(key, _ => create).asInstanceOf[SharedPoll[T]]
+    if (!shared.add(queue)) {
+      polls.remove(key, shared)
+      attach(key, queue)(create)
+    }
+  }
+}
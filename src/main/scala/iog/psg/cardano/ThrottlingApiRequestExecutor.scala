@@ -0,0 +1,264 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpMethods, HttpRequest, HttpResponse, StatusCodes}
+import akka.pattern.after
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.mutable
+import scala.concurrent.duration.{DurationInt, DurationLong, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.util.{Failure, Success, Try}
+
+/**
+ * The classes of endpoint which are rate limited separately.
+ *
+ * reads - every GET
+ * coinSelection - coin selections and fee estimations
+ * submits - transactions, external transactions and migrations
+ * writes - any other change, e.g. creating, updating or deleting a wallet
+ */
+object EndpointClass extends Enumeration {
+  type EndpointClass = Value
+  val reads = Value("reads")
+  val coinSelection = Value("coinSelection")
+  val submits = Value("submits")
+  val writes = Value("writes")
+
+  def of(request: HttpRequest): EndpointClass = {
+    val path = request.uri.path.toString.stripSuffix("/")
+    request.method match {
+      case HttpMethods.GET => reads
+      case HttpMethods.POST if path.endsWith("/coin-selections/random") || path.endsWith("/payment-fees") => coinSelection
+      case HttpMethods.POST if path.endsWith("/transactions") || path.endsWith("/migrations") => submits
+      case _ => writes
+    }
+  }
+}
+
+/**
+ * A token bucket, requests beyond the burst are delayed to keep to the rate.
+ *
+ * @param permitsPerSecond sustained rate
+ * @param burst number of requests which may be sent at once after a quiet period
+ */
+final case class RateLimit(permitsPerSecond: Double, burst: Int) {
+  require(permitsPerSecond > 0, s"permitsPerSecond must be > 0 (not $permitsPerSecond)")
+  require(burst > 0, s"burst must be > 0 (not $burst)")
+}
+
+/**
+ * @param rateLimits rate of each class of endpoint, a class without a limit is not rate limited
+ * @param maxThrottleDelay requests which would wait longer than this for their rate limit are rejected
+ * @param initialConcurrency number of requests allowed in flight before anything has been observed
+ * @param minConcurrency the concurrency limit never drops below this
+ * @param maxConcurrency the concurrency limit never grows above this
+ * @param latencyThreshold a response slower than this counts as a sign of overload
+ * @param backoffRatio the concurrency limit is multiplied by this on overload
+ * @param maxQueued max number of requests waiting for the concurrency limit
+ */
+final case class ThrottleSettings(
+                                   rateLimits: Map[EndpointClass.EndpointClass, RateLimit] = ThrottleSettings.defaultRateLimits,
+                                   maxThrottleDelay: FiniteDuration = 5.seconds,
+                                   initialConcurrency: Int = 8,
+                                   minConcurrency: Int = 1,
+                                   maxConcurrency: Int = 64,
+                                   latencyThreshold: FiniteDuration = 2.seconds,
+                                   backoffRatio: Double = 0.7,
+                                   maxQueued: Int = 1024
+                                 ) {
+  require(minConcurrency > 0, s"minConcurrency must be > 0 (not $minConcurrency)")
+  require(maxConcurrency >= minConcurrency, s"maxConcurrency must be >= minConcurrency (not $maxConcurrency)")
+  require(initialConcurrency >= minConcurrency && initialConcurrency <= maxConcurrency,
+    s"initialConcurrency must be between minConcurrency and maxConcurrency (not $initialConcurrency)")
+  require(backoffRatio > 0 && backoffRatio < 1, s"backoffRatio must be between 0 and 1 (not $backoffRatio)")
+  require(maxQueued >= 0, s"maxQueued must be >= 0 (not $maxQueued)")
+
+  def withRateLimit(endpointClass: EndpointClass.EndpointClass, rateLimit: RateLimit): ThrottleSettings =
+    copy(rateLimits = rateLimits + (endpointClass -> rateLimit))
+
+  def withoutRateLimit(endpointClass: EndpointClass.EndpointClass): ThrottleSettings =
+    copy(rateLimits = rateLimits - endpointClass)
+
+  def withMaxThrottleDelay(maxThrottleDelay: FiniteDuration): ThrottleSettings = copy(maxThrottleDelay = maxThrottleDelay)
+
+  def withConcurrency(initial: Int, min: Int, max: Int): ThrottleSettings =
+    copy(initialConcurrency = initial, minConcurrency = min, maxConcurrency = max)
+
+  def withLatencyThreshold(latencyThreshold: FiniteDuration): ThrottleSettings = copy(latencyThreshold = latencyThreshold)
+
+  def withBackoffRatio(backoffRatio: Double): ThrottleSettings = copy(backoffRatio = backoffRatio)
+
+  def withMaxQueued(maxQueued: Int): ThrottleSettings = copy(maxQueued = maxQueued)
+}
+
+object ThrottleSettings {
+
+  val defaultRateLimits: Map[EndpointClass.EndpointClass, RateLimit] = Map(
+    EndpointClass.reads -> RateLimit(200, 50),
+    EndpointClass.coinSelection -> RateLimit(20, 5),
+    EndpointClass.submits -> RateLimit(10, 5),
+    EndpointClass.writes -> RateLimit(20, 5)
+  )
+
+  val default: ThrottleSettings = ThrottleSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): ThrottleSettings = default
+}
+
+/**
+ * Thrown when a request is rejected instead of waiting for its rate limit or for room under the concurrency limit.
+ */
+class RequestThrottledException(message: String) extends RuntimeException(message)
+
+/**
+ * @param concurrencyLimit current number of requests allowed in flight
+ * @param inFlight requests sent and not yet answered
+ * @param queued requests waiting for room under the concurrency limit
+ * @param overloads responses seen as a sign of overload
+ * @param rejected requests rejected without being sent
+ */
+final case class ThrottleStats(concurrencyLimit: Int, inFlight: Int, queued: Int, overloads: Long, rejected: Long)
+
+object ThrottlingApiRequestExecutor {
+
+  def apply(underlying: ApiRequestExecutor = ApiRequestExecutor,
+            settings: ThrottleSettings = ThrottleSettings.default): ThrottlingApiRequestExecutor =
+    new ThrottlingApiRequestExecutor(underlying, settings)
+
+  def create(underlying: ApiRequestExecutor, settings: ThrottleSettings): ThrottlingApiRequestExecutor =
+    new ThrottlingApiRequestExecutor(underlying, settings)
+
+  private final class TokenBucket(limit: RateLimit) {
+    private val nanosPerPermit = 1e9 / limit.permitsPerSecond
+    private var tokens = limit.burst.toDouble
+    private var lastRefill = System.nanoTime()
+
+    /**
+     * Takes a token ahead of time if it becomes available within `maxDelay`.
+     *
+     * @return the delay before the token may be used, None if it would be longer than `maxDelay`
+     */
+    def reserve(maxDelay: FiniteDuration): Option[FiniteDuration] = synchronized {
+      val now = System.nanoTime()
+      tokens = math.min(limit.burst.toDouble, tokens + (now - lastRefill) / nanosPerPermit)
+      lastRefill = now
+      val delay = if (tokens >= 1) 0L else ((1 - tokens) * nanosPerPermit).toLong
+      if (delay > maxDelay.toNanos) None
+      else {
+        tokens -= 1
+        Some(delay.nanos)
+      }
+    }
+  }
+}
+
+/**
+ * Keeps the load on the wallet backend near what it can handle.
+ *
+ * Every class of endpoint has its own token bucket, a request beyond the bucket's burst waits for a
+ * token and is rejected with a [[RequestThrottledException]] if that would take longer than
+ * `maxThrottleDelay`.
+ *
+ * The number of requests in flight is capped by a limit which adapts (AIMD) to what is observed: it grows
+ * by about one for every limit's worth of healthy responses and is cut by `backoffRatio` when a
+ * response is a 5xx, slower than `latencyThreshold` or the request fails outright. Requests over the
+ * limit queue in arrival order.
+ *
+ * @param underlying executes the requests
+ * @param settings rates and concurrency bounds
+ */
+class ThrottlingApiRequestExecutor(val underlying: ApiRequestExecutor, val settings: ThrottleSettings)
+  extends ApiRequestExecutor {
+
+  import ThrottlingApiRequestExecutor._
+
+  private val buckets: Map[EndpointClass.EndpointClass, TokenBucket] =
+    settings.rateLimits.map { case (endpointClass, limit) => endpointClass -> new TokenBucket(limit) }
+
+  private var limit: Double = settings.initialConcurrency
+  private var inFlight = 0
+  private var lastBackoff = System.nanoTime()
+  private val waiting = mutable.Queue.empty[Promise[Unit]]
+
+  private val overloads = new AtomicLong(0)
+  private val rejected = new AtomicLong(0)
+
+  def stats: ThrottleStats = synchronized {
+    ThrottleStats(limit.toInt, inFlight, waiting.size, overloads.get(), rejected.get())
+  }
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    val endpointClass = EndpointClass.of(request.request)
+    buckets.get(endpointClass).map(_.reserve(settings.maxThrottleDelay)) match {
+      case Some(None) =>
+        reject(s"Rate limit of $endpointClass requests exceeded, request to ${request.request.uri} rejected")
+      case Some(Some(delay)) if delay.length > 0 =>
+        after(delay)(acquire().flatMap(_ => send(request)))
+      case _ =>
+        acquire().flatMap(_ => send(request))
+    }
+  }
+
+  private def reject[T](message: String): Future[T] = {
+    rejected.incrementAndGet()
+    Future.failed(new RequestThrottledException(message))
+  }
+
+  private def acquire(): Future[Unit] = synchronized {
+    if (inFlight < limit.toInt) {
+      inFlight += 1
+      Future.unit
+    } else if (waiting.size >= settings.maxQueued) {
+      reject(s"Concurrency limit of ${limit.toInt} reached and ${waiting.size} requests queued")
+    } else {
+      val promise = Promise[Unit]()
+      waiting.enqueue(promise)
+      promise.future
+    }
+  }
+
+  private def send[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    val start = System.nanoTime()
+    @volatile var overloaded = false
+    val observed = request.copy(mapper = (response: HttpResponse) => {
+      overloaded = response.status.isInstanceOf[StatusCodes.ServerError] ||
+        (System.nanoTime() - start).nanos > settings.latencyThreshold
+      request.mapper(response)
+    })
+    Try(underlying.execute(observed)).fold(Future.failed, identity).andThen {
+      case Success(_) => release(start, overloaded)
+      case Failure(_) => release(start, overloaded = true)
+    }
+  }
+
+  /**
+   * Only requests sent after the last cut may cut the limit again, so a burst of overloaded responses
+   * to requests sent under the old limit counts once.
+   */
+  private def release(start: Long, overloaded: Boolean): Unit = {
+    val next = synchronized {
+      inFlight -= 1
+      if (overloaded) {
+        overloads.incrementAndGet()
+        if (start - lastBackoff > 0) {
+          limit = math.max(settings.minConcurrency.toDouble, limit * settings.backoffRatio)
+          lastBackoff = System.nanoTime()
+        }
+      } else {
+        limit = math.min(settings.maxConcurrency.toDouble, limit + 1 / limit)
+      }
+      val admitted = mutable.ListBuffer.empty[Promise[Unit]]
+      while (waiting.nonEmpty && inFlight < limit.toInt) {
+        inFlight += 1
+        admitted += waiting.dequeue()
+      }
+      admitted.toList
+    }
+    next.foreach(_.success(()))
+  }
+}
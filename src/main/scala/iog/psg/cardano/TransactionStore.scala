@@ -0,0 +1,359 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import io.circe.jawn
+import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage, ErrorMessageException, Order}
+import iog.psg.cardano.CardanoApiCodec.TxDirection.TxDirection
+import iog.psg.cardano.CardanoApiCodec.{CreateTransactionResponse, TxDirection, TxState}
+
+import java.io.{EOFException, IOException}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.StandardOpenOption.{CREATE, READ, WRITE}
+import java.nio.file.{Files, Path, StandardCopyOption}
+import java.time.ZonedDateTime
+import java.util.Properties
+import java.util.concurrent.ConcurrentHashMap
+import scala.concurrent.duration.FiniteDuration
+import scala.concurrent.{ExecutionContext, Future}
+import scala.util.Using
+import scala.util.hashing.MurmurHash3
+
+object TransactionStore {
+
+  def apply(directory: Path)(implicit ec: ExecutionContext, as: ActorSystem): TransactionStore =
+    new TransactionStore(directory)
+
+  def create(directory: Path, ec: ExecutionContext, as: ActorSystem): TransactionStore =
+    new TransactionStore(directory)(ec, as)
+
+  private[cardano] val LogFile = "transactions.log"
+  private[cardano] val CheckpointFile = "checkpoint"
+
+  // json length, slot, direction and id length
+  private[cardano] val HeaderSize = 4 + 8 + 1 + 1
+  private[cardano] val NoSlot = -1L
+
+  private[cardano] val DecodedCacheSize = 256
+
+  /**
+   * Open addressing index of the records' ids, slot values are record numbers plus one so 0 is empty.
+   */
+  private[cardano] final class IdIndex {
+    private var table = new Array[Int](128)
+    private var size = 0
+
+    /**
+     * @return the record number of the id, or -1
+     */
+    def get(id: String, ids: Array[String]): Int = {
+      var i = slotOf(id)
+      while (table(i) != 0 && ids(table(i) - 1) != id) i = (i + 1) & (table.length - 1)
+      table(i) - 1
+    }
+
+    def put(id: String, record: Int, ids: Array[String]): Unit = {
+      if (2 * (size + 1) > table.length) resize(table.length * 2, ids)
+      var i = slotOf(id)
+      while (table(i) != 0) i = (i + 1) & (table.length - 1)
+      table(i) = record + 1
+      size += 1
+    }
+
+    /**
+     * Keeps the first `records` records only.
+     */
+    def truncate(records: Int, ids: Array[String]): Unit = {
+      table = new Array[Int](table.length)
+      size = 0
+      (0 until records).foreach(record => put(ids(record), record, ids))
+    }
+
+    private def resize(length: Int, ids: Array[String]): Unit = {
+      val old = table
+      table = new Array[Int](length)
+      old.foreach { entry =>
+        if (entry != 0) {
+          var i = slotOf(ids(entry - 1))
+          while (table(i) != 0) i = (i + 1) & (table.length - 1)
+          table(i) = entry
+        }
+      }
+    }
+
+    private def slotOf(id: String): Int = MurmurHash3.stringHash(id) & (table.length - 1)
+  }
+}
+
+/**
+ * The in ledger transactions of a wallet, kept in an append only log.
+ *
+ * Every record is a small header (slot, direction and id) followed by the transaction's json as the
+ * wallet returned it. On open the indexes are rebuilt from the headers alone, records written after the
+ * last checkpoint (e.g. by a sync which didn't finish) are discarded. A record's json is decoded from
+ * the log when it is read, only the most recently read transactions are kept decoded.
+ *
+ * @param decodedCacheSize how many decoded transactions are kept
+ */
+final class WalletTransactions private[cardano](directory: Path, decodedCacheSize: Int = TransactionStore.DecodedCacheSize)
+  extends AutoCloseable {
+
+  import CardanoApiCodec._
+  import TransactionStore._
+
+  Files.createDirectories(directory)
+
+  private val channel = FileChannel.open(directory.resolve(LogFile), CREATE, READ, WRITE)
+  private val checkpointPath = directory.resolve(CheckpointFile)
+
+  // primitive indexes, entry i describes record i
+  private val index = new IdIndex
+  private var ids = new Array[String](64)
+  private var offsets = new Array[Long](64)
+  private var slots = new Array[Long](64)
+  private var directions = new Array[Byte](64)
+  private var count = 0
+  // whether the slots are ascending, as a sync appends them, so queries can search them
+  private var sorted = true
+  private var length = 0L
+
+  private var committedCount = 0
+  private var committedLength = 0L
+  private var committedInsertedAt: Option[ZonedDateTime] = None
+  private var insertedAt: Option[ZonedDateTime] = None
+
+  private val decoded = new java.util.LinkedHashMap[Integer, CreateTransactionResponse](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: java.util.Map.Entry[Integer, CreateTransactionResponse]): Boolean =
+      size() > decodedCacheSize
+  }
+
+  open()
+
+  private def open(): Unit = synchronized {
+    if (Files.exists(checkpointPath)) {
+      val properties = new Properties()
+      Using.resource(Files.newInputStream(checkpointPath))(properties.load)
+      committedLength = properties.getProperty("length").toLong
+      committedInsertedAt = Option(properties.getProperty("insertedAt")).map(ZonedDateTime.parse)
+    }
+    channel.truncate(committedLength)
+    insertedAt = committedInsertedAt
+    while (length < committedLength) {
+      val header = read(length, HeaderSize)
+      val jsonLength = header.getInt
+      val slot = header.getLong
+      val direction = header.get
+      val idLength = header.get & 0xff
+      val id = new String(read(length + HeaderSize, idLength).array(), StandardCharsets.UTF_8)
+      add(id, slot, direction)
+      length += HeaderSize + idLength + jsonLength
+    }
+    committedCount = count
+  }
+
+  private def read(position: Long, size: Int): ByteBuffer = {
+    val buffer = ByteBuffer.allocate(size)
+    while (buffer.hasRemaining) {
+      if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException(s"Transaction log ends before $position + $size")
+    }
+    buffer.flip()
+    buffer
+  }
+
+  private def add(id: String, slot: Long, direction: Byte): Unit = {
+    if (count == offsets.length) {
+      ids = java.util.Arrays.copyOf(ids, count * 2)
+      offsets = java.util.Arrays.copyOf(offsets, count * 2)
+      slots = java.util.Arrays.copyOf(slots, count * 2)
+      directions = java.util.Arrays.copyOf(directions, count * 2)
+    }
+    ids(count) = id
+    offsets(count) = length
+    slots(count) = slot
+    directions(count) = direction
+    if (count > 0 && slot < slots(count - 1)) sorted = false
+    index.put(id, count, ids)
+    count += 1
+  }
+
+  /**
+   * Appends a transaction unless it is already stored, it is durable once committed.
+   *
+   * @return whether the transaction was added
+   */
+  private[cardano] def append(transaction: CreateTransactionResponse, json: Array[Byte]): Boolean = synchronized {
+    if (index.get(transaction.id, ids) >= 0) false
+    else {
+      val id = transaction.id.getBytes(StandardCharsets.UTF_8)
+      require(id.length <= 0xff, s"Transaction id too long (${id.length} bytes)")
+      val slot = transaction.insertedAt.flatMap(_.absoluteSlotNumber).getOrElse(NoSlot)
+      val direction = transaction.direction.id.toByte
+      val record = ByteBuffer.allocate(HeaderSize + id.length + json.length)
+        .putInt(json.length)
+        .putLong(slot)
+        .put(direction)
+        .put(id.length.toByte)
+        .put(id)
+        .put(json)
+      record.flip()
+      while (record.hasRemaining) channel.write(record, length + record.position())
+      add(transaction.id, slot, direction)
+      length += record.limit()
+      transaction.insertedAt.map(_.time).foreach { time =>
+        if (insertedAt.forall(time.isAfter)) insertedAt = Some(time)
+      }
+      true
+    }
+  }
+
+  /**
+   * Makes the transactions appended so far durable and moves the checkpoint past them.
+   */
+  private[cardano] def commit(): Unit = synchronized {
+    channel.force(false)
+    val properties = new Properties()
+    properties.setProperty("length", length.toString)
+    insertedAt.foreach(time => properties.setProperty("insertedAt", time.toString))
+    val temp = directory.resolve(s"$CheckpointFile.tmp")
+    Using.resource(Files.newOutputStream(temp))(properties.store(_, "transaction log checkpoint"))
+    Files.move(temp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    committedCount = count
+    committedLength = length
+    committedInsertedAt = insertedAt
+  }
+
+  /**
+   * Forgets the transactions appended since the last commit.
+   */
+  private[cardano] def rollback(): Unit = synchronized {
+    index.truncate(committedCount, ids)
+    (committedCount until count).foreach { i =>
+      ids(i) = null
+      decoded.remove(i)
+    }
+    count = committedCount
+    sorted = (1 until count).forall(i => slots(i - 1) <= slots(i))
+    length = committedLength
+    insertedAt = committedInsertedAt
+    channel.truncate(committedLength)
+  }
+
+  /**
+   * @return the latest time a stored transaction was inserted in the ledger, syncs resume from it
+   */
+  def checkpoint: Option[ZonedDateTime] = synchronized(committedInsertedAt)
+
+  def size: Int = synchronized(count)
+
+  def contains(transactionId: String): Boolean = synchronized(index.get(transactionId, ids) >= 0)
+
+  def get(transactionId: String): Option[CreateTransactionResponse] = synchronized {
+    Some(index.get(transactionId, ids)).filter(_ >= 0).map(transactionAt)
+  }
+
+  /**
+   * @param fromSlot first absolute slot, inclusive
+   * @param toSlot last absolute slot, inclusive
+   * @param direction only incoming or outgoing transactions, or both
+   * @return the matching transactions in the order they were inserted in the ledger
+   */
+  def transactions(fromSlot: Long = 0,
+                   toSlot: Long = Long.MaxValue,
+                   direction: Option[TxDirection] = None): Seq[CreateTransactionResponse] = synchronized {
+    val anyDirection = direction.isEmpty
+    val wanted = direction.fold(0.toByte)(_.id.toByte)
+    var i = if (sorted) firstFrom(fromSlot, inclusive = true) else 0
+    val end = if (sorted) firstFrom(toSlot, inclusive = false) else count
+    val matching = Vector.newBuilder[CreateTransactionResponse]
+    while (i < end) {
+      if (slots(i) >= fromSlot && slots(i) <= toSlot && (anyDirection || directions(i) == wanted)) matching += transactionAt(i)
+      i += 1
+    }
+    matching.result()
+  }
+
+  /**
+   * @return the first record whose slot is from `slot` on (or after it when not inclusive), or `count`
+   */
+  private def firstFrom(slot: Long, inclusive: Boolean): Int = {
+    var low = 0
+    var high = count
+    while (low < high) {
+      val middle = (low + high) >>> 1
+      if (slots(middle) < slot || (!inclusive && slots(middle) == slot)) low = middle + 1 else high = middle
+    }
+    low
+  }
+
+  private def transactionAt(record: Int): CreateTransactionResponse =
+    decoded.computeIfAbsent(record, _ => decodeAt(offsets(record)))
+
+  private def decodeAt(offset: Long): CreateTransactionResponse = {
+    val header = read(offset, HeaderSize)
+    val jsonLength = header.getInt
+    header.getLong
+    header.get
+    val idLength = header.get & 0xff
+    jawn.decodeByteBuffer[CreateTransactionResponse](read(offset + HeaderSize + idLength, jsonLength))
+      .fold(e => throw new IOException(s"Corrupt transaction record at $offset", e), tx => tx)
+  }
+
+  override def close(): Unit = channel.close()
+}
+
+/**
+ * A local copy of wallets' transaction histories which answers history queries without the wallet.
+ *
+ * Each wallet is kept in its own directory under `directory`. A sync lists only the transactions
+ * inserted since the wallet's checkpoint (in ascending order, from the checkpoint's time) and appends
+ * the ones in ledger which aren't stored yet, so restarts don't fetch the whole history again.
+ * Pending transactions are picked up once they are in ledger.
+ *
+ * @param directory where the wallets' logs and checkpoints are kept
+ */
+class TransactionStore(directory: Path)(implicit ec: ExecutionContext, as: ActorSystem) extends AutoCloseable {
+
+  import CardanoApiCodec._
+
+  private val wallets = new ConcurrentHashMap[String, WalletTransactions]()
+  private val syncs = new SingleFlight[String, CardanoApiResponse[Int]]
+
+  def wallet(walletId: String): WalletTransactions =
+    wallets.computeIfAbsent(walletId, id => new WalletTransactions(directory.resolve(id)))
+
+  /**
+   * Fetches and stores the wallet's transactions inserted since its checkpoint, a sync already
+   * running for the wallet is shared.
+   *
+   * @return number of transactions added, or the api error
+   */
+  def sync(api: CardanoApi, walletId: String)(implicit timeout: FiniteDuration = CardanoApi.defaultMaxWaitTime): Future[CardanoApiResponse[Int]] =
+    syncs(walletId) {
+      val log = wallet(walletId)
+      val listing = api.listTransactions(walletId, start = log.checkpoint, order = Order.ascendingOrder)
+      api.requestExecutor.execute(listing.copy(mapper = _.toJsonElementsStream("$[*]"))).flatMap {
+        case Left(error) => Future.successful(Left(error))
+        case Right(elements) =>
+          elements
+            .runFold(0) { (added, json) =>
+              val bytes = json.toArray
+              jawn.decodeByteArray[CreateTransactionResponse](bytes) match {
+                case Left(e) => throw ErrorMessageException(ErrorMessage(e.getMessage, "UNPARSEABLE RESULT"))
+                case Right(tx) if tx.status == TxState.inLedger && log.append(tx, bytes) => added + 1
+                case Right(_) => added
+              }
+            }
+            .map { added =>
+              log.commit()
+              Right(added)
+            }
+            .recoverWith { case e =>
+              log.rollback()
+              Future.failed(e)
+            }
+      }
+    }
+
+  override def close(): Unit = wallets.values().forEach(_.close())
+}
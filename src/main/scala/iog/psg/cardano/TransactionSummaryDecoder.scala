@@ -0,0 +1,282 @@
+package iog.psg.cardano
+
+import akka.util.ByteString
+import io.circe.{Decoder, DecodingFailure}
+import iog.psg.cardano.CardanoApiCodec._
+
+import java.nio.charset.StandardCharsets
+
+/**
+ * Decodes a [[CardanoApiCodec.TransactionSummary]] straight from the bytes of a single transaction.
+ *
+ * Only the summary fields are read, every other field is stepped over without being parsed
+ * so inputs, outputs and metadata cost no more than a scan of their bytes.
+ */
+object TransactionSummaryDecoder {
+
+  private val FieldId = "id".getBytes(StandardCharsets.UTF_8)
+  private val FieldAmount = "amount".getBytes(StandardCharsets.UTF_8)
+  private val FieldDepth = "depth".getBytes(StandardCharsets.UTF_8)
+  private val FieldDirection = "direction".getBytes(StandardCharsets.UTF_8)
+  private val FieldStatus = "status".getBytes(StandardCharsets.UTF_8)
+  private val FieldQuantity = "quantity".getBytes(StandardCharsets.UTF_8)
+  private val FieldUnit = "unit".getBytes(StandardCharsets.UTF_8)
+
+  def decode(bytes: ByteString): Decoder.Result[TransactionSummary] =
+    decode(bytes.toArrayUnsafe())
+
+  def decode(bytes: Array[Byte]): Decoder.Result[TransactionSummary] =
+    try Right(readSummary(new JsonByteScanner(bytes)))
+    catch {
+      case e: JsonByteScanner.ScanFailure => Left(DecodingFailure(e.getMessage, Nil))
+      case e: NoSuchElementException => Left(DecodingFailure(e.getMessage, Nil))
+      case e: NumberFormatException => Left(DecodingFailure(e.getMessage, Nil))
+    }
+
+  private def readSummary(scanner: JsonByteScanner): TransactionSummary = {
+    var id: String = null
+    var amount: QuantityUnit[Long] = null
+    var depth: Option[QuantityUnit[Long]] = None
+    var direction: TxDirection.TxDirection = null
+    var status: TxState.TxState = null
+
+    scanner.readObject { () =>
+      if (scanner.fieldNameIs(FieldId)) id = scanner.readString()
+      else if (scanner.fieldNameIs(FieldAmount)) amount = readQuantity(scanner)
+      else if (scanner.fieldNameIs(FieldDepth)) depth = if (scanner.readNull()) None else Some(readQuantity(scanner))
+      else if (scanner.fieldNameIs(FieldDirection)) direction = TxDirection.withName(scanner.readString())
+      else if (scanner.fieldNameIs(FieldStatus)) status = TxState.withName(scanner.readString())
+      else scanner.skipValue()
+    }
+    scanner.expectEnd()
+
+    if (id == null) scanner.fail("Missing field 'id'")
+    if (amount == null) scanner.fail("Missing field 'amount'")
+    if (direction == null) scanner.fail("Missing field 'direction'")
+    if (status == null) scanner.fail("Missing field 'status'")
+
+    TransactionSummary(id, amount, depth, direction, status)
+  }
+
+  private def readQuantity(scanner: JsonByteScanner): QuantityUnit[Long] = {
+    var quantity: java.lang.Long = null
+    var unit: Units.Units = null
+
+    scanner.readObject { () =>
+      if (scanner.fieldNameIs(FieldQuantity)) quantity = scanner.readLong()
+      else if (scanner.fieldNameIs(FieldUnit)) unit = Units.withName(scanner.readString())
+      else scanner.skipValue()
+    }
+
+    if (quantity == null) scanner.fail("Missing field 'quantity'")
+    if (unit == null) scanner.fail("Missing field 'unit'")
+    QuantityUnit(quantity.longValue(), unit)
+  }
+}
+
+private[cardano] object JsonByteScanner {
+
+  final class ScanFailure(message: String) extends RuntimeException(message, null, false, false)
+}
+
+/**
+ * A forward only reader over the bytes of a json document, values can be read or skipped
+ * but nothing is materialized for skipped values.
+ */
+private[cardano] final class JsonByteScanner(bytes: Array[Byte]) {
+
+  import JsonByteScanner.ScanFailure
+
+  private var pos = 0
+  private var fieldStart = 0
+  private var fieldEnd = 0
+  private var fieldEscaped = false
+
+  def fail(message: String): Nothing = throw new ScanFailure(message)
+
+  private def failAt(message: String): Nothing = fail(s"$message at offset $pos")
+
+  private def skipWhitespace(): Unit =
+    while (pos < bytes.length && (bytes(pos) == ' ' || bytes(pos) == '\n' || bytes(pos) == '\r' || bytes(pos) == '\t')) pos += 1
+
+  private def peek(): Byte = {
+    skipWhitespace()
+    if (pos >= bytes.length) failAt("Unexpected end of input")
+    bytes(pos)
+  }
+
+  private def expect(c: Char): Unit = {
+    if (peek() != c) failAt(s"Expected '$c'")
+    pos += 1
+  }
+
+  def expectEnd(): Unit = {
+    skipWhitespace()
+    if (pos != bytes.length) failAt("Unexpected trailing content")
+  }
+
+  /**
+   * Calls `onField` for every field of an object, positioned at the field's value which it must consume.
+   * The name of the current field is checked with [[fieldNameIs]].
+   */
+  def readObject(onField: () => Unit): Unit = {
+    expect('{')
+    if (peek() == '}') pos += 1
+    else {
+      var more = true
+      while (more) {
+        if (peek() != '"') failAt("Expected a field name")
+        fieldStart = pos + 1
+        fieldEscaped = skipString()
+        fieldEnd = pos - 1
+        expect(':')
+        onField()
+        peek() match {
+          case ',' => pos += 1
+          case '}' => pos += 1; more = false
+          case _ => failAt("Expected ',' or '}'")
+        }
+      }
+    }
+  }
+
+  def fieldNameIs(name: Array[Byte]): Boolean =
+    if (fieldEscaped) unescape(fieldStart, fieldEnd) == new String(name, StandardCharsets.UTF_8)
+    else fieldEnd - fieldStart == name.length && {
+      var i = 0
+      while (i < name.length && bytes(fieldStart + i) == name(i)) i += 1
+      i == name.length
+    }
+
+  def readNull(): Boolean =
+    if (peek() == 'n') {
+      skipLiteral("null")
+      true
+    } else false
+
+  def readString(): String = {
+    if (peek() != '"') failAt("Expected a string")
+    val start = pos + 1
+    val escaped = skipString()
+    if (escaped) unescape(start, pos - 1)
+    else new String(bytes, start, pos - 1 - start, StandardCharsets.UTF_8)
+  }
+
+  def readLong(): Long = {
+    peek()
+    val start = pos
+    val negative = bytes(pos) == '-'
+    if (negative) pos += 1
+    var result = 0L
+    var digits = 0
+    while (pos < bytes.length && bytes(pos) >= '0' && bytes(pos) <= '9') {
+      val digit = bytes(pos) - '0'
+      if (result < (Long.MinValue + digit) / 10) failAt("Number out of range")
+      result = result * 10 - digit
+      digits += 1
+      pos += 1
+    }
+    if (digits == 0) failAt("Expected a number")
+    if (pos < bytes.length && (bytes(pos) == '.' || bytes(pos) == 'e' || bytes(pos) == 'E')) {
+      pos = start
+      failAt("Expected a whole number")
+    }
+    if (negative) result
+    else if (result == Long.MinValue) failAt("Number out of range")
+    else -result
+  }
+
+  def skipValue(): Unit = peek() match {
+    case '"' => skipString()
+    case '{' | '[' => skipNested()
+    case 't' => skipLiteral("true")
+    case 'f' => skipLiteral("false")
+    case 'n' => skipLiteral("null")
+    case _ => skipNumber()
+  }
+
+  /**
+   * Steps over an object or array, only strings need care as they may hold brackets.
+   */
+  private def skipNested(): Unit = {
+    var depth = 0
+    var done = false
+    while (!done) {
+      if (pos >= bytes.length) failAt("Unexpected end of input")
+      bytes(pos) match {
+        case '"' => skipString()
+        case '{' | '[' => depth += 1; pos += 1
+        case '}' | ']' =>
+          depth -= 1
+          pos += 1
+          done = depth == 0
+        case _ => pos += 1
+      }
+    }
+  }
+
+  /**
+   * Moves past the string starting at the current position.
+   *
+   * @return true if the string contains escape sequences
+   */
+  private def skipString(): Boolean = {
+    pos += 1
+    var escaped = false
+    while (pos < bytes.length && bytes(pos) != '"') {
+      if (bytes(pos) == '\\') {
+        escaped = true
+        pos += 1
+      }
+      pos += 1
+    }
+    if (pos >= bytes.length) failAt("Unterminated string")
+    pos += 1
+    escaped
+  }
+
+  private def skipNumber(): Unit = {
+    val start = pos
+    while (pos < bytes.length && isNumberChar(bytes(pos))) pos += 1
+    if (pos == start) failAt("Unexpected character")
+  }
+
+  private def isNumberChar(b: Byte): Boolean =
+    (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E'
+
+  private def skipLiteral(literal: String): Unit = {
+    var i = 0
+    while (i < literal.length) {
+      if (pos >= bytes.length || bytes(pos) != literal.charAt(i)) failAt(s"Expected '$literal'")
+      pos += 1
+      i += 1
+    }
+  }
+
+  private def unescape(start: Int, end: Int): String = {
+    val raw = new String(bytes, start, end - start, StandardCharsets.UTF_8)
+    val sb = new java.lang.StringBuilder(raw.length)
+    var i = 0
+    while (i < raw.length) {
+      val c = raw.charAt(i)
+      if (c == '\\' && i + 1 < raw.length) {
+        raw.charAt(i + 1) match {
+          case 'b' => sb.append('\b')
+          case 'f' => sb.append('\f')
+          case 'n' => sb.append('\n')
+          case 'r' => sb.append('\r')
+          case 't' => sb.append('\t')
+          case 'u' if i + 5 < raw.length =>
+            sb.append(Integer.parseInt(raw.substring(i + 2, i + 6), 16).toChar)
+            i += 4
+          case other => sb.append(other)
+        }
+        i += 2
+      } else {
+        sb.append(c)
+        i += 1
+      }
+    }
+    sb.toString
+  }
+}
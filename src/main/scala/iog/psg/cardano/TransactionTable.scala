@@ -0,0 +1,366 @@
+package iog.psg.cardano
+
+import akka.stream.scaladsl.Sink
+import iog.psg.cardano.CardanoApiCodec.TxDirection.TxDirection
+import iog.psg.cardano.CardanoApiCodec.TxState.TxState
+import iog.psg.cardano.CardanoApiCodec._
+
+import java.time.{Instant, ZoneOffset}
+import scala.collection.mutable
+import scala.collection.mutable.ArrayBuilder
+import scala.concurrent.{ExecutionContext, Future}
+
+/**
+ * Selects rows of a [[TransactionTable]], every condition left to its default matches all the rows.
+ *
+ * @param status only transactions in this state
+ * @param direction only incoming or outgoing transactions
+ * @param fromSlot first absolute slot the transaction was inserted in, inclusive
+ * @param toSlot last absolute slot the transaction was inserted in, inclusive
+ * @param minAmount smallest amount, inclusive
+ */
+final case class TransactionFilter(
+                                    status: Option[TxState] = None,
+                                    direction: Option[TxDirection] = None,
+                                    fromSlot: Long = Long.MinValue,
+                                    toSlot: Long = Long.MaxValue,
+                                    minAmount: Long = Long.MinValue
+                                  ) {
+
+  def withStatus(status: TxState): TransactionFilter = copy(status = Some(status))
+
+  def withDirection(direction: TxDirection): TransactionFilter = copy(direction = Some(direction))
+
+  def withSlots(fromSlot: Long, toSlot: Long): TransactionFilter = copy(fromSlot = fromSlot, toSlot = toSlot)
+
+  def withMinAmount(minAmount: Long): TransactionFilter = copy(minAmount = minAmount)
+}
+
+object TransactionFilter {
+
+  val all: TransactionFilter = TransactionFilter()
+
+  /**
+   * Java friendly access to the filter matching every row
+   */
+  def any(): TransactionFilter = all
+}
+
+object TransactionTable {
+
+  // stands for a missing optional number, and for the slot of a transaction not in ledger
+  private[cardano] val Missing = Long.MinValue
+  private val MissingInt = Int.MinValue
+
+  def newBuilder(): Builder = new Builder
+
+  def apply(transactions: IterableOnce[CreateTransactionResponse]): TransactionTable = {
+    val builder = newBuilder()
+    transactions.iterator.foreach(builder += _)
+    builder.result()
+  }
+
+  /**
+   * Builds a table from a stream of transactions, e.g. [[CardanoApi.streamTransactions]], without holding
+   * the case classes.
+   */
+  def sink: Sink[CreateTransactionResponse, Future[TransactionTable]] =
+    Sink
+      .fold[Builder, CreateTransactionResponse](newBuilder())(_ += _)
+      .mapMaterializedValue(_.map(_.result())(ExecutionContext.parasitic))
+
+  /**
+   * Interns strings, each distinct string is stored once and referred to by its index.
+   */
+  private[cardano] final class Dictionary {
+    private val indexes = new java.util.HashMap[String, Integer]()
+    private val values = mutable.ArrayBuffer.empty[String]
+
+    def intern(value: String): Int = {
+      val existing = indexes.get(value)
+      if (existing != null) existing.intValue
+      else {
+        indexes.put(value, values.length)
+        values += value
+        values.length - 1
+      }
+    }
+
+    def result(): Array[String] = values.toArray
+  }
+
+  /**
+   * The columns of one block reference, `inserted_at` or `pending_since`.
+   */
+  private[cardano] final class BlockColumns {
+    val seconds = new ArrayBuilder.ofLong
+    val nanos = new ArrayBuilder.ofInt
+    val slotNumbers = new ArrayBuilder.ofInt
+    val epochNumbers = new ArrayBuilder.ofInt
+    val heights = new ArrayBuilder.ofLong
+    val absoluteSlots = new ArrayBuilder.ofLong
+
+    def +=(block: Option[TimedBlock]): Unit = {
+      val instant = block.map(_.time.toInstant)
+      seconds += instant.map(_.getEpochSecond).getOrElse(Missing)
+      nanos += instant.map(_.getNano).getOrElse(0)
+      slotNumbers += block.flatMap(_.slotNumber).getOrElse(MissingInt)
+      epochNumbers += block.flatMap(_.epochNumber).getOrElse(MissingInt)
+      heights += block.flatMap(_.height).map(_.quantity).getOrElse(Missing)
+      absoluteSlots += block.flatMap(_.absoluteSlotNumber).getOrElse(Missing)
+    }
+
+    def result(): Blocks =
+      new Blocks(seconds.result(), nanos.result(), slotNumbers.result(), epochNumbers.result(), heights.result(), absoluteSlots.result())
+  }
+
+  private[cardano] final class Blocks(val seconds: Array[Long],
+                                     val nanos: Array[Int],
+                                     val slotNumbers: Array[Int],
+                                     val epochNumbers: Array[Int],
+                                     val heights: Array[Long],
+                                     val absoluteSlots: Array[Long]) {
+
+    def apply(row: Int): Option[TimedBlock] =
+      if (seconds(row) == Missing) None
+      else Some(TimedBlock(
+        time = Instant.ofEpochSecond(seconds(row), nanos(row)).atZone(ZoneOffset.UTC),
+        block = None,
+        slotNumber = Option.when(slotNumbers(row) != MissingInt)(slotNumbers(row)),
+        epochNumber = Option.when(epochNumbers(row) != MissingInt)(epochNumbers(row)),
+        height = Option.when(heights(row) != Missing)(QuantityUnit(heights(row), Units.block)),
+        absoluteSlotNumber = Option.when(absoluteSlots(row) != Missing)(absoluteSlots(row))
+      ))
+  }
+
+  /**
+   * Collects transactions into columns, see [[TransactionTable]].
+   */
+  final class Builder private[TransactionTable] {
+    private val ids = new Dictionary
+    private val addresses = new Dictionary
+
+    private val idColumn = new ArrayBuilder.ofInt
+    private val amounts = new ArrayBuilder.ofLong
+    private val depths = new ArrayBuilder.ofLong
+    private val directions = new ArrayBuilder.ofByte
+    private val states = new ArrayBuilder.ofByte
+    private val inserted = new BlockColumns
+    private val pending = new BlockColumns
+    private val metadata = mutable.LongMap.empty[TxMetadataOut]
+
+    private val inputEnds = new ArrayBuilder.ofInt
+    private val inputAddresses = new ArrayBuilder.ofInt
+    private val inputAmounts = new ArrayBuilder.ofLong
+    private val inputIds = new ArrayBuilder.ofInt
+    private val inputIndexes = new ArrayBuilder.ofInt
+    private var inputCount = 0
+
+    private val outputEnds = new ArrayBuilder.ofInt
+    private val outputAddresses = new ArrayBuilder.ofInt
+    private val outputAmounts = new ArrayBuilder.ofLong
+    private var outputCount = 0
+
+    private val withdrawalEnds = new ArrayBuilder.ofInt
+    private val withdrawalAddresses = new ArrayBuilder.ofInt
+    private val withdrawalAmounts = new ArrayBuilder.ofLong
+    private var withdrawalCount = 0
+
+    private var rows = 0
+
+    def +=(transaction: CreateTransactionResponse): this.type = {
+      idColumn += ids.intern(transaction.id)
+      amounts += transaction.amount.quantity
+      depths += transaction.depth.map(_.quantity).getOrElse(Missing)
+      directions += transaction.direction.id.toByte
+      states += transaction.status.id.toByte
+      inserted += transaction.insertedAt
+      pending += transaction.pendingSince
+      transaction.metadata.foreach(metadata.update(rows, _))
+
+      transaction.inputs.foreach { input =>
+        inputAddresses += input.address.map(addresses.intern).getOrElse(MissingInt)
+        inputAmounts += input.amount.map(_.quantity).getOrElse(Missing)
+        inputIds += ids.intern(input.id)
+        inputIndexes += input.index
+      }
+      inputCount += transaction.inputs.size
+      inputEnds += inputCount
+
+      transaction.outputs.foreach { output =>
+        outputAddresses += addresses.intern(output.address)
+        outputAmounts += output.amount.quantity
+      }
+      outputCount += transaction.outputs.size
+      outputEnds += outputCount
+
+      transaction.withdrawals.foreach { withdrawal =>
+        withdrawalAddresses += addresses.intern(withdrawal.stakeAddress)
+        withdrawalAmounts += withdrawal.amount.quantity
+      }
+      withdrawalCount += transaction.withdrawals.size
+      withdrawalEnds += withdrawalCount
+
+      rows += 1
+      this
+    }
+
+    def add(transaction: CreateTransactionResponse): Builder = this += transaction
+
+    def result(): TransactionTable =
+      new TransactionTable(
+        ids.result(), addresses.result(), idColumn.result(), amounts.result(), depths.result(), directions.result(),
+        states.result(), inserted.result(), pending.result(), metadata.clone(),
+        inputEnds.result(), inputAddresses.result(), inputAmounts.result(), inputIds.result(), inputIndexes.result(),
+        outputEnds.result(), outputAddresses.result(), outputAmounts.result(),
+        withdrawalEnds.result(), withdrawalAddresses.result(), withdrawalAmounts.result()
+      )
+  }
+}
+
+/**
+ * Transactions held column by column for analytics over large histories.
+ *
+ * Amounts, depths, slots and times are kept in primitive arrays, ids and addresses are interned once in
+ * dictionaries and states and directions are bytes, so a transaction costs a few dozen bytes plus its inputs and
+ * outputs instead of a graph of boxed objects. Filters scan the columns without materialising transactions, which
+ * are rebuilt on demand by [[apply]].
+ *
+ * Times are rebuilt in UTC, as the wallet returns them, and the deprecated `block` of inserted and pending
+ * blocks isn't kept.
+ */
+final class TransactionTable private(
+                                      idDictionary: Array[String],
+                                      addressDictionary: Array[String],
+                                      idColumn: Array[Int],
+                                      amounts: Array[Long],
+                                      depths: Array[Long],
+                                      directions: Array[Byte],
+                                      states: Array[Byte],
+                                      inserted: TransactionTable.Blocks,
+                                      pending: TransactionTable.Blocks,
+                                      metadata: mutable.LongMap[TxMetadataOut],
+                                      inputEnds: Array[Int],
+                                      inputAddresses: Array[Int],
+                                      inputAmounts: Array[Long],
+                                      inputIds: Array[Int],
+                                      inputIndexes: Array[Int],
+                                      outputEnds: Array[Int],
+                                      outputAddresses: Array[Int],
+                                      outputAmounts: Array[Long],
+                                      withdrawalEnds: Array[Int],
+                                      withdrawalAddresses: Array[Int],
+                                      withdrawalAmounts: Array[Long]
+                                    ) {
+
+  import TransactionTable._
+
+  // built on the first lookup, the last row of a transaction added twice
+  private lazy val rowOfId: java.util.HashMap[String, Integer] = {
+    val rows = new java.util.HashMap[String, Integer](size * 2)
+    idColumn.indices.foreach(row => rows.put(id(row), row))
+    rows
+  }
+
+  def size: Int = idColumn.length
+
+  def id(row: Int): String = idDictionary(idColumn(row))
+
+  def amount(row: Int): Long = amounts(row)
+
+  def status(row: Int): TxState = TxState(states(row))
+
+  def direction(row: Int): TxDirection = TxDirection(directions(row))
+
+  /**
+   * @return the absolute slot the transaction was inserted in, if it is in ledger
+   */
+  def slot(row: Int): Option[Long] = Option.when(inserted.absoluteSlots(row) != Missing)(inserted.absoluteSlots(row))
+
+  def epoch(row: Int): Option[Int] = Option.when(inserted.epochNumbers(row) != Int.MinValue)(inserted.epochNumbers(row))
+
+  def rowOf(transactionId: String): Option[Int] = Option(rowOfId.get(transactionId)).map(_.intValue)
+
+  /**
+   * @return the rows matching the filter, in the order the transactions were added
+   */
+  def rows(filter: TransactionFilter = TransactionFilter.all): Array[Int] = {
+    val matching = new ArrayBuilder.ofInt
+    foreachRow(filter)(matching += _)
+    matching.result()
+  }
+
+  def count(filter: TransactionFilter = TransactionFilter.all): Int = {
+    var count = 0
+    foreachRow(filter)(_ => count += 1)
+    count
+  }
+
+  def totalAmount(filter: TransactionFilter = TransactionFilter.all): Long = {
+    var total = 0L
+    foreachRow(filter)(row => total += amounts(row))
+    total
+  }
+
+  /**
+   * @return the transactions matching the filter, rebuilt as they are iterated
+   */
+  def transactions(filter: TransactionFilter = TransactionFilter.all): Iterator[CreateTransactionResponse] =
+    rows(filter).iterator.map(apply)
+
+  /**
+   * Java friendly [[transactions]].
+   */
+  def transactionList(filter: TransactionFilter): java.util.List[CreateTransactionResponse] = {
+    import scala.jdk.CollectionConverters.SeqHasAsJava
+    transactions(filter).toSeq.asJava
+  }
+
+  private def foreachRow(filter: TransactionFilter)(f: Int => Unit): Unit = {
+    val status = filter.status.map(_.id.toByte)
+    val direction = filter.direction.map(_.id.toByte)
+    val checkSlots = filter.fromSlot != Long.MinValue || filter.toSlot != Long.MaxValue
+    val slots = inserted.absoluteSlots
+    var row = 0
+    while (row < size) {
+      if (amounts(row) >= filter.minAmount &&
+        (status.isEmpty || status.get == states(row)) &&
+        (direction.isEmpty || direction.get == directions(row)) &&
+        (!checkSlots || (slots(row) != Missing && slots(row) >= filter.fromSlot && slots(row) <= filter.toSlot))) f(row)
+      row += 1
+    }
+  }
+
+  /**
+   * @return the transaction of a row
+   */
+  def apply(row: Int): CreateTransactionResponse = {
+    val inputsFrom = if (row == 0) 0 else inputEnds(row - 1)
+    val outputsFrom = if (row == 0) 0 else outputEnds(row - 1)
+    val withdrawalsFrom = if (row == 0) 0 else withdrawalEnds(row - 1)
+    CreateTransactionResponse(
+      id = id(row),
+      amount = QuantityUnit(amounts(row), Units.lovelace),
+      insertedAt = inserted(row),
+      pendingSince = pending(row),
+      depth = Option.when(depths(row) != Missing)(QuantityUnit(depths(row), Units.block)),
+      direction = direction(row),
+      inputs = (inputsFrom until inputEnds(row)).map { i =>
+        InAddress(
+          address = Option.when(inputAddresses(i) != Int.MinValue)(addressDictionary(inputAddresses(i))),
+          amount = Option.when(inputAmounts(i) != Missing)(QuantityUnit(inputAmounts(i), Units.lovelace)),
+          id = idDictionary(inputIds(i)),
+          index = inputIndexes(i)
+        )
+      },
+      outputs = (outputsFrom until outputEnds(row)).map { i =>
+        OutAddress(addressDictionary(outputAddresses(i)), QuantityUnit(outputAmounts(i), Units.lovelace))
+      },
+      withdrawals = (withdrawalsFrom until withdrawalEnds(row)).map { i =>
+        StakeAddress(addressDictionary(withdrawalAddresses(i)), QuantityUnit(withdrawalAmounts(i), Units.lovelace))
+      },
+      status = status(row),
+      metadata = metadata.get(row)
+    )
+  }
+}
@@ -0,0 +1,185 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.stream.scaladsl.{Keep, RestartSource, Sink, Source}
+import akka.stream.{KillSwitches, RestartSettings, UniqueKillSwitch}
+import iog.psg.cardano.CardanoApi.{ErrorMessage, ErrorMessageException, Order}
+import iog.psg.cardano.CardanoApiCodec.{CreateTransactionResponse, TransactionSummary, TxState}
+
+import java.time.ZonedDateTime
+import java.util.concurrent.{ConcurrentHashMap, TimeoutException}
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future, Promise}
+import scala.jdk.CollectionConverters.{CollectionHasAsScala, ConcurrentMapHasAsScala}
+import scala.util.control.NonFatal
+
+/**
+ * @param depth blocks on top of a transaction's block after which it is confirmed
+ * @param startMargin transactions are listed from this long before the oldest one tracked was registered,
+ *                    to allow for clock differences with the wallet
+ * @param maxPendingTime a transaction which is neither confirmed nor expired after this fails with a `TimeoutException`
+ * @param tipPolling how the node tip is followed, every new tip refreshes the tracked transactions,
+ *                   the polling restarts after an error backing off between its min and max interval
+ * @param maxRefreshInterval longest time between refreshes while the tip doesn't move
+ * @param parallelism max number of wallets refreshed at once
+ */
+final case class TxConfirmationSettings(
+                                         depth: Long = 5,
+                                         startMargin: FiniteDuration = 10.minutes,
+                                         maxPendingTime: FiniteDuration = 6.hours,
+                                         tipPolling: SubscriptionSettings = SubscriptionSettings.default.withInterval(1.second, 10.seconds),
+                                         maxRefreshInterval: FiniteDuration = 1.minute,
+                                         parallelism: Int = CardanoApi.defaultBatchParallelism
+                                       ) {
+  require(depth >= 0, s"depth must be >= 0 (not $depth)")
+  require(parallelism > 0, s"parallelism must be > 0 (not $parallelism)")
+
+  def withDepth(depth: Long): TxConfirmationSettings = copy(depth = depth)
+
+  def withStartMargin(startMargin: FiniteDuration): TxConfirmationSettings = copy(startMargin = startMargin)
+
+  def withMaxPendingTime(maxPendingTime: FiniteDuration): TxConfirmationSettings = copy(maxPendingTime = maxPendingTime)
+
+  def withTipPolling(tipPolling: SubscriptionSettings): TxConfirmationSettings = copy(tipPolling = tipPolling)
+
+  def withMaxRefreshInterval(maxRefreshInterval: FiniteDuration): TxConfirmationSettings =
+    copy(maxRefreshInterval = maxRefreshInterval)
+
+  def withParallelism(parallelism: Int): TxConfirmationSettings = copy(parallelism = parallelism)
+}
+
+object TxConfirmationSettings {
+
+  val default: TxConfirmationSettings = TxConfirmationSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): TxConfirmationSettings = default
+}
+
+object TxConfirmationTracker {
+
+  def apply(api: CardanoApi, settings: TxConfirmationSettings = TxConfirmationSettings.default)
+           (implicit ec: ExecutionContext, as: ActorSystem): TxConfirmationTracker =
+    new TxConfirmationTracker(api, settings)
+
+  private final class Tracked(val depth: Long, val since: ZonedDateTime, val registeredAt: Long) {
+    val promise: Promise[TransactionSummary] = Promise()
+  }
+}
+
+/**
+ * Watches transactions until they reach a depth in the ledger or expire.
+ *
+ * Rather than polling every transaction, tracked transactions are grouped by wallet and refreshed with
+ * one `listTransactionSummaries` per wallet, starting at the oldest transaction tracked, on every new node tip
+ * (and at least every `maxRefreshInterval`). Wallets without tracked transactions aren't polled. Transactions
+ * past `maxPendingTime` are failed on every tip and tick, whether the node tip or the wallets can be read or not.
+ *
+ * @param api the api the wallets are read through
+ * @param settings depth, listing window and tip polling
+ */
+class TxConfirmationTracker(api: CardanoApi, val settings: TxConfirmationSettings)
+                           (implicit ec: ExecutionContext, as: ActorSystem) {
+
+  import TxConfirmationTracker._
+
+  private val wallets = new ConcurrentHashMap[String, ConcurrentHashMap[String, Tracked]]()
+
+  private val tips: UniqueKillSwitch =
+    RestartSource
+      .withBackoff(RestartSettings(settings.tipPolling.minInterval, settings.tipPolling.maxInterval, 0.2)) { () =>
+        api.subscribeNetworkTip(settings.tipPolling).map(_ => ())
+      }
+      .merge(Source.tick(settings.maxRefreshInterval, settings.maxRefreshInterval, ()))
+      .viaMat(KillSwitches.single)(Keep.right)
+      .map(_ => wallets.values.forEach(expireOverdue(_)))
+      .conflate((_, _) => ())
+      .mapAsync(1)(_ => refresh().recover { case NonFatal(_) => () })
+      .to(Sink.ignore)
+      .run()
+
+  /**
+   * @return number of transactions being tracked
+   */
+  def pending: Int = wallets.values.asScala.map(_.size).sum
+
+  /**
+   * Tracks a transaction, tracking it again returns the same future.
+   *
+   * @param walletId the wallet the transaction belongs to
+   * @param transactionId the transaction's id
+   * @param depth blocks on top of the transaction's block needed to confirm it
+   * @param since a time before the transaction was submitted, defaults to now less the start margin
+   * @return the transaction's summary once it is in ledger at the depth, or once it has expired
+   */
+  def track(walletId: String,
+            transactionId: String,
+            depth: Long = settings.depth,
+            since: Option[ZonedDateTime] = None): Future[TransactionSummary] = {
+    val start = since.getOrElse(ZonedDateTime.now().minusNanos(settings.startMargin.toNanos))
+    wallets
+      .computeIfAbsent(walletId, _ => new ConcurrentHashMap[String, Tracked]())
+      .computeIfAbsent(transactionId, _ => new Tracked(depth, start, System.nanoTime()))
+      .promise
+      .future
+  }
+
+  /**
+   * Tracks a transaction just created, listed from the time it became pending.
+   */
+  def track(walletId: String, transaction: CreateTransactionResponse): Future[TransactionSummary] =
+    track(walletId, transaction.id, settings.depth, transaction.pendingSince.map(_.time.minusNanos(settings.startMargin.toNanos)))
+
+  /**
+   * Java friendly [[track]].
+   */
+  def trackTransaction(walletId: String, transactionId: String, depth: Long): java.util.concurrent.CompletionStage[TransactionSummary] =
+    scala.jdk.javaapi.FutureConverters.asJava(track(walletId, transactionId, depth))
+
+  /**
+   * Stops following the node tip, transactions still tracked are left incomplete.
+   */
+  def shutdown(): Unit = tips.shutdown()
+
+  /**
+   * Refreshes every wallet with tracked transactions.
+   */
+  private[cardano] def refresh(): Future[Unit] = {
+    val active = wallets.asScala.collect { case (walletId, tracked) if !tracked.isEmpty => walletId -> tracked }.toList
+    Source(active)
+      .mapAsyncUnordered(settings.parallelism) { case (walletId, tracked) => refresh(walletId, tracked) }
+      .runWith(Sink.ignore)
+      .map(_ => ())
+  }
+
+  private def refresh(walletId: String, tracked: ConcurrentHashMap[String, Tracked]): Future[Unit] = {
+    val oldest = tracked.values.asScala.map(_.since).minByOption(_.toEpochSecond)
+    val request = api.listTransactionSummaries(walletId, start = oldest, order = Order.ascendingOrder)
+    Future
+      .delegate(api.requestExecutor.execute(request))
+      .map {
+        case Right(summaries) =>
+          summaries.foreach(summary => Option(tracked.get(summary.id)).foreach(update(tracked, summary, _)))
+        case Left(error @ ErrorMessage(_, "no_such_wallet")) =>
+          val failure = ErrorMessageException(error)
+          tracked.asScala.foreach { case (id, t) => if (tracked.remove(id, t)) t.promise.tryFailure(failure) }
+        case Left(_) =>
+      }
+      .recover { case NonFatal(_) => () }
+  }
+
+  private def update(tracked: ConcurrentHashMap[String, Tracked], summary: TransactionSummary, t: Tracked): Unit = {
+    val confirmed = summary.status == TxState.inLedger && summary.depth.exists(_.quantity >= t.depth)
+    if ((confirmed || summary.status == TxState.expired) && tracked.remove(summary.id, t)) t.promise.trySuccess(summary)
+  }
+
+  private def expireOverdue(tracked: ConcurrentHashMap[String, Tracked]): Unit = {
+    val now = System.nanoTime()
+    tracked.asScala.foreach { case (id, t) =>
+      if (now - t.registeredAt > settings.maxPendingTime.toNanos && tracked.remove(id, t))
+        t.promise.tryFailure(new TimeoutException(s"Transaction $id not confirmed after ${settings.maxPendingTime}"))
+    }
+  }
+}
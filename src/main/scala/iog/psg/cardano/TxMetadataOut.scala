@@ -5,6 +5,8 @@ import io.circe.CursorOp.DownField
 import io.circe._
 import iog.psg.cardano.CardanoApiCodec._
 
+import scala.collection.mutable
+
 object TxMetadataOut {
   private val ValueTypeString = "string"
   private val ValueTypeLong = "int" //named int but will work as long
@@ -14,126 +16,129 @@ object TxMetadataOut {
 
   type DecodingEither[T] = Either[DecodingFailure, T]
   type KeyVal = Map[Long, MetadataValue]
-}
-
-final case class TxMetadataOut(json: Json) {
-  import TxMetadataOut._
-
-  def toMetadataMap: Decoder.Result[Map[Long, MetadataValue]] = {
-    implicit val decodeMap: Decoder[Map[Long, MetadataValue]] = (c: HCursor) => {
 
-      def extractStringField(cursor: ACursor): DecodingEither[MetadataValueStr] =
-        cursor.downField(ValueTypeString).as[String].fold(
-          err => Left(err.copy(message = s"Not a String type")),
-          (value: String) => Right(MetadataValueStr(value))
-        )
+  /**
+   * Thrown out of a builder loop to short circuit on the first error, never escapes this object.
+   */
+  private final class DecodingAbort(val failure: DecodingFailure) extends RuntimeException(null, null, false, false)
 
-      def extractLongField(cursor: ACursor): DecodingEither[MetadataValueLong] =
-        cursor.downField(ValueTypeLong).as[Long].fold(
-          err => Left(err.copy(message = s"Not a Long type")),
-          (value: Long) => Right(MetadataValueLong(value))
-        )
+  private def abort(failure: DecodingFailure): Nothing = throw new DecodingAbort(failure)
 
-      def extractBytesField(cursor: ACursor): DecodingEither[MetadataValueByteString] =
-        cursor.downField(ValueTypeBytes).as[String].fold(
-          err => Left(err.copy(message = s"Not a Bytes type")),
-          (value: String) => Right(MetadataValueByteString(ByteString(value)))
-        )
+  private def decodingResult[T](decode: => T): DecodingEither[T] =
+    try Right(decode)
+    catch {
+      case e: DecodingAbort => Left(e.failure)
+    }
 
-      def extractTypedFieldValue(json: Json, key: String): DecodingEither[MetadataValue] = {
-        val cursor = json.hcursor
-        cursor.keys.flatMap(_.headOption) match {
-          case Some(ValueTypeString) =>
-            extractStringField(cursor)
+  /**
+   * The type name and the value of a `{"<type>": <value>}` object, the type being the first field.
+   */
+  private def typedValue(json: Json): Option[(String, Json)] =
+    json.asObject.flatMap(_.toIterable.headOption)
 
-          case Some(ValueTypeLong) =>
-            extractLongField(cursor)
+  private def extractStringField(value: Json, history: => List[CursorOp]): MetadataValueStr =
+    value.asString match {
+      case Some(s) => MetadataValueStr(s)
+      case None => abort(DecodingFailure("Not a String type", history))
+    }
 
-          case Some(ValueTypeBytes)  =>
-            extractBytesField(cursor)
+  private def extractLongField(value: Json, history: => List[CursorOp]): MetadataValueLong =
+    Decoder.decodeLong.decodeJson(value) match {
+      case Right(l) => MetadataValueLong(l)
+      case Left(_) => abort(DecodingFailure("Not a Long type", history))
+    }
 
-          case Some(valueType) => Left(DecodingFailure(s"Invalid type '$valueType'", List(DownField(key))))
+  private def extractBytesField(value: Json, history: => List[CursorOp]): MetadataValueByteString =
+    value.asString match {
+      case Some(s) => MetadataValueByteString(ByteString(s))
+      case None => abort(DecodingFailure("Not a Bytes type", history))
+    }
 
-          case None => Left(DecodingFailure("Missing value under key", List(DownField(key))))
-        }
-      }
+  /**
+   * A value inside a list or a map, only scalar types are allowed there.
+   * The history of a bad value starts from the value itself, as it always has.
+   */
+  private def extractTypedFieldValue(json: Json, key: String): MetadataValue =
+    typedValue(json) match {
+      case Some((ValueTypeString, value)) => extractStringField(value, List(DownField(ValueTypeString)))
+      case Some((ValueTypeLong, value)) => extractLongField(value, List(DownField(ValueTypeLong)))
+      case Some((ValueTypeBytes, value)) => extractBytesField(value, List(DownField(ValueTypeBytes)))
+      case Some((valueType, _)) => abort(DecodingFailure(s"Invalid type '$valueType'", List(DownField(key))))
+      case None => abort(DecodingFailure("Missing value under key", List(DownField(key))))
+    }
 
-      def extractListField(cursor: ACursor, key: String): DecodingEither[MetadataValueArray] = {
-        val keyValuesObjects: List[Json] = cursor.downField(ValueTypeList).values.map(_.toList).getOrElse(Nil)
-        val listResults: Seq[DecodingEither[MetadataValue]] = keyValuesObjects.map(objJson => extractTypedFieldValue(objJson, key))
+  private def extractListField(value: Json, key: String): MetadataValueArray = {
+    val elements = value.asArray.getOrElse(Vector.empty)
+    val builder = Vector.newBuilder[MetadataValue]
+    builder.sizeHint(elements.size)
+    elements.foreach(element => builder += extractTypedFieldValue(element, key))
+    MetadataValueArray(builder.result())
+  }
 
-        listMapErrorOrResult(listResults, () => {
-          val values = listResults.flatMap(_.toOption)
-          MetadataValueArray(values)
-        })
+  private def extractMapField(value: Json, key: String): MetadataValueMap = {
+    def mapField(entry: JsonObject, fieldName: String): MetadataValue =
+      entry(fieldName) match {
+        case Some(fieldJson) => extractTypedFieldValue(fieldJson, key)
+        case None => abort(DecodingFailure(s"Missing '$fieldName' value", List(DownField(key))))
       }
 
-      def extractMapField(cursor: ACursor, key: String): DecodingEither[MetadataValueMap] = {
-        val downFieldMap = cursor.downField(ValueTypeMap)
-        val keyValuesObjects: List[Json] = downFieldMap.values.map(_.toList).getOrElse(Nil)
-
-        def getMapField[T <: MetadataValue](keyName: String, json: Json): DecodingEither[MetadataValue] = for {
-          keyJson <- json.\\(keyName).headOption.toRight(DecodingFailure(s"Missing '$keyName' value", List(DownField(key))))
-          value <- extractTypedFieldValue(keyJson, key)
-        } yield value
-
-        val listResults: Seq[DecodingEither[(MetadataKey, MetadataValue)]] = keyValuesObjects.map { json =>
-          (getMapField[MetadataKey]("k", json), getMapField[MetadataValue]("v", json)) match {
-            case (Right(keyField), Right(valueField)) => Right(keyField.asInstanceOf[MetadataKey] -> valueField)
-            case (Left(error), _) => Left(error)
-            case (_, Left(error)) => Left(error)
-          }
-        }
-
-        listMapErrorOrResult(listResults, () => {
-          val values: Map[MetadataKey, MetadataValue] = listResults.flatMap(_.toOption).toMap
-          MetadataValueMap(values)
-        })
+    val builder = Map.newBuilder[MetadataKey, MetadataValue]
+    value.asArray.getOrElse(Vector.empty).foreach { entryJson =>
+      val entry = entryJson.asObject.getOrElse(JsonObject.empty)
+      val entryKey = mapField(entry, "k")
+      val entryValue = mapField(entry, "v")
+      entryKey match {
+        case k: MetadataKey => builder += k -> entryValue
+        case _ => abort(DecodingFailure("Invalid key type 'bytes'", List(DownField(key))))
       }
+    }
+    MetadataValueMap(builder.result())
+  }
 
-      /**
-       * If any of parsed values in list or map contains an error, it will return it
-       */
-      def listMapErrorOrResult[A, B](results: Seq[DecodingEither[A]], onRight: () => B): DecodingEither[B] =
-        results.find(_.isLeft) match {
-          case Some(Left(error)) => Left(error)
-          case _ => Right(onRight())
-        }
-
-      def extractValueForKeyInto(res: Decoder.Result[KeyVal], key: String): Decoder.Result[KeyVal] = {
-        res.flatMap((map: KeyVal) => {
-          val keyDownField: ACursor = c.downField(key)
-          keyDownField.keys.flatMap(_.headOption) match {
-            case Some(valueType) if valueType == ValueTypeString =>
-              extractStringField(keyDownField).map(extractedValue => map.+(key.toLong -> extractedValue))
-
-            case Some(valueType) if valueType == ValueTypeLong =>
-              extractLongField(keyDownField).map(extractedValue => map.+(key.toLong -> extractedValue))
-
-            case Some(valueType) if valueType == ValueTypeBytes =>
-              extractBytesField(keyDownField).map(extractedValue => map.+(key.toLong -> extractedValue))
-
-            case Some(valueType) if valueType == ValueTypeList =>
-              extractListField(keyDownField, key).map(valueArray => map.+(key.toLong -> valueArray))
-
-            case Some(valueType) if valueType == ValueTypeMap =>
-              extractMapField(keyDownField, key).map(valueMap => map.+(key.toLong -> valueMap))
-
-            case Some(valueType) => Left(DecodingFailure(s"Invalid type '$valueType'", List(DownField(key))))
+  private def extractValueForKey(value: Json, key: String): MetadataValue =
+    typedValue(value) match {
+      case Some((ValueTypeString, v)) => extractStringField(v, List(DownField(ValueTypeString), DownField(key)))
+      case Some((ValueTypeLong, v)) => extractLongField(v, List(DownField(ValueTypeLong), DownField(key)))
+      case Some((ValueTypeBytes, v)) => extractBytesField(v, List(DownField(ValueTypeBytes), DownField(key)))
+      case Some((ValueTypeList, v)) => extractListField(v, key)
+      case Some((ValueTypeMap, v)) => extractMapField(v, key)
+      case Some((valueType, _)) => abort(DecodingFailure(s"Invalid type '$valueType'", List(DownField(key))))
+      case None => abort(DecodingFailure("Missing value under key", List(DownField(key))))
+    }
 
-            case None => Left(DecodingFailure("Missing value under key", List(DownField(key))))
-          }
-        })
+  private def decodeMetadataMap(json: Json): Decoder.Result[KeyVal] = decodingResult {
+    json.asObject.fold[KeyVal](Map.empty) { obj =>
+      val builder: mutable.Builder[(Long, MetadataValue), KeyVal] = Map.newBuilder[Long, MetadataValue]
+      obj.toIterable.foreach { case (key, value) =>
+        builder += key.toLong -> extractValueForKey(value, key)
       }
+      builder.result()
+    }
+  }
+}
 
-      def emptyMapResult: Decoder.Result[KeyVal] = Right(Map[Long, MetadataValue]().empty)
-
-      def withKeys(keys: Iterable[String]): Decoder.Result[KeyVal] = keys.foldLeft(emptyMapResult)(extractValueForKeyInto)
+/**
+ * Metadata as returned by the api, the json is kept as is and only decoded when asked for.
+ */
+final case class TxMetadataOut(json: Json) {
+  import TxMetadataOut._
 
-      c.keys.fold[Decoder.Result[KeyVal]](ifEmpty = emptyMapResult)(withKeys)
+  private lazy val metadataMap: Decoder.Result[Map[Long, MetadataValue]] = decodeMetadataMap(json)
+
+  /**
+   * Decodes the metadata on first use, the result is kept for later calls.
+   * Decoding stops at the first invalid value.
+   */
+  def toMetadataMap: Decoder.Result[Map[Long, MetadataValue]] = metadataMap
+
+  /**
+   * Decodes only the value under the given key, without building the whole map.
+   */
+  def get(key: Long): Decoder.Result[Option[MetadataValue]] = {
+    val keyName = key.toString
+    json.asObject.flatMap(_(keyName)) match {
+      case Some(value) => decodingResult(Some(extractValueForKey(value, keyName)))
+      case None => Right(None)
     }
-
-    json.as[Map[Long, MetadataValue]](decodeMap)
   }
 }
-
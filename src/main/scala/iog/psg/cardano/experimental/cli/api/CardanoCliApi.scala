@@ -1,26 +1,41 @@
 package iog.psg.cardano.experimental.cli.api
 
+import akka.NotUsed
+import akka.stream.scaladsl.Source
 import cats.data.NonEmptyList
 import iog.psg.cardano.experimental.cli.command.{CardanoCli, CardanoCliCmdTransactionId}
+import iog.psg.cardano.experimental.cli.inprocess.InProcessCli
 import iog.psg.cardano.experimental.cli.model._
-import iog.psg.cardano.experimental.cli.processrunner.BlockingProcessRunner
+import iog.psg.cardano.experimental.cli.processrunner.AsyncProcessRunner
 import iog.psg.cardano.experimental.cli.processrunner.Ops._
-import iog.psg.cardano.experimental.cli.util.{RandomTempFolder, Regexes}
+import iog.psg.cardano.experimental.cli.util.{ProcessBuilderHelper, RandomTempFolder, Regexes}
 
+import java.io.File
 import scala.concurrent.{ExecutionContext, Future}
-import scala.sys.process.ProcessBuilder
+import scala.util.Try
 
 
-case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: NetworkChooser,
-                                                 runner: BlockingProcessRunner,
-                                                 ec: ExecutionContext,
-                                                 val cliApiRootFolder: RandomTempFolder) {
+/**
+ * @param backend where `txId`, `hashKey` and `policyId` are computed
+ */
+case class CardanoCliApi(cardanoCli: CardanoCli,
+                         backend: CliBackend = CliBackend.Process)(implicit networkChooser: NetworkChooser,
+                                                                   runner: AsyncProcessRunner,
+                                                                   ec: ExecutionContext,
+                                                                   val cliApiRootFolder: RandomTempFolder) {
+
+  def withBackend(backend: CliBackend): CardanoCliApi = copy(backend = backend)
+
+  private def inProcess[T](compute: => T)(orElse: => Future[T]): Future[T] = backend match {
+    case CliBackend.InProcess => Future.fromTry(Try(compute))
+    case CliBackend.Process => orElse
+  }
 
   def protocolParams: CliApiRequest[ProtocolParams] = new CliApiRequest[ProtocolParams] {
 
     val outFile = ProtocolParams()
 
-    override def execute: Future[ProtocolParams] = Future {
+    override def execute: Future[ProtocolParams] = {
 
     val cmd = cardanoCli
       .query
@@ -28,9 +43,7 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
         .outFile(outFile.file)
         .withNetwork
 
-      runner(cmd.processBuilder)
-
-      outFile
+      runner(cmd.processBuilderHelper).map(_ => outFile)
     }
 
 
@@ -38,17 +51,17 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
 
   def hashKey[A <: KeyType](paymentVerKey: Key[A]): CliApiRequest[KeyHash[A]] = new CliApiRequest[KeyHash[A]] {
 
-    val processBuilder: ProcessBuilder =
+    val processBuilder: ProcessBuilderHelper =
       cardanoCli
         .address
         .keyHash
         .paymentVerificationKeyFile(paymentVerKey.file)
-        .processBuilder
+        .processBuilderHelper
 
-    override def execute: Future[KeyHash[A]] = Future {
-      val result = runner(processBuilder).asUnsafe[String]
-      KeyHash(result)
-    }
+    override def execute: Future[KeyHash[A]] =
+      inProcess(KeyHash[A](InProcessCli.keyHash(paymentVerKey.file))) {
+        runner(processBuilder).map(result => KeyHash(result.asUnsafe[String]))
+      }
 
   }
 
@@ -57,101 +70,101 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
     val verKey = Key[Verification]()
     val signKey = Key[Signing]()
 
-    val processBuilder: ProcessBuilder =
+    val processBuilder: ProcessBuilderHelper =
       cardanoCli
         .address
         .keyGen
         .verificationKeyFile(verKey.file)
         .signingKeyFile(signKey.file)
         .normalKey
-        .processBuilder
+        .processBuilderHelper
 
-    override def execute: Future[(Key[Verification], Key[Signing])] = Future {
-      runner(processBuilder).asUnsafe[Unit]
-      (verKey, signKey)
-    }
+    override def execute: Future[(Key[Verification], Key[Signing])] =
+      runner(processBuilder).map { result =>
+        result.asUnsafe[Unit]
+        (verKey, signKey)
+      }
 
   }
 
   def genPaymentAddress(paymentVerificationKey: Key[Verification]): CliApiRequest[Address] = new CliApiRequest[Address] {
 
-    override def execute: Future[Address] = Future {
-
-      Address(runner(
+    override def execute: Future[Address] =
+      runner(
         cardanoCli
           .address
           .build
           .paymentVerificationKeyFile(paymentVerificationKey.file)
           .withNetwork
-          .processBuilder
-      ).asUnsafe[String])
-    }
+          .processBuilderHelper
+      ).map(result => Address(result.asUnsafe[String]))
   }
 
   def policyId(policy: Policy): CliApiRequest[PolicyId] = new CliApiRequest[PolicyId] {
 
-    override def execute: Future[PolicyId] = Future {
-
-      PolicyId(
+    override def execute: Future[PolicyId] =
+      inProcess(PolicyId(InProcessCli.policyId(policy))) {
         runner(cardanoCli
           .transaction
           .policid
           .scriptFile(policy.file)
-          .processBuilder
-        ).asUnsafe[String]
-      )
-
-    }
+          .processBuilderHelper
+        ).map(result => PolicyId(result.asUnsafe[String]))
+      }
 
   }
 
   def utxo(address: Address): CliApiRequest[List[Utxo]] = new CliApiRequest[List[Utxo]] {
 
-    override def execute: Future[List[Utxo]] = Future {
-
-      val utxos = runner(
+    override def execute: Future[List[Utxo]] =
+      runner(utxoQuery(address)).map(_.asUnsafe[List[String]].drop(2).map(parseUtxo)) // drop headers
+  }
 
-        cardanoCli
-          .query
-          .utxo
-          .address(address.value)
-          .withNetwork
-          .processBuilder
-
-      ).asUnsafe[List[String]]
-
-      utxos
-        .drop(2) // drop headers
-        .map { line =>
-          val data = Regexes.utxoPartSeparator.split(line)
-
-          val nativeAssets: List[NativeAsset] = {
-            data
-              .tail
-              .iterator
-              .flatMap { asset =>
-                val tokenAmountAndTokenInfo = Regexes.spaces.split(asset)
-
-                for {
-                  tokenAmount <- tokenAmountAndTokenInfo.headOption.flatMap(_.toLongOption)
-                  policyIdAndName <- tokenAmountAndTokenInfo.lift(1).map(_.split('.'))
-                  policyId <- policyIdAndName.headOption
-                  tokenName <- policyIdAndName.lift(1).flatMap(Base16String.validate)
-                } yield NativeAsset(AssetId(policyId, tokenName), tokenAmount)
-              }
-              .toList
-          }
-
-          val txHashTxIdLovelace: Array[String] = Regexes.spaces.split(data(0))
-
-          Utxo(
-            txHash = txHashTxIdLovelace(0),
-            txIx = txHashTxIdLovelace(1).toInt,
-            lovelace = txHashTxIdLovelace(2).toLong,
-            assets = nativeAssets
-          )
+  /**
+   * The utxos of an address, each parsed as soon as `query utxo` has written its line.
+   */
+  def utxos(address: Address): Source[Utxo, NotUsed] =
+    runner
+      .lines(utxoQuery(address))
+      .drop(2) // drop headers
+      .map(parseUtxo)
+
+  private def utxoQuery(address: Address): ProcessBuilderHelper =
+    cardanoCli
+      .query
+      .utxo
+      .address(address.value)
+      .withNetwork
+      .processBuilderHelper
+
+  private def parseUtxo(line: String): Utxo = {
+    val data = Regexes.utxoPartSeparator.split(line)
+
+    val nativeAssets: List[NativeAsset] = {
+      data
+        .tail
+        .iterator
+        .flatMap { asset =>
+          val tokenAmountAndTokenInfo = Regexes.spaces.split(asset)
+
+          for {
+            tokenAmount <- tokenAmountAndTokenInfo.headOption.flatMap(_.toLongOption)
+            policyIdAndName <- tokenAmountAndTokenInfo.lift(1).map(_.split('.'))
+            policyId <- policyIdAndName.headOption
+            tokenName <- policyIdAndName.lift(1).flatMap(Base16String.validate)
+          } yield NativeAsset(AssetId(policyId, tokenName), tokenAmount)
         }
+        .toList
     }
+
+    val txHashTxIdLovelace: Array[String] = Regexes.spaces.split(data(0))
+
+    Utxo(
+      txHash = txHashTxIdLovelace(0),
+      txIx = txHashTxIdLovelace(1).toInt,
+      lovelace = txHashTxIdLovelace(2).toLong,
+      assets = nativeAssets
+    )
   }
 
   def buildTx(
@@ -163,7 +176,7 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
     invalidBefore: Option[Long] = None,
     invalidHereafter: Option[Long] = None,
   ): CliApiRequest[Tx] = new CliApiRequest[Tx] {
-    override def execute: Future[Tx] = Future {
+    override def execute: Future[Tx] = {
 
       val tx = Tx()
 
@@ -181,9 +194,10 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
         .optional(_.invalidBefore)(invalidBefore)
         .optional(_.invalidHereafter)(invalidHereafter)
         .outFile(tx.file)
-        .processBuilder).asUnsafe[Unit]
-
-      tx
+        .processBuilderHelper).map { result =>
+        result.asUnsafe[Unit]
+        tx
+      }
     }
   }
 
@@ -194,7 +208,7 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
                     txOutCount: Int,
                     witnessCount: Int): CliApiRequest[String] = new CliApiRequest[String] {
 
-    override def execute: Future[String] = Future {
+    override def execute: Future[String] =
       runner(
         cardanoCli
           .transaction
@@ -205,9 +219,8 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
           .witnessCount(witnessCount)
           .withNetwork
           .protocolParamsFile(protocolParams.file)
-          .processBuilder
-      ).asUnsafe[String]
-    }
+          .processBuilderHelper
+      ).map(_.asUnsafe[String])
   }
 
   def signTx(
@@ -215,7 +228,7 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
               txBody: Tx
             ): CliApiRequest[SignedTx] = new CliApiRequest[SignedTx] {
 
-    override def execute: Future[SignedTx] = Future {
+    override def execute: Future[SignedTx] = {
       val signed = SignedTx()
       runner(
         cardanoCli
@@ -225,38 +238,40 @@ case class CardanoCliApi(cardanoCli: CardanoCli)(implicit networkChooser: Networ
           .txBodyFile(txBody.file)
           .outFile(signed.file)
           .withNetwork
-          .processBuilder
-      ).asUnsafe[Unit]
-      signed
+          .processBuilderHelper
+      ).map { result =>
+        result.asUnsafe[Unit]
+        signed
+      }
     }
   }
 
-  def txId(signedTx: SignedTx): CliApiRequest[String] = txId(_.txFile(signedTx.file))
-  def txId(tx: Tx): CliApiRequest[String] = txId(_.txBodyFile(tx.file))
-
-  private def txId(fileCmd: CardanoCliCmdTransactionId => CardanoCliCmdTransactionId) = new CliApiRequest[String] {
-    override def execute: Future[String] = Future {
-      runner(
-        fileCmd(cardanoCli
-          .transaction
-          .txId)
-          .processBuilder
-      ).asUnsafe[String]
-    }
+  def txId(signedTx: SignedTx): CliApiRequest[String] = txId(signedTx.file, _.txFile(signedTx.file))
+  def txId(tx: Tx): CliApiRequest[String] = txId(tx.file, _.txBodyFile(tx.file))
+
+  private def txId(file: File, fileCmd: CardanoCliCmdTransactionId => CardanoCliCmdTransactionId) = new CliApiRequest[String] {
+    override def execute: Future[String] =
+      inProcess(InProcessCli.txId(file)) {
+        runner(
+          fileCmd(cardanoCli
+            .transaction
+            .txId)
+            .processBuilderHelper
+        ).map(_.asUnsafe[String])
+      }
   }
 
   def submitTx(signedTx: SignedTx): CliApiRequest[String] = new CliApiRequest[String] {
 
-    override def execute: Future[String] = Future {
+    override def execute: Future[String] =
       runner(
         cardanoCli
           .transaction
           .submit
           .txFile(signedTx.file)
           .withNetwork
-          .processBuilder
-      ).asUnsafe[Unit]
-    }.flatMap(_ => txId(signedTx).execute)
+          .processBuilderHelper
+      ).map(_.asUnsafe[Unit]).flatMap(_ => txId(signedTx).execute)
   }
 
 }
@@ -0,0 +1,19 @@
+package iog.psg.cardano.experimental.cli.api
+
+/**
+ * Where a [[CardanoCliApi]] computes the commands which don't need a node: `txId`, `hashKey` and `policyId`.
+ */
+sealed trait CliBackend
+
+object CliBackend {
+
+  /**
+   * Every command runs cardano-cli.
+   */
+  case object Process extends CliBackend
+
+  /**
+   * `txId`, `hashKey` and `policyId` are computed in the JVM, with the same results as cardano-cli.
+   */
+  case object InProcess extends CliBackend
+}
@@ -1,14 +1,13 @@
 package iog.psg.cardano.experimental.cli
 
-import iog.psg.cardano.experimental.cli.util.{RandomFolderFactory, RandomTempFolder}
+import iog.psg.cardano.experimental.cli.util.RandomTempFolder
 
 import java.io.File
 import java.nio.file.Files
 import scala.concurrent.duration.FiniteDuration
 import scala.concurrent.{Await, Future}
-import scala.io.Source
-import scala.sys.process.ProcessBuilder
-import scala.util.{Random, Try}
+import scala.jdk.CollectionConverters._
+import scala.util.Try
 
 
 package object api {
@@ -24,23 +23,16 @@ package object api {
     def execute: Future[B]
   }
 
-  private def generateRandomFileName(): String = Random.nextLong(Long.MaxValue).toString
-
   trait IsFile {
     implicit val rootFolder: RandomTempFolder
-    lazy val fileName: String = generateRandomFileName()
-    lazy val file: File = rootFolder.value.resolve(fileName).toFile
-
+    lazy val file: File = rootFolder.newFile()
+    lazy val fileName: String = file.getName
   }
 
   trait InFile extends IsFile {
     val content: String
 
-    override lazy val file: File = {
-      val f = rootFolder.value.resolve(fileName).toFile
-      Files.writeString(f.toPath, content)
-      f
-    }
+    override lazy val file: File = rootFolder.write(content)
   }
 
   trait OutFile extends IsFile
@@ -67,12 +59,7 @@ package object api {
     implicit class ReadFromFile(file: File) {
 
       def read: String = {
-        val bufferedSource = Source.fromFile(file)
-        try {
-          bufferedSource.getLines().mkString
-        } finally {
-          bufferedSource.close
-        }
+        Files.readAllLines(file.toPath).asScala.mkString
       }
     }
 
@@ -0,0 +1,135 @@
+package iog.psg.cardano.experimental.cli.inprocess
+
+/**
+ * BLAKE2b (RFC 7693) without a key, the hash cardano uses for key hashes (224 bits), script hashes
+ * (224 bits) and transaction ids (256 bits).
+ */
+object Blake2b {
+
+  private val BlockSize = 128
+  private val Rounds = 12
+
+  private val IV = Array[Long](
+    0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+    0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+  )
+
+  private val Sigma: Array[Array[Int]] = {
+    val rounds = Array(
+      Array(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15),
+      Array(14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3),
+      Array(11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4),
+      Array(7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8),
+      Array(9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13),
+      Array(2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9),
+      Array(12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11),
+      Array(13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10),
+      Array(6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5),
+      Array(10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0)
+    )
+    // rounds 10 and 11 repeat the permutations of rounds 0 and 1
+    rounds ++ rounds.take(2)
+  }
+
+  def blake2b224(input: Array[Byte]): Array[Byte] = hash(input, 28)
+
+  def blake2b256(input: Array[Byte]): Array[Byte] = hash(input, 32)
+
+  /**
+   * @param digestSize length of the hash in bytes, from 1 to 64
+   */
+  def hash(input: Array[Byte], digestSize: Int): Array[Byte] =
+    hash(input, 0, input.length, digestSize)
+
+  /**
+   * Hashes `length` bytes of `input` from `offset`.
+   */
+  def hash(input: Array[Byte], offset: Int, length: Int, digestSize: Int): Array[Byte] = {
+    require(digestSize >= 1 && digestSize <= 64, s"digestSize must be between 1 and 64 (not $digestSize)")
+    require(offset >= 0 && length >= 0 && offset + length <= input.length, "offset and length must be within input")
+
+    val h = IV.clone()
+    h(0) ^= 0x01010000L ^ digestSize
+    val m = new Array[Long](16)
+    val v = new Array[Long](16)
+
+    var done = 0
+    while (length - done > BlockSize) {
+      var i = 0
+      while (i < 16) {
+        m(i) = littleEndian(input, offset + done + i * 8)
+        i += 1
+      }
+      done += BlockSize
+      compress(h, m, v, done, last = false)
+    }
+
+    val last = new Array[Byte](BlockSize)
+    System.arraycopy(input, offset + done, last, 0, length - done)
+    var i = 0
+    while (i < 16) {
+      m(i) = littleEndian(last, i * 8)
+      i += 1
+    }
+    compress(h, m, v, length, last = true)
+
+    val digest = new Array[Byte](digestSize)
+    i = 0
+    while (i < digestSize) {
+      digest(i) = (h(i >> 3) >>> (8 * (i & 7))).toByte
+      i += 1
+    }
+    digest
+  }
+
+  private def littleEndian(bytes: Array[Byte], at: Int): Long = {
+    var value = 0L
+    var i = 7
+    while (i >= 0) {
+      value = (value << 8) | (bytes(at + i) & 0xffL)
+      i -= 1
+    }
+    value
+  }
+
+  /**
+   * @param counter bytes hashed so far, including this block
+   */
+  private def compress(h: Array[Long], m: Array[Long], v: Array[Long], counter: Long, last: Boolean): Unit = {
+    System.arraycopy(h, 0, v, 0, 8)
+    System.arraycopy(IV, 0, v, 8, 8)
+    v(12) ^= counter
+    if (last) v(14) = ~v(14)
+
+    var r = 0
+    while (r < Rounds) {
+      val s = Sigma(r)
+      mix(v, 0, 4, 8, 12, m(s(0)), m(s(1)))
+      mix(v, 1, 5, 9, 13, m(s(2)), m(s(3)))
+      mix(v, 2, 6, 10, 14, m(s(4)), m(s(5)))
+      mix(v, 3, 7, 11, 15, m(s(6)), m(s(7)))
+      mix(v, 0, 5, 10, 15, m(s(8)), m(s(9)))
+      mix(v, 1, 6, 11, 12, m(s(10)), m(s(11)))
+      mix(v, 2, 7, 8, 13, m(s(12)), m(s(13)))
+      mix(v, 3, 4, 9, 14, m(s(14)), m(s(15)))
+      r += 1
+    }
+
+    var i = 0
+    while (i < 8) {
+      h(i) ^= v(i) ^ v(i + 8)
+      i += 1
+    }
+  }
+
+  private def mix(v: Array[Long], a: Int, b: Int, c: Int, d: Int, x: Long, y: Long): Unit = {
+    v(a) = v(a) + v(b) + x
+    v(d) = java.lang.Long.rotateRight(v(d) ^ v(a), 32)
+    v(c) = v(c) + v(d)
+    v(b) = java.lang.Long.rotateRight(v(b) ^ v(c), 24)
+    v(a) = v(a) + v(b) + y
+    v(d) = java.lang.Long.rotateRight(v(d) ^ v(a), 16)
+    v(c) = v(c) + v(d)
+    v(b) = java.lang.Long.rotateRight(v(b) ^ v(c), 63)
+  }
+}
@@ -0,0 +1,148 @@
+package iog.psg.cardano.experimental.cli.inprocess
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * The subset of CBOR (RFC 8949) needed to hash what cardano-cli writes: items are located without
+ * being decoded so their original bytes can be hashed, and native scripts are encoded canonically.
+ */
+object Cbor {
+
+  val UIntType = 0
+  val NIntType = 1
+  val BytesType = 2
+  val TextType = 3
+  val ArrayType = 4
+  val MapType = 5
+  val TagType = 6
+  val SimpleType = 7
+
+  private val Indefinite = 31
+  private val Break = 0xff
+
+  case class CborException(message: String) extends RuntimeException(message)
+
+  /**
+   * Writes definite length items with their shortest headers.
+   */
+  final class Writer {
+    private val out = new ByteArrayOutputStream()
+
+    def uint(value: Long): Writer = header(UIntType, value)
+
+    def bytes(value: Array[Byte]): Writer = {
+      header(BytesType, value.length.toLong)
+      out.write(value)
+      this
+    }
+
+    def arrayHeader(size: Int): Writer = header(ArrayType, size.toLong)
+
+    def result: Array[Byte] = out.toByteArray
+
+    private def header(majorType: Int, value: Long): Writer = {
+      require(value >= 0, s"value must be >= 0 (not $value)")
+      val mt = majorType << 5
+      if (value < 24) out.write(mt | value.toInt)
+      else if (value < 0x100) writeArgument(mt | 24, value, 1)
+      else if (value < 0x10000) writeArgument(mt | 25, value, 2)
+      else if (value < 0x100000000L) writeArgument(mt | 26, value, 4)
+      else writeArgument(mt | 27, value, 8)
+      this
+    }
+
+    private def writeArgument(initial: Int, value: Long, size: Int): Unit = {
+      out.write(initial)
+      var i = size - 1
+      while (i >= 0) {
+        out.write((value >>> (8 * i)).toInt & 0xff)
+        i -= 1
+      }
+    }
+  }
+
+  def majorType(bytes: Array[Byte], offset: Int): Int = byteAt(bytes, offset) >>> 5
+
+  /**
+   * @return the offset just past the item starting at `offset`
+   */
+  def itemEnd(bytes: Array[Byte], offset: Int): Int = {
+    val initial = byteAt(bytes, offset)
+    val mt = initial >>> 5
+    if ((initial & 0x1f) == Indefinite) {
+      if (mt == SimpleType) throw CborException(s"Unexpected break at $offset")
+      if (mt < BytesType || mt == TagType) throw CborException(s"Invalid indefinite length item at $offset")
+      var at = offset + 1
+      while (byteAt(bytes, at) != Break) at = itemEnd(bytes, at)
+      at + 1
+    } else {
+      val (value, at) = argument(bytes, offset)
+      mt match {
+        case UIntType | NIntType | SimpleType => at
+        case BytesType | TextType => checkedEnd(bytes, at, value)
+        case ArrayType => skipItems(bytes, at, value)
+        case MapType => skipItems(bytes, at, value * 2)
+        case TagType => itemEnd(bytes, at)
+      }
+    }
+  }
+
+  /**
+   * @return the first item of the array starting at `offset`
+   */
+  def firstItem(bytes: Array[Byte], offset: Int): Int = {
+    if (majorType(bytes, offset) != ArrayType) throw CborException(s"Expected an array at $offset")
+    if ((byteAt(bytes, offset) & 0x1f) == Indefinite) offset + 1
+    else argument(bytes, offset)._2
+  }
+
+  /**
+   * @return the content of the definite length byte string starting at `offset`
+   */
+  def byteString(bytes: Array[Byte], offset: Int): Array[Byte] = {
+    if (majorType(bytes, offset) != BytesType || (byteAt(bytes, offset) & 0x1f) == Indefinite) {
+      throw CborException(s"Expected a definite length byte string at $offset")
+    }
+    val (length, at) = argument(bytes, offset)
+    java.util.Arrays.copyOfRange(bytes, at, checkedEnd(bytes, at, length))
+  }
+
+  private def skipItems(bytes: Array[Byte], from: Int, count: Long): Int = {
+    if (count < 0) throw CborException(s"Item before $from has too many elements")
+    var at = from
+    var i = 0L
+    while (i < count) {
+      at = itemEnd(bytes, at)
+      i += 1
+    }
+    at
+  }
+
+  private def checkedEnd(bytes: Array[Byte], at: Int, length: Long): Int = {
+    if (length < 0 || length > bytes.length - at) throw CborException(s"Item at $at is longer than the input")
+    at + length.toInt
+  }
+
+  /**
+   * @return the argument of the item's header and the offset just past the header
+   */
+  private def argument(bytes: Array[Byte], offset: Int): (Long, Int) = {
+    val info = byteAt(bytes, offset) & 0x1f
+    if (info < 24) (info.toLong, offset + 1)
+    else if (info <= 27) {
+      val size = 1 << (info - 24)
+      var value = 0L
+      var i = 1
+      while (i <= size) {
+        value = (value << 8) | byteAt(bytes, offset + i)
+        i += 1
+      }
+      (value, offset + 1 + size)
+    } else throw CborException(s"Invalid additional information $info at $offset")
+  }
+
+  private def byteAt(bytes: Array[Byte], offset: Int): Int = {
+    if (offset >= bytes.length) throw CborException(s"Unexpected end of input at $offset")
+    bytes(offset) & 0xff
+  }
+}
@@ -0,0 +1,75 @@
+package iog.psg.cardano.experimental.cli.inprocess
+
+import iog.psg.cardano.experimental.cli.model.Policy
+import iog.psg.cardano.experimental.cli.model.Policy.{Kind, Script}
+import org.apache.commons.codec.binary.Hex
+
+import java.io.File
+import java.nio.file.Files
+
+/**
+ * The cardano-cli commands which only hash their input, computed in the JVM. Every result is the
+ * hex string cardano-cli prints.
+ */
+object InProcessCli {
+
+  case class TextEnvelopeException(file: File, reason: String)
+    extends RuntimeException(s"${file.getPath} is not a text envelope: $reason")
+
+  /**
+   * `address key-hash --payment-verification-key-file`, the blake2b-224 hash of the raw key.
+   */
+  def keyHash(verificationKeyFile: File): String =
+    Hex.encodeHexString(Blake2b.blake2b224(Cbor.byteString(envelopeCbor(verificationKeyFile), 0)))
+
+  /**
+   * `transaction txid` of a tx body file or of a signed tx file, the blake2b-256 hash of the body's
+   * bytes as they are in the file.
+   */
+  def txId(txFile: File): String = {
+    val cbor = envelopeCbor(txFile)
+    if (Cbor.itemEnd(cbor, 0) != cbor.length) throw Cbor.CborException(s"${txFile.getPath} has bytes after its tx")
+    // [body, scripts or witnesses, auxiliary data] unless the file holds a bare body
+    val body = if (Cbor.majorType(cbor, 0) == Cbor.ArrayType) Cbor.firstItem(cbor, 0) else 0
+    Hex.encodeHexString(Blake2b.hash(cbor, body, Cbor.itemEnd(cbor, body) - body, 32))
+  }
+
+  /**
+   * `transaction policyid --script-file`, the blake2b-224 hash of the native script tagged with 0.
+   */
+  def policyId(policy: Policy): String = {
+    val script = nativeScript(policy)
+    val tagged = new Array[Byte](script.length + 1)
+    System.arraycopy(script, 0, tagged, 1, script.length)
+    Hex.encodeHexString(Blake2b.blake2b224(tagged))
+  }
+
+  /**
+   * The policy as an Allegra native script:
+   * sig [0, key hash], all [1, scripts], any [2, scripts], atLeast [3, n, scripts], after [4, slot],
+   * before [5, slot].
+   */
+  def nativeScript(policy: Policy): Array[Byte] = {
+    val writer = new Cbor.Writer
+    policy.kind match {
+      case Kind.All => writer.arrayHeader(2).uint(1)
+      case Kind.Any => writer.arrayHeader(2).uint(2)
+      case Kind.AtLeast(required) => writer.arrayHeader(3).uint(3).uint(required.toLong)
+    }
+    writer.arrayHeader(policy.scripts.size)
+    policy.scripts.toList.foreach {
+      case Script.Signature(keyHash) => writer.arrayHeader(2).uint(0).bytes(Hex.decodeHex(keyHash.content))
+      case Script.Bound(slot, true) => writer.arrayHeader(2).uint(4).uint(slot)
+      case Script.Bound(slot, false) => writer.arrayHeader(2).uint(5).uint(slot)
+    }
+    writer.result
+  }
+
+  private def envelopeCbor(file: File): Array[Byte] = {
+    val cborHex = io.circe.parser
+      .parse(Files.readString(file.toPath))
+      .flatMap(_.hcursor.downField("cborHex").as[String])
+      .fold(e => throw TextEnvelopeException(file, e.getMessage), hex => hex)
+    Hex.decodeHex(cborHex)
+  }
+}
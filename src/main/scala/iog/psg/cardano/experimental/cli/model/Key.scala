@@ -3,15 +3,28 @@ package iog.psg.cardano.experimental.cli.model
 import iog.psg.cardano.experimental.cli.api.{IsKey, KeyType, OutFile}
 import iog.psg.cardano.experimental.cli.util.RandomTempFolder
 
-import java.nio.file.Files
+import java.io.File
 
 
 object Key {
-  def apply[A <: KeyType](keyAsString: String)(implicit rootFolder: RandomTempFolder): Key[A] = {
-    val k = Key[A]()
-    Files.writeString(k.file.toPath, keyAsString)
-    k
-  }
+
+  /**
+   * A key for cardano-cli to write.
+   */
+  private[cli] def apply[A <: KeyType]()(implicit rootFolder: RandomTempFolder): Key[A] = new Key[A](None)
+
+  /**
+   * A key with the given content, its file is written when it is first used.
+   */
+  def apply[A <: KeyType](keyAsString: String)(implicit rootFolder: RandomTempFolder): Key[A] =
+    new Key[A](Some(keyAsString))
 }
 
-case class Key[A <: KeyType] private[cli]()(implicit val rootFolder: RandomTempFolder) extends OutFile with IsKey[A]
+/**
+ * @param content the key, when it isn't written by cardano-cli
+ */
+final class Key[A <: KeyType] private(content: Option[String])(implicit val rootFolder: RandomTempFolder)
+  extends OutFile with IsKey[A] {
+
+  override lazy val file: File = content.fold(rootFolder.newFile())(rootFolder.write)
+}
@@ -1,10 +1,12 @@
 package iog.psg.cardano.experimental.cli.param
 
-import iog.psg.cardano.experimental.cli.util.CliCmd
+import iog.psg.cardano.experimental.cli.util.{CliCmd, ProcessBuilderHelper}
 
 trait CanRun {
 
   self: CliCmd =>
 
   def processBuilder = builder.processBuilder
+
+  def processBuilderHelper: ProcessBuilderHelper = builder
 }
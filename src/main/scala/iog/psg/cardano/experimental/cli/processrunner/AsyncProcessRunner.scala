@@ -0,0 +1,315 @@
+package iog.psg.cardano.experimental.cli.processrunner
+
+import akka.stream.scaladsl.Source
+import akka.{Done, NotUsed}
+import iog.psg.cardano.experimental.cli.processrunner.Ops._
+import iog.psg.cardano.experimental.cli.util.ProcessBuilderHelper
+import iog.psg.cardano.{LatencyHistogram, LatencySummary}
+
+import java.io.{BufferedReader, InputStreamReader}
+import java.lang.ProcessBuilder.Redirect
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import scala.collection.mutable
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future, Promise, blocking}
+import scala.jdk.CollectionConverters._
+import scala.jdk.FutureConverters._
+import scala.util.control.NonFatal
+import scala.util.{Failure, Success, Try, Using}
+
+/**
+ * @param maxConcurrentProcesses max number of processes running at once, the others wait their turn
+ * @param timeout how long a process may run before it (and its children) are killed
+ * @param maxRetainedLines max number of lines of stdout and of stderr kept in a process' result
+ */
+final case class AsyncProcessSettings(
+                                       maxConcurrentProcesses: Int = Runtime.getRuntime.availableProcessors(),
+                                       timeout: FiniteDuration = 1.minute,
+                                       maxRetainedLines: Int = BlockingProcessRunner.defaultMaxRetainedLines
+                                     ) {
+  require(maxConcurrentProcesses > 0, s"maxConcurrentProcesses must be > 0 (not $maxConcurrentProcesses)")
+  require(timeout.length > 0, s"timeout must be > 0 (not $timeout)")
+  require(maxRetainedLines > 0, s"maxRetainedLines must be > 0 (not $maxRetainedLines)")
+
+  def withMaxConcurrentProcesses(maxConcurrentProcesses: Int): AsyncProcessSettings =
+    copy(maxConcurrentProcesses = maxConcurrentProcesses)
+
+  def withTimeout(timeout: FiniteDuration): AsyncProcessSettings = copy(timeout = timeout)
+
+  def withMaxRetainedLines(maxRetainedLines: Int): AsyncProcessSettings = copy(maxRetainedLines = maxRetainedLines)
+}
+
+object AsyncProcessSettings {
+
+  val default: AsyncProcessSettings = AsyncProcessSettings()
+
+  /**
+   * Java friendly access to the default settings
+   */
+  def defaults(): AsyncProcessSettings = default
+}
+
+case class ProcessTimeoutException(command: String, timeout: FiniteDuration)
+  extends RuntimeException(s"'$command' did not complete within $timeout and was killed")
+
+trait AsyncProcessRunner {
+  def apply(process: ProcessBuilderHelper): Future[BlockingProcessResult]
+
+  /**
+   * The lines of the process' stdout, the stream fails with a [[BlockingProcessResultException]] if the
+   * process exits with an error. This default only emits once the process has exited.
+   */
+  def lines(process: ProcessBuilderHelper): Source[String, NotUsed] =
+    Source.future(apply(process)).mapConcat(_.asUnsafe[List[String]])
+}
+
+object AsyncProcessRunner {
+
+  /**
+   * A runner which holds no thread while a process runs: the process writes its output to temporary files
+   * and completion is signalled by `ProcessHandle.onExit`. Only [[AsyncProcessRunner.lines]] reads from
+   * the process' stdout while it runs.
+   *
+   * @param settings concurrency limit, per process timeout and retained output
+   * @param priority orders the processes waiting for the concurrency limit, higher first and equal ones in
+   *                 arrival order
+   * @param ec reads the output of processes, the reads are marked `blocking` so a pool which supports it
+   *           (e.g. the global one) adds threads rather than being parked by a long output
+   */
+  def apply(settings: AsyncProcessSettings = AsyncProcessSettings.default,
+            priority: ProcessBuilderHelper => Int = _ => 0)
+           (implicit ec: ExecutionContext): ProcessHandleRunner =
+    new ProcessHandleRunner(settings, priority)
+
+  /**
+   * Runs a [[BlockingProcessRunner]] on `ec`, every running process keeps one of its threads busy.
+   */
+  implicit def fromBlocking(implicit runner: BlockingProcessRunner, ec: ExecutionContext): AsyncProcessRunner =
+    process => Future(blocking(runner(process.processBuilder)))
+}
+
+/**
+ * @param commands processes run
+ * @param failures processes which failed to start, timed out or exited with an error
+ * @param queued time from the process being submitted to it being started
+ * @param run time from the process being started to its exit
+ */
+final case class CommandStats(commands: Long, failures: Long, queued: LatencySummary, run: LatencySummary)
+
+/**
+ * @param running processes running
+ * @param queued processes waiting for the concurrency limit
+ * @param commands stats by command, the command line without its parameters e.g. `./cardano-cli transaction txid`
+ */
+final case class ProcessRunnerStats(running: Int, queued: Int, commands: Map[String, CommandStats]) {
+
+  def command(name: String): Option[CommandStats] = commands.get(name)
+}
+
+object ProcessHandleRunner {
+
+  private val maxLinesPerRead = 1024
+
+  private final class Spawned(val process: Process, val errors: Path, val exited: Future[Process])
+
+  private final class Waiting(val priority: Int, val seq: Long, val promise: Promise[Unit])
+
+  private implicit val waitingOrdering: Ordering[Waiting] =
+    Ordering.by[Waiting, (Int, Long)](w => (w.priority, -w.seq))
+
+  private final class Command {
+    val commands = new LongAdder()
+    val failures = new LongAdder()
+    val queued = new LatencyHistogram()
+    val run = new LatencyHistogram()
+
+    def stats: CommandStats = CommandStats(commands.sum(), failures.sum(), queued.summary, run.summary)
+  }
+}
+
+/**
+ * Runs at most `settings.maxConcurrentProcesses` processes at once, the others wait in order of priority.
+ * The time every command spends waiting and running is recorded in [[stats]].
+ *
+ * Created by [[AsyncProcessRunner.apply]].
+ */
+final class ProcessHandleRunner private[processrunner](settings: AsyncProcessSettings,
+                                                       priority: ProcessBuilderHelper => Int)
+                                                      (implicit ec: ExecutionContext)
+  extends AsyncProcessRunner {
+
+  import ProcessHandleRunner._
+
+  private var running = 0
+  private var submitted = 0L
+  private val waiting = mutable.PriorityQueue.empty[Waiting]
+  private val commands = new ConcurrentHashMap[String, Command]()
+
+  def stats: ProcessRunnerStats = {
+    val (r, q) = synchronized((running, waiting.size))
+    ProcessRunnerStats(r, q, commands.asScala.map { case (name, command) => name -> command.stats }.toMap)
+  }
+
+  override def apply(process: ProcessBuilderHelper): Future[BlockingProcessResult] =
+    Future.fromTry(Try(Files.createTempFile("cardano-cli", ".out"))).flatMap { out =>
+      spawn(process, Redirect.to(out.toFile))
+        .flatMap { spawned =>
+          spawned.exited
+            .map { p =>
+              val logger = new ProcessLogger(settings.maxRetainedLines)
+              blocking {
+                readLines(out)(logger.out(_))
+                readLines(spawned.errors)(logger.err(_))
+              }
+              BlockingProcessResult(p.exitValue(), logger.result, logger.error, logger.truncated)
+            }
+            .andThen { case _ => Files.deleteIfExists(spawned.errors) }
+        }
+        .andThen { case _ => Files.deleteIfExists(out) }
+    }
+
+  /**
+   * Reads the process' stdout as it is written, on a thread of `ec`. Cancelling the stream kills the process.
+   */
+  override def lines(process: ProcessBuilderHelper): Source[String, NotUsed] =
+    Source
+      .unfoldResourceAsync[Seq[String], Reading](
+        () => spawn(process, Redirect.PIPE).map(new Reading(_)),
+        reading => Future(blocking(reading.next())),
+        reading => reading.close()
+      )
+      .mapConcat(lines => lines)
+
+  private final class Reading(spawned: Spawned) {
+    private val reader =
+      new BufferedReader(new InputStreamReader(spawned.process.getInputStream, StandardCharsets.UTF_8))
+    @volatile private var exhausted = false
+
+    /**
+     * Waits for a line, then takes the lines already buffered along with it.
+     */
+    def next(): Option[Seq[String]] = {
+      val first = reader.readLine()
+      if (first == null) {
+        exhausted = true
+        None
+      } else {
+        val lines = mutable.ArrayBuffer(first)
+        while (lines.size < maxLinesPerRead && reader.ready()) {
+          Option(reader.readLine()).foreach(lines += _)
+        }
+        Some(lines.toSeq)
+      }
+    }
+
+    /**
+     * A read may still be waiting for a line when the stream is cancelled, the reader is only closed
+     * once the killed process has closed its end of the pipe.
+     */
+    def close(): Future[Done] = {
+      val checked = if (!exhausted) {
+        kill(spawned.process)
+        spawned.exited.transform(_ => Success(Done))
+      } else {
+        spawned.exited.map { p =>
+          if (p.exitValue() != 0) {
+            val logger = new ProcessLogger(settings.maxRetainedLines)
+            blocking(readLines(spawned.errors)(logger.err(_)))
+            throw BlockingProcessResultException(BlockingProcessResult(p.exitValue(), Nil, logger.error))
+          }
+          Done
+        }
+      }
+      checked.andThen { case _ =>
+        reader.close()
+        Files.deleteIfExists(spawned.errors)
+      }
+    }
+  }
+
+  private def acquire(priority: Int): Future[Unit] = synchronized {
+    submitted += 1
+    if (running < settings.maxConcurrentProcesses) {
+      running += 1
+      Future.unit
+    } else {
+      val promise = Promise[Unit]()
+      waiting.enqueue(new Waiting(priority, submitted, promise))
+      promise.future
+    }
+  }
+
+  private def release(): Unit = {
+    val next = synchronized {
+      if (waiting.nonEmpty) Some(waiting.dequeue().promise)
+      else {
+        running -= 1
+        None
+      }
+    }
+    next.foreach(_.success(()))
+  }
+
+  /**
+   * Starts the process once it is under the concurrency limit, the limit is released when it exits.
+   */
+  private def spawn(process: ProcessBuilderHelper, output: Redirect): Future[Spawned] = {
+    val command = commands.computeIfAbsent(process.command.mkString(" "), _ => new Command)
+    val submittedAt = System.nanoTime()
+    acquire(priority(process)).flatMap { _ =>
+      val startedAt = System.nanoTime()
+      command.commands.increment()
+      command.queued.record(startedAt - submittedAt)
+      Try(start(process, output)) match {
+        case Success(spawned) =>
+          spawned.exited.onComplete { exit =>
+            command.run.record(System.nanoTime() - startedAt)
+            if (!exit.toOption.exists(_.exitValue() == 0)) command.failures.increment()
+            release()
+          }
+          Future.successful(spawned)
+        case Failure(e) =>
+          command.failures.increment()
+          release()
+          Future.failed(e)
+      }
+    }
+  }
+
+  private def start(process: ProcessBuilderHelper, output: Redirect): Spawned = {
+    val errors = Files.createTempFile("cardano-cli", ".err")
+    val builder = new ProcessBuilder(process.commandLine.asJava)
+      .redirectOutput(output)
+      .redirectError(errors.toFile)
+    builder.environment().putAll(process.env.asJava)
+
+    val started = try builder.start() catch {
+      case NonFatal(e) =>
+        Files.deleteIfExists(errors)
+        throw e
+    }
+
+    val exited = started
+      .onExit()
+      .orTimeout(settings.timeout.toMillis, TimeUnit.MILLISECONDS)
+      .asScala
+      .recoverWith { case _ =>
+        kill(started)
+        started.onExit().asScala.flatMap(_ =>
+          Future.failed(ProcessTimeoutException(process.toCommand, settings.timeout))
+        )
+      }
+    new Spawned(started, errors, exited)
+  }
+
+  private def kill(process: Process): Unit = {
+    process.descendants().forEach(child => child.destroyForcibly())
+    process.destroyForcibly()
+  }
+
+  private def readLines(file: Path)(line: String => Unit): Unit =
+    Using.resource(Files.newBufferedReader(file))(_.lines().forEach(l => line(l)))
+}
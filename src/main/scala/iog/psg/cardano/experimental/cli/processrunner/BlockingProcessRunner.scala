@@ -8,11 +8,20 @@ trait BlockingProcessRunner {
 }
 
 object BlockingProcessRunner extends BlockingProcessRunner {
-  def apply(process: ProcessBuilder): BlockingProcessResult = {
-    val logger = new ProcessLogger
+
+  val defaultMaxRetainedLines = 100000
+
+  /**
+   * @param maxRetainedLines max number of lines of stdout and of stderr kept in the result
+   */
+  def apply(maxRetainedLines: Int): BlockingProcessRunner = process => run(process, maxRetainedLines)
+
+  def apply(process: ProcessBuilder): BlockingProcessResult = run(process, defaultMaxRetainedLines)
+
+  private def run(process: ProcessBuilder, maxRetainedLines: Int): BlockingProcessResult = {
+    val logger = new ProcessLogger(maxRetainedLines)
     val p      = process.run(logger)
     val i      = p.exitValue()
-    BlockingProcessResult(i, logger.result, logger.error)
+    BlockingProcessResult(i, logger.result, logger.error, logger.truncated)
   }
 }
-
@@ -1,22 +1,52 @@
 package iog.psg.cardano.experimental.cli.processrunner
 
+import scala.collection.mutable
 import scala.sys.process.{ProcessLogger => SysProcessLogger}
 
-private class ProcessLogger extends SysProcessLogger {
-
-  private var outBuffer: List[String] = Nil
-  private var errBuffer: List[String] = Nil
-
-  override def out(s: => String): Unit = outBuffer = outBuffer :+ s
-
-  override def err(s: => String): Unit = errBuffer = errBuffer :+ s
+/**
+ * Collects the lines of a process' stdout and stderr, which are pumped on different threads.
+ *
+ * At most `maxRetainedLines` lines of each stream are kept, the number of lines dropped past that is
+ * reported as a last line of the errors.
+ */
+private class ProcessLogger(maxRetainedLines: Int) extends SysProcessLogger {
+
+  require(maxRetainedLines > 0, s"maxRetainedLines must be > 0 (not $maxRetainedLines)")
+
+  private val outBuffer = mutable.ListBuffer.empty[String]
+  private val errBuffer = mutable.ListBuffer.empty[String]
+  private var outDropped = 0L
+  private var errDropped = 0L
+
+  override def out(s: => String): Unit = {
+    val line = s
+    synchronized {
+      if (outBuffer.size < maxRetainedLines) outBuffer += line else outDropped += 1
+    }
+  }
+
+  override def err(s: => String): Unit = {
+    val line = s
+    synchronized {
+      if (errBuffer.size < maxRetainedLines) errBuffer += line else errDropped += 1
+    }
+  }
 
   override def buffer[T](f: => T): T = f
 
-  def hasError: Boolean = errBuffer.nonEmpty
+  def hasError: Boolean = error.nonEmpty
 
-  def result: List[String] = outBuffer
+  /**
+   * @return whether lines of stdout were dropped
+   */
+  def truncated: Boolean = synchronized(outDropped > 0)
 
-  def error: Option[List[String]] = Option.when(errBuffer.nonEmpty)(errBuffer)
-}
+  def result: List[String] = synchronized(outBuffer.toList)
 
+  def error: Option[List[String]] = synchronized {
+    val dropped =
+      Option.when(outDropped > 0)(s"$outDropped lines of output dropped after the first $maxRetainedLines") ++
+        Option.when(errDropped > 0)(s"$errDropped lines of errors dropped after the first $maxRetainedLines")
+    Option.when(errBuffer.nonEmpty || dropped.nonEmpty)(errBuffer.toList ++ dropped)
+  }
+}
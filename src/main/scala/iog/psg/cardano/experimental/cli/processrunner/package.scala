@@ -4,10 +4,14 @@ package object processrunner {
 
   case class BlockingProcessResultException(errorResult: BlockingProcessResult) extends RuntimeException(errorResult.toString)
 
+  /**
+   * @param truncated whether lines of the output were dropped past the max retained, such a result is never a success
+   */
   case class BlockingProcessResult(
                                     exitValue: Int,
                                     result: List[String],
-                                    errors: Option[List[String]]
+                                    errors: Option[List[String]],
+                                    truncated: Boolean = false
                                   )
 
 
@@ -41,7 +45,7 @@ package object processrunner {
       }
 
       def toEitherProcessResult: Either[BlockingProcessResultException, BlockingProcessResult] = {
-        if(result.exitValue == 0) {
+        if(result.exitValue == 0 && !result.truncated) {
           Right(result)
         } else {
           Left(BlockingProcessResultException(result))
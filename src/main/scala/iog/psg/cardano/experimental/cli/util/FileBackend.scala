@@ -0,0 +1,34 @@
+package iog.psg.cardano.experimental.cli.util
+
+/**
+ * How the files passed to cardano-cli are named in a [[RandomTempFolder]].
+ */
+sealed trait FileBackend
+
+object FileBackend {
+
+  /**
+   * Every input and output file gets a new random name.
+   */
+  case object Random extends FileBackend
+
+  /**
+   * Input files are named after the hash of their content, so identical policies, keys and metadata
+   * are written once per folder and the file is shared by every request using them. Output files
+   * still get random names.
+   */
+  case object ContentAddressed extends FileBackend
+}
+
+/**
+ * @param filesCreated output files handed out for cardano-cli to write
+ * @param filesWritten input files written
+ * @param bytesWritten bytes of the input files written
+ * @param filesReused input files which already had a file with the same content
+ * @param filesDeleted files deleted when the folder was closed
+ */
+final case class FileBackendStats(filesCreated: Long,
+                                  filesWritten: Long,
+                                  bytesWritten: Long,
+                                  filesReused: Long,
+                                  filesDeleted: Long)
@@ -42,12 +42,14 @@ case class ProcessBuilderHelper(
       .mkString(" ")
   }
 
-  lazy val processBuilder: ProcessBuilder = {
-
+  def commandLine: Vector[String] = {
     val cmdWithSudoOpt = if(sudo) {
       "sudo" +: command
     } else command
 
-    Process(cmdWithSudoOpt ++ parameters, None, extraEnv = env.toSeq: _*)
+    cmdWithSudoOpt ++ parameters
   }
+
+  lazy val processBuilder: ProcessBuilder =
+    Process(commandLine, None, extraEnv = env.toSeq: _*)
 }
@@ -1,23 +1,144 @@
 package iog.psg.cardano.experimental.cli.util
 
-import java.nio.file.{Files, Path}
-import scala.util.Random
+import org.apache.commons.codec.digest.DigestUtils
 
-case class RandomTempFolder(value: Path)
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.attribute.{FileAttribute, PosixFilePermissions}
+import java.nio.file.{Files, Path, Paths}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import scala.util.{Random, Using}
 
-case class RandomFolderFactory(private val rootFolder: Path) extends AutoCloseable {
+object RandomTempFolder {
 
-  Files.createDirectories(rootFolder)
+  def apply(value: Path, backend: FileBackend = FileBackend.Random): RandomTempFolder =
+    new RandomTempFolder(value, backend)
+
+  /**
+   * Permissions of the folders and files holding keys, where the file system has posix permissions.
+   */
+  private[util] def ownerOnly(path: Path, permissions: String): Seq[FileAttribute[_]] =
+    if (path.getFileSystem.supportedFileAttributeViews().contains("posix"))
+      Seq(PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions)))
+    else Nil
+
+  private[util] def ownerOnlyFolder(path: Path): Seq[FileAttribute[_]] = ownerOnly(path, "rwx------")
+
+  private[util] def ownerOnlyFile(path: Path): Seq[FileAttribute[_]] = ownerOnly(path, "rw-------")
+}
+
+/**
+ * The folder holding the files of cardano-cli requests, the files it writes can only be read by their owner.
+ *
+ * @param backend how the files in the folder are named
+ */
+final class RandomTempFolder(val value: Path, val backend: FileBackend) {
+
+  import RandomTempFolder._
+
+  private val filesCreated = new LongAdder()
+  private val filesWritten = new LongAdder()
+  private val bytesWritten = new LongAdder()
+  private val filesReused = new LongAdder()
+  private val filesDeleted = new LongAdder()
+
+  private val written = new ConcurrentHashMap[String, File]()
+
+  /**
+   * A file for cardano-cli to write to, it is not created.
+   */
+  def newFile(): File = {
+    filesCreated.increment()
+    randomFile()
+  }
+
+  /**
+   * A file holding `content`, written unless the backend already has one with the same content.
+   */
+  def write(content: String): File = {
+    val bytes = content.getBytes(StandardCharsets.UTF_8)
+    backend match {
+      case FileBackend.Random =>
+        writeFile(randomFile(), bytes)
+
+      case FileBackend.ContentAddressed =>
+        var reused = true
+        val file = written.computeIfAbsent(DigestUtils.sha256Hex(bytes), name => {
+          reused = false
+          writeFile(value.resolve(name).toFile, bytes)
+        })
+        if (reused) filesReused.increment()
+        file
+    }
+  }
+
+  def stats: FileBackendStats =
+    FileBackendStats(filesCreated.sum(), filesWritten.sum(), bytesWritten.sum(), filesReused.sum(), filesDeleted.sum())
+
+  override def toString: String = s"RandomTempFolder($value, $backend)"
+
+  /**
+   * Deletes every file in the folder, and the folder.
+   */
+  private[util] def delete(): Unit = {
+    Using.resource(Files.newDirectoryStream(value)) { files =>
+      files.forEach { file =>
+        if (Files.deleteIfExists(file)) filesDeleted.increment()
+      }
+    }
+    written.clear()
+    Files.delete(value)
+  }
+
+  private def randomFile(): File = value.resolve(Random.nextLong(Long.MaxValue).toString).toFile
+
+  private def writeFile(file: File, bytes: Array[Byte]): File = {
+    Files.write(Files.createFile(file.toPath, ownerOnlyFile(file.toPath): _*), bytes)
+    filesWritten.increment()
+    bytesWritten.add(bytes.length.toLong)
+    file
+  }
+}
+
+case class RandomFolderFactory(private val rootFolder: Path,
+                               backend: FileBackend = FileBackend.Random) extends AutoCloseable {
+
+  Files.createDirectories(rootFolder, RandomTempFolder.ownerOnlyFolder(rootFolder): _*)
 
   require(rootFolder.toFile.exists(), s"Failed to create $rootFolder")
   require(rootFolder.toFile.isDirectory, s"$rootFolder is not a folder")
 
-  val folder: RandomTempFolder = RandomTempFolder(
-    Files.createDirectory(rootFolder.resolve(Random.nextLong(Long.MaxValue).toString))
-  )
+  val folder: RandomTempFolder = {
+    val path = rootFolder.resolve(Random.nextLong(Long.MaxValue).toString)
+    RandomTempFolder(Files.createDirectory(path, RandomTempFolder.ownerOnlyFolder(path): _*), backend)
+  }
+
+  def stats: FileBackendStats = folder.stats
+
+  override def close(): Unit = folder.delete()
+}
 
-  override def close(): Unit = {
-    folder.value.toFile.listFiles().foreach(_.delete())
-    Files.delete(folder.value)
+object RandomFolderFactory {
+
+  private val sharedMemory = Paths.get("/dev/shm")
+
+  /**
+   * A factory whose folders are in memory when the OS has a tmpfs at `/dev/shm`, and in the default
+   * temporary folder otherwise. The folders are under a folder of the user's own, which only they can read.
+   */
+  def inMemory(backend: FileBackend): RandomFolderFactory = {
+    val root =
+      if (Files.isDirectory(sharedMemory) && Files.isWritable(sharedMemory)) sharedMemory
+      else Paths.get(System.getProperty("java.io.tmpdir"))
+    val user = System.getProperty("user.name")
+    val userRoot = root.resolve(s"cardano-cli-$user")
+    require(!Files.exists(userRoot) || Files.getOwner(userRoot).getName == user, s"$userRoot belongs to another user")
+    RandomFolderFactory(userRoot, backend)
   }
+
+  /**
+   * An in memory factory with content addressed files.
+   */
+  def inMemory(): RandomFolderFactory = inMemory(FileBackend.ContentAddressed)
 }
@@ -1,19 +1,22 @@
 package iog.psg.cardano.jpi
 
+import akka.NotUsed
 import akka.actor.ActorSystem
-import iog.psg.cardano.ApiRequestExecutor
+import akka.stream.scaladsl.{Sink, Source}
+import iog.psg.cardano.{ApiRequestExecutor, TxConfirmationSettings, TxConfirmationTracker}
 import iog.psg.cardano.CardanoApi.CardanoApiOps.CardanoApiRequestOps
-import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage}
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse, ErrorMessage, ErrorMessageException}
 import iog.psg.cardano.CardanoApiCodec.{MetadataValue, MetadataValueStr}
 import iog.psg.cardano.jpi.{ApiRequestExecutor => JApiRequestExecutor}
+import org.reactivestreams.Publisher
 
-import java.util.concurrent.CompletionStage
+import java.util.concurrent.{CompletionException, CompletionStage}
 import scala.concurrent.{ExecutionContext, Future}
 import scala.jdk.CollectionConverters.MapHasAsScala
 import scala.jdk.javaapi.FutureConverters
 
 
-class CardanoApiException(message: String, code: String) extends Exception(s"Message: $message, Code: $code")
+class CardanoApiException(val message: String, val code: String) extends Exception(s"Message: $message, Code: $code")
 
 object HelpExecute {
 
@@ -33,11 +36,27 @@ object HelpExecute {
     }
   } yield response
 
+  /**
+   * Adapts a java executor so the scala api can execute through it, api errors are recovered
+   * from the `CardanoApiException` back to an `ErrorMessage`.
+   */
+  def toScalaExecutor(executor: JApiRequestExecutor): ApiRequestExecutor = new ApiRequestExecutor {
+    override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+      FutureConverters.asScala(executor.execute(request)).map[CardanoApiResponse[T]](Right(_)).recover {
+        case e: CardanoApiException => Left(ErrorMessage(e.message, e.code))
+        case e: CompletionException if e.getCause.isInstanceOf[CardanoApiException] =>
+          val cause = e.getCause.asInstanceOf[CardanoApiException]
+          Left(ErrorMessage(cause.message, cause.code))
+      }
+  }
+
 }
 
-class HelpExecute(implicit ec: ExecutionContext, as: ActorSystem) extends JApiRequestExecutor {
+class HelpExecute(apiRequestExecutor: ApiRequestExecutor)(implicit ec: ExecutionContext, as: ActorSystem) extends JApiRequestExecutor {
 
-  implicit val executor: ApiRequestExecutor = ApiRequestExecutor
+  def this()(implicit ec: ExecutionContext, as: ActorSystem) = this(ApiRequestExecutor)
+
+  implicit val executor: ApiRequestExecutor = apiRequestExecutor
 
   @throws(classOf[CardanoApiException])
   private def unwrapResponse[T](resp: CardanoApiResponse[T]): T = resp match {
@@ -59,4 +78,28 @@ class HelpExecute(implicit ec: ExecutionContext, as: ActorSystem) extends JApiRe
   def toScalaImmutable[B](in: java.util.Map[java.lang.Long, String]): Map[java.lang.Long, String] =
     HelpExecute.toScalaImmutable(in)
 
+  /**
+   * Nothing is requested from the source until the publisher is subscribed to, it allows a single subscriber.
+   * Api errors which fail the source reach the subscriber as a [[CardanoApiException]].
+   */
+  def toPublisher[T](source: Source[T, NotUsed]): Publisher[T] =
+    source
+      .mapError { case ErrorMessageException(ErrorMessage(message, code)) => new CardanoApiException(message, code) }
+      .runWith(Sink.asPublisher(fanout = false))
+
+  /**
+   * A tracker reading the transactions through the api, it shares this executor's execution context and actor system.
+   */
+  def toConfirmationTracker(api: iog.psg.cardano.CardanoApi, settings: TxConfirmationSettings): TxConfirmationTracker =
+    TxConfirmationTracker(api, settings)
+
+  /**
+   * Publishes the results of a batch as they complete, api errors become failed [[BatchResult]]s.
+   */
+  def toBatchPublisher[T, J](source: Source[(String, CardanoApiResponse[T]), NotUsed], convert: T => J): Publisher[BatchResult[J]] =
+    toPublisher(source.map {
+      case (walletId, Right(value)) => BatchResult.success(walletId, convert(value))
+      case (walletId, Left(ErrorMessage(message, code))) => BatchResult.failure[J](walletId, new CardanoApiException(message, code))
+    })
+
 }
@@ -0,0 +1,21 @@
+#!/bin/sh
+#
+# Stands in for cardano-cli in the tests: appends its arguments to $FAKE_CLI_LOG when that is set,
+# waits $FAKE_CLI_DELAY seconds (0.1 by default), creates the --out-file if one is given and prints
+# its first two arguments, e.g. "transaction txid".
+
+if [ -n "${FAKE_CLI_LOG}" ]; then
+  echo "$*" >> "${FAKE_CLI_LOG}"
+fi
+
+sleep "${FAKE_CLI_DELAY:-0.1}"
+
+previous=""
+for arg in "$@"; do
+  if [ "${previous}" = "--out-file" ]; then
+    touch "${arg}"
+  fi
+  previous="${arg}"
+done
+
+echo "$1 $2"
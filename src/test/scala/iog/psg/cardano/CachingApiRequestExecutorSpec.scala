@@ -0,0 +1,183 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.util.{CountingApiRequestExecutor, StubApiFixture}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+class CachingApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with StubApiFixture {
+
+  private val walletId = "2512a00e9653fe49a44a5886202e24d77eeb998f"
+  private val txId = "1423856bc91c49e928f6f30f4e8d665d53eb4ab6028bd0ac971809d514c92db1"
+
+  private val walletJson = getJsonFromFile("wallet.json")
+  private val transactionJson = getJsonFromFile("transaction.json")
+
+  private def withNodeSlot(slot: Int) = networkInfoJson.replace("\"slot_number\": 1337", s"\"slot_number\": $slot")
+
+  private def setup(settings: ResponseCacheSettings = ResponseCacheSettings.default, delay: FiniteDuration = Duration.Zero) = {
+    val underlying = stubExecutor(delay)(
+      "network/information" -> networkInfoJson,
+      "network/parameters" -> getJsonFromFile("netparams.json"),
+      s"wallets/$walletId" -> walletJson,
+      s"wallets/$walletId/transactions/$txId" -> transactionJson
+    )
+    val cache = CachingApiRequestExecutor(underlying, settings)
+    (underlying, cache, CardanoApi(baseUrl, cache))
+  }
+
+  "CachingApiRequestExecutor" should "answer repeated reads from memory" in {
+    val (underlying, cache, api) = setup()
+    import api.requestExecutor
+
+    (1 to 5).foreach(_ => api.networkParameters().execute.futureValue.isRight shouldBe true)
+    (1 to 5).foreach(_ => api.getWallet(walletId).execute.futureValue.map(_.id) shouldBe Right(walletId))
+
+    underlying.callsTo("network/parameters") shouldBe 1
+    underlying.callsTo(s"wallets/$walletId") shouldBe 1
+    cache.stats.hits shouldBe 8
+    cache.stats.misses shouldBe 2
+  }
+
+  it should "fetch again once an entry expires" in {
+    val (underlying, _, api) = setup(ResponseCacheSettings.default.withNetworkInfoTtl(100.millis))
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    underlying.callsTo("network/information") shouldBe 1
+
+    Thread.sleep(200)
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    underlying.callsTo("network/information") shouldBe 2
+  }
+
+  it should "drop tip bound entries when a newer node tip is seen" in {
+    val (underlying, cache, api) = setup(ResponseCacheSettings.default.withNetworkInfoTtl(1.milli))
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    api.getWallet(walletId).execute.futureValue.isRight shouldBe true
+    api.getWallet(walletId).execute.futureValue.isRight shouldBe true
+    underlying.callsTo(s"wallets/$walletId") shouldBe 1
+
+    underlying.bodies.put("network/information", withNodeSlot(1338))
+    Thread.sleep(5)
+    api.networkInfo.execute.futureValue.map(_.nodeTip.slotNumber) shouldBe Right(1338)
+    cache.stats.invalidations shouldBe 1
+
+    api.getWallet(walletId).execute.futureValue.isRight shouldBe true
+    underlying.callsTo(s"wallets/$walletId") shouldBe 2
+  }
+
+  it should "keep network parameters when the tip moves" in {
+    val (underlying, _, api) = setup(ResponseCacheSettings.default.withNetworkInfoTtl(1.milli))
+    import api.requestExecutor
+
+    api.networkParameters().execute.futureValue.isRight shouldBe true
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    underlying.bodies.put("network/information", withNodeSlot(1400))
+    Thread.sleep(5)
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    api.networkParameters().execute.futureValue.isRight shouldBe true
+
+    underlying.callsTo("network/parameters") shouldBe 1
+  }
+
+  it should "only cache transactions which are in ledger" in {
+    val (underlying, _, api) = setup()
+    import api.requestExecutor
+
+    api.getTransaction(walletId, txId).execute.futureValue.isRight shouldBe true
+    api.getTransaction(walletId, txId).execute.futureValue.isRight shouldBe true
+    underlying.callsTo(s"wallets/$walletId/transactions/$txId") shouldBe 2
+
+    underlying.bodies.put(s"wallets/$walletId/transactions/$txId", transactionJson.replace("\"pending\"", "\"in_ledger\""))
+    api.getTransaction(walletId, txId).execute.futureValue.isRight shouldBe true
+    api.getTransaction(walletId, txId).execute.futureValue.isRight shouldBe true
+    underlying.callsTo(s"wallets/$walletId/transactions/$txId") shouldBe 3
+  }
+
+  it should "not cache errors or requests which change state" in {
+    val (underlying, _, api) = setup()
+    import api.requestExecutor
+
+    api.getWallet("missing").execute.futureValue.isLeft shouldBe true
+    api.getWallet("missing").execute.futureValue.isLeft shouldBe true
+    api.deleteWallet(walletId).execute.futureValue
+    api.deleteWallet(walletId).execute.futureValue
+
+    underlying.callsTo("wallets/missing") shouldBe 2
+    underlying.callsTo(s"wallets/$walletId") shouldBe 2
+  }
+
+  it should "drop a wallet's entries when a request changes the wallet" in {
+    val (underlying, _, api) = setup()
+    import api.requestExecutor
+
+    api.getWallet(walletId).execute.futureValue.map(_.name) shouldBe Right("Alan's Wallet")
+    api.networkParameters().execute.futureValue.isRight shouldBe true
+    underlying.bodies.put(s"wallets/$walletId", walletJson.replace("Alan's Wallet", "Renamed"))
+    api.updateName(walletId, "Renamed").flatMap(_.execute).futureValue.isRight shouldBe true
+    api.getWallet(walletId).execute.futureValue.map(_.name) shouldBe Right("Renamed")
+
+    underlying.bodies.remove(s"wallets/$walletId")
+    api.deleteWallet(walletId).execute.futureValue
+    api.getWallet(walletId).execute.futureValue.left.map(_.code) shouldBe Left("not_found")
+
+    api.networkParameters().execute.futureValue.isRight shouldBe true
+    underlying.callsTo("network/parameters") shouldBe 1
+  }
+
+  it should "share a single request between concurrent identical reads" in {
+    val (underlying, cache, api) = setup(delay = 200.millis)
+    import api.requestExecutor
+
+    val results = Future.sequence((1 to 20).map(_ => api.getWallet(walletId).execute)).futureValue
+    all(results.map(_.map(_.id))) shouldBe Right(walletId)
+    underlying.callsTo(s"wallets/$walletId") shouldBe 1
+    cache.stats.coalesced shouldBe 19
+  }
+
+  it should "evict the least recently used entries over the entry limit" in {
+    val (underlying, cache, api) = setup(ResponseCacheSettings.default.withMaxEntries(2))
+    import api.requestExecutor
+
+    api.networkParameters().execute.futureValue
+    api.networkInfo.execute.futureValue
+    api.networkParameters().execute.futureValue
+    api.getWallet(walletId).execute.futureValue
+
+    cache.stats.evictions shouldBe 1
+    cache.stats.entries shouldBe 2
+    api.networkParameters().execute.futureValue
+    underlying.callsTo("network/parameters") shouldBe 1
+    api.networkInfo.execute.futureValue
+    underlying.callsTo("network/information") shouldBe 2
+  }
+
+  it should "stay within the byte limit" in {
+    val limit = walletJson.length + 1024L
+    val (_, cache, api) = setup(ResponseCacheSettings.default.withMaxBytes(limit))
+    import api.requestExecutor
+
+    api.getWallet(walletId).execute.futureValue
+    api.networkParameters().execute.futureValue
+    api.networkInfo.execute.futureValue
+
+    cache.stats.bytes should be <= limit
+    cache.stats.evictions should be > 0L
+  }
+
+  "ResponseCacheSettings" should "reject empty limits" in {
+    an[IllegalArgumentException] shouldBe thrownBy(ResponseCacheSettings(maxEntries = 0))
+    an[IllegalArgumentException] shouldBe thrownBy(ResponseCacheSettings(maxBytes = 0))
+  }
+}
@@ -4,12 +4,15 @@ import akka.actor.ActorSystem
 import iog.psg.cardano.CardanoApi.{CardanoApiResponse, ErrorMessage}
 import iog.psg.cardano.CardanoApiCodec.NetworkInfo
 import iog.psg.cardano.CardanoApiMain.CmdLine
-import iog.psg.cardano.util.{ArgumentParser, DummyModel, ModelCompare, Trace}
+import iog.psg.cardano.util.{ArgumentParser, DummyModel, ModelCompare, NoOpTrace, Trace}
 import org.scalatest.flatspec.AnyFlatSpec
 import org.scalatest.matchers.should.Matchers
 
+import java.nio.file.Files
 import scala.collection.mutable.ArrayBuffer
-import scala.concurrent.{ExecutionContext, Future}
+import scala.jdk.CollectionConverters.SeqHasAsJava
+import scala.concurrent.duration.DurationInt
+import scala.concurrent.{Await, ExecutionContext, Future, Promise}
 
 
 class CardanoApiMainSpec extends AnyFlatSpec with Matchers with ModelCompare with DummyModel {
@@ -20,6 +23,7 @@ class CardanoApiMainSpec extends AnyFlatSpec with Matchers with ModelCompare wit
     override val args: Array[String] = Array(CmdLine.netInfo)
 
     getTraceResults should include(""""status" : "ready"""")
+    succeeded shouldBe true
   }
 
   it should "fail with exception during executing request" in new ApiRequestExecutorFixture[NetworkInfo] {
@@ -34,6 +38,7 @@ class CardanoApiMainSpec extends AnyFlatSpec with Matchers with ModelCompare wit
     }
 
     getTraceResults shouldBe "baseurl:http://127.0.0.1:8090/v2/, -netInfo, java.lang.RuntimeException: Test failed."
+    succeeded shouldBe false
   }
 
   it should "return an API error" in new ApiRequestExecutorFixture[NetworkInfo] {
@@ -42,6 +47,65 @@ class CardanoApiMainSpec extends AnyFlatSpec with Matchers with ModelCompare wit
     override val args: Array[String] = Array(CmdLine.netInfo)
 
     getTraceResults shouldBe "baseurl:http://127.0.0.1:8090/v2/, -netInfo, API Error message Test error., code 12345"
+    succeeded shouldBe false
+  }
+
+  it should "not fail a run because of a command of another run" in {
+    val succeedingRunSent = Promise[Unit]()
+    val failedRunDone = Promise[Unit]()
+    implicit val apiExecutor: ApiRequestExecutor = new ApiRequestExecutor {
+      override def execute[T](request: CardanoApi.CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+        if (request.request.uri.authority.port == 8091) Future.successful(Left(ErrorMessage("Test error.", "12345")))
+        else {
+          succeedingRunSent.trySuccess(())
+          failedRunDone.future.map(_ => Right(networkInfo))
+        }
+      }.asInstanceOf[Future[CardanoApiResponse[T]]]
+    }
+    implicit val trace: Trace = NoOpTrace
+
+    val succeedingRun = Future(CardanoApiMain.run(new ArgumentParser(Array(CmdLine.netInfo))))(ExecutionContext.global)
+    Await.result(succeedingRunSent.future, 10.seconds)
+    CardanoApiMain.run(new ArgumentParser(Array(CmdLine.baseUrl, "http://127.0.0.1:8091/v2/", CmdLine.netInfo))) shouldBe false
+    failedRunDone.success(())
+    Await.result(succeedingRun, 10.seconds) shouldBe true
+  }
+
+  "The Cmd Line -batch" should "run every command of a file through one api" in new ApiRequestExecutorFixture[NetworkInfo] {
+    override val expectedRequestUrl: String = "http://127.0.0.1:8090/v2/network/information"
+    override val response: CardanoApiResponse[NetworkInfo] = Right(networkInfo)
+
+    private val commands = Files.createTempFile("commands", ".txt")
+    Files.write(commands, Seq(CmdLine.netInfo, "# a comment", "", "-unknown", CmdLine.netInfo).asJava)
+    override val args: Array[String] = Array(CmdLine.batch, commands.toString, CmdLine.concurrency, "2")
+
+    private val results = getTraceResults
+    results should include("[1] -netInfo, -netInfo")
+    results should include("[4] -unknown, No command recognised")
+    results should include("[5] -netInfo, -netInfo")
+    results should not include "[2]"
+    results.split(""""status" : "ready"""").length shouldBe 3
+    succeeded shouldBe false
+    Files.delete(commands)
+  }
+
+  it should "succeed when every command of the batch succeeds" in new ApiRequestExecutorFixture[NetworkInfo] {
+    override val expectedRequestUrl: String = "http://127.0.0.1:8090/v2/network/information"
+    override val response: CardanoApiResponse[NetworkInfo] = Right(networkInfo)
+
+    private val commands = Files.createTempFile("commands", ".txt")
+    Files.write(commands, Seq(CmdLine.netInfo, CmdLine.netInfo).asJava)
+    override val args: Array[String] = Array(CmdLine.batch, commands.toString, CmdLine.concurrency, "2")
+
+    getTraceResults should include("[2] -netInfo, -netInfo")
+    succeeded shouldBe true
+    Files.delete(commands)
+  }
+
+  "splitCommandLine" should "split on whitespace and keep quoted arguments whole" in {
+    CardanoApiMain.splitCommandLine(s"""  ${CmdLine.createWallet} ${CmdLine.name}  'my wallet' ${CmdLine.mnemonic} "a b c" -x "" """) shouldBe
+      Seq(CmdLine.createWallet, CmdLine.name, "my wallet", CmdLine.mnemonic, "a b c", "-x", "")
+    an[IllegalArgumentException] shouldBe thrownBy(CardanoApiMain.splitCommandLine("-name 'unbalanced"))
   }
 
   private sealed trait ApiRequestExecutorFixture[T] {
@@ -65,9 +129,12 @@ class CardanoApiMainSpec extends AnyFlatSpec with Matchers with ModelCompare wit
       }.asInstanceOf[Future[CardanoApiResponse[T]]]
     }
 
+    // whether the last run's commands all succeeded
+    var succeeded = false
+
     final def getTraceResults: String = {
       traceResults.clear()
-      CardanoApiMain.run(arguments)
+      succeeded = CardanoApiMain.run(arguments)
       traceResults.mkString(", ")
     }
   }
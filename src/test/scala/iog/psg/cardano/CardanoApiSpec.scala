@@ -1,14 +1,20 @@
 package iog.psg.cardano
 
 import akka.actor.ActorSystem
-import iog.psg.cardano.CardanoApi.ErrorMessage
+import akka.stream.scaladsl.{Sink, Source}
+import akka.util.ByteString
+import iog.psg.cardano.CardanoApi.{ErrorMessage, ErrorMessageException}
 import iog.psg.cardano.CardanoApiCodec.{AddressFilter, CreateTransactionResponse}
 import iog.psg.cardano.util._
 import org.scalatest.concurrent.ScalaFutures
 import org.scalatest.flatspec.AnyFlatSpec
 import org.scalatest.matchers.should.Matchers
 
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, NoSuchFileException}
 import java.time.ZonedDateTime
+import scala.concurrent.duration.DurationInt
 
 class CardanoApiSpec
     extends AnyFlatSpec
@@ -21,6 +27,7 @@ class CardanoApiSpec
     with CustomPatienceConfiguration {
 
   lazy val api = CardanoApi(baseUrl)
+  lazy val streamingApi = CardanoApi(baseUrl, inMemoryExecutor)
 
   private val addressNotFoundError = ErrorMessage(s"Addresses not found", "404")
   private val walletNotFoundError = ErrorMessage(s"Wallet not found", "404")
@@ -37,6 +44,19 @@ class CardanoApiSpec
     api.getWallet("invalid_wallet_id").executeExpectingErrorOrFail() shouldBe walletNotFoundError
   }
 
+  it should "return many wallets as a batch with an error for each missing one" in {
+    val ids = Seq(wallet.id, "invalid_wallet_id", wallet.id)
+    val results = streamingApi.getWallets(ids, parallelism = 2).runWith(Sink.seq).futureValue
+
+    results.map(_._1) should contain theSameElementsAs ids
+    results.collect { case (_, Right(w)) => w } shouldBe Seq(wallet, wallet)
+    results.collect { case ("invalid_wallet_id", Left(error)) => error } shouldBe Seq(walletNotFoundError)
+  }
+
+  it should "return an empty batch for no wallets" in {
+    streamingApi.getWallets(Nil).runWith(Sink.seq).futureValue shouldBe empty
+  }
+
   "GET /network/information" should "return network information" in {
     api.networkInfo.executeOrFail() shouldBe networkInfo
   }
@@ -87,6 +107,17 @@ class CardanoApiSpec
       .listAddresses("invalid_wallet_id", Some(AddressFilter.used))
       .executeExpectingErrorOrFail() shouldBe walletNotFoundError
   }
+
+  it should "return the addresses of many wallets as a batch" in {
+    val results = streamingApi
+      .listAddressesBatch(Seq(wallet.id, "invalid_wallet_id"), Some(AddressFilter.used))
+      .runWith(Sink.seq)
+      .futureValue
+      .toMap
+
+    results(wallet.id).map(_.map(_.id)) shouldBe Right(usedAddresses.map(_.id))
+    results("invalid_wallet_id") shouldBe Left(walletNotFoundError)
+  }
   
   "GET /wallets/{walletId}/transactions" should "return wallet's transactions" in {
     val transactions = api.listTransactions(wallet.id).executeOrFail()
@@ -132,6 +163,76 @@ class CardanoApiSpec
     api.listTransactions("invalid_wallet_id").executeExpectingErrorOrFail() shouldBe walletNotFoundError
   }
 
+  it should "return wallet's transaction summaries" in {
+    val summaries = api.listTransactionSummaries(wallet.id).executeOrFail()
+    summaries.map(_.id) shouldBe transactionsIdsDesc
+    summaries.map(s => (s.amount, s.depth, s.direction, s.status)) shouldBe
+      jsonFileCreatedTransactionsResponse.sortWith(_.id > _.id).map(tx => (tx.amount, tx.depth, tx.direction, tx.status))
+  }
+
+  it should "stream wallet's transactions" in {
+    val transactions = streamingApi.streamTransactions(wallet.id).runWith(Sink.seq).futureValue
+    transactions.map(_.id) shouldBe transactionsIdsDesc
+  }
+
+  it should "stream wallet's transactions window by window" in {
+    val transactions = streamingApi
+      .streamTransactions(
+        wallet.id,
+        start = Some(ZonedDateTime.parse("1999-12-01T00:00:00.000Z")),
+        end = Some(ZonedDateTime.parse("2001-01-01T00:00:00.000Z")),
+        order = CardanoApi.Order.ascendingOrder,
+        minWithdrawal = Some(100),
+        window = 10.days
+      )
+      .runWith(Sink.seq)
+      .futureValue
+    transactions.map(_.id) shouldBe oldTransactionsIdsAsc
+  }
+
+  it should "fail the stream on api error" in {
+    val error = streamingApi.streamTransactions("invalid_wallet_id").runWith(Sink.seq).failed.futureValue
+    error shouldBe ErrorMessageException(ErrorMessage("Wallet not found", "404"))
+    error.getMessage shouldBe "Message: Wallet not found, Code: 404"
+  }
+
+  it should "only request the transactions when the stream is run" in {
+    val counting = new CountingApiRequestExecutor()
+    counting.bodies.put(s"wallets/${wallet.id}/transactions", "[]")
+    val transactions = CardanoApi("http://localhost:8090/v2/", counting).streamTransactions(wallet.id)
+    counting.callsTo(s"wallets/${wallet.id}/transactions") shouldBe 0
+
+    transactions.runWith(Sink.seq).futureValue shouldBe empty
+    transactions.runWith(Sink.seq).futureValue shouldBe empty
+    counting.callsTo(s"wallets/${wallet.id}/transactions") shouldBe 2
+  }
+
+  "transactionsWindows" should "cover the period with consecutive, non overlapping windows" in {
+    val start = ZonedDateTime.parse("2000-01-01T00:00:00.500Z")
+    val end = ZonedDateTime.parse("2000-01-03T12:00:00Z")
+    val ascending = CardanoApi.transactionsWindows(start, end, 1.day, CardanoApi.Order.ascendingOrder)
+
+    ascending.head._1 shouldBe ZonedDateTime.parse("2000-01-01T00:00:01Z")
+    ascending.last._2 shouldBe end
+    ascending.size shouldBe 3
+    ascending.zip(ascending.tail).foreach { case ((_, prevEnd), (nextStart, _)) =>
+      nextStart shouldBe prevEnd.plusSeconds(1)
+    }
+
+    val descending = CardanoApi.transactionsWindows(start, end, 1.day, CardanoApi.Order.descendingOrder)
+    descending.head._2 shouldBe end
+    descending.last._1 shouldBe ZonedDateTime.parse("2000-01-01T00:00:01Z")
+    descending.zip(descending.tail).foreach { case ((prevStart, _), (_, nextEnd)) =>
+      nextEnd shouldBe prevStart.minusSeconds(1)
+    }
+  }
+
+  it should "only accept windows of whole seconds" in {
+    an[IllegalArgumentException] shouldBe thrownBy(
+      CardanoApi.transactionsWindows(ZonedDateTime.now(), ZonedDateTime.now(), 1500.millis, CardanoApi.Order.ascendingOrder)
+    )
+  }
+
   "GET /wallets/{walletId}/transactions/{transactionId}" should "return transaction" in {
     api
       .getTransaction(wallet.id, firstTransactionId)
@@ -240,6 +341,12 @@ class CardanoApiSpec
     api.getUTxOsStatistics("invalid_address_id").executeExpectingErrorOrFail() shouldBe walletNotFoundError
   }
 
+  it should "return the UTxOs statistics of many wallets as a batch" in {
+    val results = streamingApi.getUTxOsStatisticsBatch(Seq(wallet.id, "invalid_address_id")).runWith(Sink.seq).futureValue.toMap
+    results(wallet.id) shouldBe Right(uTxOStatistics)
+    results("invalid_address_id") shouldBe Left(walletNotFoundError)
+  }
+
   "POST /proxy/transactions" should "submit a transaction that was created and signed outside of cardano-wallet" in {
     api.postExternalTransaction(txRawContent).executeOrFail() shouldBe jsonFileProxyTransactionResponse
   }
@@ -248,6 +355,40 @@ class CardanoApiSpec
     api.postExternalTransaction("1234567890").executeExpectingErrorOrFail() shouldBe ErrorMessage("Invalid binary string", "400")
   }
 
+  it should "submit a transaction given as bytes" in {
+    val binary = ByteString(txRawContent)
+    api.postExternalTransaction(binary).executeOrFail() shouldBe jsonFileProxyTransactionResponse
+    api.postExternalTransaction(binary.toArray).executeOrFail() shouldBe jsonFileProxyTransactionResponse
+
+    val padded = ByteBuffer.wrap(("xx" + txRawContent + "yy").getBytes(StandardCharsets.UTF_8))
+    padded.position(2).limit(padded.limit() - 2)
+    api.postExternalTransaction(padded.slice()).executeOrFail() shouldBe jsonFileProxyTransactionResponse
+
+    val direct = ByteBuffer.allocateDirect(binary.length)
+    binary.copyToBuffer(direct)
+    direct.flip()
+    api.postExternalTransaction(direct).executeOrFail() shouldBe jsonFileProxyTransactionResponse
+  }
+
+  it should "submit a transaction read from a file" in {
+    val file = Files.createTempFile("tx", ".raw")
+    Files.write(file, txRawContent.getBytes(StandardCharsets.UTF_8))
+    api.postExternalTransaction(file).executeOrFail() shouldBe jsonFileProxyTransactionResponse
+    Files.delete(file)
+  }
+
+  it should "fail the request for a file which doesn't exist" in {
+    val missing = Files.createTempDirectory("tx").resolve("missing.raw")
+    inMemoryExecutor.execute(api.postExternalTransaction(missing)).failed.futureValue shouldBe a[NoSuchFileException]
+  }
+
+  it should "submit many transactions in order" in {
+    val binaries = Seq(txRawContent, "1234567890", txRawContent).map(ByteString(_))
+    streamingApi.submitExternalTransactions(Source(binaries), parallelism = 2).runWith(Sink.seq).futureValue shouldBe Seq(
+      Right(jsonFileProxyTransactionResponse), Left(ErrorMessage("Invalid binary string", "400")), Right(jsonFileProxyTransactionResponse)
+    )
+  }
+
   "POST /wallets/{walletId}/migrations" should "submit one or more transactions which transfers all funds from a Shelley wallet to a set of addresses" in {
     api.migrateShelleyWallet(wallet.id, walletPassphrase, unUsedAddresses.map(_.id)).executeOrFail() shouldBe jsonFileMigrationsResponse
   }
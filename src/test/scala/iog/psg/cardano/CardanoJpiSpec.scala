@@ -1,6 +1,7 @@
 package iog.psg.cardano
 
 import akka.actor.ActorSystem
+import akka.stream.scaladsl.{Sink, Source}
 import iog.psg.cardano.jpi.{AddressFilter, JpiResponseCheck, ListTransactionsParamBuilder}
 import iog.psg.cardano.util._
 import org.scalatest.concurrent.ScalaFutures
@@ -20,7 +21,8 @@ class CardanoJpiSpec
     with ScalaFutures
     with InMemoryCardanoApi
     with DummyModel
-    with ResourceFiles {
+    with ResourceFiles
+    with CustomPatienceConfiguration {
 
   lazy val api = JpiResponseCheck.buildWithPredefinedApiExecutor(inMemoryExecutor, as)
 
@@ -47,10 +49,31 @@ class CardanoJpiSpec
     tryGetErrorMessage(api.getWallet("invalid_wallet_id")) shouldBe walletNotFoundError
   }
 
+  it should "return many wallets as a batch with an error for each missing one" in {
+    val results = Source
+      .fromPublisher(api.getWallets(List(wallet.id, "invalid_wallet_id").asJava))
+      .runWith(Sink.seq)
+      .futureValue
+      .map(result => result.getWalletId -> result)
+      .toMap
+
+    results(wallet.id).getValue.get shouldBe wallet
+    results("invalid_wallet_id").isSuccess shouldBe false
+    results("invalid_wallet_id").getError.get.toString shouldBe walletNotFoundError
+  }
+
   "GET /network/information" should "return network information" in {
     api.networkInfo.toCompletableFuture.get() shouldBe networkInfo
   }
 
+  it should "publish the current network information to a subscriber" in {
+    Source
+      .fromPublisher(api.subscribeNetworkTip())
+      .take(1)
+      .runWith(Sink.seq)
+      .futureValue shouldBe Seq(networkInfo)
+  }
+
   "GET /network/clock" should "return network clock with forced ntp check" in {
     api.networkClock(true).toCompletableFuture.get() shouldBe networkClockForced
   }
@@ -119,6 +142,14 @@ class CardanoJpiSpec
     ids shouldBe addressesIds.map(_.id)
   }
 
+  it should "return the addresses of many wallets as a batch" in {
+    val results = Source
+      .fromPublisher(api.listAddressesBatch(List(wallet.id).asJava, AddressFilter.UNUSED, 4))
+      .runWith(Sink.seq)
+      .futureValue
+    results.map(_.getValue.get.asScala.toList.map(_.id)) shouldBe Seq(unUsedAddresses.map(_.id))
+  }
+
   it should "return wallet not found error" in {
     tryGetErrorMessage(
       api.listAddresses("invalid_wallet_id", AddressFilter.USED)
@@ -149,6 +180,37 @@ class CardanoJpiSpec
     transactions.map(_.id) shouldBe oldTransactionsIdsAsc
   }
 
+  it should "return wallet's transaction summaries" in {
+    val builder = ListTransactionsParamBuilder.create(wallet.id)
+    val summaries = api.listTransactionSummaries(builder).toCompletableFuture.get().asScala
+
+    summaries.map(_.id) shouldBe transactionsIdsDesc
+  }
+
+  it should "stream wallet's transactions" in {
+    val builder = ListTransactionsParamBuilder
+      .create(wallet.id)
+      .withStartTime(ZonedDateTime.parse("1999-12-01T00:00:00.000Z"))
+      .withEndTime(ZonedDateTime.parse("2001-01-01T00:00:00.000Z"))
+      .withOrder(iog.psg.cardano.jpi.Order.ASCENDING)
+      .withMinwithdrawal(100)
+
+    val transactions = Source
+      .fromPublisher(api.streamTransactions(builder, java.time.Duration.ofDays(30)))
+      .runWith(Sink.seq)
+      .futureValue
+    transactions.map(_.id) shouldBe oldTransactionsIdsAsc
+  }
+
+  it should "fail the stream with a CardanoApiException" in {
+    val error = Source
+      .fromPublisher(api.streamTransactions(ListTransactionsParamBuilder.create("invalid_wallet_id")))
+      .runWith(Sink.seq)
+      .failed
+      .futureValue
+    error.toString shouldBe "iog.psg.cardano.jpi.CardanoApiException: Message: Wallet not found, Code: 404"
+  }
+
   "GET /wallets/{walletId}/transactions/{transactionId}" should "return transaction" in {
     api
       .getTransaction(wallet.id, firstTransactionId)
@@ -276,6 +338,14 @@ class CardanoJpiSpec
     api.getUTxOsStatistics(wallet.id).toCompletableFuture.get() shouldBe uTxOStatistics
   }
 
+  it should "return the UTxOs statistics of many wallets as a batch" in {
+    val results = Source
+      .fromPublisher(api.getUTxOsStatisticsBatch(List(wallet.id, wallet.id).asJava, 2))
+      .runWith(Sink.seq)
+      .futureValue
+    results.map(_.getValue.get) shouldBe Seq(uTxOStatistics, uTxOStatistics)
+  }
+
   it should "return not found" in {
     tryGetErrorMessage(api.getUTxOsStatistics("invalid_address_id")) shouldBe walletNotFoundError
   }
@@ -293,6 +363,18 @@ class CardanoJpiSpec
     ) shouldBe "iog.psg.cardano.jpi.CardanoApiException: Message: Invalid binary string, Code: 400"
   }
 
+  it should "submit a transaction given as bytes" in {
+    api
+      .postExternalTransaction(txRawContent.getBytes(java.nio.charset.StandardCharsets.UTF_8))
+      .toCompletableFuture
+      .get() shouldBe jsonFileProxyTransactionResponse
+  }
+
+  it should "return a failed stage for a file which doesn't exist" in {
+    val missing = java.nio.file.Files.createTempDirectory("tx").resolve("missing.raw")
+    tryGetErrorMessage(api.postExternalTransaction(missing)) should include("NoSuchFileException")
+  }
+
   "POST /wallets/{walletId}/migrations" should "submit one or more transactions which transfers all funds from a Shelley wallet to a set of addresses" in {
     api
       .migrateShelleyWallet(wallet.id, walletPassphrase, unUsedAddresses.map(_.id).asJava)
@@ -0,0 +1,93 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.util.{CountingApiRequestExecutor, DummyModel, StubApiFixture}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+class CoalescingApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with DummyModel
+    with StubApiFixture {
+
+  private def setup(delay: FiniteDuration = 200.millis) = {
+    val underlying = stubExecutor(delay)(
+      "network/information" -> networkInfoJson,
+      s"wallets/${wallet.id}" -> getJsonFromFile("wallet.json"),
+      s"wallets/${wallet.id}/payment-fees" -> getJsonFromFile("estimate_fees.json"),
+      s"wallets/${wallet.id}/transactions" -> "[]",
+      s"wallets/${wallet.id}/passphrase" -> ""
+    )
+    val coalescing = CoalescingApiRequestExecutor(underlying)
+    (underlying, coalescing, CardanoApi(baseUrl, coalescing))
+  }
+
+  "CoalescingApiRequestExecutor" should "send concurrent identical GETs once and give each caller the response" in {
+    val (underlying, coalescing, api) = setup()
+    import api.requestExecutor
+
+    val wallets = Future.sequence((1 to 10).map(_ => api.getWallet(wallet.id).execute))
+    val infos = Future.sequence((1 to 10).map(_ => api.networkInfo.execute))
+
+    all(wallets.futureValue) shouldBe Right(wallet)
+    all(infos.futureValue.map(_.isRight)) shouldBe true
+    underlying.callsTo(s"wallets/${wallet.id}") shouldBe 1
+    underlying.callsTo("network/information") shouldBe 1
+    coalescing.coalesced shouldBe 18
+    coalescing.inFlightRequests shouldBe 0
+  }
+
+  it should "send the request again once the previous one has completed" in {
+    val (underlying, _, api) = setup(Duration.Zero)
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    underlying.callsTo("network/information") shouldBe 2
+  }
+
+  it should "share fee estimations with the same body only" in {
+    val (underlying, _, api) = setup()
+    import api.requestExecutor
+
+    val same = Future.sequence((1 to 5).map(_ => api.estimateFee(wallet.id, payments, None).execute))
+    val other = api.estimateFee(wallet.id, payments, Some(withdrawal)).execute
+
+    all(same.futureValue) shouldBe Right(estimateFeeResponse)
+    other.futureValue shouldBe Right(estimateFeeResponse)
+    underlying.callsTo(s"wallets/${wallet.id}/payment-fees") shouldBe 2
+  }
+
+  it should "never share requests which change state" in {
+    val (underlying, _, api) = setup()
+    import api.requestExecutor
+
+    val updates = (1 to 3).map(_ => api.updatePassphrase(wallet.id, "old_passphrase", "new_passphrase").execute)
+    Future.sequence(updates).futureValue
+    underlying.callsTo(s"wallets/${wallet.id}/passphrase") shouldBe 3
+  }
+
+  it should "send reads which aren't listed, such as transaction lists, straight through" in {
+    val (underlying, coalescing, api) = setup()
+    import api.requestExecutor
+
+    val lists = Future.sequence((1 to 3).map(_ => api.listTransactions(wallet.id).execute))
+    all(lists.futureValue) shouldBe Right(Nil)
+    underlying.callsTo(s"wallets/${wallet.id}/transactions") shouldBe 3
+    coalescing.coalesced shouldBe 0
+  }
+
+  it should "share error responses with every caller" in {
+    val (underlying, _, api) = setup()
+    import api.requestExecutor
+
+    val results = Future.sequence((1 to 5).map(_ => api.getWallet("missing").execute)).futureValue
+    all(results.map(_.left.map(_.code))) shouldBe Left("not_found")
+    underlying.callsTo("wallets/missing") shouldBe 1
+  }
+}
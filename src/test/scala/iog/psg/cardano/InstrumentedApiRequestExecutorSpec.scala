@@ -0,0 +1,134 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpMethods, HttpRequest, HttpResponse, StatusCodes}
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+import iog.psg.cardano.util.{CountingApiRequestExecutor, DummyModel, StubApiFixture}
+import org.scalatest.concurrent.Eventually
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.net.ConnectException
+import scala.concurrent.duration._
+import scala.concurrent.{ExecutionContext, Future}
+
+class InstrumentedApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with Eventually
+    with DummyModel
+    with StubApiFixture {
+
+  private val networkInfoEndpoint = "GET /v2/network/information"
+
+  private def setup(delay: FiniteDuration = Duration.Zero) = {
+    val underlying = stubExecutor(delay)("network/information" -> networkInfoJson)
+    val registry = new InMemoryMetricsRegistry
+    (underlying, registry, CardanoApi(baseUrl, InstrumentedApiRequestExecutor(underlying, registry)))
+  }
+
+  "InstrumentedApiRequestExecutor" should "time every phase of a request and count its bytes" in {
+    val (_, registry, api) = setup(delay = 50.millis)
+    import api.requestExecutor
+
+    (1 to 3).foreach(_ => api.networkInfo.execute.futureValue.isRight shouldBe true)
+
+    val metrics = registry.snapshot.endpoint(networkInfoEndpoint).get
+    metrics.requests shouldBe 3
+    metrics.inFlight shouldBe 0
+    metrics.responseBytes shouldBe 3L * networkInfoJson.getBytes("UTF-8").length
+    metrics.errors shouldBe empty
+    metrics.latencies.keySet shouldBe RequestPhase.values
+    metrics.latencies(RequestPhase.total).count shouldBe 3
+    metrics.latencies(RequestPhase.total).min should be >= 50.millis
+  }
+
+  it should "share an endpoint between requests for different wallets" in {
+    val (_, registry, api) = setup()
+    import api.requestExecutor
+
+    api.getWallet(wallet.id).execute.futureValue
+    api.getWallet("a" * 40).execute.futureValue
+
+    registry.snapshot.endpoint("GET /v2/wallets/{id}").map(_.requests) shouldBe Some(2)
+  }
+
+  it should "count api errors by code and failures by exception" in {
+    val underlying = new CountingApiRequestExecutor()
+    underlying.statuses.put("network/information", StatusCodes.ServiceUnavailable)
+    val registry = new InMemoryMetricsRegistry
+    val api = CardanoApi(baseUrl, InstrumentedApiRequestExecutor(underlying, registry))
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isLeft shouldBe true
+    api.getWallet(wallet.id).execute.futureValue.isLeft shouldBe true
+
+    val failing = InstrumentedApiRequestExecutor(new ApiRequestExecutor {
+      override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+        Future.failed(new ConnectException("refused"))
+    }, registry)
+    failing.execute(api.networkInfo).failed.futureValue shouldBe a[ConnectException]
+
+    val snapshot = registry.snapshot
+    snapshot.endpoint(networkInfoEndpoint).get.errors shouldBe Map("503" -> 1, "ConnectException" -> 1)
+    snapshot.endpoint(networkInfoEndpoint).get.inFlight shouldBe 0
+    snapshot.endpoint("GET /v2/wallets/{id}").get.errors shouldBe Map("not_found" -> 1)
+  }
+
+  it should "count the bytes of a streamed entity without buffering it" in {
+    val chunks = networkInfoJson.grouped(16).map(ByteString(_)).toList
+    val streaming = new ApiRequestExecutor {
+      override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+        request.mapper(HttpResponse(entity = HttpEntity.Chunked.fromData(ContentTypes.`application/json`, Source(chunks))))
+    }
+    val registry = new InMemoryMetricsRegistry
+    val api = CardanoApi(baseUrl, InstrumentedApiRequestExecutor(streaming, registry))
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    // recorded once the entity stream terminates, which may be after the response is decoded
+    eventually {
+      val metrics = registry.snapshot.endpoint(networkInfoEndpoint).get
+      metrics.responseBytes shouldBe chunks.map(_.length).sum
+      metrics.latencies(RequestPhase.entity).count shouldBe 1
+    }
+  }
+
+  it should "count the bytes of request entities" in {
+    val (_, registry, api) = setup()
+    import api.requestExecutor
+
+    api.updateName(wallet.id, "new name").execute.futureValue
+    registry.snapshot.endpoint("PUT /v2/wallets/{id}").get.requestBytes should be > 0L
+  }
+
+  "InstrumentedApiRequestExecutor.endpointOf" should "keep short segments and replace ids" in {
+    InstrumentedApiRequestExecutor.endpointOf(HttpRequest(HttpMethods.POST, s"${baseUrl}wallets/${wallet.id}/payment-fees")) shouldBe
+      "POST /v2/wallets/{id}/payment-fees"
+    InstrumentedApiRequestExecutor.endpointOf(HttpRequest(uri = s"${baseUrl}stake-pools/*/wallets/${wallet.id}")) shouldBe
+      "GET /v2/stake-pools/*/wallets/{id}"
+  }
+
+  "LatencyHistogram" should "report percentiles within its precision" in {
+    val histogram = new LatencyHistogram
+    (1 to 10000).foreach(i => histogram.record(i * 1000L))
+    val summary = histogram.summary
+
+    summary.count shouldBe 10000
+    summary.min shouldBe 1000.nanos
+    summary.max shouldBe 10000000.nanos
+    summary.p50.toNanos.toDouble shouldBe 5000000.0 +- 5000000 * 0.02
+    summary.p99.toNanos.toDouble shouldBe 9900000.0 +- 9900000 * 0.02
+    summary.mean.toNanos shouldBe 5000500L
+  }
+
+  it should "map every value into a bucket which contains it" in {
+    Seq(0L, 1L, 127L, 128L, 129L, 1000L, 123456789L, Long.MaxValue / 3, Long.MaxValue).foreach { value =>
+      val middle = LatencyHistogram.valueOf(LatencyHistogram.indexOf(value))
+      math.abs(middle.toDouble - value.toDouble) should be <= value.toDouble / 64
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpMethods, HttpRequest, StatusCodes}
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+import iog.psg.cardano.util.{CountingApiRequestExecutor, DummyModel, StubApiFixture}
+import org.scalatest.concurrent.Eventually
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.duration._
+import scala.concurrent.{ExecutionContext, Future}
+
+class LoadBalancingApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with Eventually
+    with DummyModel
+    with StubApiFixture {
+
+  private val baseUrls = Seq("http://localhost:8090/v2/", "http://localhost:8091/v2/", "http://localhost:8092/v2/")
+  private val noHealthChecks = LoadBalancerSettings.default.withHealthCheckInterval(Duration.Zero)
+
+  /**
+   * Sends every request to the backend listening on the request's port.
+   */
+  private class Backends(delay: FiniteDuration) extends ApiRequestExecutor {
+    val byPort: Map[Int, CountingApiRequestExecutor] =
+      baseUrls.indices.map(i => (8090 + i) -> stubExecutor(delay)("network/information" -> networkInfoJson)).toMap
+
+    def apply(i: Int): CountingApiRequestExecutor = byPort(8090 + i)
+
+    override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+      byPort(request.request.uri.authority.port).execute(request)
+  }
+
+  private def setup(settings: LoadBalancerSettings, delay: FiniteDuration = Duration.Zero) = {
+    val backends = new Backends(delay)
+    val balancer = LoadBalancingApiRequestExecutor(baseUrls, backends, settings)
+    (backends, balancer, CardanoApi(balancer.baseUri, balancer))
+  }
+
+  "LoadBalancingApiRequestExecutor" should "spread reads across every backend" in {
+    val (backends, balancer, api) = setup(noHealthChecks.withStrategy(BalancingStrategy.leastOutstanding), 20.millis)
+    import api.requestExecutor
+
+    val results = Future.sequence((1 to 30).map(_ => api.networkInfo.execute)).futureValue
+    all(results.map(_.isRight)) shouldBe true
+    baseUrls.indices.foreach(i => backends(i).callsTo("network/information") shouldBe 10)
+    all(balancer.stats.map(_.outstanding)) shouldBe 0
+  }
+
+  it should "reach every backend with two random choices" in {
+    val (backends, _, api) = setup(noHealthChecks, 20.millis)
+    import api.requestExecutor
+
+    Future.sequence((1 to 60).map(_ => api.networkInfo.execute)).futureValue
+    baseUrls.indices.foreach(i => backends(i).callsTo("network/information") should be > 0)
+  }
+
+  it should "send every write for a wallet to the same backend" in {
+    val (backends, _, api) = setup(noHealthChecks)
+    import api.requestExecutor
+
+    (1 to 5).foreach(_ => api.deleteWallet(wallet.id).execute.futureValue)
+    baseUrls.indices.map(i => backends(i).callsTo(s"wallets/${wallet.id}")).sorted shouldBe Seq(0, 0, 5)
+  }
+
+  it should "spread the writes of byron wallets by wallet too" in {
+    val (backends, balancer, _) = setup(noHealthChecks)
+    val walletIds = (1 to 10).map(i => s"byron-wallet-$i")
+    def delete(walletId: String) = CardanoApiRequest[Unit](
+      HttpRequest(HttpMethods.DELETE, s"${balancer.baseUri}byron-wallets/$walletId"),
+      _ => Future.successful(Right(()))
+    )
+
+    for (walletId <- walletIds; _ <- 1 to 2) balancer.execute(delete(walletId)).futureValue
+    walletIds.foreach { walletId =>
+      baseUrls.indices.map(i => backends(i).callsTo(s"byron-wallets/$walletId")).sorted shouldBe Seq(0, 0, 2)
+    }
+    baseUrls.indices.count(i => walletIds.exists(id => backends(i).callsTo(s"byron-wallets/$id") > 0)) should be > 1
+  }
+
+  it should "eject a backend after repeated server errors" in {
+    val settings = noHealthChecks.withStrategy(BalancingStrategy.leastOutstanding).withEjection(2, 1.minute)
+    val (backends, balancer, api) = setup(settings)
+    import api.requestExecutor
+
+    backends(0).statuses.put("network/information", StatusCodes.InternalServerError)
+    (1 to 12).foreach(_ => api.networkInfo.execute.futureValue)
+
+    backends(0).callsTo("network/information") shouldBe 2
+    balancer.stats.map(_.healthy) shouldBe Seq(false, true, true)
+  }
+
+  it should "forget the failures of a backend once its health check succeeds" in {
+    val settings = LoadBalancerSettings.default.withHealthCheckInterval(50.millis).withEjection(2, 1.minute)
+    val backends = new Backends(Duration.Zero)
+    backends(0).statuses.put(s"wallets/${wallet.id}", StatusCodes.InternalServerError)
+    val balancer = LoadBalancingApiRequestExecutor(baseUrls.take(1), backends, settings)
+    val api = CardanoApi(balancer.baseUri, balancer)
+    import api.requestExecutor
+
+    try {
+      api.getWallet(wallet.id).execute.futureValue.isLeft shouldBe true
+      val checks = backends(0).callsTo("network/information")
+      eventually(backends(0).callsTo("network/information") should be > checks + 1)
+      api.getWallet(wallet.id).execute.futureValue.isLeft shouldBe true
+      balancer.stats.map(_.healthy) shouldBe Seq(true)
+    } finally balancer.shutdown()
+  }
+
+  it should "use every backend when none is healthy" in {
+    val (backends, _, api) = setup(noHealthChecks.withEjection(1, 1.minute))
+    import api.requestExecutor
+
+    baseUrls.indices.foreach(i => backends(i).statuses.put("network/information", StatusCodes.ServiceUnavailable))
+    (1 to 10).foreach(_ => api.networkInfo.execute.futureValue.isLeft shouldBe true)
+    baseUrls.indices.map(i => backends(i).callsTo("network/information")).sum shouldBe 10
+  }
+
+  it should "leave out a backend whose node tip lags behind" in {
+    val settings = LoadBalancerSettings.default.withHealthCheckInterval(50.millis).withMaxTipLag(10)
+    val backends = new Backends(Duration.Zero)
+    backends(2).bodies.put("network/information", networkInfoJson.replace("\"quantity\": 1337", "\"quantity\": 1200"))
+    val balancer = LoadBalancingApiRequestExecutor(baseUrls, backends, settings)
+
+    try {
+      eventually {
+        balancer.stats.map(_.tipHeight) shouldBe Seq(Some(1337), Some(1337), Some(1200))
+        balancer.stats.map(_.healthy) shouldBe Seq(true, true, false)
+      }
+    } finally balancer.shutdown()
+  }
+
+  it should "pass through requests to other urls" in {
+    val (backends, balancer, _) = setup(noHealthChecks)
+    val other = CardanoApi("http://localhost:8091/v2/", balancer)
+    import other.requestExecutor
+
+    other.networkInfo.execute.futureValue.isRight shouldBe true
+    backends(1).callsTo("network/information") shouldBe 1
+    balancer.stats.map(_.requests).sum shouldBe 0
+  }
+
+  "CardanoApi" should "be bound to the first of several backends" in {
+    val api = CardanoApi(baseUrls, noHealthChecks)
+    api.requestExecutor shouldBe a[LoadBalancingApiRequestExecutor]
+  }
+
+  it should "stop the health checks of its backends on shutdown" in {
+    val backends = new Backends(Duration.Zero)
+    val api = CardanoApi(baseUrls, LoadBalancerSettings.default.withHealthCheckInterval(10.millis), backends)
+    def checks = baseUrls.indices.map(backends(_).callsTo("network/information")).sum
+    eventually(checks should be > baseUrls.size)
+
+    api.shutdown()
+    Thread.sleep(50)
+    val checksAtShutdown = checks
+    Thread.sleep(100)
+    checks shouldBe checksAtShutdown
+  }
+}
@@ -0,0 +1,113 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.Http
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity}
+import akka.http.scaladsl.server.Directives._
+import akka.pattern.{after => delayed}
+import akka.stream.BufferOverflowException
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.util.{CustomPatienceConfiguration, ResourceFiles}
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.concurrent.ScalaFutures
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.duration._
+import scala.concurrent.{Await, Future}
+
+class PooledApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with ScalaFutures
+    with ResourceFiles
+    with CustomPatienceConfiguration
+    with BeforeAndAfterAll {
+
+  private implicit val as: ActorSystem = ActorSystem("PooledApiRequestExecutorSpec")
+  import as.dispatcher
+
+  private val networkInfoJson = getJsonFromFile("netinfo.json")
+
+  private val route =
+    path("v2" / "network" / "information") {
+      get {
+        complete(HttpEntity(ContentTypes.`application/json`, networkInfoJson))
+      }
+    } ~
+      path("v2" / "slow" / "network" / "information") {
+        get {
+          complete(delayed(500.millis)(Future.successful(HttpEntity(ContentTypes.`application/json`, networkInfoJson))))
+        }
+      }
+
+  private lazy val binding = Await.result(Http().newServerAt("localhost", 0).bind(route), 10.seconds)
+
+  private def baseUrl(prefix: String = "") = s"http://localhost:${binding.localAddress.getPort}/v2/$prefix"
+
+  "PooledApiRequestExecutor" should "serve many concurrent requests through a small pool" in {
+    val executor = PooledApiRequestExecutor(ApiConnectionPoolSettings(maxConnections = 2, maxOpenRequests = 4))
+    val api = CardanoApi(baseUrl(), executor)
+    import api.requestExecutor
+
+    val results = Future.sequence((1 to 50).map(_ => api.networkInfo.execute)).futureValue(timeout(10.seconds))
+
+    results.size shouldBe 50
+    all(results.map(_.isRight)) shouldBe true
+    executor.inFlightRequests shouldBe 0
+    executor.shutdown().futureValue
+  }
+
+  it should "reject requests once the queue is full when dropping new requests" in {
+    val settings = ApiConnectionPoolSettings.default
+      .withMaxConnections(1)
+      .withMaxOpenRequests(1)
+      .withQueueSize(1)
+      .withOverflowStrategy(PoolOverflowStrategy.dropNew)
+    val executor = PooledApiRequestExecutor(settings)
+    val api = CardanoApi(baseUrl("slow/"), executor)
+    import api.requestExecutor
+
+    val results = (1 to 10).map(_ => api.networkInfo.execute.map(Right(_)).recover { case e => Left(e) })
+    val completed = Future.sequence(results).futureValue(timeout(10.seconds))
+
+    completed.exists(_.isRight) shouldBe true
+    completed.collect { case Left(e) => e }.foreach(_ shouldBe a[BufferOverflowException])
+    completed.count(_.isLeft) should be > 0
+  }
+
+  it should "make requests wait for room in a full queue when back pressuring" in {
+    val settings = ApiConnectionPoolSettings.default
+      .withMaxConnections(2)
+      .withMaxOpenRequests(1)
+      .withQueueSize(1)
+    val executor = PooledApiRequestExecutor(settings)
+    val api = CardanoApi(baseUrl("slow/"), executor)
+    import api.requestExecutor
+
+    val results = Future.sequence((1 to 8).map(_ => api.networkInfo.execute)).futureValue(timeout(10.seconds))
+
+    all(results.map(_.isRight)) shouldBe true
+    executor.inFlightRequests shouldBe 0
+    executor.shutdown().futureValue
+  }
+
+  it should "fail requests after it has been shut down" in {
+    val executor = PooledApiRequestExecutor()
+    val api = CardanoApi(baseUrl(), executor)
+    import api.requestExecutor
+
+    executor.shutdown().futureValue
+    api.networkInfo.execute.failed.futureValue shouldBe a[Exception]
+  }
+
+  "ApiConnectionPoolSettings" should "only accept a power of 2 for max open requests" in {
+    an[IllegalArgumentException] shouldBe thrownBy(ApiConnectionPoolSettings(maxOpenRequests = 3))
+  }
+
+  override def afterAll(): Unit = {
+    binding.unbind().futureValue
+    as.terminate().futureValue
+    super.afterAll()
+  }
+}
@@ -0,0 +1,186 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpRequest, HttpResponse, StatusCodes}
+import akka.pattern.{CircuitBreakerOpenException, after => delayed}
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+import iog.psg.cardano.util.{DummyModel, StubApiFixture}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.net.ConnectException
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger}
+import scala.concurrent.duration._
+import scala.concurrent.{ExecutionContext, Future}
+
+class ResilientApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with DummyModel
+    with StubApiFixture {
+
+  private def ok = Future.successful(HttpResponse(entity = HttpEntity(ContentTypes.`application/json`, networkInfoJson)))
+
+  private def status(code: Int) = Future.successful(HttpResponse(
+    status = code,
+    entity = HttpEntity(ContentTypes.`application/json`, s"""{"message":"failed","code":"$code"}""")
+  ))
+
+  /**
+   * Answers the n-th call (from 0) as the script says.
+   */
+  private class ScriptedExecutor(script: Int => Future[HttpResponse]) extends ApiRequestExecutor {
+    private val counter = new AtomicInteger()
+
+    def calls: Int = counter.get()
+
+    override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+      script(counter.getAndIncrement()).flatMap(request.mapper)
+  }
+
+  private val fast = ResilienceSettings.default.withBackoff(10.millis, 50.millis, 0.2)
+
+  private def setup(settings: ResilienceSettings)(script: Int => Future[HttpResponse]) = {
+    val underlying = new ScriptedExecutor(script)
+    val resilient = ResilientApiRequestExecutor(underlying, settings)
+    (underlying, resilient, CardanoApi(baseUrl, resilient))
+  }
+
+  "ResilientApiRequestExecutor" should "retry failed requests and retried statuses" in {
+    val (underlying, resilient, api) = setup(fast) {
+      case 0 => Future.failed(new ConnectException("refused"))
+      case 1 => status(503)
+      case _ => ok
+    }
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    underlying.calls shouldBe 3
+    resilient.stats.retries shouldBe 2
+  }
+
+  it should "map the last response once the retries run out" in {
+    val (underlying, _, api) = setup(fast.withMaxRetries(2))(_ => status(503))
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.left.map(_.code) shouldBe Left("503")
+    underlying.calls shouldBe 3
+  }
+
+  it should "not retry a response with a status which isn't retried" in {
+    val (underlying, _, api) = setup(fast)(_ => status(404))
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.left.map(_.code) shouldBe Left("404")
+    underlying.calls shouldBe 1
+  }
+
+  it should "time out a slow attempt and retry it" in {
+    val settings = fast.withEndpointTimeout("network/information", 100.millis)
+    val (underlying, resilient, api) = setup(settings) {
+      case 0 => delayed(1.second)(ok)
+      case _ => ok
+    }
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    underlying.calls shouldBe 2
+    resilient.stats.timeouts shouldBe 1
+  }
+
+  it should "discard the entity of a response which arrives after its attempt timed out" in {
+    val drained = new AtomicBoolean(false)
+    val late = HttpResponse(entity = HttpEntity(
+      ContentTypes.`application/json`,
+      Source.single(ByteString(networkInfoJson)).watchTermination() { (_, done) => done.foreach(_ => drained.set(true)) }
+    ))
+    val settings = fast.withEndpointTimeout("network/information", 100.millis)
+    val (_, resilient, _) = setup(settings) {
+      case 0 => delayed(300.millis)(Future.successful(late))
+      case _ => ok
+    }
+    // a mapper which leaves the entity alone, as a stream's would
+    val request = CardanoApiRequest[Unit](HttpRequest(uri = s"${baseUrl}network/information"), _ => Future.successful(Right(())))
+
+    resilient.execute(request).futureValue shouldBe Right(())
+    eventually(drained.get() shouldBe true)
+  }
+
+  it should "not retry a failure which isn't a transport failure, a timeout or a server error" in {
+    val (underlying, resilient, api) = setup(fast)(_ => Future.failed(new IllegalStateException("bad mapping")))
+    import api.requestExecutor
+
+    api.networkInfo.execute.failed.futureValue shouldBe an[IllegalStateException]
+    underlying.calls shouldBe 1
+    resilient.stats.retries shouldBe 0
+  }
+
+  it should "never retry or time out a request which isn't idempotent" in {
+    val (underlying, _, api) = setup(fast.withRequestTimeout(50.millis)) {
+      case 0 => delayed(200.millis)(status(503))
+      case _ => ok
+    }
+    import api.requestExecutor
+
+    api.deleteWallet(wallet.id).execute.futureValue.left.map(_.code) shouldBe Left("503")
+    underlying.calls shouldBe 1
+  }
+
+  it should "send a hedge for a slow attempt and take the first response" in {
+    val (underlying, resilient, api) = setup(fast.withHedging(50.millis)) {
+      case 0 => delayed(2.seconds)(ok)
+      case _ => ok
+    }
+    import api.requestExecutor
+
+    val start = System.nanoTime()
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    (System.nanoTime() - start).nanos should be < 1.second
+    underlying.calls shouldBe 2
+    resilient.stats.hedges shouldBe 1
+  }
+
+  it should "not hedge on the observed latency before enough samples" in {
+    val (underlying, resilient, api) = setup(fast.withHedging())(_ => ok)
+    import api.requestExecutor
+
+    (1 to 5).foreach(_ => api.networkInfo.execute.futureValue)
+    underlying.calls shouldBe 5
+    resilient.stats.hedges shouldBe 0
+  }
+
+  it should "open the circuit after repeated failures and fail fast" in {
+    val settings = fast.withMaxRetries(0).withCircuitBreaker(maxFailures = 3, resetTimeout = 1.minute)
+    val (underlying, resilient, api) = setup(settings)(_ => Future.failed(new ConnectException("refused")))
+    import api.requestExecutor
+
+    (1 to 3).foreach(_ => api.networkInfo.execute.failed.futureValue shouldBe a[ConnectException])
+    api.networkInfo.execute.failed.futureValue shouldBe a[CircuitBreakerOpenException]
+    api.deleteWallet(wallet.id).execute.failed.futureValue shouldBe a[CircuitBreakerOpenException]
+
+    underlying.calls shouldBe 3
+    resilient.stats.circuitOpen shouldBe true
+    resilient.stats.rejected shouldBe 2
+  }
+
+  "ResilienceSettings" should "pick the most specific endpoint timeout" in {
+    val settings = ResilienceSettings.default
+      .withEndpointTimeout("transactions", 1.second)
+      .withEndpointTimeout("stake-pools", 2.seconds)
+    def timeoutOf(path: String) = settings.timeoutFor(HttpRequest(uri = s"$baseUrl$path"))
+
+    timeoutOf("wallets/id/transactions") shouldBe 1.second
+    timeoutOf("stake-pools") shouldBe 2.seconds
+    timeoutOf("network/information") shouldBe settings.requestTimeout
+  }
+
+  it should "back off exponentially up to the max with jitter" in {
+    val settings = ResilienceSettings.default.withBackoff(100.millis, 1.second, 0.5)
+    settings.backoff(0) should (be >= 100.millis and be <= 150.millis)
+    settings.backoff(2) should (be >= 400.millis and be <= 600.millis)
+    settings.backoff(10) should (be >= 1.second and be <= 1500.millis)
+  }
+}
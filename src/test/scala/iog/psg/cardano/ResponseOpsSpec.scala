@@ -0,0 +1,60 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpResponse, StatusCodes}
+import akka.stream.scaladsl.Source
+import akka.util.ByteString
+import iog.psg.cardano.CardanoApi.ErrorMessage
+import iog.psg.cardano.CardanoApiCodec._
+import iog.psg.cardano.util.{CustomPatienceConfiguration, DummyModel, ResourceFiles}
+import org.scalatest.concurrent.ScalaFutures
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.duration.{DurationInt, FiniteDuration}
+
+class ResponseOpsSpec
+  extends AnyFlatSpec
+    with Matchers
+    with ScalaFutures
+    with ResourceFiles
+    with DummyModel
+    with CustomPatienceConfiguration {
+
+  private implicit val as: ActorSystem = ActorSystem("ResponseOpsSpec")
+  private implicit val timeout: FiniteDuration = 5.seconds
+  import as.dispatcher
+
+  private def jsonResponse(json: String, status: StatusCodes.Success = StatusCodes.OK) =
+    HttpResponse(status = status, entity = HttpEntity(ContentTypes.`application/json`, json))
+
+  "decodeInStream" should "decode every element of a chunked array" in {
+    val chunks = getJsonFromFile("transactions.json").grouped(7).map(ByteString(_)).toList
+    val response = HttpResponse(entity = HttpEntity.Chunked.fromData(ContentTypes.`application/json`, Source(chunks)))
+
+    response.toCreateTransactionsResponse.futureValue shouldBe Right(jsonFileCreatedTransactionsResponse)
+  }
+
+  it should "decode wallets, stake pools and migrations" in {
+    jsonResponse(getJsonFromFile("wallets.json")).toWallets.futureValue.map(_.head) shouldBe Right(wallet)
+    jsonResponse(getJsonFromFile("stake_pools.json")).toStakePoolsResponse.futureValue shouldBe Right(jsonFileStakePoolsResponse)
+    jsonResponse(getJsonFromFile("migrations.json")).toSubmitMigrationsResponse.futureValue shouldBe Right(jsonFileMigrationsResponse)
+  }
+
+  it should "return an unparseable result for an element which can't be decoded" in {
+    val result = jsonResponse("""[{"id":"not a wallet"}]""").toWallets.futureValue
+    result.left.map(_.code) shouldBe Left("UNPARSEABLE RESULT")
+  }
+
+  it should "return the api error of a json error response" in {
+    val response = HttpResponse(
+      status = StatusCodes.NotFound,
+      entity = HttpEntity(ContentTypes.`application/json`, """{"message":"Wallet not found","code":"no_such_wallet"}""")
+    )
+    response.toCreateTransactionsResponse.futureValue shouldBe Left(ErrorMessage("Wallet not found", "no_such_wallet"))
+  }
+
+  it should "return an empty sequence for an empty array" in {
+    jsonResponse("[]").toWalletAddressIds.futureValue shouldBe Right(Seq.empty)
+  }
+}
@@ -0,0 +1,93 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.StatusCodes
+import akka.stream.scaladsl.Sink
+import iog.psg.cardano.CardanoApi.ErrorMessageException
+import iog.psg.cardano.util.{CountingApiRequestExecutor, DummyModel, StubApiFixture}
+import org.scalatest.concurrent.Eventually
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.duration._
+
+class SubscriptionsSpec
+  extends AnyFlatSpec
+    with Matchers
+    with Eventually
+    with DummyModel
+    with StubApiFixture {
+
+  private val walletJson = getJsonFromFile("wallet.json")
+  private val walletPath = s"wallets/${wallet.id}"
+  private val fixed = SubscriptionSettings.default.withInterval(50.millis, 50.millis)
+
+  private def setup() = {
+    val underlying = stubExecutor()(walletPath -> walletJson, "network/information" -> networkInfoJson)
+    (underlying, CardanoApi(baseUrl, underlying))
+  }
+
+  "subscribeWallet" should "emit the current wallet and then only its changes" in {
+    val (underlying, api) = setup()
+    val changes = api.subscribeWallet(wallet.id, fixed).runWith(Sink.queue())
+
+    changes.pull().futureValue shouldBe Some(wallet)
+    eventually(underlying.callsTo(walletPath) should be >= 3)
+
+    underlying.bodies.put(walletPath, walletJson.replaceFirst("42000000", "41000000"))
+    changes.pull().futureValue.map(_.balance.available.quantity) shouldBe Some(41000000)
+    changes.cancel()
+  }
+
+  it should "share one poll between subscribers and stop it after the last one cancels" in {
+    val (underlying, api) = setup()
+    val first = api.subscribeWallet(wallet.id, fixed).runWith(Sink.queue())
+    val second = api.subscribeWallet(wallet.id, fixed).runWith(Sink.queue())
+
+    first.pull().futureValue shouldBe Some(wallet)
+    second.pull().futureValue shouldBe Some(wallet)
+    Thread.sleep(500)
+    underlying.callsTo(walletPath) should be <= 13
+
+    first.cancel()
+    second.cancel()
+    Thread.sleep(200)
+    val stopped = underlying.callsTo(walletPath)
+    Thread.sleep(200)
+    underlying.callsTo(walletPath) shouldBe stopped
+  }
+
+  it should "back off while the wallet is synced and unchanged" in {
+    val (underlying, api) = setup()
+    val changes = api.subscribeWallet(wallet.id, SubscriptionSettings.default.withInterval(10.millis, 1.second)).runWith(Sink.queue())
+
+    changes.pull().futureValue shouldBe Some(wallet)
+    Thread.sleep(500)
+    underlying.callsTo(walletPath) should be < 10
+    changes.cancel()
+  }
+
+  it should "fail the stream on an api error" in {
+    val (underlying, api) = setup()
+    underlying.statuses.put(walletPath, StatusCodes.NotFound)
+
+    api.subscribeWallet(wallet.id, fixed).runWith(Sink.seq).failed.futureValue shouldBe a[ErrorMessageException]
+  }
+
+  "subscribeNetworkTip" should "emit the network information when the node tip moves" in {
+    val (underlying, api) = setup()
+    val changes = api.subscribeNetworkTip(fixed).runWith(Sink.queue())
+
+    changes.pull().futureValue shouldBe Some(networkInfo)
+    underlying.bodies.put("network/information", networkInfoJson.replace("\"quantity\": 1337", "\"quantity\": 1338"))
+    changes.pull().futureValue.map(_.nodeTip.height.quantity) shouldBe Some(1338)
+    changes.cancel()
+  }
+
+  "SubscriptionSettings" should "back off up to the max interval" in {
+    val settings = SubscriptionSettings.default.withInterval(100.millis, 300.millis)
+    settings.backoff(100.millis) shouldBe 200.millis
+    settings.backoff(200.millis) shouldBe 300.millis
+    an[IllegalArgumentException] shouldBe thrownBy(settings.withInterval(1.second, 100.millis))
+  }
+}
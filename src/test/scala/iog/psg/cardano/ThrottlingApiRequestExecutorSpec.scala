@@ -0,0 +1,136 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{HttpMethods, HttpRequest, StatusCodes}
+import iog.psg.cardano.CardanoApi.CardanoApiOps._
+import iog.psg.cardano.util.{CountingApiRequestExecutor, StubApiFixture}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import scala.concurrent.Future
+import scala.concurrent.duration._
+
+class ThrottlingApiRequestExecutorSpec
+  extends AnyFlatSpec
+    with Matchers
+    with StubApiFixture {
+
+  private val unlimited = ThrottleSettings(rateLimits = Map.empty)
+
+  private def setup(settings: ThrottleSettings, delay: FiniteDuration = Duration.Zero) = {
+    val underlying = stubExecutor(delay)("network/information" -> networkInfoJson)
+    val throttling = ThrottlingApiRequestExecutor(underlying, settings)
+    (underlying, throttling, CardanoApi(baseUrl, throttling))
+  }
+
+  "ThrottlingApiRequestExecutor" should "delay requests beyond the burst to keep to the rate" in {
+    val (underlying, _, api) = setup(unlimited.withRateLimit(EndpointClass.reads, RateLimit(permitsPerSecond = 10, burst = 2)))
+    import api.requestExecutor
+
+    val start = System.nanoTime()
+    val results = Future.sequence((1 to 6).map(_ => api.networkInfo.execute)).futureValue
+    val elapsed = (System.nanoTime() - start).nanos
+
+    all(results.map(_.isRight)) shouldBe true
+    underlying.callsTo("network/information") shouldBe 6
+    elapsed should be >= 350.millis
+  }
+
+  it should "reject requests which would wait longer than the max throttle delay" in {
+    val settings = unlimited
+      .withRateLimit(EndpointClass.reads, RateLimit(permitsPerSecond = 1, burst = 1))
+      .withMaxThrottleDelay(100.millis)
+    val (underlying, throttling, api) = setup(settings)
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    api.networkInfo.execute.failed.futureValue shouldBe a[RequestThrottledException]
+    underlying.callsTo("network/information") shouldBe 1
+    throttling.stats.rejected shouldBe 1
+  }
+
+  it should "not rate limit a class of endpoint without a limit" in {
+    val (underlying, throttling, api) = setup(unlimited.withRateLimit(EndpointClass.submits, RateLimit(1, 1)))
+    import api.requestExecutor
+
+    Future.sequence((1 to 20).map(_ => api.networkInfo.execute)).futureValue
+    underlying.callsTo("network/information") shouldBe 20
+    throttling.stats.rejected shouldBe 0
+  }
+
+  it should "keep the requests in flight under the concurrency limit" in {
+    val (underlying, throttling, api) = setup(unlimited.withConcurrency(initial = 2, min = 1, max = 2), delay = 50.millis)
+    import api.requestExecutor
+
+    val results = Future.sequence((1 to 10).map(_ => api.networkInfo.execute)).futureValue
+    all(results.map(_.isRight)) shouldBe true
+    underlying.maxInFlight shouldBe 2
+    throttling.stats.inFlight shouldBe 0
+    throttling.stats.queued shouldBe 0
+  }
+
+  it should "cut the concurrency limit on server errors and grow it back on healthy responses" in {
+    val (underlying, throttling, api) = setup(unlimited.withConcurrency(initial = 10, min = 1, max = 20))
+    import api.requestExecutor
+
+    underlying.statuses.put("network/information", StatusCodes.ServiceUnavailable)
+    api.networkInfo.execute.futureValue.isLeft shouldBe true
+    throttling.stats.concurrencyLimit shouldBe 7
+    throttling.stats.overloads shouldBe 1
+
+    underlying.statuses.remove("network/information")
+    (1 to 30).foreach(_ => api.networkInfo.execute.futureValue)
+    throttling.stats.concurrencyLimit should be > 7
+  }
+
+  it should "cut the concurrency limit once for a burst of overloaded responses" in {
+    val (underlying, throttling, api) = setup(unlimited.withConcurrency(initial = 10, min = 1, max = 20), delay = 50.millis)
+    import api.requestExecutor
+
+    underlying.statuses.put("network/information", StatusCodes.InternalServerError)
+    Future.sequence((1 to 10).map(_ => api.networkInfo.execute)).futureValue
+    throttling.stats.overloads shouldBe 10
+    throttling.stats.concurrencyLimit shouldBe 7
+  }
+
+  it should "count slow responses as overload" in {
+    val settings = unlimited.withConcurrency(initial = 4, min = 1, max = 8).withLatencyThreshold(10.millis)
+    val (_, throttling, api) = setup(settings, delay = 100.millis)
+    import api.requestExecutor
+
+    api.networkInfo.execute.futureValue.isRight shouldBe true
+    throttling.stats.overloads shouldBe 1
+    throttling.stats.concurrencyLimit shouldBe 2
+  }
+
+  it should "reject requests once the queue is full" in {
+    val settings = unlimited.withConcurrency(initial = 1, min = 1, max = 1).withMaxQueued(1)
+    val (_, throttling, api) = setup(settings, delay = 200.millis)
+    import api.requestExecutor
+
+    val results = (1 to 3).map(_ => api.networkInfo.execute.map(Right(_)).recover { case e => Left(e) })
+    val completed = Future.sequence(results).futureValue
+
+    completed.count(_.isRight) shouldBe 2
+    completed.collect { case Left(e) => e }.head shouldBe a[RequestThrottledException]
+    throttling.stats.rejected shouldBe 1
+  }
+
+  "EndpointClass" should "classify requests by method and path" in {
+    def classOf(method: akka.http.scaladsl.model.HttpMethod, path: String) =
+      EndpointClass.of(HttpRequest(method, s"${baseUrl}$path"))
+
+    classOf(HttpMethods.GET, "wallets/id/transactions") shouldBe EndpointClass.reads
+    classOf(HttpMethods.POST, "wallets/id/coin-selections/random") shouldBe EndpointClass.coinSelection
+    classOf(HttpMethods.POST, "wallets/id/payment-fees") shouldBe EndpointClass.coinSelection
+    classOf(HttpMethods.POST, "wallets/id/transactions") shouldBe EndpointClass.submits
+    classOf(HttpMethods.POST, "proxy/transactions") shouldBe EndpointClass.submits
+    classOf(HttpMethods.POST, "wallets/id/migrations") shouldBe EndpointClass.submits
+    classOf(HttpMethods.DELETE, "wallets/id") shouldBe EndpointClass.writes
+  }
+
+  "ThrottleSettings" should "reject inconsistent concurrency bounds" in {
+    an[IllegalArgumentException] shouldBe thrownBy(ThrottleSettings(minConcurrency = 4, initialConcurrency = 2))
+    an[IllegalArgumentException] shouldBe thrownBy(ThrottleSettings(backoffRatio = 1.5))
+  }
+}
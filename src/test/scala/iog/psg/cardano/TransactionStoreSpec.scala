@@ -0,0 +1,180 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import io.circe.Json
+import io.circe.parser.parse
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse, ErrorMessageException}
+import iog.psg.cardano.CardanoApiCodec.TxDirection
+import iog.psg.cardano.util.{CountingApiRequestExecutor, DummyModel, StubApiFixture}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.util.concurrent.ConcurrentLinkedQueue
+import scala.concurrent.{ExecutionContext, Future}
+import scala.jdk.CollectionConverters.CollectionHasAsScala
+
+class TransactionStoreSpec
+  extends AnyFlatSpec
+    with Matchers
+    with DummyModel
+    with StubApiFixture {
+
+  private val transactionsPath = s"wallets/${wallet.id}/transactions"
+  private val template = parse(getJsonFromFile("transaction.json")).fold(throw _, identity)
+
+  private def transaction(id: String, slot: Long, direction: String = "outgoing", status: String = "in_ledger"): Json =
+    template.mapObject(
+      _.add("id", Json.fromString(id))
+        .add("status", Json.fromString(status))
+        .add("direction", Json.fromString(direction))
+        .add("inserted_at", Json.obj(
+          "time" -> Json.fromString(f"2000-01-02T03:04:${slot % 60}%02d.000Z"),
+          "slot_number" -> Json.fromLong(slot),
+          "epoch_number" -> Json.fromInt(14),
+          "absolute_slot_number" -> Json.fromLong(slot)
+        ))
+    )
+
+  private def listing(transactions: Json*): String = Json.arr(transactions: _*).noSpaces
+
+  private def setup() = {
+    val underlying = stubExecutor()()
+    val queries = new ConcurrentLinkedQueue[String]()
+    val recording = new ApiRequestExecutor {
+      override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+        queries.add(request.request.uri.rawQueryString.getOrElse(""))
+        underlying.execute(request)
+      }
+    }
+    (underlying, queries, CardanoApi(baseUrl, recording))
+  }
+
+  private def tempDirectory(): Path = Files.createTempDirectory("transaction-store")
+
+  "TransactionStore" should "store the in ledger transactions of a sync" in {
+    val (underlying, _, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(
+      transaction("tx1", 10), transaction("tx2", 20, "incoming"), transaction("tx3", 30, status = "pending")
+    ))
+    val store = TransactionStore(tempDirectory())
+
+    store.sync(api, wallet.id).futureValue shouldBe Right(2)
+    val stored = store.wallet(wallet.id)
+    stored.size shouldBe 2
+    stored.get("tx2").map(_.direction) shouldBe Some(TxDirection.incoming)
+    stored.get("tx3") shouldBe None
+    store.close()
+  }
+
+  it should "resume from the checkpoint and skip the transactions already stored" in {
+    val (underlying, queries, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(transaction("tx1", 10), transaction("tx2", 20)))
+    val store = TransactionStore(tempDirectory())
+    store.sync(api, wallet.id).futureValue shouldBe Right(2)
+    queries.asScala.last should not include "start="
+
+    underlying.bodies.put(transactionsPath, listing(transaction("tx2", 20), transaction("tx3", 30)))
+    store.sync(api, wallet.id).futureValue shouldBe Right(1)
+    queries.asScala.last should include("start=2000-01-02T03:04:20")
+    queries.asScala.last should include("order=ascending")
+    store.wallet(wallet.id).transactions().map(_.id) shouldBe Seq("tx1", "tx2", "tx3")
+    store.close()
+  }
+
+  it should "reopen its transactions without the wallet" in {
+    val (underlying, _, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(transaction("tx1", 10), transaction("tx2", 20)))
+    val directory = tempDirectory()
+    val store = TransactionStore(directory)
+    store.sync(api, wallet.id).futureValue
+    val checkpoint = store.wallet(wallet.id).checkpoint
+    store.close()
+
+    val reopened = TransactionStore(directory)
+    val stored = reopened.wallet(wallet.id)
+    stored.size shouldBe 2
+    stored.checkpoint shouldBe checkpoint
+    stored.get("tx1").map(_.id) shouldBe Some("tx1")
+    underlying.callsTo(transactionsPath) shouldBe 1
+    reopened.close()
+  }
+
+  it should "discard what was written after the last checkpoint" in {
+    val (underlying, _, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(transaction("tx1", 10)))
+    val directory = tempDirectory()
+    val store = TransactionStore(directory)
+    store.sync(api, wallet.id).futureValue
+    store.close()
+
+    Files.write(directory.resolve(wallet.id).resolve("transactions.log"), Array.fill[Byte](100)(7), StandardOpenOption.APPEND)
+    val reopened = TransactionStore(directory)
+    reopened.wallet(wallet.id).size shouldBe 1
+
+    underlying.bodies.put(transactionsPath, listing(transaction("tx1", 10), transaction("tx2", 20)))
+    reopened.sync(api, wallet.id).futureValue shouldBe Right(1)
+    reopened.wallet(wallet.id).get("tx2").map(_.id) shouldBe Some("tx2")
+    reopened.close()
+  }
+
+  it should "roll back a sync which fails part way" in {
+    val (underlying, _, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(transaction("tx1", 10)))
+    val store = TransactionStore(tempDirectory())
+    store.sync(api, wallet.id).futureValue
+
+    underlying.bodies.put(transactionsPath, listing(transaction("tx2", 20), Json.obj("id" -> Json.fromString("broken"))))
+    store.sync(api, wallet.id).failed.futureValue shouldBe an[ErrorMessageException]
+    store.wallet(wallet.id).size shouldBe 1
+    store.wallet(wallet.id).contains("tx2") shouldBe false
+    store.close()
+  }
+
+  it should "return the api error of a sync" in {
+    val (_, _, api) = setup()
+    val store = TransactionStore(tempDirectory())
+    store.sync(api, wallet.id).futureValue.left.map(_.code) shouldBe Left("not_found")
+    store.close()
+  }
+
+  it should "query the transactions by slot and direction" in {
+    val (underlying, _, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(
+      (1 to 200).map(i => transaction(s"tx$i", i, if (i % 2 == 0) "incoming" else "outgoing")): _*
+    ))
+    val store = TransactionStore(tempDirectory())
+    store.sync(api, wallet.id).futureValue shouldBe Right(200)
+    val stored = store.wallet(wallet.id)
+
+    stored.transactions(fromSlot = 50, toSlot = 59).map(_.id) shouldBe (50 to 59).map(i => s"tx$i")
+    stored.transactions(fromSlot = 50, toSlot = 59, direction = Some(TxDirection.incoming)).map(_.id) shouldBe
+      Seq("tx50", "tx52", "tx54", "tx56", "tx58")
+    stored.transactions(fromSlot = 300) shouldBe empty
+    (1 to 200).foreach(i => stored.contains(s"tx$i") shouldBe true)
+    stored.contains("tx201") shouldBe false
+
+    underlying.bodies.put(transactionsPath, listing(transaction("tx201", 55)))
+    store.sync(api, wallet.id).futureValue shouldBe Right(1)
+    stored.transactions(fromSlot = 55, toSlot = 56).map(_.id) shouldBe Seq("tx55", "tx56", "tx201")
+    store.close()
+  }
+
+  it should "keep only the most recently read transactions decoded" in {
+    val (underlying, _, api) = setup()
+    underlying.bodies.put(transactionsPath, listing(transaction("tx1", 10), transaction("tx2", 20), transaction("tx3", 30)))
+    val directory = tempDirectory()
+    val store = TransactionStore(directory)
+    store.sync(api, wallet.id).futureValue
+    store.close()
+
+    val reopened = new WalletTransactions(directory.resolve(wallet.id), decodedCacheSize = 2)
+    val first = reopened.get("tx1").get
+    reopened.get("tx1").get shouldBe theSameInstanceAs(first)
+    reopened.transactions(fromSlot = 20).map(_.id) shouldBe Seq("tx2", "tx3")
+    val decodedAgain = reopened.get("tx1").get
+    decodedAgain should not be theSameInstanceAs(first)
+    decodedAgain shouldBe first
+    reopened.close()
+  }
+}
@@ -0,0 +1,70 @@
+package iog.psg.cardano
+
+import akka.util.ByteString
+import io.circe.syntax._
+import iog.psg.cardano.CardanoApiCodec._
+import iog.psg.cardano.util.ResourceFiles
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+class TransactionSummaryDecoderSpec extends AnyFlatSpec with Matchers with ResourceFiles {
+
+  private def summaryOf(tx: CreateTransactionResponse) =
+    TransactionSummary(tx.id, tx.amount, tx.depth, tx.direction, tx.status)
+
+  private def decode(json: String) = TransactionSummaryDecoder.decode(ByteString(json))
+
+  "TransactionSummaryDecoder" should "decode the same values as the full decoder" in {
+    val json = io.circe.parser.parse(getJsonFromFile("transactions.json")).getOrElse(fail("Invalid json"))
+    val elements = json.asArray.getOrElse(fail("Not an array"))
+
+    elements.zip(jsonFileCreatedTransactionsResponse).foreach { case (element, tx) =>
+      decode(element.spaces2) shouldBe Right(summaryOf(tx))
+    }
+  }
+
+  it should "skip nested values, escaped strings and literals" in {
+    val json =
+      """{ "inputs": [{"id": "x\"}]", "nested": [[], {}, [1, -2.5e3]]}], "flag": true, "none": null,
+        |  "id": "abc", "amount": {"unit": "lovelace", "quantity": 42},
+        |  "metadata": {"0": {"string": "{[\\"}}, "depth": null,
+        |  "direction": "incoming", "status": "in_ledger" }""".stripMargin
+
+    decode(json) shouldBe Right(
+      TransactionSummary("abc", QuantityUnit(42L, Units.lovelace), None, TxDirection.incoming, TxState.inLedger)
+    )
+  }
+
+  it should "match escaped field names" in {
+    val json = "{\"\\u0069d\":\"tx\",\"amount\":{\"quantity\":-1,\"unit\":\"lovelace\"},\"direction\":\"outgoing\",\"st\\u0061tus\":\"pending\"}"
+    decode(json).map(s => (s.id, s.status)) shouldBe Right(("tx", TxState.pending))
+  }
+
+  it should "fail on a missing field" in {
+    val json = """{"id":"tx","amount":{"quantity":1,"unit":"lovelace"},"direction":"outgoing"}"""
+    decode(json).left.map(_.getMessage) shouldBe Left("Missing field 'status'")
+  }
+
+  it should "fail on a fractional quantity" in {
+    val json = """{"id":"tx","amount":{"quantity":1.5,"unit":"lovelace"},"direction":"outgoing","status":"pending"}"""
+    decode(json).left.map(_.getMessage) shouldBe Left("Expected a whole number at offset 32")
+  }
+
+  it should "fail on malformed json" in {
+    decode("""{"id":"tx" "amount":{}}""").isLeft shouldBe true
+    decode("""{"id":"tx""").isLeft shouldBe true
+    decode("""{"id":"tx","status":"unknown"}""").isLeft shouldBe true
+  }
+
+  it should "decode a quantity at the limits of a long" in {
+    val json = Map(
+      "id" -> "tx".asJson,
+      "amount" -> Map("quantity" -> Long.MaxValue.asJson, "unit" -> "lovelace".asJson).asJson,
+      "depth" -> Map("quantity" -> Long.MinValue.asJson, "unit" -> "block".asJson).asJson,
+      "direction" -> "incoming".asJson,
+      "status" -> "in_ledger".asJson
+    ).asJson.noSpaces
+
+    decode(json).map(s => (s.amount.quantity, s.depth.map(_.quantity))) shouldBe Right((Long.MaxValue, Some(Long.MinValue)))
+  }
+}
@@ -0,0 +1,93 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.stream.scaladsl.Source
+import iog.psg.cardano.CardanoApiCodec._
+import iog.psg.cardano.util.{CustomPatienceConfiguration, DummyModel}
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.concurrent.ScalaFutures
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+class TransactionTableSpec
+  extends AnyFlatSpec
+    with Matchers
+    with ScalaFutures
+    with DummyModel
+    with CustomPatienceConfiguration
+    with BeforeAndAfterAll {
+
+  private implicit val as: ActorSystem = ActorSystem("TransactionTableSpec")
+
+  private def transaction(i: Int): CreateTransactionResponse = {
+    val inLedger = i % 3 != 0
+    val block = TimedBlock(
+      time = dummyDateTime.plusSeconds(i),
+      block = None,
+      slotNumber = Some(i),
+      epochNumber = Some(i / 100),
+      height = Some(QuantityUnit(i.toLong, Units.block)),
+      absoluteSlotNumber = Some(1000L + i)
+    )
+    CreateTransactionResponse(
+      id = f"$i%064d",
+      amount = QuantityUnit(i * 1000000L, Units.lovelace),
+      insertedAt = Option.when(inLedger)(block),
+      pendingSince = Some(block.copy(height = None, absoluteSlotNumber = None)),
+      depth = Option.when(inLedger)(QuantityUnit(5L, Units.block)),
+      direction = if (i % 2 == 0) TxDirection.incoming else TxDirection.outgoing,
+      inputs = Seq(inAddress.copy(id = f"${i - 1}%064d"), inAddress.copy(address = None, amount = None, index = 1)),
+      outputs = Seq.fill(i % 4)(outAddress),
+      withdrawals = if (i % 5 == 0) Seq(StakeAddress("stake" + i, QuantityUnit(1L, Units.lovelace))) else Nil,
+      status = if (inLedger) TxState.inLedger else TxState.pending,
+      metadata = Option.when(i % 7 == 0)(txMetadataOut)
+    )
+  }
+
+  private val transactions = (1 to 300).map(transaction)
+
+  "TransactionTable" should "rebuild every transaction it was built from" in {
+    val table = TransactionTable(transactions)
+
+    table.size shouldBe transactions.size
+    transactions.indices.foreach(row => table(row) shouldBe transactions(row))
+    table.transactions().toSeq shouldBe transactions
+  }
+
+  it should "be built from a stream" in {
+    val table = Source(transactions).runWith(TransactionTable.sink).futureValue
+    table.transactions().map(_.id).toSeq shouldBe transactions.map(_.id)
+  }
+
+  it should "filter by state, direction, slot and amount" in {
+    val table = TransactionTable(transactions)
+    def expected(p: CreateTransactionResponse => Boolean) = transactions.filter(p).map(_.id)
+    def ids(filter: TransactionFilter) = table.rows(filter).map(table.id).toSeq
+
+    ids(TransactionFilter.all.withStatus(TxState.pending)) shouldBe expected(_.status == TxState.pending)
+    ids(TransactionFilter.all.withDirection(TxDirection.incoming)) shouldBe expected(_.direction == TxDirection.incoming)
+    ids(TransactionFilter.all.withSlots(1050, 1100)) shouldBe
+      expected(_.insertedAt.flatMap(_.absoluteSlotNumber).exists(slot => slot >= 1050 && slot <= 1100))
+    ids(TransactionFilter.all.withMinAmount(250000000L).withStatus(TxState.inLedger).withDirection(TxDirection.outgoing)) shouldBe
+      expected(tx => tx.amount.quantity >= 250000000L && tx.status == TxState.inLedger && tx.direction == TxDirection.outgoing)
+
+    table.count(TransactionFilter.all.withStatus(TxState.inLedger)) shouldBe 200
+    table.totalAmount(TransactionFilter.all.withDirection(TxDirection.incoming)) shouldBe
+      transactions.filter(_.direction == TxDirection.incoming).map(_.amount.quantity).sum
+  }
+
+  it should "look up a transaction's row by its id" in {
+    val table = TransactionTable(transactions)
+
+    table.rowOf(transactions(42).id) shouldBe Some(42)
+    table.rowOf("missing") shouldBe None
+    table.slot(1) shouldBe Some(1002L)
+    table.slot(2) shouldBe None
+    table.epoch(199) shouldBe Some(2)
+  }
+
+  override def afterAll(): Unit = {
+    as.terminate().futureValue
+    super.afterAll()
+  }
+}
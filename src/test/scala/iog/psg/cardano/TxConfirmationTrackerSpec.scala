@@ -0,0 +1,159 @@
+package iog.psg.cardano
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpResponse, StatusCodes}
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse, ErrorMessageException}
+import iog.psg.cardano.CardanoApiCodec.TxState
+import iog.psg.cardano.util.{CountingApiRequestExecutor, DummyModel, StubApiFixture}
+import org.scalatest.concurrent.Eventually
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.util.concurrent.TimeoutException
+import scala.concurrent.duration._
+import scala.concurrent.{ExecutionContext, Future, Promise}
+
+class TxConfirmationTrackerSpec
+  extends AnyFlatSpec
+    with Matchers
+    with Eventually
+    with DummyModel
+    with StubApiFixture {
+
+  private val transactionsPath = s"wallets/${wallet.id}/transactions"
+  private val otherWalletId = "b" * 40
+  private val settings = TxConfirmationSettings.default
+    .withDepth(3)
+    .withTipPolling(SubscriptionSettings.default.withInterval(20.millis, 20.millis))
+
+  private def transactions(txs: (String, String, Long)*): String =
+    txs.map { case (id, status, depth) =>
+      s"""{"id":"$id","amount":{"quantity":1,"unit":"lovelace"},"depth":{"quantity":$depth,"unit":"block"},"direction":"outgoing","status":"$status"}"""
+    }.mkString("[", ",", "]")
+
+  private var height = 1337
+
+  private def nextBlock(underlying: CountingApiRequestExecutor): Unit = {
+    height += 1
+    underlying.bodies.put("network/information", networkInfoJson.replace("\"quantity\": 1337", s"\"quantity\": $height"))
+  }
+
+  /**
+   * @param firstTip the node tip is answered once this completes, to track transactions before the first tip
+   */
+  private def setup(trackerSettings: TxConfirmationSettings = settings, firstTip: Future[Unit] = Future.unit) = {
+    val underlying = stubExecutor()("network/information" -> networkInfoJson, transactionsPath -> "[]")
+    underlying.holds.put("network/information", firstTip)
+    val tracker = TxConfirmationTracker(CardanoApi(baseUrl, underlying), trackerSettings)
+    (underlying, tracker)
+  }
+
+  "TxConfirmationTracker" should "complete a transaction once it is in ledger at the depth" in {
+    val firstTip = Promise[Unit]()
+    val (underlying, tracker) = setup(firstTip = firstTip.future)
+    val confirmed = tracker.track(wallet.id, "tx1")
+    underlying.bodies.put(transactionsPath, transactions(("tx1", "in_ledger", 1)))
+    firstTip.success(())
+
+    eventually(underlying.callsTo(transactionsPath) shouldBe 1)
+    confirmed.isCompleted shouldBe false
+
+    underlying.bodies.put(transactionsPath, transactions(("tx1", "in_ledger", 3)))
+    nextBlock(underlying)
+    confirmed.futureValue.status shouldBe TxState.inLedger
+    tracker.pending shouldBe 0
+    tracker.shutdown()
+  }
+
+  it should "list each wallet once per block for every transaction tracked" in {
+    val firstTip = Promise[Unit]()
+    val (underlying, tracker) = setup(firstTip = firstTip.future)
+    underlying.bodies.put(s"wallets/$otherWalletId/transactions", "[]")
+    (1 to 50).foreach(i => tracker.track(wallet.id, s"tx$i"))
+    tracker.track(otherWalletId, "other")
+    firstTip.success(())
+
+    eventually {
+      underlying.callsTo(transactionsPath) shouldBe 1
+      underlying.callsTo(s"wallets/$otherWalletId/transactions") shouldBe 1
+    }
+    nextBlock(underlying)
+    eventually {
+      underlying.callsTo(transactionsPath) shouldBe 2
+      underlying.callsTo(s"wallets/$otherWalletId/transactions") shouldBe 2
+    }
+
+    // the tip doesn't move, only this refresh lists the wallets
+    tracker.refresh().futureValue
+    underlying.callsTo(transactionsPath) shouldBe 3
+    underlying.callsTo(s"wallets/$otherWalletId/transactions") shouldBe 3
+    tracker.pending shouldBe 51
+    tracker.shutdown()
+  }
+
+  it should "complete an expired transaction with its status" in {
+    val (underlying, tracker) = setup()
+    underlying.bodies.put(transactionsPath, transactions(("tx1", "expired", 0), ("tx2", "pending", 0)))
+    val expired = tracker.track(wallet.id, "tx1")
+    val pending = tracker.track(wallet.id, "tx2")
+    nextBlock(underlying)
+
+    expired.futureValue.status shouldBe TxState.expired
+    pending.isCompleted shouldBe false
+    tracker.shutdown()
+  }
+
+  it should "return the same future for a transaction tracked twice" in {
+    val (_, tracker) = setup()
+    tracker.track(wallet.id, "tx1") shouldBe theSameInstanceAs(tracker.track(wallet.id, "tx1"))
+    tracker.pending shouldBe 1
+    tracker.shutdown()
+  }
+
+  it should "fail the transactions of a wallet which doesn't exist" in {
+    val (underlying, tracker) = setup()
+    underlying.bodies.put(transactionsPath, """{"message":"No such wallet","code":"no_such_wallet"}""")
+    underlying.statuses.remove(transactionsPath)
+    val noSuchWallet = new ApiRequestExecutor {
+      override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] =
+        if (!request.request.uri.path.toString.endsWith("/transactions")) underlying.execute(request)
+        else request.mapper(HttpResponse(
+          status = StatusCodes.NotFound,
+          entity = HttpEntity(ContentTypes.`application/json`, underlying.bodies.get(transactionsPath))
+        ))
+    }
+    tracker.shutdown()
+    val missing = TxConfirmationTracker(CardanoApi(baseUrl, noSuchWallet), settings.withMaxRefreshInterval(20.millis))
+
+    missing.track(wallet.id, "tx1").failed.futureValue shouldBe an[ErrorMessageException]
+    missing.pending shouldBe 0
+    missing.shutdown()
+  }
+
+  it should "time out a transaction which is never confirmed while the tip doesn't move" in {
+    val (_, tracker) = setup(settings.withMaxPendingTime(100.millis).withMaxRefreshInterval(20.millis))
+    tracker.track(wallet.id, "tx1").failed.futureValue shouldBe a[TimeoutException]
+    tracker.shutdown()
+  }
+
+  it should "time out a transaction while its wallet can't be listed" in {
+    val (underlying, tracker) = setup(settings.withMaxPendingTime(100.millis).withMaxRefreshInterval(20.millis))
+    underlying.holds.put(transactionsPath, Promise[Unit]().future)
+    tracker.track(wallet.id, "tx1").failed.futureValue shouldBe a[TimeoutException]
+    tracker.shutdown()
+  }
+
+  it should "follow the node tip again after it failed" in {
+    val (underlying, tracker) = setup()
+    underlying.statuses.put("network/information", StatusCodes.ServiceUnavailable)
+    underlying.bodies.put(transactionsPath, transactions(("tx1", "in_ledger", 3)))
+    val confirmed = tracker.track(wallet.id, "tx1")
+
+    eventually(underlying.callsTo("network/information") should be > 1)
+    confirmed.isCompleted shouldBe false
+    underlying.statuses.remove("network/information")
+
+    confirmed.futureValue.status shouldBe TxState.inLedger
+    tracker.shutdown()
+  }
+}
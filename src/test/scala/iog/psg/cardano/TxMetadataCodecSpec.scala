@@ -163,6 +163,35 @@ class TxMetadataCodecSpec extends AnyFlatSpec with Matchers with DummyModel {
     error.getMessage() shouldBe "Not a Bytes type: DownField(bytes),DownField(0)"
   }
 
+  it should "fail on int defined as a string type in list" in {
+    val jsonWithInvalidTypeField = parser.parse("""{"3":{"list":[{"int":42},{"string":14}]}}""").getOrElse(fail("Invalid json structure"))
+    val tvMeta = TxMetadataOut(jsonWithInvalidTypeField)
+
+    val error = tvMeta.toMetadataMap.swap.getOrElse(fail("Should fail"))
+    error.getMessage() shouldBe "Not a String type: DownField(string)"
+  }
+
+  it should "fail on bytes used as a key in map" in {
+    val jsonWithInvalidTypeField = parser.parse("""{"4":{"map":[{"k":{"bytes":"2512a00e"},"v":{"int":42}}]}}""").getOrElse(fail("Invalid json structure"))
+    val tvMeta = TxMetadataOut(jsonWithInvalidTypeField)
+
+    val error = tvMeta.toMetadataMap.swap.getOrElse(fail("Should fail"))
+    error.getMessage() shouldBe "Invalid key type 'bytes': DownField(4)"
+  }
+
+  it should "decode a single key" in {
+    txMetadataOut.get(1) shouldBe Right(Some(MetadataValueLong(14)))
+    txMetadataOut.get(99) shouldBe Right(None)
+  }
+
+  it should "fail to decode a single invalid key" in {
+    val jsonWithInvalidTypeField = parser.parse("""{"0":{"string":"cardano"},"1":{"superdouble":"cardano"}}""").getOrElse(fail("Invalid json structure"))
+    val tvMeta = TxMetadataOut(jsonWithInvalidTypeField)
+
+    tvMeta.get(0) shouldBe Right(Some(MetadataValueStr("cardano")))
+    tvMeta.get(1).swap.getOrElse(fail("Should fail")).getMessage() shouldBe "Invalid type 'superdouble': DownField(1)"
+  }
+
   "Raw Good TxMetadata" should "be parsed properly" in {
     val asString = txMetadataOut.json.noSpaces
     val Right(rawTxMetaJsonIn) = JsonMetadata.parse(asString)
@@ -1,34 +1,42 @@
 package iog.psg.cardano.experimental.cli
 
+import akka.actor.ActorSystem
+import akka.stream.scaladsl.Sink
 import cats.data.NonEmptyList
 import iog.psg.cardano.experimental.cli.api.Ops.CliApiReqOps
 import iog.psg.cardano.experimental.cli.api._
 import iog.psg.cardano.experimental.cli.command.CardanoCli
-import iog.psg.cardano.experimental.cli.model.{Key, PolicyBuilder, TxIn, TxOut}
-import iog.psg.cardano.experimental.cli.processrunner.{BlockingProcessResult, BlockingProcessRunner}
-import iog.psg.cardano.experimental.cli.util.RandomFolderFactory
+import iog.psg.cardano.experimental.cli.model._
+import iog.psg.cardano.experimental.cli.processrunner._
+import iog.psg.cardano.experimental.cli.util.{ProcessBuilderHelper, RandomFolderFactory}
 import org.scalatest.BeforeAndAfterAll
-import org.scalatest.concurrent.ScalaFutures
+import org.scalatest.concurrent.PatienceConfiguration.Timeout
+import org.scalatest.concurrent.{Eventually, ScalaFutures}
 import org.scalatest.flatspec.AnyFlatSpec
 import org.scalatest.matchers.should.Matchers
+import org.scalatest.time.{Seconds, Span}
 
-import java.nio.file.Files
-import scala.concurrent.duration.{DurationInt, FiniteDuration}
+import java.nio.file.{Files, Path, Paths}
+import scala.concurrent.Future
+import scala.concurrent.duration.{DurationInt, DurationLong, FiniteDuration}
+import scala.jdk.CollectionConverters._
 import scala.sys.process
 import scala.sys.process.ProcessBuilder
 
 
-class CardanoCliApiSpec extends AnyFlatSpec with Matchers with ScalaFutures with BeforeAndAfterAll{
+class CardanoCliApiSpec extends AnyFlatSpec with Matchers with ScalaFutures with Eventually with BeforeAndAfterAll{
 
   val cardanoCli = CardanoCli()
   implicit val networkChooser: NetworkChooser = NetworkChooser.DefaultTestnet
   import concurrent.ExecutionContext.Implicits.global
   val factory = RandomFolderFactory(Files.createTempDirectory("tests"))
   implicit val root = factory.folder
+  implicit val as: ActorSystem = ActorSystem("CardanoCliApiSpec")
 
   override def afterAll(): Unit = {
     super.afterAll()
     factory.close()
+    as.terminate().futureValue
   }
 
   var list: List[String] = List.empty
@@ -161,5 +169,89 @@ class CardanoCliApiSpec extends AnyFlatSpec with Matchers with ScalaFutures with
 
   }
 
+  "utxos" should "parse the lines of the query's output" in {
+    val output = List(
+      "                           TxHash                                 TxIx        Amount",
+      "--------------------------------------------------------------------------------------",
+      s"${"a" * 64}     0        1000000 lovelace + TxOutDatumNone",
+      s"${"b" * 64}     1        2000000 lovelace + 5 ${"c" * 56}.746f6b656e + TxOutDatumNone"
+    )
+    val utxoRunner: AsyncProcessRunner = _ => Future.successful(BlockingProcessResult(0, output, None))
+    val api = CardanoCliApi(cardanoCli)(networkChooser, utxoRunner, global, root)
+    val expected = List(
+      Utxo("a" * 64, 0, 1000000),
+      Utxo("b" * 64, 1, 2000000, List(NativeAsset(AssetId("c" * 56, Base16String("token")), 5)))
+    )
+
+    api.utxos(Address("addr")).runWith(Sink.seq).futureValue shouldBe expected
+    api.utxo(Address("addr")).executeBlockingUnsafe shouldBe expected
+  }
+
+  "utxo" should "fail rather than return the utxos of a truncated output" in {
+    val utxoRunner: AsyncProcessRunner = _ => Future.successful(
+      BlockingProcessResult(0, List("header", "----", s"${"a" * 64}     0        1000000 lovelace"), None, truncated = true)
+    )
+    val api = CardanoCliApi(cardanoCli)(networkChooser, utxoRunner, global, root)
+
+    api.utxo(Address("addr")).execute.failed.futureValue shouldBe a[BlockingProcessResultException]
+  }
+
+  private val fakeCliScript = Paths.get(getClass.getResource("/cli/fake-cardano-cli.sh").toURI).toString
+
+  private def fakeCli(delay: String, log: Option[Path] = None): CardanoCli = CardanoCli(
+    log.fold(ProcessBuilderHelper())(l => ProcessBuilderHelper().withEnv("FAKE_CLI_LOG", l.toString))
+      .withEnv("FAKE_CLI_DELAY", delay)
+      .withCommand("sh")
+      .withCommand(fakeCliScript)
+  )
+
+  "A ProcessHandleRunner" should "run independent commands in parallel and record their latencies" in {
+    val runner = AsyncProcessRunner(AsyncProcessSettings.default.withMaxConcurrentProcesses(4))
+    val api = CardanoCliApi(fakeCli("0.5"))(networkChooser, runner, global, root)
+    val start = System.nanoTime()
+
+    val ids = Future.sequence((1 to 8).map(_ => api.txId(Tx()).execute)).futureValue(Timeout(Span(10, Seconds)))
+
+    ids shouldBe Seq.fill(8)("transaction txid")
+    (System.nanoTime() - start).nanos should be < 3.seconds
+    val stats = runner.stats.command(s"sh $fakeCliScript transaction txid").get
+    stats.commands shouldBe 8
+    stats.failures shouldBe 0
+    stats.run.min should be >= 500.millis
+    stats.queued.max should be >= 400.millis
+    runner.stats.running shouldBe 0
+  }
+
+  it should "start the waiting commands of the highest priority first" in {
+    val log = Files.createTempFile("fake-cardano-cli", ".log")
+    val runner = AsyncProcessRunner(
+      AsyncProcessSettings.default.withMaxConcurrentProcesses(1),
+      priority = process => if (process.command.contains("submit")) 1 else 0
+    )
+    val api = CardanoCliApi(fakeCli("0.5", Some(log)))(networkChooser, runner, global, root)
+
+    val first = api.txId(Tx()).execute
+    eventually(runner.stats.running shouldBe 1)
+    val low = api.txId(Tx()).execute
+    val high = api.submitTx(SignedTx()).execute
+
+    Future.sequence(Seq(first, low, high)).futureValue(Timeout(Span(10, Seconds)))
+    Files.readAllLines(log).asScala.map(_.split(' ').take(2).mkString(" ")) shouldBe
+      Seq("transaction txid", "transaction submit", "transaction txid", "transaction txid")
+    Files.delete(log)
+  }
+
+  "The in process backend" should "hash keys, policies and txs without running cardano-cli" in {
+    val inProcess = sut.withBackend(CliBackend.InProcess)
+    val verificationKey = Key[Verification](
+      """{"type": "PaymentVerificationKeyShelley_ed25519", "description": "Payment Verification Key", "cborHex": "58204b86bc3524f962b72a7dac710876a61c54375be065646c036b184b8f5e92c37e"}"""
+    )
+
+    val keyHash = inProcess.hashKey(verificationKey).executeBlockingUnsafe
+    keyHash shouldBe KeyHash[Verification]("bd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c9092")
+    inProcess.policyId(PolicyBuilder().withSignatureOf(keyHash).build).executeBlockingUnsafe.value should have length 56
+    inProcess.txId(Tx()).executeBlocking.isFailure shouldBe true
+    listShouldBe()
+  }
 
 }
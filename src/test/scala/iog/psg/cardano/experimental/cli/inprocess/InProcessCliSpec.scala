@@ -0,0 +1,112 @@
+package iog.psg.cardano.experimental.cli.inprocess
+
+import cats.data.NonEmptyList
+import iog.psg.cardano.experimental.cli.api.Verification
+import iog.psg.cardano.experimental.cli.model.{KeyHash, Policy}
+import iog.psg.cardano.experimental.cli.util.RandomTempFolder
+import iog.psg.cardano.util.ResourceFiles
+import org.apache.commons.codec.binary.Hex
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Paths}
+
+class InProcessCliSpec extends AnyFlatSpec with Matchers with ResourceFiles {
+
+  private implicit val dummy: RandomTempFolder = RandomTempFolder(null)
+
+  private def resource(file: String): File = Paths.get(getClass.getResource(s"/$file").toURI).toFile
+
+  private def envelope(cborHex: String): File = {
+    val file = Files.createTempFile("envelope", ".json")
+    Files.writeString(file, s"""{"type": "Tx MaryEra", "description": "", "cborHex": "$cborHex"}""")
+    file.toFile.deleteOnExit()
+    file.toFile
+  }
+
+  private def pattern(length: Int): Array[Byte] = Array.tabulate(length)(i => (i % 251).toByte)
+
+  "Blake2b" should "match the RFC 7693 and reference test vectors" in {
+    Hex.encodeHexString(Blake2b.hash("abc".getBytes(StandardCharsets.US_ASCII), 64)) shouldBe
+      "ba80a53f981c4d0d6a2797b69f12f6e94c212f14685ac4b74b12bb6fdbffa2d17d87c5392aab792dc252d5de4533cc9518d38aa8dbf1925ab92386edd4009923"
+    Hex.encodeHexString(Blake2b.blake2b256(Array.emptyByteArray)) shouldBe
+      "0e5751c026e543b2e8ab2eb06099daa1d1e5df47778f7787faab45cdf12fe3a8"
+    Hex.encodeHexString(Blake2b.blake2b224(Array.emptyByteArray)) shouldBe
+      "836cc68931c2e4e3e838602eca1902591d216837bafddfe6f0c8cb07"
+  }
+
+  it should "hash inputs around the block size" in {
+    val expected = Seq(
+      1 -> ("03170a2e7597b7b7e3d84c05391d139a62b157e78786d8c082f29dcf4c111314", "0d94e174732ef9aae73f395ab44507bfa983d65023c11a951f0c32e4"),
+      127 -> ("f2fe67ff342e21b8f45e8f2e0bcd1d9243245d50ee6c78042e9c491388791c72", "afa0454a4a572149b09a845baefef20384539a349933d15c281029ca"),
+      128 -> ("c3582f71ebb2be66fa5dd750f80baae97554f3b015663c8be377cfcb2488c1d1", "f0ca1b2d7e6d603147b07d0560027876df36e2eeca2d7b3d59b47ee2"),
+      129 -> ("f7f3c46ba2564ff4c4c162da1f5b605f9f1c4aa6a20652a9f9a337c1a2f5b9c9", "b2638debd279de80b15faea232f3d25cb73ee0d709d664c57f281d98"),
+      256 -> ("582f782226018ec33076bd8d1c42413530ac7e1126260ffc0f306ba3befc3f24", "ec444fe0a0d9c43200044f483ad270bb77858945b4d69ae581a14d29"),
+      1000 -> ("b372d0608f720c8c3dd41e9c8eecb10143b41abe520b616607e754bf79c08331", "f3a6114aed67a48f455a07184e8094393474b4cd661fd7a4d5fae1c0")
+    )
+    expected.foreach { case (length, (hash256, hash224)) =>
+      Hex.encodeHexString(Blake2b.blake2b256(pattern(length))) shouldBe hash256
+      Hex.encodeHexString(Blake2b.blake2b224(pattern(length))) shouldBe hash224
+    }
+    Hex.encodeHexString(Blake2b.hash(pattern(1010), 10, 1000, 32)) shouldBe
+      Hex.encodeHexString(Blake2b.blake2b256(pattern(1010).slice(10, 1010)))
+  }
+
+  "keyHash" should "match the key hash cardano-cli computed for the verification key" in {
+    // the policy fixture was written with the hash cardano-cli gave for the key fixture
+    InProcessCli.keyHash(resource("cli/verification-key-file.json")) shouldBe
+      "bd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c9092"
+  }
+
+  "txId" should "hash the body of a signed tx and of a tx body" in {
+    val signed = txRawContent.trim
+    val txId = "e58f7352bf00690d21a10c96773a7d5a5fc1bc96d16e84eaf38332028ac5df1d"
+    InProcessCli.txId(envelope(signed)) shouldBe txId
+
+    val bodyEnd = Cbor.itemEnd(Hex.decodeHex(signed), 1)
+    val body = signed.substring(2, bodyEnd * 2)
+    body shouldBe "a400818258202558aad25ec6b0e74009f36dc60d7fec6602ce43d603e80c9edde9dd54c78eb400018182581d60c5fb" +
+      "57853a4a5bbb13bcd494ee0facd4e1fca33720a640664df151341a00895440021a000f4240031a000cb2a3"
+    InProcessCli.txId(envelope("83" + body + "80f6")) shouldBe txId
+    InProcessCli.txId(envelope(body)) shouldBe txId
+  }
+
+  it should "fail on a file which isn't a text envelope" in {
+    val notEnvelope = Files.createTempFile("tx", ".raw")
+    Files.writeString(notEnvelope, txRawContent)
+    an[InProcessCli.TextEnvelopeException] shouldBe thrownBy(InProcessCli.txId(notEnvelope.toFile))
+    an[Cbor.CborException] shouldBe thrownBy(InProcessCli.txId(envelope(txRawContent.trim.dropRight(10))))
+    Files.delete(notEnvelope)
+  }
+
+  "policyId" should "hash the policy's native script" in {
+    val multiSig = Policy.fromString(getFileContent("cli/all-multi-sig-script.json")).getOrElse(fail())
+    Hex.encodeHexString(InProcessCli.nativeScript(multiSig)) shouldBe
+      "8201828200581cbd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c90928200581cbd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c9092"
+    InProcessCli.policyId(multiSig) shouldBe "6524b96fb07d6721213662914b20a27abd2fefaf5fa5311dbd4c353c"
+
+    val timeLock = Policy.fromString(getFileContent("cli/time-lock-script.json")).getOrElse(fail())
+    Hex.encodeHexString(InProcessCli.nativeScript(timeLock)) shouldBe
+      "8201828200581cbd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c909282051a02faf07f"
+    InProcessCli.policyId(timeLock) shouldBe "dc9f285bd94e8702beca2c6e361aafdcf2315f7688ffc2bae28f9368"
+
+    val keyHash = KeyHash[Verification]("bd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c9092")
+    val bounded = Policy(
+      NonEmptyList.of(Policy.Script.Signature(keyHash), Policy.Script.Bound(56894689, after = true), Policy.Script.Bound(1000, after = false)),
+      Policy.Kind.AtLeast(1)
+    )
+    Hex.encodeHexString(InProcessCli.nativeScript(bounded)) shouldBe
+      "830301838200581cbd2354205c1dfc042cee95ec8e47d82229635e391bd8d902a32c909282041a036424e182051903e8"
+    InProcessCli.policyId(bounded) shouldBe "54b0771cb41ec9a5afc1e13e793b977e3a54eb38c20997b2a0f29380"
+  }
+
+  "Cbor" should "find the end of indefinite length items" in {
+    // [_ 1, [2, 3], h'01', {_ 1: 2}], 0
+    val bytes = Hex.decodeHex("9f018202034101bf0102ffff00")
+    Cbor.itemEnd(bytes, 0) shouldBe bytes.length - 1
+    Cbor.firstItem(bytes, 0) shouldBe 1
+    an[Cbor.CborException] shouldBe thrownBy(Cbor.itemEnd(bytes.dropRight(2), 0))
+  }
+}
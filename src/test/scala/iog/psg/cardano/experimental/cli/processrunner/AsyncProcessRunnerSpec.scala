@@ -0,0 +1,121 @@
+package iog.psg.cardano.experimental.cli.processrunner
+
+import akka.actor.ActorSystem
+import akka.stream.scaladsl.Sink
+import iog.psg.cardano.experimental.cli.processrunner.Ops._
+import iog.psg.cardano.experimental.cli.util.ProcessBuilderHelper
+import iog.psg.cardano.util.CustomPatienceConfiguration
+import org.scalatest.BeforeAndAfterAll
+import org.scalatest.concurrent.ScalaFutures
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.util.concurrent.atomic.AtomicInteger
+import scala.concurrent.{BlockContext, CanAwait, ExecutionContext, Future}
+import scala.concurrent.duration._
+
+class AsyncProcessRunnerSpec
+  extends AnyFlatSpec
+    with Matchers
+    with ScalaFutures
+    with CustomPatienceConfiguration
+    with BeforeAndAfterAll {
+
+  private implicit val as: ActorSystem = ActorSystem("AsyncProcessRunnerSpec")
+  import as.dispatcher
+
+  val ls = "ls"
+  val nonExistentFile = "THISWILLNOTEXISTINTHEROOTFOLDER"
+
+  val goodListing = ProcessBuilderHelper(command = Vector(ls))
+  val badListing = ProcessBuilderHelper(command = Vector(ls, nonExistentFile))
+
+  val runner = AsyncProcessRunner()
+
+  private def shell(script: String) = ProcessBuilderHelper(command = Vector("sh", "-c", script))
+
+  "A successful ls process" should "return a list of files" in {
+    runner(goodListing).futureValue.toEitherProcessResult should matchPattern {
+      case Right(BlockingProcessResult(0, result, None, false)) if result.nonEmpty =>
+    }
+  }
+
+  "An unsuccessful ls process" should "return an error and some error info" in {
+    runner(badListing).futureValue.as[Unit] should matchPattern {
+      case Left(BlockingProcessResultException(result)) if result.exitValue != 0 && result.errors.nonEmpty =>
+    }
+  }
+
+  "A process" should "see the helper's environment" in {
+    val echo = shell("echo $PSG_TEST_VALUE").withEnv("PSG_TEST_VALUE", "psg")
+    runner(echo).futureValue.asUnsafe[List[String]] shouldBe List("psg")
+  }
+
+  it should "be killed when it runs for longer than the timeout" in {
+    val timingOut = AsyncProcessRunner(AsyncProcessSettings.default.withTimeout(200.millis))
+
+    timingOut(shell("sleep 30")).failed.futureValue shouldBe ProcessTimeoutException("sh -c sleep 30", 200.millis)
+  }
+
+  "The runner" should "queue processes over the concurrency limit" in {
+    val limited = AsyncProcessRunner(AsyncProcessSettings.default.withMaxConcurrentProcesses(2))
+    val start = System.nanoTime()
+
+    val results = Future.sequence((1 to 4).map(i => limited(shell(s"sleep 0.5; echo $i")))).futureValue
+
+    results.map(_.asUnsafe[String]) shouldBe Seq("1", "2", "3", "4")
+    (System.nanoTime() - start).nanos should be >= 1.second
+  }
+
+  it should "keep the first lines of a process' output" in {
+    val retaining = AsyncProcessRunner(AsyncProcessSettings.default.withMaxRetainedLines(2))
+    retaining(shell("seq 1 5")).futureValue shouldBe
+      BlockingProcessResult(0, List("1", "2"), Some(List("3 lines of output dropped after the first 2")), truncated = true)
+  }
+
+  it should "read the output of a process as blocking" in {
+    val blockingCalls = new AtomicInteger()
+    val recording = new BlockContext {
+      override def blockOn[T](thunk: => T)(implicit permission: CanAwait): T = {
+        blockingCalls.incrementAndGet()
+        thunk
+      }
+    }
+    val recordingContext = new ExecutionContext {
+      override def execute(runnable: Runnable): Unit =
+        as.dispatcher.execute(() => BlockContext.withBlockContext(recording)(runnable.run()))
+      override def reportFailure(cause: Throwable): Unit = as.dispatcher.reportFailure(cause)
+    }
+
+    AsyncProcessRunner()(recordingContext)(shell("seq 1 5")).futureValue.asUnsafe[List[String]] shouldBe
+      (1 to 5).map(_.toString).toList
+    blockingCalls.get() should be > 0
+  }
+
+  "The lines of a process" should "be emitted while it runs" in {
+    val firstLine = runner.lines(shell("echo first; sleep 30")).runWith(Sink.head)
+    firstLine.futureValue shouldBe "first"
+  }
+
+  they should "all be emitted before the stream completes" in {
+    runner.lines(shell("seq 1 5000")).runWith(Sink.seq).futureValue shouldBe (1 to 5000).map(_.toString)
+  }
+
+  they should "fail the stream when the process fails" in {
+    runner.lines(badListing).runWith(Sink.seq).failed.futureValue should matchPattern {
+      case BlockingProcessResultException(BlockingProcessResult(exitValue, Nil, Some(_), false)) if exitValue != 0 =>
+    }
+  }
+
+  they should "kill the process when the stream is cancelled" in {
+    val single = AsyncProcessRunner(AsyncProcessSettings.default.withMaxConcurrentProcesses(1))
+    single.lines(shell("yes")).take(3).runWith(Sink.seq).futureValue shouldBe Seq("y", "y", "y")
+    single(goodListing).futureValue.exitValue shouldBe 0
+  }
+
+  override def afterAll(): Unit = {
+    as.terminate().futureValue
+    super.afterAll()
+  }
+
+}
@@ -15,7 +15,7 @@ class BlockingProcessRunnerSpec extends AnyFlatSpec with Matchers {
 
   "A successful ls process" should "return a list of files" in {
     BlockingProcessRunner(goodListing.processBuilder).toEitherProcessResult should matchPattern {
-      case Right (BlockingProcessResult(0, result, None)) if result.nonEmpty =>
+      case Right (BlockingProcessResult(0, result, None, false)) if result.nonEmpty =>
     }
   }
 
@@ -51,4 +51,17 @@ class BlockingProcessRunnerSpec extends AnyFlatSpec with Matchers {
     }
   }
 
+  "A process with a lot of output" should "keep the first lines and report how many were dropped" in {
+    val counting = ProcessBuilderHelper(command = Vector("seq", "1", "10"))
+    BlockingProcessRunner(maxRetainedLines = 3)(counting.processBuilder) shouldBe
+      BlockingProcessResult(0, List("1", "2", "3"), Some(List("7 lines of output dropped after the first 3")), truncated = true)
+  }
+
+  it should "not be a success once its output is truncated" in {
+    val counting = ProcessBuilderHelper(command = Vector("seq", "1", "10"))
+    BlockingProcessRunner(maxRetainedLines = 3)(counting.processBuilder).as[List[String]] should matchPattern {
+      case Left(BlockingProcessResultException(result)) if result.truncated =>
+    }
+  }
+
 }
@@ -0,0 +1,78 @@
+package iog.psg.cardano.experimental.cli.util
+
+import cats.data.NonEmptyList
+import iog.psg.cardano.experimental.cli.api.Ops._
+import iog.psg.cardano.experimental.cli.api.{Signing, Verification}
+import iog.psg.cardano.experimental.cli.model.{Key, KeyHash, Policy}
+import org.scalatest.flatspec.AnyFlatSpec
+import org.scalatest.matchers.should.Matchers
+
+import java.nio.file.attribute.PosixFilePermissions
+import java.nio.file.{Files, Path}
+
+class RandomFolderFactorySpec extends AnyFlatSpec with Matchers {
+
+  private def policy(keyHash: String)(implicit folder: RandomTempFolder): Policy =
+    Policy(NonEmptyList.of(Policy.Script.Signature(KeyHash[Verification](keyHash))), Policy.Kind.All)
+
+  "The random backend" should "write every input file" in {
+    val factory = RandomFolderFactory(Files.createTempDirectory("random"))
+    implicit val folder: RandomTempFolder = factory.folder
+
+    val first = policy("a")
+    val second = policy("a")
+    first.file should not be second.file
+    first.file.read shouldBe first.content
+    val output = Key[Signing]()
+    output.file.exists() shouldBe false
+
+    factory.stats shouldBe FileBackendStats(
+      filesCreated = 1,
+      filesWritten = 2,
+      bytesWritten = 2L * first.content.length,
+      filesReused = 0,
+      filesDeleted = 0
+    )
+    factory.close()
+    factory.stats.filesDeleted shouldBe 2
+    folder.value.toFile.exists() shouldBe false
+  }
+
+  "The content addressed backend" should "write identical contents once" in {
+    val factory = RandomFolderFactory(Files.createTempDirectory("addressed"), FileBackend.ContentAddressed)
+    implicit val folder: RandomTempFolder = factory.folder
+
+    val files = Seq(policy("a"), policy("a"), policy("b")).map(_.file)
+    files(0) shouldBe files(1)
+    files(0) should not be files(2)
+    Key[Verification]("key").file.read shouldBe "key"
+    Key[Verification]("key").file shouldBe Key[Verification]("key").file
+
+    val stats = factory.stats
+    stats.filesWritten shouldBe 3
+    stats.filesReused shouldBe 3
+    stats.bytesWritten shouldBe files.distinct.map(_.length()).sum + "key".length
+    factory.close()
+    factory.stats.filesDeleted shouldBe 3
+  }
+
+  "An in memory factory" should "create its folders under a temporary root" in {
+    val factory = RandomFolderFactory.inMemory()
+    implicit val folder: RandomTempFolder = factory.folder
+    policy("a").file.exists() shouldBe true
+    folder.backend shouldBe FileBackend.ContentAddressed
+    folder.value.getParent.getFileName.toString shouldBe s"cardano-cli-${System.getProperty("user.name")}"
+    factory.close()
+  }
+
+  it should "only let its owner read the folders and the files written" in {
+    val factory = RandomFolderFactory.inMemory()
+    implicit val folder: RandomTempFolder = factory.folder
+    def permissions(path: Path) = PosixFilePermissions.toString(Files.getPosixFilePermissions(path))
+
+    permissions(folder.value.getParent) shouldBe "rwx------"
+    permissions(folder.value) shouldBe "rwx------"
+    permissions(Key[Signing]("key").file.toPath) shouldBe "rw-------"
+    factory.close()
+  }
+}
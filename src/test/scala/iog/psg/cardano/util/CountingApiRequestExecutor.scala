@@ -0,0 +1,58 @@
+package iog.psg.cardano.util
+
+import akka.actor.ActorSystem
+import akka.http.scaladsl.model.{ContentTypes, HttpEntity, HttpResponse, StatusCode, StatusCodes}
+import akka.pattern.{after => delayed}
+import iog.psg.cardano.ApiRequestExecutor
+import iog.psg.cardano.CardanoApi.{CardanoApiRequest, CardanoApiResponse}
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import scala.concurrent.duration.{Duration, FiniteDuration}
+import scala.concurrent.{ExecutionContext, Future}
+
+/**
+ * Answers with the status or the body set for the request's path (after `/v2/`), or a 404, and counts
+ * the requests which reach it. Requests to a path in `holds` are answered once its future completes.
+ *
+ * @param delay time taken to answer each request
+ */
+class CountingApiRequestExecutor(delay: FiniteDuration = Duration.Zero) extends ApiRequestExecutor {
+
+  val bodies = new ConcurrentHashMap[String, String]()
+  val statuses = new ConcurrentHashMap[String, StatusCode]()
+  val holds = new ConcurrentHashMap[String, Future[Unit]]()
+  private val calls = new ConcurrentHashMap[String, AtomicInteger]()
+  private val inFlight = new AtomicInteger()
+  private val maxInFlightSeen = new AtomicInteger()
+
+  def callsTo(path: String): Int =
+    calls.computeIfAbsent(path, _ => new AtomicInteger()).get()
+
+  /**
+   * @return the most requests seen in flight at once
+   */
+  def maxInFlight: Int = maxInFlightSeen.get()
+
+  override def execute[T](request: CardanoApiRequest[T])(implicit ec: ExecutionContext, as: ActorSystem): Future[CardanoApiResponse[T]] = {
+    val path = request.request.uri.path.toString.stripPrefix("/v2/")
+    calls.computeIfAbsent(path, _ => new AtomicInteger()).incrementAndGet()
+    val response = (Option(statuses.get(path)), Option(bodies.get(path))) match {
+      case (Some(status), _) => HttpResponse(
+        status = status,
+        entity = HttpEntity(ContentTypes.`application/json`, s"""{"message":"${status.reason}","code":"${status.intValue}"}""")
+      )
+      case (None, Some(body)) => HttpResponse(entity = HttpEntity(ContentTypes.`application/json`, body))
+      case _ => HttpResponse(
+        status = StatusCodes.NotFound,
+        entity = HttpEntity(ContentTypes.`application/json`, """{"message":"Not found","code":"not_found"}""")
+      )
+    }
+    maxInFlightSeen.accumulateAndGet(inFlight.incrementAndGet(), (a, b) => math.max(a, b))
+    val held = Option(holds.get(path)).getOrElse(Future.unit)
+    val result =
+      if (delay == Duration.Zero) held.flatMap(_ => request.mapper(response))
+      else held.flatMap(_ => delayed(delay)(request.mapper(response)))
+    result.andThen { case _ => inFlight.decrementAndGet() }
+  }
+}
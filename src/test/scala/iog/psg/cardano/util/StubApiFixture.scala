@@ -0,0 +1,38 @@
+package iog.psg.cardano.util
+
+import akka.actor.ActorSystem
+import org.scalatest.concurrent.ScalaFutures
+import org.scalatest.{BeforeAndAfterAll, Suite}
+
+import scala.concurrent.ExecutionContext
+import scala.concurrent.duration.{Duration, FiniteDuration}
+
+/**
+ * An actor system for the spec, terminated after it, and [[CountingApiRequestExecutor]]s standing in for a
+ * wallet at `baseUrl`.
+ */
+trait StubApiFixture extends ScalaFutures with ResourceFiles with CustomPatienceConfiguration with BeforeAndAfterAll {
+  self: Suite =>
+
+  implicit lazy val as: ActorSystem = ActorSystem(getClass.getSimpleName)
+  implicit lazy val ec: ExecutionContext = as.dispatcher
+
+  val baseUrl = "http://localhost:8090/v2/"
+
+  lazy val networkInfoJson: String = getJsonFromFile("netinfo.json")
+
+  /**
+   * @param delay time taken to answer each request
+   * @param bodies the body answered for each path (after `/v2/`)
+   */
+  def stubExecutor(delay: FiniteDuration = Duration.Zero)(bodies: (String, String)*): CountingApiRequestExecutor = {
+    val executor = new CountingApiRequestExecutor(delay)
+    bodies.foreach { case (path, body) => executor.bodies.put(path, body) }
+    executor
+  }
+
+  override def afterAll(): Unit = {
+    as.terminate().futureValue
+    super.afterAll()
+  }
+}